@@ -93,7 +93,16 @@ class JvmConfig:
                     out.writelines(lines)
 
     def build_and_start_jvm(self, maven_dir: str, code_dir: str, root_package: str,
-                            jvm_path=None):
+                            jvm_path=None, incremental: bool = True,
+                            include_packages: List[str] = (), exclude_packages: List[str] = ()):
+        """
+        :param incremental: only generate again the wrappers of packages whose classes changed since the last
+         generation in code_dir. Files are only written if their content changes.
+        :param include_packages: generate wrappers only for those packages and their subpackages, and for the classes
+         reachable from them through public methods and constructors. All packages if empty.
+        :param exclude_packages: packages and subpackages to never generate wrappers for. Hints refer to their classes
+         as Any.
+        """
         # Needs to be done here to work with setuptools setup_requires
         # (otherwise imported before that line is even read)
         import jpype
@@ -104,7 +113,8 @@ class JvmConfig:
         pom_path = os.path.join(maven_dir, 'pom.xml')
 
         self._generate_full_pom(pom_path)
-        maven_completion = subprocess.run(['mvn', '-DskipTests=true', 'assembly:assembly'],
+        # the assembly is part of the package phase, followed by the training run for class data sharing
+        maven_completion = subprocess.run(['mvn', '-DskipTests=true', 'package'],
                                           cwd=maven_dir)
 
         maven_completion.check_returncode()
@@ -124,7 +134,9 @@ class JvmConfig:
         PyiUtils = jpype.JClass('org.matsim.contrib.pythonmatsim.typehints.PyiUtils')
 
         try:
-            PyiUtils.generatePythonWrappers(code_dir, root_package)
+            PyiUtils.generatePythonWrappers(code_dir, root_package, incremental,
+                                            jpype.JArray(jpype.JString)(list(include_packages)),
+                                            jpype.JArray(jpype.JString)(list(exclude_packages)))
         except jpype.JException as e:
             print(e.message())
             print(e.stacktrace())
@@ -160,8 +172,12 @@ class JavaAdapterCodeGenerationCommand(setuptools.Command):
     description = 'generate Python code wrapping Java code'
     user_options = [
         ('additional-repositories=', 'r', 'semicolon-separated (;) additional buildutils repositories in format id:url'),
-        ('additional-dependencies=', 'd', 'semicolon-separated (;) additional buildutils dependencies in format group_id:artifact_id:version')
+        ('additional-dependencies=', 'd', 'semicolon-separated (;) additional buildutils dependencies in format group_id:artifact_id:version'),
+        ('clean-wrappers', 'c', 'generate all wrappers again, instead of only those of packages that changed'),
+        ('include-packages=', 'i', 'semicolon-separated (;) packages to generate wrappers for, with the classes they refer to. All if empty'),
+        ('exclude-packages=', 'x', 'semicolon-separated (;) packages not to generate wrappers for')
     ]
+    boolean_options = ['clean-wrappers']
 
     def initialize_options(self):
         """Set default values for options."""
@@ -169,10 +185,15 @@ class JavaAdapterCodeGenerationCommand(setuptools.Command):
         # Each user option must be listed here with their default value.
         self.additional_repositories = ''
         self.additional_dependencies = ''
+        self.clean_wrappers = False
+        self.include_packages = ''
+        self.exclude_packages = ''
 
     def finalize_options(self):
         self._dependencies = self._explode_option_list(self.additional_dependencies)
         self._repositories = self._explode_option_list(self.additional_repositories)
+        self._include_packages = [p for p in self.include_packages.split(';') if len(p) > 0]
+        self._exclude_packages = [p for p in self.exclude_packages.split(';') if len(p) > 0]
 
     def _explode_option_list(self, option: str) -> List[Tuple[str]]:
         if len(option) == 0:
@@ -189,24 +210,27 @@ class JavaAdapterCodeGenerationCommand(setuptools.Command):
             # TODO: allow infered group_id and version
             add_dependency(group_id=group_id, artifact_id=artifact_id, version=version)
 
-        shutil.rmtree('javawrappers', ignore_errors=True)
+        if self.clean_wrappers:
+            shutil.rmtree('javawrappers', ignore_errors=True)
 
         with tempfile.TemporaryDirectory() as tmp:
             maven_dir = os.path.join(tmp, 'maven')
-            java_gen_dir = os.path.join(tmp, 'codegen')
             os.mkdir(maven_dir)
+            # generated in place, so that only packages of changed jars are generated again
             build_and_start_jvm(maven_dir,
-                                java_gen_dir,
-                                'javawrappers')
-
-            shutil.move(os.path.join(java_gen_dir, 'javawrappers'), 'javawrappers')
+                                '.',
+                                'javawrappers',
+                                incremental=not self.clean_wrappers,
+                                include_packages=self._include_packages,
+                                exclude_packages=self._exclude_packages)
 
             shutil.rmtree('javaresources', ignore_errors=True)
             os.mkdir('javaresources')
             open(os.path.join('javaresources', '__init__.py'), 'a').close()
             target_dir = os.path.join(maven_dir, 'target')
             for f in os.listdir(target_dir):
-                if f.endswith('jar-with-dependencies.jar'):
+                # the class list only exists when built with Java 11 or later
+                if f.endswith('jar-with-dependencies.jar') or f.endswith('.classlist'):
                     shutil.copy(
                         os.path.join(target_dir, f),
                         'javaresources')
@@ -0,0 +1,102 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BufferBenchmark.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.benchmarks;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.events.ColumnarEventBufferEncoder;
+import org.matsim.contrib.pythonmatsim.events.CompactEventBufferEncoder;
+import org.matsim.contrib.pythonmatsim.events.ProtoEventBufferEncoder;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferDecoder;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and serializing a whole buffer from the event mix, and of decoding it back, per buffer size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int bufferSize;
+
+    private Event[] events;
+    private byte[] serialized;
+
+    private final ProtoEventBufferEncoder protoEncoder = new ProtoEventBufferEncoder();
+    private final CompactEventBufferEncoder compactEncoder = new CompactEventBufferEncoder();
+    private final ColumnarEventBufferEncoder columnarEncoder = new ColumnarEventBufferEncoder();
+    private final EventBufferDecoder decoder = new EventBufferDecoder();
+
+    @Setup
+    public void setup() {
+        events = EventMix.generate(bufferSize).toArray(new Event[0]);
+        serialized = buildMessageAndSerialize();
+    }
+
+    /**
+     * The way buffers were built before direct wire encoding: one message per event, then the whole buffer.
+     */
+    @Benchmark
+    public byte[] buildMessageAndSerialize() {
+        final EventBufferOuterClass.EventBuffer.Builder buffer = EventBufferOuterClass.EventBuffer.newBuilder();
+        for (Event event : events) {
+            buffer.addEvent(Event2ProtoEvent.getProtoEvent(event));
+        }
+        return buffer.setWindowStart(events[0].getTime()).setWindowEnd(events[events.length - 1].getTime())
+                .build().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] protoEncoder() {
+        for (Event event : events) {
+            protoEncoder.addEvent(event);
+        }
+        return protoEncoder.flush(events[0].getTime(), events[events.length - 1].getTime());
+    }
+
+    @Benchmark
+    public byte[] compactEncoder() {
+        for (Event event : events) {
+            compactEncoder.addEvent(event);
+        }
+        return compactEncoder.flush(events[0].getTime(), events[events.length - 1].getTime());
+    }
+
+    @Benchmark
+    public byte[] columnarEncoder() {
+        for (Event event : events) {
+            columnarEncoder.addEvent(event);
+        }
+        return columnarEncoder.flush(events[0].getTime(), events[events.length - 1].getTime());
+    }
+
+    @Benchmark
+    public Event[] decode() throws InvalidProtocolBufferException {
+        return decoder.decode(serialized);
+    }
+}
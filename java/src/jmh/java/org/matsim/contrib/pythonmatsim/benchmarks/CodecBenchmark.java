@@ -0,0 +1,112 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CodecBenchmark.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.benchmarks;
+
+import com.google.protobuf.CodedOutputStream;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.IdResolver;
+import org.matsim.contrib.pythonmatsim.protobuf.ProtoEvent2Event;
+import org.matsim.contrib.pythonmatsim.protobuf.ProtobufEvents;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting single events, per event type, in both directions.
+ * "genericEvent" measures the fallback for event classes without dedicated encoder, through their typed getters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int EVENT_COUNT = 1024;
+
+    @Param({"linkEnter", "linkLeave", "actEnd", "actStart", "personDeparture", "personArrival",
+            "personEntersVehicle", "vehicleEntersTraffic", "genericEvent"})
+    public String eventType;
+
+    private Event[] events;
+    private ProtobufEvents.Event[] protoEvents;
+    private byte[] scratch;
+    private IdResolver ids;
+
+    @Setup
+    public void setup() {
+        final List<Event> list = EventMix.generateOfType(eventType, EVENT_COUNT);
+        events = list.toArray(new Event[0]);
+        protoEvents = new ProtobufEvents.Event[EVENT_COUNT];
+        int size = 0;
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            protoEvents[i] = Event2ProtoEvent.getProtoEvent(events[i]);
+            size += CodedOutputStream.computeMessageSize(1, protoEvents[i]);
+        }
+        scratch = new byte[size];
+        ids = IdResolver.createCache();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void encodeMessage(Blackhole bh) {
+        for (Event event : events) {
+            bh.consume(Event2ProtoEvent.getProtoEvent(event));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void encodeMessageToByteArray(Blackhole bh) {
+        for (Event event : events) {
+            bh.consume(Event2ProtoEvent.getProtoEvent(event).toByteArray());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public int encodeWire() throws IOException {
+        final CodedOutputStream out = CodedOutputStream.newInstance(scratch);
+        for (Event event : events) {
+            Event2ProtoEvent.writeEvent(1, event, out);
+        }
+        return out.spaceLeft();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void decode(Blackhole bh) {
+        for (ProtobufEvents.Event protoEvent : protoEvents) {
+            bh.consume(ProtoEvent2Event.getEvent(protoEvent));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void decodeWithIdCache(Blackhole bh) {
+        for (ProtobufEvents.Event protoEvent : protoEvents) {
+            bh.consume(ProtoEvent2Event.getEvent(protoEvent, ids));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventMix.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.benchmarks;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the events of a synthetic day, with the proportions of a typical car-only MATSim run: each trip is an
+ * activity end, a departure, entering the vehicle and traffic, a route of 5 to 40 links, and the symmetric events
+ * at arrival. Link events hence make up most of the stream. A small fraction of trips also produces a custom event,
+ * which goes through the generic event fallback.
+ *
+ * Generation only depends on the seed, so that results are comparable across versions.
+ */
+public final class EventMix {
+    public static final long SEED = 20190901;
+
+    private static final int LINK_COUNT = 20_000;
+    private static final String[] ACTIVITY_TYPES = {"home", "work", "education", "shop", "leisure"};
+    private static final String[] MODES = {"car", "car", "car", "freight"};
+
+    private EventMix() {}
+
+    public static List<Event> generate(int count) {
+        return generate(count, SEED);
+    }
+
+    /**
+     * @return count events, ordered by time
+     */
+    public static List<Event> generate(int count, long seed) {
+        final Random random = new Random(seed);
+        final List<Id<Link>> links = new ArrayList<>(LINK_COUNT);
+        for (int i = 0; i < LINK_COUNT; i++) {
+            links.add(Id.createLinkId(Integer.toString(100_000 + i)));
+        }
+
+        final List<Event> events = new ArrayList<>(count + 100);
+        for (int agent = 0; events.size() < count; agent++) {
+            final Id<Person> person = Id.createPersonId(Integer.toString(1_000_000 + agent));
+            final Id<Vehicle> vehicle = Id.createVehicleId(person.toString());
+            final String mode = MODES[random.nextInt(MODES.length)];
+
+            double time = 6 * 3600 + random.nextDouble() * 4 * 3600;
+            Id<Link> link = links.get(random.nextInt(LINK_COUNT));
+            String activity = "home";
+            final int tripCount = 2 + random.nextInt(3);
+            for (int trip = 0; trip < tripCount; trip++) {
+                events.add(new ActivityEndEvent(time, person, link, null, activity));
+                events.add(new PersonDepartureEvent(time, person, link, mode));
+                events.add(new PersonEntersVehicleEvent(time, person, vehicle));
+                events.add(new VehicleEntersTrafficEvent(time, person, link, vehicle, mode, 1.0));
+                if (random.nextInt(100) == 0) {
+                    events.add(new CustomEvent(time, person, link, random.nextInt(600)));
+                }
+
+                final int routeLength = 5 + random.nextInt(36);
+                for (int i = 0; i < routeLength; i++) {
+                    events.add(new LinkLeaveEvent(time, vehicle, link));
+                    link = links.get(random.nextInt(LINK_COUNT));
+                    events.add(new LinkEnterEvent(time, vehicle, link));
+                    time += 5 + random.nextDouble() * 55;
+                }
+
+                activity = trip == tripCount - 1 ? "home" : ACTIVITY_TYPES[1 + random.nextInt(ACTIVITY_TYPES.length - 1)];
+                events.add(new VehicleLeavesTrafficEvent(time, person, link, vehicle, mode, 1.0));
+                events.add(new PersonLeavesVehicleEvent(time, person, vehicle));
+                events.add(new PersonArrivalEvent(time, person, link, mode));
+                events.add(new ActivityStartEvent(time, person, link, null, activity));
+                time += 1800 + random.nextDouble() * 6 * 3600;
+            }
+        }
+
+        // stable sort, so that the events of an agent at the same time stay in order
+        events.sort(Comparator.comparingDouble(Event::getTime));
+        return new ArrayList<>(events.subList(0, count));
+    }
+
+    /**
+     * @param protoEventType for instance "linkEnter", or "genericEvent" for events without dedicated encoder
+     * @return count events of the given type, taken from a mix as large as needed
+     */
+    public static List<Event> generateOfType(String protoEventType, int count) {
+        for (int mixSize = count; ; mixSize *= 4) {
+            final List<Event> events = generate(mixSize).stream()
+                    .filter(e -> Event2ProtoEvent.getProtoEventType(e.getClass()).equals(protoEventType))
+                    .limit(count)
+                    .collect(Collectors.toList());
+            if (events.size() == count) return events;
+            if (mixSize > 100 * count) throw new IllegalArgumentException("no events of type "+protoEventType+" in the mix");
+        }
+    }
+
+    /**
+     * Event of a type unknown to the converters, as contribs produce them. Public with typed getters, so that it is
+     * sent as typed values.
+     */
+    public static class CustomEvent extends Event {
+        private final Id<Person> person;
+        private final Id<Link> link;
+        private final int searchTime;
+
+        public CustomEvent(double time, Id<Person> person, Id<Link> link, int searchTime) {
+            super(time);
+            this.person = person;
+            this.link = link;
+            this.searchTime = searchTime;
+        }
+
+        @Override
+        public String getEventType() {
+            return "parkingSearch";
+        }
+
+        public Id<Person> getPersonId() {
+            return person;
+        }
+
+        public Id<Link> getLinkId() {
+            return link;
+        }
+
+        public int getSearchTime() {
+            return searchTime;
+        }
+
+        @Override
+        public Map<String, String> getAttributes() {
+            final Map<String, String> attributes = super.getAttributes();
+            attributes.put("person", person.toString());
+            attributes.put("link", link.toString());
+            attributes.put("searchTime", Integer.toString(searchTime));
+            return attributes;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * SenderBenchmark.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.benchmarks;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.events.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per event of going through {@link BufferedProtocolBufferSender}, including filtering, encoding and flushing,
+ * per buffer size and message format. The listener does nothing, so this is the overhead on the mobsim thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SenderBenchmark {
+    private static final int EVENT_COUNT = 100_000;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int bufferSize;
+
+    @Param({"proto", "compact", "columnar"})
+    public String format;
+
+    private Event[] events;
+    private BufferedProtocolBufferSender sender;
+    private int iteration = 0;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        events = EventMix.generate(EVENT_COUNT).toArray(new Event[0]);
+        sender = new BufferedProtocolBufferSender(bufferSize, EventTypeFilter.acceptAll(), createEncoder(format),
+                new BufferedProtocolBufferSender.Listener() {
+                    @Override
+                    public void handleEventBuffer(byte[] buffer) {
+                        bh.consume(buffer);
+                    }
+
+                    @Override
+                    public void reset(int iteration) {
+                    }
+                });
+    }
+
+    private static EventBufferEncoder createEncoder(String format) {
+        switch (format) {
+            case "proto":
+                return new ProtoEventBufferEncoder();
+            case "compact":
+                return new CompactEventBufferEncoder();
+            case "columnar":
+                return new ColumnarEventBufferEncoder();
+            default:
+                throw new IllegalArgumentException("unknown format "+format);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void handleEvents() {
+        sender.reset(iteration++);
+        for (Event event : events) {
+            sender.handleEvent(event);
+        }
+        sender.flush();
+    }
+}
@@ -0,0 +1,116 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BinnedValues.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Values per key and time bin, stored in one primitive array per key. Keys are dense integer indices, typically
+ * {@link org.matsim.api.core.v01.Id#index()}, and arrays grow as needed.
+ */
+class BinnedValues {
+    private static final double[] EMPTY = new double[0];
+
+    private double[][] values = new double[16][];
+    private String[] keys = new String[16];
+    // only used for keys that are plain strings
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+
+    void add(int keyIndex, Object key, int bin, double value) {
+        final double[] row = row(keyIndex, key, bin);
+        row[bin] += value;
+    }
+
+    void add(String key, int bin, double value) {
+        Integer index = stringIndices.get(key);
+        if (index == null) {
+            index = stringIndices.size();
+            stringIndices.put(key, index);
+        }
+        add(index, key, bin, value);
+    }
+
+    double get(int keyIndex, int bin) {
+        if (keyIndex >= values.length || values[keyIndex] == null || bin >= values[keyIndex].length) return 0;
+        return values[keyIndex][bin];
+    }
+
+    int getKeyCount() {
+        return values.length;
+    }
+
+    /**
+     * @return the key of the given index, or null if it has no value at all
+     */
+    String getKey(int keyIndex) {
+        return keys[keyIndex];
+    }
+
+    boolean hasValues(int keyIndex, int fromBin, int toBin) {
+        final double[] row = values[keyIndex];
+        if (row == null) return false;
+        for (int bin = fromBin; bin < Math.min(toBin, row.length); bin++) {
+            if (row[bin] != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds one series per key with non-zero values in bins [fromBin, toBin), with the values of the bins.
+     */
+    void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin) {
+        for (int keyIndex = 0; keyIndex < values.length; keyIndex++) {
+            if (!hasValues(keyIndex, fromBin, toBin)) continue;
+            final Aggregates.Series.Builder series = buffer.addSeriesBuilder().setKey(keys[keyIndex]);
+            for (int bin = fromBin; bin < toBin; bin++) {
+                series.addValue(get(keyIndex, bin));
+            }
+        }
+    }
+
+    void clear() {
+        for (double[] row : values) {
+            if (row != null) Arrays.fill(row, 0);
+        }
+    }
+
+    private double[] row(int keyIndex, Object key, int bin) {
+        if (keyIndex >= values.length) {
+            final int length = Math.max(keyIndex + 1, 2 * values.length);
+            values = Arrays.copyOf(values, length);
+            keys = Arrays.copyOf(keys, length);
+        }
+        double[] row = values[keyIndex];
+        if (row == null) {
+            row = EMPTY;
+            keys[keyIndex] = key.toString();
+        }
+        if (bin >= row.length) {
+            row = Arrays.copyOf(row, Math.max(bin + 1, 2 * row.length));
+            values[keyIndex] = row;
+        }
+        return row;
+    }
+}
@@ -0,0 +1,134 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventAggregator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+/**
+ * Base class for aggregation operators, computing values per key and time bin on the Java side, so that Python only
+ * receives the aggregated results instead of every single event.
+ *
+ * Results are sent to the listeners as serialized AggregateBuffer messages (see aggregates.proto), at the end of the
+ * mobsim, or each time a time bin is complete if {@link #setEmitCompletedBins(boolean)} is set.
+ * Events are assigned to the time bin of their own time, and are expected to come in time order.
+ * Aggregators need to be added both as event handler and controler listener.
+ */
+public abstract class EventAggregator implements BasicEventHandler, AfterMobsimListener {
+    private final String name;
+    private final double binSize;
+    private final BufferedProtocolBufferSender.Listener[] listeners;
+    private boolean emitCompletedBins = false;
+
+    private int iteration = 0;
+    // first bin not sent to the listeners yet
+    private int firstPendingBin = 0;
+    // largest bin with aggregated values, or -1
+    private int lastBin = -1;
+
+    protected EventAggregator(String name, double binSize, BufferedProtocolBufferSender.Listener... listeners) {
+        if (binSize <= 0) throw new IllegalArgumentException("bin size must be positive, got "+binSize);
+        this.name = name;
+        this.binSize = binSize;
+        this.listeners = listeners;
+    }
+
+    /**
+     * @param emitCompletedBins if true, the values of each bin are sent as soon as an event of a later bin arrives,
+     *                          instead of all at once at the end of the mobsim.
+     */
+    public EventAggregator setEmitCompletedBins(boolean emitCompletedBins) {
+        this.emitCompletedBins = emitCompletedBins;
+        return this;
+    }
+
+    @Override
+    public final void handleEvent(Event event) {
+        final int bin = (int) (event.getTime() / binSize);
+        if (emitCompletedBins && bin > firstPendingBin && lastBin >= firstPendingBin) {
+            emit(bin);
+        }
+        if (aggregate(event, bin)) {
+            lastBin = Math.max(lastBin, bin);
+        }
+    }
+
+    @Override
+    public void reset(int iteration) {
+        this.iteration = iteration;
+        this.firstPendingBin = 0;
+        this.lastBin = -1;
+        clear();
+        for (BufferedProtocolBufferSender.Listener listener : listeners) {
+            listener.reset(iteration);
+        }
+    }
+
+    @Override
+    public void notifyAfterMobsim(AfterMobsimEvent event) {
+        if (lastBin >= firstPendingBin) emit(lastBin + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getBinSize() {
+        return binSize;
+    }
+
+    /**
+     * Adds the event to the aggregated values, if it is of a type the aggregator is interested in.
+     *
+     * @return true if the event was used
+     */
+    protected abstract boolean aggregate(Event event, int bin);
+
+    /**
+     * Adds one series per key with values in bins [fromBin, toBin).
+     */
+    protected abstract void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin);
+
+    /**
+     * Forgets all aggregated values, at the start of a new iteration.
+     */
+    protected abstract void clear();
+
+    private void emit(int toBin) {
+        final Aggregates.AggregateBuffer.Builder buffer = Aggregates.AggregateBuffer.newBuilder()
+                .setName(name)
+                .setIteration(iteration)
+                .setBinSize(binSize)
+                .setFirstBin(firstPendingBin)
+                .setBinCount(toBin - firstPendingBin);
+        writeSeries(buffer, firstPendingBin, toBin);
+        firstPendingBin = toBin;
+
+        final byte[] message = buffer.build().toByteArray();
+        for (BufferedProtocolBufferSender.Listener listener : listeners) {
+            listener.handleEventBuffer(message);
+        }
+    }
+}
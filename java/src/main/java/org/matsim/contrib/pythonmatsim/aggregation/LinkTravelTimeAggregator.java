@@ -0,0 +1,103 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * LinkTravelTimeAggregator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+
+import java.util.Arrays;
+
+/**
+ * Mean travel time of vehicles over each link, per time bin of the time they leave the link. Series are keyed by
+ * link id, and bins without any vehicle leaving the link are NaN.
+ * Only complete traversals count: the links where vehicles enter or leave traffic are ignored.
+ */
+public class LinkTravelTimeAggregator extends EventAggregator {
+    private final BinnedValues travelTimeSums = new BinnedValues();
+    private final BinnedValues counts = new BinnedValues();
+    // time each vehicle entered its current link, by vehicle index. NaN if not on a link traversal.
+    private double[] enterTimes = new double[0];
+
+    public LinkTravelTimeAggregator(double binSize, BufferedProtocolBufferSender.Listener... listeners) {
+        super("linkTravelTimes", binSize, listeners);
+    }
+
+    @Override
+    protected boolean aggregate(Event event, int bin) {
+        if (event instanceof LinkEnterEvent) {
+            final LinkEnterEvent enter = (LinkEnterEvent) event;
+            setEnterTime(enter.getVehicleId().index(), enter.getTime());
+            return false;
+        }
+        if (event instanceof LinkLeaveEvent) {
+            final LinkLeaveEvent leave = (LinkLeaveEvent) event;
+            final int vehicle = leave.getVehicleId().index();
+            if (vehicle >= enterTimes.length || Double.isNaN(enterTimes[vehicle])) return false;
+
+            travelTimeSums.add(leave.getLinkId().index(), leave.getLinkId(), bin, leave.getTime() - enterTimes[vehicle]);
+            counts.add(leave.getLinkId().index(), leave.getLinkId(), bin, 1);
+            enterTimes[vehicle] = Double.NaN;
+            return true;
+        }
+        if (event instanceof VehicleEntersTrafficEvent) {
+            setEnterTime(((VehicleEntersTrafficEvent) event).getVehicleId().index(), Double.NaN);
+            return false;
+        }
+        if (event instanceof VehicleLeavesTrafficEvent) {
+            setEnterTime(((VehicleLeavesTrafficEvent) event).getVehicleId().index(), Double.NaN);
+            return false;
+        }
+        return false;
+    }
+
+    @Override
+    protected void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin) {
+        for (int link = 0; link < counts.getKeyCount(); link++) {
+            if (!counts.hasValues(link, fromBin, toBin)) continue;
+            final Aggregates.Series.Builder series = buffer.addSeriesBuilder().setKey(counts.getKey(link));
+            for (int bin = fromBin; bin < toBin; bin++) {
+                final double count = counts.get(link, bin);
+                series.addValue(count == 0 ? Double.NaN : travelTimeSums.get(link, bin) / count);
+            }
+        }
+    }
+
+    @Override
+    protected void clear() {
+        travelTimeSums.clear();
+        counts.clear();
+        Arrays.fill(enterTimes, Double.NaN);
+    }
+
+    private void setEnterTime(int vehicle, double time) {
+        if (vehicle >= enterTimes.length) {
+            final int oldLength = enterTimes.length;
+            enterTimes = Arrays.copyOf(enterTimes, Math.max(vehicle + 1, 2 * oldLength));
+            Arrays.fill(enterTimes, oldLength, enterTimes.length, Double.NaN);
+        }
+        enterTimes[vehicle] = time;
+    }
+}
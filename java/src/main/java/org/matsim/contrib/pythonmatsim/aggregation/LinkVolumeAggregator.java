@@ -0,0 +1,55 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * LinkVolumeAggregator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+
+/**
+ * Number of vehicles entering each link, per time bin. Series are keyed by link id.
+ */
+public class LinkVolumeAggregator extends EventAggregator {
+    private final BinnedValues volumes = new BinnedValues();
+
+    public LinkVolumeAggregator(double binSize, BufferedProtocolBufferSender.Listener... listeners) {
+        super("linkVolumes", binSize, listeners);
+    }
+
+    @Override
+    protected boolean aggregate(Event event, int bin) {
+        if (!(event instanceof LinkEnterEvent)) return false;
+        final LinkEnterEvent enter = (LinkEnterEvent) event;
+        volumes.add(enter.getLinkId().index(), enter.getLinkId(), bin, 1);
+        return true;
+    }
+
+    @Override
+    protected void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin) {
+        volumes.writeSeries(buffer, fromBin, toBin);
+    }
+
+    @Override
+    protected void clear() {
+        volumes.clear();
+    }
+}
@@ -0,0 +1,54 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ModeCountAggregator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.PersonDepartureEvent;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+
+/**
+ * Number of departures per leg mode and time bin, from which mode shares follow. Series are keyed by mode.
+ */
+public class ModeCountAggregator extends EventAggregator {
+    private final BinnedValues departures = new BinnedValues();
+
+    public ModeCountAggregator(double binSize, BufferedProtocolBufferSender.Listener... listeners) {
+        super("modeCounts", binSize, listeners);
+    }
+
+    @Override
+    protected boolean aggregate(Event event, int bin) {
+        if (!(event instanceof PersonDepartureEvent)) return false;
+        departures.add(((PersonDepartureEvent) event).getLegMode(), bin, 1);
+        return true;
+    }
+
+    @Override
+    protected void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin) {
+        departures.writeSeries(buffer, fromBin, toBin);
+    }
+
+    @Override
+    protected void clear() {
+        departures.clear();
+    }
+}
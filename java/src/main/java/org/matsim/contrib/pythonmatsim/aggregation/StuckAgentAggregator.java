@@ -0,0 +1,58 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * StuckAgentAggregator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.aggregation;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.contrib.pythonmatsim.protobuf.Aggregates;
+
+/**
+ * Number of agents getting stuck per leg mode and time bin. Series are keyed by mode, "unknown" for agents stuck
+ * outside of a leg.
+ */
+public class StuckAgentAggregator extends EventAggregator {
+    private static final String UNKNOWN_MODE = "unknown";
+
+    private final BinnedValues stuck = new BinnedValues();
+
+    public StuckAgentAggregator(double binSize, BufferedProtocolBufferSender.Listener... listeners) {
+        super("stuckAgents", binSize, listeners);
+    }
+
+    @Override
+    protected boolean aggregate(Event event, int bin) {
+        if (!(event instanceof PersonStuckEvent)) return false;
+        final String mode = ((PersonStuckEvent) event).getLegMode();
+        stuck.add(mode == null ? UNKNOWN_MODE : mode, bin, 1);
+        return true;
+    }
+
+    @Override
+    protected void writeSeries(Aggregates.AggregateBuffer.Builder buffer, int fromBin, int toBin) {
+        stuck.writeSeries(buffer, fromBin, toBin);
+    }
+
+    @Override
+    protected void clear() {
+        stuck.clear();
+    }
+}
@@ -0,0 +1,413 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * AsyncBufferDispatcher.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers buffers to the listeners on a dedicated thread, so that the thread producing events (typically the mobsim)
+ * only waits for the listeners when the queue of pending buffers is full.
+ * With a queue depth of 1, this is plain double buffering: the next buffer is filled while the previous one is handled.
+ *
+ * {@link #drain()} and {@link #reset(int)} are barriers: they only return once all buffers dispatched before were
+ * handled. Exceptions thrown by listeners are re-thrown on the producer thread at the next dispatch or drain.
+ * If the delivery thread stops (for instance because it was interrupted), they fail instead of waiting forever.
+ *
+ * The queue depth bounds the number of pending buffers. A {@link MemoryBudget} can additionally bound their size
+ * in bytes.
+ */
+public class AsyncBufferDispatcher implements BufferDispatcher {
+    private static final Logger log = Logger.getLogger(AsyncBufferDispatcher.class);
+
+    // compared by identity, so cannot be confused with an empty buffer
+    private static final Delivery END_OF_STREAM = new Delivery(new byte[0], 0, false);
+    // wakes up the delivery thread when buffers were spilled while it was waiting on the empty queue
+    private static final Delivery SPILL_WAKE_UP = new Delivery(new byte[0], 0, false);
+
+    private final String name;
+    private final BufferedProtocolBufferSender.Listener[] listeners;
+    private final BlockingQueue<Delivery> queue;
+    private final Thread deliveryThread;
+    private final MemoryBudget budget;
+    // set by the producer thread, read by the delivery thread
+    private volatile BridgeMetrics metrics = null;
+    private volatile Histogram[] latencies = null;
+
+    private final Object lock = new Object();
+    // guarded by lock
+    private final SpillFile spill;
+    private int pending = 0;
+    private Throwable failure = null;
+    private boolean deliveryStopped = false;
+    private int maxBacklog = 0;
+    private long handledCount = 0;
+    private long totalLagNanos = 0;
+    private long maxLagNanos = 0;
+
+    // only accessed by the producer thread
+    private long stallCount = 0;
+    private long stallNanos = 0;
+
+    public AsyncBufferDispatcher(int queueDepth, BufferedProtocolBufferSender.Listener... listeners) {
+        this(queueDepth, "python-matsim event delivery", listeners);
+    }
+
+    /**
+     * @param name name of the delivery thread, also used in log messages
+     */
+    public AsyncBufferDispatcher(int queueDepth, String name, BufferedProtocolBufferSender.Listener... listeners) {
+        this(queueDepth, name, null, listeners);
+    }
+
+    /**
+     * @param budget bound on the bytes of pending buffers, or null for no bound
+     */
+    public AsyncBufferDispatcher(int queueDepth, String name, MemoryBudget budget, BufferedProtocolBufferSender.Listener... listeners) {
+        if (queueDepth < 1) throw new IllegalArgumentException("queue depth must be at least 1, got "+queueDepth);
+        this.name = name;
+        this.budget = budget;
+        this.spill = budget != null && budget.getPolicy() == MemoryBudget.Policy.SPILL ?
+                new SpillFile(budget.getSpillDirectory()) : null;
+        this.listeners = listeners;
+        this.queue = new ArrayBlockingQueue<>(queueDepth);
+        this.deliveryThread = new Thread(this::deliver, name);
+        this.deliveryThread.setDaemon(true);
+        this.deliveryThread.start();
+    }
+
+    @Override
+    public void dispatch(byte[] buffer) {
+        rethrowFailure();
+
+        final int backlog;
+        synchronized (lock) {
+            checkDeliveryThread();
+            backlog = ++pending;
+            maxBacklog = Math.max(maxBacklog, pending);
+        }
+        final BridgeMetrics metrics = this.metrics;
+        if (metrics != null) metrics.recordQueueDepth(backlog);
+
+        // the buffer is counted before being enqueued, so that the delivery thread cannot handle it before.
+        // If it does not get enqueued (interrupt, spill failure), the count has to be reverted.
+        boolean acquired = false;
+        boolean enqueued = false;
+        try {
+            if (spill != null) {
+                if (spill(buffer)) {
+                    enqueued = true;
+                    return;
+                }
+                acquired = true;
+            }
+            else if (budget != null) {
+                budget.acquire(buffer.length);
+                acquired = true;
+            }
+
+            final Delivery delivery = new Delivery(buffer, System.nanoTime(), false);
+            if (!queue.offer(delivery)) {
+                final long start = System.nanoTime();
+                put(delivery);
+                stallNanos += System.nanoTime() - start;
+                stallCount++;
+            }
+            enqueued = true;
+        }
+        finally {
+            if (!enqueued) {
+                if (acquired) budget.release(buffer.length);
+                synchronized (lock) {
+                    pending--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void drain() {
+        synchronized (lock) {
+            while (pending > 0) {
+                checkDeliveryThread();
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while waiting for listeners", e);
+                }
+            }
+        }
+        rethrowFailure();
+    }
+
+    @Override
+    public void reset(int iteration) {
+        drain();
+        log.info(name+": producer stalled "+stallCount+" times, for a total of "+TimeUnit.NANOSECONDS.toMillis(stallNanos)+
+                " ms, waiting for listeners before iteration "+iteration);
+        stallCount = 0;
+        stallNanos = 0;
+
+        synchronized (lock) {
+            if (handledCount > 0) {
+                log.info(name+": "+handledCount+" buffers handled before iteration "+iteration+", with a maximum backlog of "+
+                        maxBacklog+" buffers, an average lag of "+TimeUnit.NANOSECONDS.toMillis(totalLagNanos / handledCount)+
+                        " ms and a maximum lag of "+TimeUnit.NANOSECONDS.toMillis(maxLagNanos)+" ms");
+            }
+            maxBacklog = 0;
+            handledCount = 0;
+            totalLagNanos = 0;
+            maxLagNanos = 0;
+        }
+
+        for (BufferedProtocolBufferSender.Listener listener : listeners) {
+            listener.reset(iteration);
+        }
+    }
+
+    @Override
+    public void close() {
+        drain();
+        put(END_OF_STREAM);
+        try {
+            deliveryThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for delivery thread", e);
+        }
+        if (spill != null) {
+            synchronized (lock) {
+                spill.close();
+            }
+        }
+    }
+
+    @Override
+    public void setMetrics(BridgeMetrics metrics) {
+        this.latencies = SynchronousBufferDispatcher.getListenerLatencies(metrics, listeners);
+        this.metrics = metrics;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of times the producer had to wait for the queue to have free space since the last reset
+     */
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * @return the total time spent by the producer waiting for free space in the queue since the last reset
+     */
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * @return the number of buffers dispatched but not handled yet
+     */
+    public int getBacklog() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * @return the largest backlog since the last reset
+     */
+    public int getMaxBacklog() {
+        synchronized (lock) {
+            return maxBacklog;
+        }
+    }
+
+    /**
+     * @return the number of buffers handled since the last reset
+     */
+    public long getHandledCount() {
+        synchronized (lock) {
+            return handledCount;
+        }
+    }
+
+    /**
+     * @return the total time between dispatch and the start of handling, over the buffers handled since the last reset
+     */
+    public long getTotalLagNanos() {
+        synchronized (lock) {
+            return totalLagNanos;
+        }
+    }
+
+    /**
+     * @return the longest time between dispatch and the start of handling since the last reset
+     */
+    public long getMaxLagNanos() {
+        synchronized (lock) {
+            return maxLagNanos;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void put(Delivery delivery) {
+        try {
+            // waits in slices, to notice if the delivery thread stopped and will never free space
+            while (!queue.offer(delivery, 100, TimeUnit.MILLISECONDS)) {
+                synchronized (lock) {
+                    checkDeliveryThread();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for space in queue", e);
+        }
+    }
+
+    /**
+     * Writes the buffer to the spill file if it does not fit in the budget, or if earlier buffers are already there,
+     * to keep the order.
+     *
+     * @return true if the buffer was spilled
+     */
+    private boolean spill(byte[] buffer) {
+        synchronized (lock) {
+            if (spill.isEmpty() && budget.tryAcquire(buffer.length)) return false;
+            spill.append(buffer, System.nanoTime());
+        }
+        budget.countSpill(buffer.length);
+        // if the queue is full, the delivery thread is busy anyway
+        queue.offer(SPILL_WAKE_UP);
+        return true;
+    }
+
+    /**
+     * @return the oldest spilled buffer, if all buffers of the queue, which are older, were delivered
+     */
+    private Delivery takeSpilled() {
+        if (spill == null) return null;
+        synchronized (lock) {
+            if (!queue.isEmpty() || spill.isEmpty()) return null;
+            final byte[] buffer = spill.read();
+            return new Delivery(buffer, spill.getLastDispatchNanos(), true);
+        }
+    }
+
+    private void deliver() {
+        try {
+            deliverUntilEndOfStream();
+        }
+        catch (Throwable t) {
+            synchronized (lock) {
+                if (failure == null) failure = t;
+            }
+        }
+        finally {
+            synchronized (lock) {
+                deliveryStopped = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void deliverUntilEndOfStream() {
+        while (true) {
+            Delivery delivery = takeSpilled();
+            if (delivery == null) {
+                try {
+                    delivery = queue.take();
+                } catch (InterruptedException e) {
+                    log.warn(name+" thread interrupted, stopping delivery");
+                    return;
+                }
+            }
+
+            if (delivery == END_OF_STREAM) return;
+            if (delivery == SPILL_WAKE_UP) continue;
+
+            final long lag = System.nanoTime() - delivery.dispatchNanos;
+            synchronized (lock) {
+                handledCount++;
+                totalLagNanos += lag;
+                maxLagNanos = Math.max(maxLagNanos, lag);
+            }
+
+            try {
+                final Histogram[] latencies = this.latencies;
+                for (int i = 0; i < listeners.length; i++) {
+                    final long start = latencies == null ? 0 : System.nanoTime();
+                    listeners[i].handleEventBuffer(delivery.buffer);
+                    if (latencies != null) latencies[i].record(System.nanoTime() - start);
+                }
+            }
+            catch (Throwable t) {
+                synchronized (lock) {
+                    if (failure == null) failure = t;
+                }
+            }
+            finally {
+                if (budget != null && !delivery.spilled) budget.release(delivery.buffer.length);
+                synchronized (lock) {
+                    pending--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // must hold lock
+    private void checkDeliveryThread() {
+        if (deliveryStopped) {
+            throw new IllegalStateException(name+" thread stopped with "+pending+" buffers not handled", failure);
+        }
+    }
+
+    private void rethrowFailure() {
+        final Throwable t;
+        synchronized (lock) {
+            t = failure;
+            failure = null;
+        }
+        if (t != null) throw new RuntimeException("listener failed on "+name+" thread", t);
+    }
+
+    private static class Delivery {
+        private final byte[] buffer;
+        private final long dispatchNanos;
+        // spilled buffers do not count in the memory budget
+        private final boolean spilled;
+
+        private Delivery(byte[] buffer, long dispatchNanos, boolean spilled) {
+            this.buffer = buffer;
+            this.dispatchNanos = dispatchNanos;
+            this.spilled = spilled;
+        }
+    }
+}
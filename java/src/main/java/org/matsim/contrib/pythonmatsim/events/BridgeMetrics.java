@@ -0,0 +1,292 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BridgeMetrics.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a {@link BufferedProtocolBufferSender} and its dispatcher: events per type, serialization time,
+ * buffer sizes and flushes, time spent in each listener and depth of the delivery queue.
+ *
+ * Recording only uses {@link LongAdder}s and fixed bucket {@link Histogram}s, so that metrics can stay enabled.
+ * Serialization of single events is only timed for a sample of them, see {@link #SERIALIZATION_SAMPLE_INTERVAL}.
+ * Senders also accept null metrics, to record nothing at all.
+ * The sender resets them at the start of each iteration. They can be polled from Python with {@link #snapshot()}
+ * once the mobsim is over, or watched over JMX after {@link #registerMBean()}.
+ */
+public class BridgeMetrics implements BridgeMetricsMXBean {
+    /**
+     * Senders time the serialization of one event out of this many, as reading the clock twice costs about as much as
+     * encoding a small event. The time of sampled events is recorded multiplied by the interval.
+     */
+    public static final int SERIALIZATION_SAMPLE_INTERVAL = 64;
+
+    private final String name;
+
+    private final ConcurrentMap<String, LongAdder> eventCounts = new ConcurrentHashMap<>();
+    private final ClassValue<LongAdder> eventCountPerClass = new ClassValue<LongAdder>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected LongAdder computeValue(Class<?> type) {
+            final String protoType = Event2ProtoEvent.getProtoEventType((Class<? extends Event>) type);
+            return eventCounts.computeIfAbsent(protoType, t -> new LongAdder());
+        }
+    };
+
+    private final LongAdder serializationNanos = new LongAdder();
+    private final Histogram bufferBytes = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+    private final ConcurrentMap<String, Histogram> listenerLatencies = new ConcurrentHashMap<>();
+    private volatile long lastQueueDepth = 0;
+
+    public BridgeMetrics() {
+        this("python-matsim");
+    }
+
+    /**
+     * @param name identifies the metrics in JMX, when several senders are registered
+     */
+    public BridgeMetrics(String name) {
+        this.name = name;
+    }
+
+    public void recordEvent(Event event) {
+        eventCountPerClass.get(event.getClass()).increment();
+    }
+
+    public void recordEvent(Event event, long serializationNanos) {
+        eventCountPerClass.get(event.getClass()).increment();
+        this.serializationNanos.add(serializationNanos);
+    }
+
+    public void recordFlush(int bytes, long serializationNanos) {
+        bufferBytes.record(bytes);
+        this.serializationNanos.add(serializationNanos);
+    }
+
+    public void recordQueueDepth(int depth) {
+        queueDepth.record(depth);
+        lastQueueDepth = depth;
+    }
+
+    /**
+     * @return the histogram of the time spent by the listener per buffer, in nanoseconds. Dispatchers look it up once
+     * and record into it directly. Listeners with the same string representation share the histogram.
+     */
+    public Histogram getListenerLatency(Object listener) {
+        return listenerLatencies.computeIfAbsent(String.valueOf(listener), l -> new Histogram());
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as org.matsim.contrib.pythonmatsim:type=BridgeMetrics
+     * with the name of the metrics.
+     */
+    public BridgeMetrics registerMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = getObjectName();
+            if (!server.isRegistered(objectName)) server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("could not register metrics "+name, e);
+        }
+        return this;
+    }
+
+    public void unregisterMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = getObjectName();
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("could not unregister metrics "+name, e);
+        }
+    }
+
+    private ObjectName getObjectName() throws JMException {
+        return new ObjectName("org.matsim.contrib.pythonmatsim:type=BridgeMetrics,name="+ObjectName.quote(name));
+    }
+
+    public Snapshot snapshot() {
+        final Map<String, Histogram.Snapshot> latencies = new TreeMap<>();
+        listenerLatencies.forEach((listener, histogram) -> latencies.put(listener, histogram.snapshot()));
+        return new Snapshot(getEventCounts(), serializationNanos.sum(), bufferBytes.snapshot(), latencies,
+                queueDepth.snapshot());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Long> getEventCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        eventCounts.forEach((type, count) -> {
+            final long sum = count.sum();
+            if (sum > 0) counts.put(type, sum);
+        });
+        return counts;
+    }
+
+    @Override
+    public long getEventCount() {
+        long total = 0;
+        for (LongAdder count : eventCounts.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getSerializationNanos() {
+        return serializationNanos.sum();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return bufferBytes.snapshot().getCount();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bufferBytes.snapshot().getSum();
+    }
+
+    @Override
+    public double getMeanBufferBytes() {
+        return bufferBytes.snapshot().getMean();
+    }
+
+    @Override
+    public long getBufferBytesP99() {
+        return bufferBytes.snapshot().getPercentile(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getListenerLatencyP99Micros() {
+        final Map<String, Long> latencies = new TreeMap<>();
+        listenerLatencies.forEach((listener, histogram) ->
+                latencies.put(listener, TimeUnit.NANOSECONDS.toMicros(histogram.snapshot().getPercentile(0.99))));
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getListenerTotalMillis() {
+        final Map<String, Long> totals = new TreeMap<>();
+        listenerLatencies.forEach((listener, histogram) ->
+                totals.put(listener, TimeUnit.NANOSECONDS.toMillis(histogram.snapshot().getSum())));
+        return totals;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return lastQueueDepth;
+    }
+
+    @Override
+    public long getMaxQueueDepth() {
+        return queueDepth.snapshot().getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : eventCounts.values()) {
+            count.reset();
+        }
+        serializationNanos.reset();
+        bufferBytes.reset();
+        queueDepth.reset();
+        for (Histogram histogram : listenerLatencies.values()) {
+            histogram.reset();
+        }
+        lastQueueDepth = 0;
+    }
+
+    @Override
+    public String toString() {
+        final Snapshot snapshot = snapshot();
+        return snapshot.getEventCount()+" events serialized in "+TimeUnit.NANOSECONDS.toMillis(snapshot.getSerializationNanos())+
+                " ms, "+snapshot.getBufferBytes().getCount()+" buffers of "+snapshot.getBufferBytes()+" bytes, queue depth "+
+                snapshot.getQueueDepth()+", listener nanoseconds per buffer "+snapshot.getListenerLatencies();
+    }
+
+    /**
+     * Values of the metrics at some point in time. Histograms of latencies are in nanoseconds.
+     */
+    public static class Snapshot {
+        private final Map<String, Long> eventCounts;
+        private final long serializationNanos;
+        private final Histogram.Snapshot bufferBytes;
+        private final Map<String, Histogram.Snapshot> listenerLatencies;
+        private final Histogram.Snapshot queueDepth;
+
+        private Snapshot(Map<String, Long> eventCounts, long serializationNanos, Histogram.Snapshot bufferBytes,
+                         Map<String, Histogram.Snapshot> listenerLatencies, Histogram.Snapshot queueDepth) {
+            this.eventCounts = Collections.unmodifiableMap(eventCounts);
+            this.serializationNanos = serializationNanos;
+            this.bufferBytes = bufferBytes;
+            this.listenerLatencies = Collections.unmodifiableMap(listenerLatencies);
+            this.queueDepth = queueDepth;
+        }
+
+        public Map<String, Long> getEventCounts() {
+            return eventCounts;
+        }
+
+        public long getEventCount() {
+            return eventCounts.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long getSerializationNanos() {
+            return serializationNanos;
+        }
+
+        /**
+         * @return the sizes of the buffers sent, one value per flush
+         */
+        public Histogram.Snapshot getBufferBytes() {
+            return bufferBytes;
+        }
+
+        public Map<String, Histogram.Snapshot> getListenerLatencies() {
+            return listenerLatencies;
+        }
+
+        /**
+         * @return the number of buffers waiting for listeners, one value per dispatch
+         */
+        public Histogram.Snapshot getQueueDepth() {
+            return queueDepth;
+        }
+    }
+}
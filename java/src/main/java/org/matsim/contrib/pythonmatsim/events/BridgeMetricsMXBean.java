@@ -0,0 +1,68 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BridgeMetricsMXBean.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BridgeMetrics}, as seen in JConsole or VisualVM.
+ * Values cover the current iteration, or everything since the last call to {@link #reset()}.
+ */
+public interface BridgeMetricsMXBean {
+    /**
+     * @return the number of events converted, per protocol buffer event type
+     */
+    Map<String, Long> getEventCounts();
+
+    long getEventCount();
+
+    /**
+     * @return the time spent converting and serializing events, in nanoseconds
+     */
+    long getSerializationNanos();
+
+    long getFlushCount();
+
+    long getBytesSent();
+
+    double getMeanBufferBytes();
+
+    long getBufferBytesP99();
+
+    /**
+     * @return the 99th percentile of the time spent in each listener per buffer, in microseconds, per listener
+     */
+    Map<String, Long> getListenerLatencyP99Micros();
+
+    /**
+     * @return the total time spent in each listener, in milliseconds, per listener
+     */
+    Map<String, Long> getListenerTotalMillis();
+
+    /**
+     * @return the number of buffers waiting for listeners, as of the last dispatch
+     */
+    long getQueueDepth();
+
+    long getMaxQueueDepth();
+
+    void reset();
+}
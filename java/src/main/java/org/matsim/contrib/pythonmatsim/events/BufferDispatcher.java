@@ -0,0 +1,54 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BufferDispatcher.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+/**
+ * Hands the serialized buffers of a {@link BufferedProtocolBufferSender} over to its listeners.
+ * Implementations decide on which thread, and how many buffers may be pending at the same time.
+ */
+public interface BufferDispatcher {
+    /**
+     * Hands the buffer over for delivery. Once dispatched, the array belongs to the dispatcher and its listeners and must
+     * not be modified any more.
+     */
+    void dispatch(byte[] buffer);
+
+    /**
+     * Blocks until all buffers dispatched so far were handled by all listeners.
+     */
+    void drain();
+
+    /**
+     * Drains pending buffers and resets the listeners.
+     */
+    void reset(int iteration);
+
+    /**
+     * Drains pending buffers and releases resources, such as delivery threads.
+     */
+    void close();
+
+    /**
+     * Records time spent in listeners and queue depth into the given metrics, from now on.
+     * Dispatchers that do not support metrics ignore the call.
+     */
+    default void setMetrics(BridgeMetrics metrics) {
+    }
+}
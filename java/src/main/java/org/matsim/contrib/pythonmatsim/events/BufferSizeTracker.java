@@ -0,0 +1,52 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * BufferSizeTracker.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import com.google.protobuf.CodedOutputStream;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents;
+
+/**
+ * Incrementally computes the serialized size of a CompactEventBuffer being built,
+ * only looking at the dictionary entries and events added since the last update.
+ */
+class BufferSizeTracker {
+    private int entryCount = 0;
+    private int eventCount = 0;
+    private long size = 0;
+
+    void update(CompactEvents.CompactEventBuffer.Builder buffer) {
+        for (; entryCount < buffer.getNewEntriesCount(); entryCount++) {
+            size += CodedOutputStream.computeMessageSize(1, buffer.getNewEntries(entryCount));
+        }
+        for (; eventCount < buffer.getEventCount(); eventCount++) {
+            size += CodedOutputStream.computeMessageSize(2, buffer.getEvent(eventCount));
+        }
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    void clear() {
+        entryCount = 0;
+        eventCount = 0;
+        size = 0;
+    }
+}
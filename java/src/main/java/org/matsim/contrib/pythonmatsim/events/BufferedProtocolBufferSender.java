@@ -20,58 +20,195 @@
 
  package org.matsim.contrib.pythonmatsim.events;
 
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.events.Event;
-import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
-import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
-import org.matsim.contrib.pythonmatsim.protobuf.ProtobufEvents;
 import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
 import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.ShutdownListener;
 import org.matsim.core.events.handler.BasicEventHandler;
 
-public class BufferedProtocolBufferSender implements BasicEventHandler, AfterMobsimListener {
-    private final int bufferSize;
-    private final Listener[] listeners;
-    private final EventBufferOuterClass.EventBuffer.Builder bufferBuilder =
-            EventBufferOuterClass.EventBuffer.newBuilder();
+public class BufferedProtocolBufferSender implements BasicEventHandler, AfterMobsimListener, ShutdownListener {
+    private static final Logger log = Logger.getLogger(BufferedProtocolBufferSender.class);
+
+    private final FlushPolicy flushPolicy;
+    private final EventTypeFilter filter;
+    private final EventBufferEncoder encoder;
+    private final BufferDispatcher dispatcher;
+    private final MemoryBudget memoryBudget;
+    private final BridgeMetrics metrics;
+
+    // state of the buffer being filled
+    private double windowStart = 0;
+    private double windowEnd = 0;
+    private long bufferStartNanos = 0;
+    // events added since serialization was last timed
+    private int untimedEvents = 0;
 
     public BufferedProtocolBufferSender(int bufferSize, Listener... listener) {
-        // TODO add configuration of what events to forward. This should be resolved on Python side
-        // and passed here as an argument
-        this.bufferSize = bufferSize;
-        this.listeners = listener;
+        this(bufferSize, EventTypeFilter.acceptAll(), listener);
+    }
+
+    /**
+     * @param filter the types of events to forward. Events of other types are dropped before conversion, which
+     *               avoids paying for the serialization of events nobody listens to.
+     */
+    public BufferedProtocolBufferSender(int bufferSize, EventTypeFilter filter, Listener... listener) {
+        this(bufferSize, filter, new ProtoEventBufferEncoder(), listener);
+    }
+
+    /**
+     * @param encoder determines the format of the messages sent to the listeners.
+     */
+    public BufferedProtocolBufferSender(int bufferSize, EventTypeFilter filter, EventBufferEncoder encoder, Listener... listener) {
+        this(bufferSize, filter, encoder, new SynchronousBufferDispatcher(listener));
+    }
+
+    /**
+     * @param dispatcher determines how buffers are handed over to the listeners, for instance on a separate thread.
+     */
+    public BufferedProtocolBufferSender(int bufferSize, EventTypeFilter filter, EventBufferEncoder encoder, BufferDispatcher dispatcher) {
+        this(new FlushPolicy(bufferSize), filter, encoder, dispatcher);
+    }
+
+    /**
+     * @param flushPolicy determines when buffers are sent, based on number of events, simulation time windows,
+     *                    wall clock time or size.
+     */
+    public BufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, EventBufferEncoder encoder, BufferDispatcher dispatcher) {
+        this(flushPolicy, filter, encoder, dispatcher, null);
+    }
+
+    /**
+     * @param memoryBudget the budget also given to the dispatcher, used to drop or sample events when listeners fall
+     *                     behind. May be null.
+     */
+    public BufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, EventBufferEncoder encoder, BufferDispatcher dispatcher,
+                                        MemoryBudget memoryBudget) {
+        this(flushPolicy, filter, encoder, dispatcher, memoryBudget, new BridgeMetrics());
+    }
+
+    /**
+     * @param metrics where to record runtime metrics of this sender and its dispatcher, to poll them from Python or
+     *                register them in JMX. Reset at the start of each iteration. May be null, to record nothing.
+     */
+    public BufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, EventBufferEncoder encoder, BufferDispatcher dispatcher,
+                                        MemoryBudget memoryBudget, BridgeMetrics metrics) {
+        this.flushPolicy = flushPolicy;
+        this.filter = filter;
+        this.encoder = encoder;
+        this.dispatcher = dispatcher;
+        this.memoryBudget = memoryBudget;
+        this.metrics = metrics;
+        dispatcher.setMetrics(metrics);
     }
 
     @Override
     public void reset(int iteration) {
-        if (bufferBuilder.getEventCount() > 0) {
-            throw new IllegalStateException("buffer was not emptied at end of simulation: "+bufferBuilder.getEventList());
-        }
-        for (Listener listener : listeners) {
-            listener.reset(iteration);
+        if (encoder.getEventCount() > 0) {
+            throw new IllegalStateException("buffer was not emptied at end of simulation: "+encoder.getEventCount()+" events remaining");
         }
+        filter.resetSkippedCounts();
+        dispatcher.reset(iteration);
+        if (memoryBudget != null) memoryBudget.resetCounters();
+        if (metrics != null) metrics.reset();
     }
 
     @Override
     public void handleEvent(Event event) {
-        final ProtobufEvents.Event protoEvent = Event2ProtoEvent.getProtoEvent(event);
-        bufferBuilder.addEvent(protoEvent);
+        if (!filter.accept(event)) return;
+        if (memoryBudget != null && !memoryBudget.admit(event)) return;
 
-        if (bufferBuilder.getEventCount() >= bufferSize) {
+        final double time = event.getTime();
+
+        if (flushPolicy.hasSimTimeWindow() && encoder.getEventCount() > 0 && time >= windowEnd) {
+            flush();
+        }
+
+        if (encoder.getEventCount() == 0) {
+            startBuffer(time);
+        }
+
+        addEvent(event);
+        if (!flushPolicy.hasSimTimeWindow()) windowEnd = time;
+
+        if (flushPolicy.isFull(encoder, bufferStartNanos)) {
             flush();
         }
     }
 
-    public void flush() {
-        byte[] message = bufferBuilder.build().toByteArray();
-        for (Listener listener : listeners) {
-            listener.handleEventBuffer(message);
+    private void addEvent(Event event) {
+        if (metrics == null) {
+            encoder.addEvent(event);
         }
-        bufferBuilder.clear();
+        else if (++untimedEvents < BridgeMetrics.SERIALIZATION_SAMPLE_INTERVAL) {
+            encoder.addEvent(event);
+            metrics.recordEvent(event);
+        }
+        else {
+            untimedEvents = 0;
+            final long start = System.nanoTime();
+            encoder.addEvent(event);
+            metrics.recordEvent(event, (System.nanoTime() - start) * BridgeMetrics.SERIALIZATION_SAMPLE_INTERVAL);
+        }
+    }
+
+    private void startBuffer(double time) {
+        if (flushPolicy.hasWallClockLimit()) bufferStartNanos = System.nanoTime();
+
+        if (flushPolicy.hasSimTimeWindow()) {
+            final double window = flushPolicy.getSimTimeWindow();
+            windowStart = Math.floor(time / window) * window;
+            windowEnd = windowStart + window;
+        }
+        else {
+            windowStart = time;
+            windowEnd = time;
+        }
+    }
+
+    public void flush() {
+        final long start = System.nanoTime();
+        final byte[] buffer = encoder.flush(windowStart, windowEnd);
+        if (metrics != null) metrics.recordFlush(buffer.length, System.nanoTime() - start);
+        dispatcher.dispatch(buffer);
+        windowStart = 0;
+        windowEnd = 0;
     }
 
     @Override
     public void notifyAfterMobsim(AfterMobsimEvent event) {
         flush();
+        // make sure listeners are done with this iteration before anything else looks at its results
+        dispatcher.drain();
+        log.info("skipped events per type in iteration "+event.getIteration()+": "+filter.getSkippedCounts());
+        if (memoryBudget != null) log.info("memory budget in iteration "+event.getIteration()+": "+memoryBudget);
+        if (metrics != null) log.info("metrics of iteration "+event.getIteration()+": "+metrics);
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        dispatcher.close();
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public EventTypeFilter getFilter() {
+        return filter;
+    }
+
+    public BufferDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public BridgeMetrics getMetrics() {
+        return metrics;
     }
 
     public interface Listener {
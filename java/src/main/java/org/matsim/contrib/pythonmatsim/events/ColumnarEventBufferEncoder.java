@@ -0,0 +1,373 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ColumnarEventBufferEncoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents.DictionaryEntry.Dictionary;
+import org.matsim.contrib.pythonmatsim.protobuf.EventClassRegistry;
+import org.matsim.contrib.pythonmatsim.protobuf.EventDictionary;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Encoder accumulating events per type in struct-of-arrays columns, so that Python can load them as numpy arrays
+ * without iterating over events.
+ *
+ * The message is a single little-endian block, with all columns aligned on 8 bytes:
+ * <pre>
+ * int32 magic ("MCOL"), int32 version
+ * int32 offset and int32 length of a serialized CompactEventBuffer, containing the new dictionary entries,
+ *     the generic events (which do not have a fixed set of columns) and the time window of the buffer
+ * int32 number of tables
+ * for each table:
+ *     int32 event type (field number of the type in the CompactEvent message), int32 number of rows, int32 number of columns
+ *     for each column:
+ *         int32 field number in the corresponding Compact*Event message, int32 data type (0: float64, 1: int32), int32 offset
+ * </pre>
+ * Columns hence have the names and meaning of the fields of compact_events.proto, with ids and strings encoded as
+ * dictionary indices.
+ *
+ * The table of an event is found through an {@link EventClassRegistry}, as the encoders of the other formats do.
+ * Events of other types are sent as generic events in the protocol buffer section.
+ */
+public class ColumnarEventBufferEncoder implements EventBufferEncoder {
+    static final int MAGIC = 0x4C4F434D;
+    static final int VERSION = 1;
+
+    static final int FLOAT64 = 0;
+    static final int INT32 = 1;
+
+    // column types per event type, indexed by field number in CompactEvent. Column i has field number i + 1.
+    private static final String[] SCHEMAS = new String[16];
+    static {
+        SCHEMAS[2] = "diiiii"; // actEnd
+        SCHEMAS[3] = "diiiii"; // actStart
+        SCHEMAS[4] = "dii"; // linkEnter
+        SCHEMAS[5] = "dii"; // linkLeave
+        SCHEMAS[6] = "diii"; // personArrival
+        SCHEMAS[7] = "diii"; // personDeparture
+        SCHEMAS[8] = "dii"; // personEntersVehicle
+        SCHEMAS[9] = "dii"; // personLeavesVehicle
+        SCHEMAS[10] = "did"; // personMoney
+        SCHEMAS[11] = "diii"; // personStuck
+        SCHEMAS[12] = "diiiii"; // transitDriverStarts
+        SCHEMAS[13] = "dii"; // vehicleAborts
+        SCHEMAS[14] = "diiiid"; // vehicleEntersTraffic
+        SCHEMAS[15] = "diiiid"; // vehicleLeavesTraffic
+    }
+
+    private static final Columns GENERIC = new Columns(-1, null);
+    private static final EventClassRegistry<Columns> COLUMNS = new EventClassRegistry<>(type -> GENERIC);
+
+    static {
+        register(LinkLeaveEvent.class, 5, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+        });
+        register(LinkEnterEvent.class, 4, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+        });
+        register(ActivityEndEvent.class, 2, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, e.getFacilityId() == null ? 0 : enc.index(e.getFacilityId(), Dictionary.FACILITY));
+            t.set(3, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(4, row, enc.index(e.getActType()));
+            t.set(5, row, e.getFacilityId() == null ? 0 : 1);
+        });
+        register(ActivityStartEvent.class, 3, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, e.getFacilityId() == null ? 0 : enc.index(e.getFacilityId(), Dictionary.FACILITY));
+            t.set(3, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(4, row, enc.index(e.getActType()));
+            t.set(5, row, e.getFacilityId() == null ? 0 : 1);
+        });
+        register(PersonArrivalEvent.class, 6, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, enc.index(e.getLegMode()));
+            t.set(3, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+        });
+        register(PersonDepartureEvent.class, 7, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(2, row, enc.index(e.getLegMode()));
+            t.set(3, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+        });
+        register(PersonEntersVehicleEvent.class, 8, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+        });
+        register(PersonLeavesVehicleEvent.class, 9, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+        });
+        register(PersonMoneyEvent.class, 10, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, e.getAmount());
+        });
+        register(PersonStuckEvent.class, 11, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(3, row, enc.index(e.getLegMode()));
+        });
+        register(TransitDriverStartsEvent.class, 12, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getDriverId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+            t.set(3, row, enc.index(e.getTransitRouteId(), Dictionary.TRANSIT_ROUTE));
+            t.set(4, row, enc.index(e.getTransitLineId(), Dictionary.TRANSIT_LINE));
+            t.set(5, row, enc.index(e.getDepartureId(), Dictionary.DEPARTURE));
+        });
+        register(VehicleAbortsEvent.class, 13, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+            t.set(2, row, enc.index(e.getLinkId(), Dictionary.LINK));
+        });
+        register(VehicleEntersTrafficEvent.class, 14, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(3, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+            t.set(4, row, enc.index(e.getNetworkMode()));
+            t.set(5, row, e.getRelativePositionOnLink());
+        });
+        register(VehicleLeavesTrafficEvent.class, 15, (e, enc, t, row) -> {
+            t.set(0, row, e.getTime());
+            t.set(1, row, enc.index(e.getPersonId(), Dictionary.PERSON));
+            t.set(2, row, enc.index(e.getLinkId(), Dictionary.LINK));
+            t.set(3, row, enc.index(e.getVehicleId(), Dictionary.VEHICLE));
+            t.set(4, row, enc.index(e.getNetworkMode()));
+            t.set(5, row, e.getRelativePositionOnLink());
+        });
+    }
+
+    private final EventDictionary dictionary = new EventDictionary();
+    private final CompactEvents.CompactEventBuffer.Builder protoSection = CompactEvents.CompactEventBuffer.newBuilder();
+    private final BufferSizeTracker protoSectionSize = new BufferSizeTracker();
+    private final Table[] tables = new Table[SCHEMAS.length];
+
+    public ColumnarEventBufferEncoder() {
+        for (int i = 0; i < SCHEMAS.length; i++) {
+            if (SCHEMAS[i] != null) tables[i] = new Table(i, SCHEMAS[i]);
+        }
+    }
+
+    private static <E extends Event> void register(Class<E> eventClass, int eventType, RowWriter<? super E> writer) {
+        COLUMNS.register(eventClass, new Columns(eventType, writer));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void addEvent(Event event) {
+        final Columns columns = COLUMNS.get(event.getClass());
+        if (columns == GENERIC) {
+            protoSection.addEvent(CompactEvents.CompactEvent.newBuilder()
+                    .setGenericEvent(Event2ProtoEvent.getGenericEvent(event)));
+        }
+        else {
+            final Table table = tables[columns.eventType];
+            ((RowWriter<Event>) columns.writer).write(event, this, table, table.newRow());
+        }
+        protoSectionSize.update(protoSection);
+    }
+
+    private int index(Id<?> id, Dictionary dictionary) {
+        return this.dictionary.index(id, dictionary, protoSection);
+    }
+
+    private int index(String value) {
+        return dictionary.index(value, protoSection);
+    }
+
+    @Override
+    public int getEventCount() {
+        int count = protoSection.getEventCount();
+        for (Table table : tables) {
+            if (table != null) count += table.size;
+        }
+        return count;
+    }
+
+    @Override
+    public long getSizeEstimate() {
+        long size = protoSectionSize.getSize();
+        for (Table table : tables) {
+            if (table != null) size += (long) table.size * table.rowBytes;
+        }
+        return size;
+    }
+
+    @Override
+    public byte[] flush(double windowStart, double windowEnd) {
+        final byte[] proto = protoSection
+                .setWindowStart(windowStart)
+                .setWindowEnd(windowEnd)
+                .build().toByteArray();
+
+        int nTables = 0;
+        int headerSize = 5 * 4;
+        for (Table table : tables) {
+            if (table == null || table.size == 0) continue;
+            nTables++;
+            headerSize += 3 * 4 + table.types.length() * 3 * 4;
+        }
+
+        int dataSize = align(proto.length);
+        for (Table table : tables) {
+            if (table == null || table.size == 0) continue;
+            for (int c = 0; c < table.types.length(); c++) {
+                dataSize += align(table.size * (table.types.charAt(c) == 'd' ? 8 : 4));
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(align(headerSize) + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        int dataOffset = align(headerSize);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(dataOffset);
+        buffer.putInt(proto.length);
+        buffer.putInt(nTables);
+        copy(buffer, dataOffset, proto);
+        dataOffset += align(proto.length);
+
+        for (Table table : tables) {
+            if (table == null || table.size == 0) continue;
+            buffer.putInt(table.eventType);
+            buffer.putInt(table.size);
+            buffer.putInt(table.types.length());
+
+            for (int c = 0; c < table.types.length(); c++) {
+                final boolean isDouble = table.types.charAt(c) == 'd';
+                buffer.putInt(c + 1);
+                buffer.putInt(isDouble ? FLOAT64 : INT32);
+                buffer.putInt(dataOffset);
+
+                final ByteBuffer column = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                column.position(dataOffset);
+                if (isDouble) {
+                    column.asDoubleBuffer().put(table.doubles[c], 0, table.size);
+                    dataOffset += align(table.size * 8);
+                }
+                else {
+                    column.asIntBuffer().put(table.ints[c], 0, table.size);
+                    dataOffset += align(table.size * 4);
+                }
+            }
+            table.size = 0;
+        }
+
+        protoSection.clear();
+        protoSectionSize.clear();
+        return buffer.array();
+    }
+
+    private static void copy(ByteBuffer buffer, int offset, byte[] data) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(data);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Fills the row of the table of the event type with the fields of the event.
+     */
+    private interface RowWriter<E extends Event> {
+        void write(E event, ColumnarEventBufferEncoder encoder, Table table, int row);
+    }
+
+    private static class Columns {
+        private final int eventType;
+        private final RowWriter<?> writer;
+
+        private Columns(int eventType, RowWriter<?> writer) {
+            this.eventType = eventType;
+            this.writer = writer;
+        }
+    }
+
+    private static class Table {
+        private final int eventType;
+        private final String types;
+        private final double[][] doubles;
+        private final int[][] ints;
+        private final int rowBytes;
+        private int size = 0;
+
+        private Table(int eventType, String types) {
+            this.eventType = eventType;
+            this.types = types;
+            this.doubles = new double[types.length()][];
+            this.ints = new int[types.length()][];
+
+            int rowBytes = 0;
+            for (int c = 0; c < types.length(); c++) {
+                if (types.charAt(c) == 'd') {
+                    doubles[c] = new double[16];
+                    rowBytes += 8;
+                }
+                else {
+                    ints[c] = new int[16];
+                    rowBytes += 4;
+                }
+            }
+            this.rowBytes = rowBytes;
+        }
+
+        private int newRow() {
+            if (size == capacity()) {
+                for (int c = 0; c < types.length(); c++) {
+                    if (doubles[c] != null) doubles[c] = Arrays.copyOf(doubles[c], 2 * size);
+                    else ints[c] = Arrays.copyOf(ints[c], 2 * size);
+                }
+            }
+            return size++;
+        }
+
+        private int capacity() {
+            return doubles[0].length;
+        }
+
+        private void set(int column, int row, double value) {
+            doubles[column][row] = value;
+        }
+
+        private void set(int column, int row, int value) {
+            ints[column][row] = value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CompactEventBufferEncoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2CompactProtoEvent;
+
+/**
+ * Encoder producing serialized CompactEventBuffer messages as defined in compact_events.proto.
+ * Ids and strings are sent as dictionary indices, with the dictionary itself sent incrementally,
+ * so the receiving side must see all buffers in order.
+ */
+public class CompactEventBufferEncoder implements EventBufferEncoder {
+    private final Event2CompactProtoEvent converter = new Event2CompactProtoEvent();
+    private final CompactEvents.CompactEventBuffer.Builder bufferBuilder =
+            CompactEvents.CompactEventBuffer.newBuilder();
+    private final BufferSizeTracker size = new BufferSizeTracker();
+
+    @Override
+    public void addEvent(Event event) {
+        converter.addCompactEvent(event, bufferBuilder);
+        size.update(bufferBuilder);
+    }
+
+    @Override
+    public int getEventCount() {
+        return bufferBuilder.getEventCount();
+    }
+
+    @Override
+    public long getSizeEstimate() {
+        return size.getSize();
+    }
+
+    @Override
+    public byte[] flush(double windowStart, double windowEnd) {
+        byte[] message = bufferBuilder
+                .setWindowStart(windowStart)
+                .setWindowEnd(windowEnd)
+                .build().toByteArray();
+        bufferBuilder.clear();
+        size.clear();
+        return message;
+    }
+}
@@ -0,0 +1,93 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CompressedFrames.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Framing of compressed buffers. A frame starts with a 12 bytes header, in little endian:
+ * <pre>
+ *   0 int  magic ("MCMP")
+ *   4 byte codec id
+ *   5 3 bytes reserved, 0
+ *   8 int  length of the uncompressed buffer
+ *   12     compressed buffer
+ * </pre>
+ * The magic cannot be confused with the start of the uncompressed formats: protocol buffer messages sent by the
+ * encoders never start with field 9, and columnar buffers start with "MCOL". Receivers can hence accept both
+ * compressed and uncompressed buffers.
+ */
+public final class CompressedFrames {
+    public static final int MAGIC = 0x504D434D;
+    public static final int HEADER_SIZE = 12;
+
+    // decompression only depends on the format, so new instances are created when needed, as codecs are not thread safe
+    private static final Map<Integer, Supplier<CompressionCodec>> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(DeflateCodec.ID, DeflateCodec::new);
+        register(Lz4BlockCodec.ID, Lz4BlockCodec::new);
+    }
+
+    private CompressedFrames() {}
+
+    /**
+     * Registers a codec, to decompress frames it produced on the Java side.
+     */
+    public static void register(int codecId, Supplier<CompressionCodec> codec) {
+        CODECS.put(codecId, codec);
+    }
+
+    public static byte[] compress(CompressionCodec codec, byte[] data) {
+        final byte[] compressed = codec.compress(data, 0, data.length);
+        final byte[] frame = new byte[HEADER_SIZE + compressed.length];
+        ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .put((byte) codec.getId())
+                .put(new byte[3])
+                .putInt(data.length)
+                .put(compressed);
+        return frame;
+    }
+
+    public static boolean isCompressed(byte[] buffer) {
+        return buffer.length >= HEADER_SIZE &&
+                ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+    }
+
+    /**
+     * @return the decompressed content of the frame, or the buffer itself if it is not compressed
+     */
+    public static byte[] decompress(byte[] buffer) {
+        if (!isCompressed(buffer)) return buffer;
+
+        final ByteBuffer header = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        final int codecId = header.get(4);
+        final int length = header.getInt(8);
+        final Supplier<CompressionCodec> codec = CODECS.get(codecId);
+        if (codec == null) throw new IllegalArgumentException("unknown compression codec "+codecId);
+        return codec.get().decompress(buffer, HEADER_SIZE, buffer.length - HEADER_SIZE, length);
+    }
+}
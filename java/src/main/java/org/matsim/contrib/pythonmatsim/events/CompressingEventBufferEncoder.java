@@ -0,0 +1,88 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CompressingEventBufferEncoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import org.matsim.api.core.v01.events.Event;
+
+/**
+ * Compresses the buffers produced by another encoder, wrapping them in frames identifying the codec
+ * (see {@link CompressedFrames}). Python listeners decompress such buffers transparently.
+ */
+public class CompressingEventBufferEncoder implements EventBufferEncoder {
+    private final EventBufferEncoder delegate;
+    private final CompressionCodec codec;
+
+    private long uncompressedBytes = 0;
+    private long compressedBytes = 0;
+    private long compressionNanos = 0;
+
+    public CompressingEventBufferEncoder(EventBufferEncoder delegate, CompressionCodec codec) {
+        this.delegate = delegate;
+        this.codec = codec;
+    }
+
+    @Override
+    public void addEvent(Event event) {
+        delegate.addEvent(event);
+    }
+
+    @Override
+    public int getEventCount() {
+        return delegate.getEventCount();
+    }
+
+    /**
+     * @return the size estimate of the uncompressed buffer
+     */
+    @Override
+    public long getSizeEstimate() {
+        return delegate.getSizeEstimate();
+    }
+
+    @Override
+    public byte[] flush(double windowStart, double windowEnd) {
+        final byte[] buffer = delegate.flush(windowStart, windowEnd);
+        final long start = System.nanoTime();
+        final byte[] frame = CompressedFrames.compress(codec, buffer);
+        compressionNanos += System.nanoTime() - start;
+        uncompressedBytes += buffer.length;
+        compressedBytes += frame.length;
+        return frame;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return the total size of the compressed frames divided by the size of the uncompressed buffers so far
+     */
+    public double getCompressionRatio() {
+        return uncompressedBytes == 0 ? 1 : (double) compressedBytes / uncompressedBytes;
+    }
+
+    /**
+     * @return the uncompressed megabytes compressed per second of compression time so far
+     */
+    public double getThroughputMegabytesPerSecond() {
+        return compressionNanos == 0 ? 0 : uncompressedBytes / 1e6 / (compressionNanos / 1e9);
+    }
+}
@@ -0,0 +1,41 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CompressionCodec.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+/**
+ * Block compression algorithm for event buffers. Compressed buffers are wrapped in frames identifying the codec,
+ * see {@link CompressedFrames}, so that receivers can decompress them transparently.
+ *
+ * Implementations may keep state between calls, and are hence not expected to be thread safe.
+ */
+public interface CompressionCodec {
+    /**
+     * @return the identifier of the codec in frame headers, between 1 and 127. 0 is reserved for uncompressed data.
+     */
+    int getId();
+
+    byte[] compress(byte[] data, int offset, int length);
+
+    /**
+     * @param uncompressedLength the length of the original data, as stored in the frame header
+     */
+    byte[] decompress(byte[] data, int offset, int length, int uncompressedLength);
+}
@@ -0,0 +1,365 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ConcurrentBufferedProtocolBufferSender.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Variant of {@link BufferedProtocolBufferSender} that can receive events from several threads at once, as happens
+ * with parallel events handling. Each thread fills its own stripe, so that filtering and encoding scale with the number
+ * of threads, and threads only synchronize when buffers are sent.
+ *
+ * Two orderings are available:
+ * <ul>
+ *     <li> {@link Ordering#ORDERED}: when the stripe of one thread meets the flush policy, or when an event falls
+ *     outside the current simulation time window, the events of all stripes are merged by time into EventBuffer
+ *     messages. Each buffer is sorted by time. Buffers only overlap in time if some thread lags behind the others by
+ *     more than a buffer. Only the EventBuffer format is supported, as merging copies the serialized events.
+ *     <li> {@link Ordering#UNORDERED}: each stripe has its own encoder, of any format, and sends its buffers on its own.
+ *     Buffers of different threads are interleaved.
+ * </ul>
+ * In both cases, buffers are handed to the dispatcher one at a time, so dispatchers and listeners do not need to be
+ * thread safe. All stripes are flushed and the dispatcher drained at the end of the mobsim.
+ */
+public class ConcurrentBufferedProtocolBufferSender implements BasicEventHandler, AfterMobsimListener, ShutdownListener {
+    private static final Logger log = Logger.getLogger(ConcurrentBufferedProtocolBufferSender.class);
+
+    public enum Ordering { ORDERED, UNORDERED }
+
+    private final FlushPolicy flushPolicy;
+    private final EventTypeFilter filter;
+    private final Supplier<? extends EventBufferEncoder> encoders;
+    private final BufferDispatcher dispatcher;
+    private final BridgeMetrics metrics;
+
+    // stripes of the current iteration. Parallel events managers start new threads in each iteration, so stripes
+    // are dropped at reset, and threads still holding one of a previous iteration get a new one.
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stripe> stripe = new ThreadLocal<>();
+    private volatile int iteration = 0;
+
+    // held while merging and dispatching
+    private final Object dispatchLock = new Object();
+    // end of the simulation time window of the latest ordered flush
+    private volatile double windowEnd = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Ordered sender, producing EventBuffer messages.
+     */
+    public ConcurrentBufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, BufferDispatcher dispatcher) {
+        this(flushPolicy, filter, dispatcher, new BridgeMetrics());
+    }
+
+    public ConcurrentBufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, BufferDispatcher dispatcher,
+                                                  BridgeMetrics metrics) {
+        this(flushPolicy, filter, null, dispatcher, metrics);
+    }
+
+    /**
+     * Unordered sender.
+     *
+     * @param encoders creates the encoder of each stripe
+     */
+    public ConcurrentBufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, Supplier<? extends EventBufferEncoder> encoders,
+                                                  BufferDispatcher dispatcher) {
+        this(flushPolicy, filter, encoders, dispatcher, new BridgeMetrics());
+    }
+
+    /**
+     * @param encoders creates the encoder of each stripe for an unordered sender, or null for an ordered sender
+     * @param metrics where to record runtime metrics, or null to record nothing
+     */
+    public ConcurrentBufferedProtocolBufferSender(FlushPolicy flushPolicy, EventTypeFilter filter, Supplier<? extends EventBufferEncoder> encoders,
+                                                  BufferDispatcher dispatcher, BridgeMetrics metrics) {
+        this.flushPolicy = flushPolicy;
+        this.filter = filter;
+        this.encoders = encoders;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        dispatcher.setMetrics(metrics);
+    }
+
+    public Ordering getOrdering() {
+        return encoders == null ? Ordering.ORDERED : Ordering.UNORDERED;
+    }
+
+    private Stripe getStripe() {
+        final Stripe current = stripe.get();
+        if (current != null && current.iteration == iteration) return current;
+
+        final Stripe created = new Stripe(encoders == null ? new EventRecords() : encoders.get(), iteration);
+        stripes.add(created);
+        stripe.set(created);
+        return created;
+    }
+
+    @Override
+    public void reset(int iteration) {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                if (s.encoder.getEventCount() > 0) {
+                    throw new IllegalStateException("buffer was not emptied at end of simulation: "+s.encoder.getEventCount()+" events remaining");
+                }
+            }
+        }
+        // all empty, checked above
+        stripes.clear();
+        this.iteration++;
+        filter.resetSkippedCounts();
+        synchronized (dispatchLock) {
+            dispatcher.reset(iteration);
+        }
+        windowEnd = Double.NEGATIVE_INFINITY;
+        if (metrics != null) metrics.reset();
+    }
+
+    @Override
+    public void handleEvent(Event event) {
+        if (!filter.accept(event)) return;
+
+        final Stripe s = getStripe();
+        if (encoders == null) {
+            if (flushPolicy.hasSimTimeWindow() && event.getTime() >= windowEnd) flushOrdered(event.getTime());
+            final boolean full;
+            synchronized (s) {
+                add(s, event);
+                full = flushPolicy.isFull(s.encoder, s.bufferStartNanos);
+            }
+            if (full) flushOrdered(Double.NaN);
+        }
+        else {
+            final byte[] previousWindow;
+            final byte[] buffer;
+            synchronized (s) {
+                previousWindow = flushWindow(s, event.getTime());
+                buffer = addUnordered(s, event);
+            }
+            if (previousWindow != null) dispatch(previousWindow);
+            if (buffer != null) dispatch(buffer);
+        }
+    }
+
+    private void add(Stripe s, Event event) {
+        if (s.encoder.getEventCount() == 0 && flushPolicy.hasWallClockLimit()) s.bufferStartNanos = System.nanoTime();
+        if (metrics == null) {
+            s.encoder.addEvent(event);
+        }
+        else if (++s.untimedEvents < BridgeMetrics.SERIALIZATION_SAMPLE_INTERVAL) {
+            s.encoder.addEvent(event);
+            metrics.recordEvent(event);
+        }
+        else {
+            s.untimedEvents = 0;
+            final long start = System.nanoTime();
+            s.encoder.addEvent(event);
+            metrics.recordEvent(event, (System.nanoTime() - start) * BridgeMetrics.SERIALIZATION_SAMPLE_INTERVAL);
+        }
+    }
+
+    /**
+     * @return the buffer of the previous time window of the stripe, if the time is outside of it
+     */
+    private byte[] flushWindow(Stripe s, double time) {
+        if (flushPolicy.hasSimTimeWindow() && s.encoder.getEventCount() > 0 && time >= s.windowEnd) {
+            return flushUnordered(s);
+        }
+        return null;
+    }
+
+    /**
+     * Same logic as {@link BufferedProtocolBufferSender#handleEvent(Event)}, within the stripe.
+     *
+     * @return the buffer to send, if full
+     */
+    private byte[] addUnordered(Stripe s, Event event) {
+        final double time = event.getTime();
+
+        if (s.encoder.getEventCount() == 0) {
+            if (flushPolicy.hasSimTimeWindow()) {
+                final double window = flushPolicy.getSimTimeWindow();
+                s.windowStart = Math.floor(time / window) * window;
+                s.windowEnd = s.windowStart + window;
+            }
+            else {
+                s.windowStart = time;
+            }
+        }
+
+        add(s, event);
+        if (!flushPolicy.hasSimTimeWindow()) s.windowEnd = time;
+
+        return flushPolicy.isFull(s.encoder, s.bufferStartNanos) ? flushUnordered(s) : null;
+    }
+
+    private byte[] flushUnordered(Stripe s) {
+        final long start = System.nanoTime();
+        final byte[] buffer = s.encoder.flush(s.windowStart, s.windowEnd);
+        if (metrics != null) metrics.recordFlush(buffer.length, System.nanoTime() - start);
+        s.windowStart = 0;
+        s.windowEnd = 0;
+        return buffer;
+    }
+
+    /**
+     * Merges the events of all stripes and sends them.
+     *
+     * @param windowTime time of an event outside the current time window, which becomes the new window,
+     *                   or NaN if the flush is not caused by a window change
+     */
+    private void flushOrdered(double windowTime) {
+        synchronized (dispatchLock) {
+            if (!Double.isNaN(windowTime)) {
+                // another thread might have moved to the window in the meantime
+                if (windowTime < windowEnd) return;
+                final double window = flushPolicy.getSimTimeWindow();
+                windowEnd = Math.floor(windowTime / window) * window + window;
+            }
+
+            // threads may add stripes meanwhile
+            final List<Stripe> merged = new ArrayList<>(stripes);
+            final List<EventRecords> parts = new ArrayList<>(merged.size());
+            for (Stripe s : merged) {
+                synchronized (s) {
+                    parts.add(s.swap());
+                }
+            }
+
+            final long start = System.nanoTime();
+            final List<byte[]> buffers = EventRecords.merge(parts, flushPolicy.getSimTimeWindow());
+            final long mergeNanos = System.nanoTime() - start;
+            for (byte[] buffer : buffers) {
+                if (metrics != null) metrics.recordFlush(buffer.length, mergeNanos / buffers.size());
+                dispatcher.dispatch(buffer);
+            }
+
+            for (int i = 0; i < parts.size(); i++) {
+                merged.get(i).giveBack(parts.get(i));
+            }
+        }
+    }
+
+    private void dispatch(byte[] buffer) {
+        synchronized (dispatchLock) {
+            dispatcher.dispatch(buffer);
+        }
+    }
+
+    /**
+     * Sends the events of all stripes. Must not be called while other threads are still handling events, except
+     * in ordered mode.
+     */
+    public void flush() {
+        if (encoders == null) {
+            flushOrdered(Double.NaN);
+            return;
+        }
+
+        for (Stripe s : stripes) {
+            final byte[] buffer;
+            synchronized (s) {
+                buffer = flushUnordered(s);
+            }
+            dispatch(buffer);
+        }
+    }
+
+    @Override
+    public void notifyAfterMobsim(AfterMobsimEvent event) {
+        flush();
+        dispatcher.drain();
+        log.info("skipped events per type in iteration "+event.getIteration()+": "+filter.getSkippedCounts());
+        if (metrics != null) log.info("metrics of iteration "+event.getIteration()+" over "+stripes.size()+" threads: "+metrics);
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        dispatcher.close();
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public EventTypeFilter getFilter() {
+        return filter;
+    }
+
+    public BufferDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public BridgeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the number of threads that sent events to this sender since the last reset
+     */
+    public int getStripeCount() {
+        return stripes.size();
+    }
+
+    /**
+     * Buffer of one thread. Guarded by its own monitor, which is only contended when flushing.
+     */
+    private static class Stripe {
+        private final int iteration;
+        private EventBufferEncoder encoder;
+        // ordered mode only: cleared records, waiting to replace the current ones at the next flush
+        private EventRecords spare = null;
+
+        private long bufferStartNanos = 0;
+        // events added since serialization was last timed
+        private int untimedEvents = 0;
+        // unordered mode only
+        private double windowStart = 0;
+        private double windowEnd = 0;
+
+        private Stripe(EventBufferEncoder encoder, int iteration) {
+            this.encoder = encoder;
+            this.iteration = iteration;
+        }
+
+        private EventRecords swap() {
+            final EventRecords current = (EventRecords) encoder;
+            encoder = spare != null ? spare : new EventRecords();
+            spare = null;
+            return current;
+        }
+
+        private void giveBack(EventRecords records) {
+            synchronized (this) {
+                spare = records;
+            }
+        }
+    }
+}
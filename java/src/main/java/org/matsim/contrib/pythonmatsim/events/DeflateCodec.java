@@ -0,0 +1,93 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * DeflateCodec.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression with the JDK zlib implementation. Output is in zlib format, readable with Python's zlib module.
+ * The level trades speed for ratio, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+ */
+public class DeflateCodec implements CompressionCodec {
+    public static final int ID = 1;
+
+    private final int level;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        this.level = level;
+        this.deflater = new Deflater(level);
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        // deflate never expands data by more than a few bytes per 16 kB block
+        byte[] output = new byte[length + length / 1000 + 64];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == output.length) output = Arrays.copyOf(output, 2 * output.length);
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        final byte[] output = new byte[uncompressedLength];
+        try {
+            int size = 0;
+            while (size < uncompressedLength && !inflater.finished()) {
+                final int inflated = inflater.inflate(output, size, uncompressedLength - size);
+                if (inflated == 0 && inflater.needsInput()) break;
+                size += inflated;
+            }
+            if (size != uncompressedLength) {
+                throw new IllegalArgumentException("corrupted deflate frame: got "+size+" bytes instead of "+uncompressedLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupted deflate frame", e);
+        }
+        return output;
+    }
+}
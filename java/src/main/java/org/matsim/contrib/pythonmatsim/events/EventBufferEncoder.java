@@ -0,0 +1,46 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventBufferEncoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.matsim.api.core.v01.events.Event;
+
+/**
+ * Accumulates events and serializes them into the byte messages handed to {@link BufferedProtocolBufferSender.Listener}s.
+ * The encoder determines the wire format, and the Python side needs to decode it accordingly.
+ */
+public interface EventBufferEncoder {
+    void addEvent(Event event);
+
+    int getEventCount();
+
+    /**
+     * @return the approximate size in bytes of the message the next call to flush would produce
+     */
+    long getSizeEstimate();
+
+    /**
+     * Serializes the events added since the last call and empties the buffer.
+     * The returned array might be handled by listeners on another thread, so a new array must be returned at each call.
+     *
+     * @param windowStart start of the simulation time window covered by the buffer, written in the message header
+     * @param windowEnd end of the simulation time window covered by the buffer
+     */
+    byte[] flush(double windowStart, double windowEnd);
+}
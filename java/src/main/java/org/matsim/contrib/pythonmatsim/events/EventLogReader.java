@@ -0,0 +1,204 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventLogReader.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferDecoder;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a log written by {@link EventLogWriter}, reading it through memory mappings.
+ * Buffers can be fed to any {@link BufferedProtocolBufferSender.Listener}, as if they came from the simulation, or
+ * decoded and pushed into an {@link EventsManager}. Replay can start at a given simulation time, found through the
+ * sparse time index. Compressed buffers are passed to listeners as they are: Python listeners decompress them
+ * transparently.
+ */
+public class EventLogReader implements Closeable {
+    // logs larger than this are mapped piece by piece
+    private static final int REGION_SIZE = 1 << 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+
+    private final double[] indexTimes;
+    private final long[] indexOffsets;
+
+    private MappedByteBuffer region = null;
+    private long regionStart = 0;
+    // offset of the buffer following the one read last
+    private long nextOffset = 0;
+
+    public EventLogReader(String path) throws IOException {
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+
+        final File indexFile = new File(path+EventLogWriter.INDEX_SUFFIX);
+        if (indexFile.exists()) {
+            try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+                final int entries = (int) (index.length() / EventLogWriter.INDEX_ENTRY_SIZE);
+                final ByteBuffer bytes = index.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * EventLogWriter.INDEX_ENTRY_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                indexTimes = new double[entries];
+                indexOffsets = new long[entries];
+                for (int i = 0; i < entries; i++) {
+                    indexTimes[i] = bytes.getDouble();
+                    indexOffsets[i] = bytes.getLong();
+                }
+            }
+        }
+        else {
+            indexTimes = new double[0];
+            indexOffsets = new long[0];
+        }
+    }
+
+    /**
+     * @return the offset in the log from which replaying reaches all events from the given time on.
+     *
+     * Indexed buffers have no event before their window start, but buffers before them can have events at that very
+     * time: events of the same time can be split between buffers, and buffers of a simulation time window all have
+     * its start. Replay hence starts at the first indexed buffer of the last window start before the given time.
+     */
+    public long seek(double time) {
+        final int before = lowerBound(time);
+        if (before == 0) return 0;
+        return indexOffsets[lowerBound(indexTimes[before - 1])];
+    }
+
+    /**
+     * @return the index of the first index entry starting at or after the given time
+     */
+    private int lowerBound(double time) {
+        int low = 0;
+        int high = indexTimes.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (indexTimes[middle] < time) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Feeds all buffers of the log to the listener.
+     */
+    public void replay(BufferedProtocolBufferSender.Listener listener) {
+        replay(Double.NEGATIVE_INFINITY, listener);
+    }
+
+    /**
+     * Feeds the buffers of the log to the listener, starting with a buffer from before the given time, see
+     * {@link #seek(double)}. The first buffers might hence contain events from before that time.
+     */
+    public void replay(double fromTime, BufferedProtocolBufferSender.Listener listener) {
+        long offset = seek(fromTime);
+        while (offset < size) {
+            final byte[] buffer = readBuffer(offset);
+            offset = nextOffset;
+            listener.handleEventBuffer(buffer);
+        }
+    }
+
+    /**
+     * Decodes the events of the log from the given time on, and processes them with the events manager.
+     * Initializing and finishing processing is left to the caller.
+     */
+    public void replay(double fromTime, EventsManager events) {
+        final EventBufferDecoder decoder = new EventBufferDecoder();
+        long offset = seek(fromTime);
+        while (offset < size) {
+            final byte[] buffer = readBuffer(offset);
+            offset = nextOffset;
+
+            final Event[] decoded;
+            try {
+                decoded = decoder.decode(CompressedFrames.decompress(buffer));
+            } catch (InvalidProtocolBufferException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (Event event : decoded) {
+                if (event.getTime() >= fromTime) events.processEvent(event);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        file.close();
+    }
+
+    private byte[] readBuffer(long offset) {
+        // length prefix, as a varint of at most 5 bytes
+        ByteBuffer bytes = map(offset, (int) Math.min(5, size - offset));
+        int position = (int) (offset - regionStart);
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes.get(position++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        final long start = regionStart + position;
+        bytes = map(start, length);
+        final byte[] buffer = new byte[length];
+        bytes.position((int) (start - regionStart));
+        bytes.get(buffer);
+        nextOffset = start + length;
+        return buffer;
+    }
+
+    /**
+     * @return a mapping covering [offset, offset + length), of which offset is at index offset - regionStart
+     */
+    private MappedByteBuffer map(long offset, int length) {
+        if (region == null || offset < regionStart || offset + length > regionStart + region.capacity()) {
+            try {
+                regionStart = offset;
+                region = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.max(REGION_SIZE, length), size - offset));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return region;
+    }
+}
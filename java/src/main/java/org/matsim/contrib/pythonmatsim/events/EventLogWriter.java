@@ -0,0 +1,162 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventLogWriter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Records EventBuffer messages, as produced by the default encoder, to one log file per iteration, so that they can
+ * be replayed later with {@link EventLogReader} without running the simulation again.
+ *
+ * The log file, events.[iteration].pblog, is a sequence of length-delimited EventBuffer messages, as written by
+ * {@link com.google.protobuf.MessageLite#writeDelimitedTo(OutputStream)}. Next to it, events.[iteration].pblog.idx
+ * is a sparse time index: little endian pairs of (double window start, long offset in the log), at most one per
+ * index interval of simulation time. Buffers can be compressed, see {@link CompressedFrames}, with the time index
+ * referring to the start of frames.
+ */
+public class EventLogWriter implements BufferedProtocolBufferSender.Listener, ShutdownListener, Closeable {
+    static final String LOG_SUFFIX = ".pblog";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private final File directory;
+    private final double indexInterval;
+    private final CompressionCodec codec;
+
+    private OutputStream log = null;
+    private OutputStream index = null;
+    private long offset = 0;
+    private double lastIndexedTime = Double.NEGATIVE_INFINITY;
+
+    private final byte[] lengthPrefix = new byte[5];
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param indexInterval minimum simulation time between two index entries. Smaller values make seeking more precise
+     *                      and the index larger.
+     */
+    public EventLogWriter(String directory, double indexInterval) {
+        this(directory, indexInterval, null);
+    }
+
+    /**
+     * @param codec to compress the buffers that are not already compressed, or null to store them as received
+     */
+    public EventLogWriter(String directory, double indexInterval, CompressionCodec codec) {
+        this.directory = new File(directory);
+        this.indexInterval = indexInterval;
+        this.codec = codec;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IllegalArgumentException("could not create directory "+directory);
+        }
+    }
+
+    public static File getLogFile(String directory, int iteration) {
+        return new File(directory, "events."+iteration+LOG_SUFFIX);
+    }
+
+    @Override
+    public void reset(int iteration) {
+        try {
+            close();
+            final File file = getLogFile(directory.getPath(), iteration);
+            log = new FileOutputStream(file);
+            index = new FileOutputStream(file.getPath()+INDEX_SUFFIX);
+            offset = 0;
+            lastIndexedTime = Double.NEGATIVE_INFINITY;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void handleEventBuffer(byte[] received) {
+        if (log == null) reset(0);
+
+        try {
+            final boolean compressed = CompressedFrames.isCompressed(received);
+            final double windowStart = readWindowStart(compressed ? CompressedFrames.decompress(received) : received);
+            final byte[] buffer = compressed || codec == null ? received : CompressedFrames.compress(codec, received);
+
+            if (windowStart >= lastIndexedTime + indexInterval) {
+                indexEntry.clear();
+                indexEntry.putDouble(windowStart).putLong(offset);
+                index.write(indexEntry.array());
+                lastIndexedTime = windowStart;
+            }
+
+            final CodedOutputStream prefix = CodedOutputStream.newInstance(lengthPrefix);
+            prefix.writeUInt32NoTag(buffer.length);
+            final int prefixLength = prefix.getTotalBytesWritten();
+            log.write(lengthPrefix, 0, prefixLength);
+            log.write(buffer);
+            offset += prefixLength + buffer.length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) log.close();
+        if (index != null) index.close();
+        log = null;
+        index = null;
+    }
+
+    /**
+     * Reads the window start of a serialized EventBuffer, jumping over the events instead of parsing them.
+     */
+    static double readWindowStart(byte[] buffer) throws IOException {
+        final CodedInputStream in = CodedInputStream.newInstance(buffer);
+        while (true) {
+            final int tag = in.readTag();
+            if (tag == 0) return 0;
+            if (WireFormat.getTagFieldNumber(tag) == EventBufferOuterClass.EventBuffer.WINDOWSTART_FIELD_NUMBER) {
+                return in.readDouble();
+            }
+            in.skipField(tag);
+        }
+    }
+}
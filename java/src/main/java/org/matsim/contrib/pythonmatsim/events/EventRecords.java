@@ -0,0 +1,209 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventRecords.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import com.google.protobuf.CodedOutputStream;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
+import org.matsim.contrib.pythonmatsim.protobuf.ProtoWire;
+import org.matsim.contrib.pythonmatsim.protobuf.TypedEventSchema;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Events written in the wire format of the "event" field of EventBuffer, like {@link ProtoEventBufferEncoder} does,
+ * but remembering where each event starts and its time. This allows several instances, filled concurrently, to be
+ * merged into time ordered EventBuffer messages by copying bytes, without encoding the events again.
+ */
+class EventRecords implements EventBufferEncoder {
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int INITIAL_EVENTS = 64;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int streamStart = 0;
+    private CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+    private int[] starts = new int[INITIAL_EVENTS];
+    private double[] times = new double[INITIAL_EVENTS];
+    private int eventCount = 0;
+    private final Set<TypedEventSchema> schemas = new LinkedHashSet<>();
+
+    @Override
+    public void addEvent(Event event) {
+        final int eventStart = getPosition();
+        try {
+            Event2ProtoEvent.writeEvent(EventBufferOuterClass.EventBuffer.EVENT_FIELD_NUMBER, event, out);
+        }
+        catch (CodedOutputStream.OutOfSpaceException e) {
+            grow(eventStart);
+            addEvent(event);
+            return;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (eventCount == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * eventCount);
+            times = Arrays.copyOf(times, 2 * eventCount);
+        }
+        starts[eventCount] = eventStart;
+        times[eventCount] = event.getTime();
+        eventCount++;
+
+        final TypedEventSchema schema = Event2ProtoEvent.getSchema(event.getClass());
+        if (schema != null) schemas.add(schema);
+    }
+
+    @Override
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public long getSizeEstimate() {
+        return getPosition();
+    }
+
+    @Override
+    public byte[] flush(double windowStart, double windowEnd) {
+        final Output output = new Output(getPosition());
+        output.append(bytes, 0, getPosition());
+        final byte[] message = output.finish(windowStart, windowEnd, schemas);
+        clear();
+        return message;
+    }
+
+    void clear() {
+        eventCount = 0;
+        schemas.clear();
+        streamStart = 0;
+        out = CodedOutputStream.newInstance(bytes);
+    }
+
+    private int getPosition() {
+        return streamStart + out.getTotalBytesWritten();
+    }
+
+    private int getEnd(int event) {
+        return event + 1 < eventCount ? starts[event + 1] : getPosition();
+    }
+
+    private void grow(int position) {
+        bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        streamStart = position;
+        out = CodedOutputStream.newInstance(bytes, position, bytes.length - position);
+    }
+
+    /**
+     * Merges the events of all parts by time, and clears the parts. Events of each part are expected in time order,
+     * as they come from a single thread. Events with the same time keep the order of the parts.
+     * Each buffer carries the schemas of all parts.
+     *
+     * @param simTimeWindow if positive, one buffer is produced per simulation time window, with the window as bounds.
+     *                      Otherwise a single buffer is produced, bounded by the times of its first and last events.
+     */
+    static List<byte[]> merge(List<EventRecords> parts, double simTimeWindow) {
+        final List<byte[]> buffers = new ArrayList<>();
+        final int[] next = new int[parts.size()];
+        final Set<TypedEventSchema> schemas = new LinkedHashSet<>();
+        int remaining = 0;
+        long size = 0;
+        for (EventRecords part : parts) {
+            remaining += part.eventCount;
+            size += part.getPosition();
+            schemas.addAll(part.schemas);
+        }
+        if (remaining == 0) return buffers;
+
+        Output output = new Output((int) Math.min(size, Integer.MAX_VALUE - 64));
+        double windowStart = Double.NaN;
+        double windowEnd = Double.NaN;
+        double lastTime = Double.NaN;
+        for (; remaining > 0; remaining--) {
+            int best = -1;
+            for (int p = 0; p < next.length; p++) {
+                final EventRecords part = parts.get(p);
+                if (next[p] < part.eventCount &&
+                        (best < 0 || part.times[next[p]] < parts.get(best).times[next[best]])) {
+                    best = p;
+                }
+            }
+            final EventRecords part = parts.get(best);
+            final int event = next[best]++;
+            final double time = part.times[event];
+
+            if (simTimeWindow > 0 && !(time < windowEnd)) {
+                if (output.length > 0) {
+                    buffers.add(output.finish(windowStart, windowEnd, schemas));
+                    output = new Output(output.bytes.length);
+                }
+                windowStart = Math.floor(time / simTimeWindow) * simTimeWindow;
+                windowEnd = windowStart + simTimeWindow;
+            }
+            if (simTimeWindow <= 0 && output.length == 0) windowStart = time;
+            lastTime = time;
+
+            output.append(part.bytes, part.starts[event], part.getEnd(event) - part.starts[event]);
+        }
+        buffers.add(output.finish(windowStart, simTimeWindow > 0 ? windowEnd : lastTime, schemas));
+
+        for (EventRecords part : parts) {
+            part.clear();
+        }
+        return buffers;
+    }
+
+    private static class Output {
+        private byte[] bytes;
+        private int length = 0;
+
+        private Output(int capacity) {
+            bytes = new byte[Math.max(capacity, 64)];
+        }
+
+        private void append(byte[] source, int offset, int count) {
+            if (length + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + count));
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        private byte[] finish(double windowStart, double windowEnd, Set<TypedEventSchema> schemas) {
+            final int startField = EventBufferOuterClass.EventBuffer.WINDOWSTART_FIELD_NUMBER;
+            final int endField = EventBufferOuterClass.EventBuffer.WINDOWEND_FIELD_NUMBER;
+            final int tailSize = ProtoEventBufferEncoder.computeSchemasSize(schemas) +
+                    ProtoWire.doubleSize(startField, windowStart) + ProtoWire.doubleSize(endField, windowEnd);
+            final byte[] message = Arrays.copyOf(bytes, length + tailSize);
+            final CodedOutputStream tail = CodedOutputStream.newInstance(message, length, tailSize);
+            try {
+                ProtoWire.writeDouble(tail, startField, windowStart);
+                ProtoWire.writeDouble(tail, endField, windowEnd);
+                ProtoEventBufferEncoder.writeSchemas(tail, schemas);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return message;
+        }
+    }
+}
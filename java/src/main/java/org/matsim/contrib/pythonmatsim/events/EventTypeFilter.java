@@ -0,0 +1,107 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventTypeFilter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which events get converted and forwarded, based on the names of the protocol buffer event types
+ * (the fields of the "event_type" oneof in events.proto, for instance "actStart").
+ * Those are the names Python listeners subscribe to with the listen_to decorator.
+ *
+ * The decision is resolved once per event class and cached, so that filtering an event is a constant time operation
+ * that happens before any protocol buffer object is created. Filters can be shared by the threads of a
+ * {@link ConcurrentBufferedProtocolBufferSender}.
+ */
+public class EventTypeFilter {
+    private final Set<String> acceptedTypes;
+
+    // ClassValue cannot be iterated, so keep track of the created entries separately for reporting
+    private final Collection<TypeEntry> entries = new ConcurrentLinkedQueue<>();
+    private final ClassValue<TypeEntry> entryPerClass = new ClassValue<TypeEntry>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected TypeEntry computeValue(Class<?> type) {
+            final String protoType = Event2ProtoEvent.getProtoEventType((Class<? extends Event>) type);
+            final TypeEntry entry = new TypeEntry(type, acceptedTypes == null || acceptedTypes.contains(protoType));
+            entries.add(entry);
+            return entry;
+        }
+    };
+
+    private EventTypeFilter(Set<String> acceptedTypes) {
+        this.acceptedTypes = acceptedTypes;
+    }
+
+    public EventTypeFilter(String... acceptedTypes) {
+        this(new HashSet<>(Arrays.asList(acceptedTypes)));
+
+        for (String type : this.acceptedTypes) {
+            if (!Event2ProtoEvent.PROTO_EVENT_TYPES.contains(type)) {
+                throw new IllegalArgumentException("unknown event type "+type+". Known types are "+Event2ProtoEvent.PROTO_EVENT_TYPES);
+            }
+        }
+    }
+
+    public static EventTypeFilter acceptAll() {
+        return new EventTypeFilter((Set<String>) null);
+    }
+
+    public boolean accept(Event event) {
+        final TypeEntry entry = entryPerClass.get(event.getClass());
+        if (!entry.accepted) entry.skipped.increment();
+        return entry.accepted;
+    }
+
+    /**
+     * @return the number of skipped events since the last call to {@link #resetSkippedCounts()}, per event class name.
+     * Classes without skipped events are not reported.
+     */
+    public Map<String, Long> getSkippedCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (TypeEntry entry : entries) {
+            final long skipped = entry.skipped.sum();
+            if (skipped > 0) counts.put(entry.type.getName(), skipped);
+        }
+        return counts;
+    }
+
+    public void resetSkippedCounts() {
+        for (TypeEntry entry : entries) {
+            entry.skipped.reset();
+        }
+    }
+
+    private static class TypeEntry {
+        private final Class<?> type;
+        private final boolean accepted;
+        private final LongAdder skipped = new LongAdder();
+
+        private TypeEntry(Class<?> type, boolean accepted) {
+            this.type = type;
+            this.accepted = accepted;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * FanOutBufferDispatcher.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Delivers buffers to each listener on its own thread, with its own bounded queue, so that cheap listeners are not
+ * held back by expensive ones. All listeners receive the same array, which must hence not be modified by listeners.
+ *
+ * The producer only waits when the queue of some listener is full. {@link #drain()} and {@link #reset(int)} wait for
+ * all listeners. Lag and backlog metrics are available per listener, from {@link #getListenerDispatchers()}.
+ */
+public class FanOutBufferDispatcher implements BufferDispatcher {
+    private final List<AsyncBufferDispatcher> dispatchers;
+
+    public FanOutBufferDispatcher(int queueDepth, BufferedProtocolBufferSender.Listener... listeners) {
+        this(queueDepth, null, listeners);
+    }
+
+    /**
+     * @param budget bound on the bytes of pending buffers, shared by all listeners, or null for no bound
+     */
+    public FanOutBufferDispatcher(int queueDepth, MemoryBudget budget, BufferedProtocolBufferSender.Listener... listeners) {
+        final AsyncBufferDispatcher[] dispatchers = new AsyncBufferDispatcher[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            dispatchers[i] = new AsyncBufferDispatcher(queueDepth, "python-matsim event delivery "+i+" ("+listeners[i]+")", budget, listeners[i]);
+        }
+        this.dispatchers = Collections.unmodifiableList(Arrays.asList(dispatchers));
+    }
+
+    @Override
+    public void dispatch(byte[] buffer) {
+        for (AsyncBufferDispatcher dispatcher : dispatchers) {
+            dispatcher.dispatch(buffer);
+        }
+    }
+
+    @Override
+    public void drain() {
+        for (AsyncBufferDispatcher dispatcher : dispatchers) {
+            dispatcher.drain();
+        }
+    }
+
+    @Override
+    public void reset(int iteration) {
+        for (AsyncBufferDispatcher dispatcher : dispatchers) {
+            dispatcher.reset(iteration);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (AsyncBufferDispatcher dispatcher : dispatchers) {
+            dispatcher.close();
+        }
+    }
+
+    @Override
+    public void setMetrics(BridgeMetrics metrics) {
+        for (AsyncBufferDispatcher dispatcher : dispatchers) {
+            dispatcher.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * @return one dispatcher per listener, in the order of the listeners, giving access to per-listener metrics
+     */
+    public List<AsyncBufferDispatcher> getListenerDispatchers() {
+        return dispatchers;
+    }
+}
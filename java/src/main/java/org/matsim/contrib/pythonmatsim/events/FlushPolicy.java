@@ -0,0 +1,96 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * FlushPolicy.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+/**
+ * Decides when {@link BufferedProtocolBufferSender} sends its buffer to the listeners.
+ * The buffer is sent as soon as one of the configured criteria is met:
+ * <ul>
+ *     <li> the number of events reaches the maximum (always active)
+ *     <li> the next event falls outside the current simulation time window, if a window size is set.
+ *     Windows are aligned on multiples of the window size, so that buffers never span several windows
+ *     (but one window might be split over several buffers if other criteria are met first)
+ *     <li> the buffer was started more than the given wall clock time ago, if set.
+ *     This is only checked when events arrive.
+ *     <li> the size of the serialized buffer reaches the given number of bytes, if set
+ * </ul>
+ */
+public class FlushPolicy {
+    private final int maxEvents;
+    private double simTimeWindow = 0;
+    private long maxWallClockNanos = 0;
+    private long maxBytes = 0;
+
+    public FlushPolicy(int maxEvents) {
+        if (maxEvents < 1) throw new IllegalArgumentException("maximum number of events must be at least 1, got "+maxEvents);
+        this.maxEvents = maxEvents;
+    }
+
+    /**
+     * @param seconds size of the simulation time windows. 0 (the default) means no windows.
+     */
+    public FlushPolicy setSimTimeWindow(double seconds) {
+        if (seconds < 0) throw new IllegalArgumentException("negative window "+seconds);
+        this.simTimeWindow = seconds;
+        return this;
+    }
+
+    /**
+     * @param millis maximum wall clock time between the first event of a buffer and the buffer being sent.
+     *               0 (the default) means no limit.
+     */
+    public FlushPolicy setMaxWallClockMillis(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("negative time "+millis);
+        this.maxWallClockNanos = millis * 1000000L;
+        return this;
+    }
+
+    /**
+     * @param bytes maximum size of a buffer. Buffers might be slightly above the limit, as the buffer is only sent
+     *              once it exceeds it. 0 (the default) means no limit.
+     */
+    public FlushPolicy setMaxBytes(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("negative size "+bytes);
+        this.maxBytes = bytes;
+        return this;
+    }
+
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public double getSimTimeWindow() {
+        return simTimeWindow;
+    }
+
+    boolean hasSimTimeWindow() {
+        return simTimeWindow > 0;
+    }
+
+    boolean hasWallClockLimit() {
+        return maxWallClockNanos > 0;
+    }
+
+    boolean isFull(EventBufferEncoder encoder, long bufferStartNanos) {
+        if (encoder.getEventCount() >= maxEvents) return true;
+        if (maxBytes > 0 && encoder.getSizeEstimate() >= maxBytes) return true;
+        return maxWallClockNanos > 0 && System.nanoTime() - bufferStartNanos >= maxWallClockNanos;
+    }
+}
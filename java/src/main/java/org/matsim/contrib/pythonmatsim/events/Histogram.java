@@ -0,0 +1,136 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * Histogram.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values in fixed buckets of exponentially growing width: bucket i holds the values
+ * from 2^(i-1) to 2^i - 1, bucket 0 holds 0. Recording is a bit scan and a {@link LongAdder} increment, cheap and
+ * contention free enough to stay enabled, at the cost of a relative precision of a factor 2.
+ */
+public class Histogram {
+    public static final int BUCKET_COUNT = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Not atomic: values recorded concurrently may or may not be part of the snapshot.
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, sum.sum(), max.get());
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * @return the largest value of the bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket == 0) return 0;
+        if (bucket == BUCKET_COUNT - 1) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.count = Arrays.stream(counts).sum();
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of values per bucket
+         */
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param fraction between 0 and 1, for instance 0.99
+         * @return an upper bound of the given quantile, at most twice the exact value
+         */
+        public long getPercentile(double fraction) {
+            if (count == 0) return 0;
+            final long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(getBucketUpperBound(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count="+count+", mean="+getMean()+", p50="+getPercentile(0.5)+", p99="+getPercentile(0.99)+", max="+max;
+        }
+    }
+}
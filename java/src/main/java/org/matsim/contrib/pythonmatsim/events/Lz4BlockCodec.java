@@ -0,0 +1,185 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * Lz4BlockCodec.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77-style compression, producing the LZ4 block format, so that Python can decompress it with the lz4
+ * package (or a slower pure Python fallback). Matches are found greedily through a hash table of 4-byte sequences,
+ * which favors speed over ratio.
+ */
+public class Lz4BlockCodec implements CompressionCodec {
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    // the format requires the last 5 bytes to be literals, and the last match to start 12 bytes before the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 16;
+    private static final int SKIP_STRENGTH = 6;
+
+    // position + 1 of the last occurrence of each hashed 4-byte sequence, 0 for none
+    private final int[] table = new int[1 << HASH_BITS];
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        Arrays.fill(table, 0);
+        final byte[] output = new byte[length + length / 255 + 16];
+        int out = 0;
+
+        final int end = offset + length;
+        final int matchFindLimit = end - MATCH_FIND_LIMIT;
+        final int matchLimit = end - LAST_LITERALS;
+        int anchor = offset;
+        int position = offset;
+        // as in the reference implementation, advance faster in data that does not compress
+        int misses = 0;
+
+        while (position < matchFindLimit) {
+            final int sequence = readInt(data, position);
+            final int hash = hash(sequence);
+            final int reference = table[hash] - 1;
+            table[hash] = position + 1;
+
+            if (reference < offset || position - reference > MAX_OFFSET || readInt(data, reference) != sequence) {
+                position += 1 + (misses++ >>> SKIP_STRENGTH);
+                continue;
+            }
+            misses = 0;
+
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && data[reference + matchLength] == data[position + matchLength]) {
+                matchLength++;
+            }
+
+            final int token = out;
+            out = writeLiterals(data, anchor, position - anchor, output, out);
+            output[out++] = (byte) (position - reference);
+            output[out++] = (byte) ((position - reference) >>> 8);
+            out = writeMatchLength(output, token, out, matchLength - MIN_MATCH);
+
+            position += matchLength;
+            anchor = position;
+        }
+
+        out = writeLiterals(data, anchor, end - anchor, output, out);
+        return Arrays.copyOf(output, out);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) {
+        final byte[] output = new byte[uncompressedLength];
+        final int end = offset + length;
+        int in = offset;
+        int out = 0;
+        try {
+            while (in < end) {
+                final int token = data[in++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = data[in++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(data, in, output, out, literalLength);
+                in += literalLength;
+                out += literalLength;
+                if (in >= end) break;
+
+                final int matchOffset = (data[in] & 0xFF) | (data[in + 1] & 0xFF) << 8;
+                in += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = data[in++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                final int matchStart = out - matchOffset;
+                if (matchOffset == 0 || matchStart < 0) throw new IllegalArgumentException("corrupted LZ4 block: invalid offset");
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(output, matchStart, output, out, matchLength);
+                    out += matchLength;
+                }
+                else {
+                    // byte by byte, as the match overlaps the bytes it produces
+                    for (int i = 0; i < matchLength; i++) {
+                        output[out++] = output[matchStart + i];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupted LZ4 block", e);
+        }
+        if (out != uncompressedLength) {
+            throw new IllegalArgumentException("corrupted LZ4 block: got "+out+" bytes instead of "+uncompressedLength);
+        }
+        return output;
+    }
+
+    /**
+     * Writes the token and literals of a sequence, starting at out. The match length bits of the token are filled by
+     * {@link #writeMatchLength(byte[], int, int, int)}.
+     */
+    private static int writeLiterals(byte[] data, int literalStart, int literalLength, byte[] output, int out) {
+        output[out++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15) out = writeLengthBytes(output, out, literalLength - 15);
+        System.arraycopy(data, literalStart, output, out, literalLength);
+        return out + literalLength;
+    }
+
+    private static int writeMatchLength(byte[] output, int token, int out, int length) {
+        output[token] |= (byte) Math.min(length, 15);
+        if (length >= 15) out = writeLengthBytes(output, out, length - 15);
+        return out;
+    }
+
+    private static int writeLengthBytes(byte[] output, int out, int remaining) {
+        while (remaining >= 255) {
+            output[out++] = (byte) 255;
+            remaining -= 255;
+        }
+        output[out++] = (byte) remaining;
+        return out;
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xFF) | (data[position + 1] & 0xFF) << 8 |
+                (data[position + 2] & 0xFF) << 16 | (data[position + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,241 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * MemoryBudget.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Bounds the memory used by buffers waiting for listeners in an {@link AsyncBufferDispatcher} or
+ * {@link FanOutBufferDispatcher}, and decides what happens when listeners fall behind:
+ * <ul>
+ *     <li> {@link Policy#BLOCK}: the producer waits until enough buffers were handled. Nothing is lost.
+ *     <li> {@link Policy#DROP_LOW_PRIORITY}: once the pending bytes exceed the degradation threshold, events of the
+ *     low priority types are dropped before being encoded. If the budget is still exceeded, the producer blocks.
+ *     <li> {@link Policy#SAMPLE}: once the pending bytes exceed the degradation threshold, only one event in n is kept.
+ *     If the budget is still exceeded, the producer blocks.
+ *     <li> {@link Policy#SPILL}: buffers that do not fit are written to a temporary file, and delivered from there
+ *     once the listeners caught up, in order. Nothing is lost, and the producer never waits, at the cost of disk I/O.
+ * </ul>
+ * Dropping and sampling happen in {@link BufferedProtocolBufferSender}, which needs to be given the same budget.
+ * With fan-out, each listener accounts for the buffers it still has to handle, so shared buffers are counted several
+ * times, which errs on the side of safety.
+ */
+public class MemoryBudget {
+    public enum Policy { BLOCK, DROP_LOW_PRIORITY, SAMPLE, SPILL }
+
+    private final long maxBytes;
+    private final Policy policy;
+    private double degradationThreshold = 0.5;
+    private Set<String> lowPriorityTypes = new HashSet<>();
+    private int sampleEvery = 10;
+    private File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+    private final ClassValue<Boolean> lowPriorityClasses = new ClassValue<Boolean>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Boolean computeValue(Class<?> type) {
+            return lowPriorityTypes.contains(Event2ProtoEvent.getProtoEventType((Class<? extends Event>) type));
+        }
+    };
+
+    // guarded by this
+    private long pendingBytes = 0;
+    private long blockedCount = 0;
+    private long blockedNanos = 0;
+    private long spilledBuffers = 0;
+    private long spilledBytes = 0;
+
+    // only accessed by the producer thread
+    private long droppedEvents = 0;
+    private long sampledOutEvents = 0;
+    private long sampleCounter = 0;
+
+    public MemoryBudget(long maxBytes, Policy policy) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("budget must be positive, got "+maxBytes);
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * @param fraction fraction of the budget above which events are dropped or sampled. 0.5 by default.
+     */
+    public MemoryBudget setDegradationThreshold(double fraction) {
+        if (fraction <= 0 || fraction > 1) throw new IllegalArgumentException("threshold must be in (0, 1], got "+fraction);
+        this.degradationThreshold = fraction;
+        return this;
+    }
+
+    /**
+     * @param protoEventTypes the types to drop first with {@link Policy#DROP_LOW_PRIORITY}, as in {@link EventTypeFilter}
+     */
+    public MemoryBudget setLowPriorityTypes(String... protoEventTypes) {
+        for (String type : protoEventTypes) {
+            if (!Event2ProtoEvent.PROTO_EVENT_TYPES.contains(type)) {
+                throw new IllegalArgumentException("unknown event type "+type+". Known types are "+Event2ProtoEvent.PROTO_EVENT_TYPES);
+            }
+        }
+        this.lowPriorityTypes = new HashSet<>(Arrays.asList(protoEventTypes));
+        return this;
+    }
+
+    /**
+     * @param n with {@link Policy#SAMPLE}, keep one event in n while the budget is under pressure. 10 by default.
+     */
+    public MemoryBudget setSampleEvery(int n) {
+        if (n < 1) throw new IllegalArgumentException("sampling interval must be at least 1, got "+n);
+        this.sampleEvery = n;
+        return this;
+    }
+
+    /**
+     * @param directory where {@link Policy#SPILL} creates its temporary files. java.io.tmpdir by default.
+     */
+    public MemoryBudget setSpillDirectory(String directory) {
+        this.spillDirectory = new File(directory);
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Called by the producer for each event, before encoding.
+     *
+     * @return false if the event must be dropped to relieve memory pressure
+     */
+    public boolean admit(Event event) {
+        if (policy != Policy.DROP_LOW_PRIORITY && policy != Policy.SAMPLE) return true;
+        if (getPendingBytes() <= degradationThreshold * maxBytes) return true;
+
+        if (policy == Policy.DROP_LOW_PRIORITY) {
+            if (!lowPriorityClasses.get(event.getClass())) return true;
+            droppedEvents++;
+            return false;
+        }
+
+        if (sampleCounter++ % sampleEvery == 0) return true;
+        sampledOutEvents++;
+        return false;
+    }
+
+    /**
+     * Reserves memory for a buffer, waiting for other buffers to be released if needed. A buffer larger than the whole
+     * budget is accepted once nothing else is pending.
+     */
+    synchronized void acquire(long bytes) {
+        if (!fits(bytes)) {
+            final long start = System.nanoTime();
+            while (!fits(bytes)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while waiting for memory budget", e);
+                }
+            }
+            blockedNanos += System.nanoTime() - start;
+            blockedCount++;
+        }
+        pendingBytes += bytes;
+    }
+
+    /**
+     * @return true if the memory was reserved, false if the buffer does not fit in the budget right now
+     */
+    synchronized boolean tryAcquire(long bytes) {
+        if (!fits(bytes)) return false;
+        pendingBytes += bytes;
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        pendingBytes -= bytes;
+        notifyAll();
+    }
+
+    synchronized void countSpill(long bytes) {
+        spilledBuffers++;
+        spilledBytes += bytes;
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public synchronized long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    public synchronized long getSpilledBuffers() {
+        return spilledBuffers;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public long getSampledOutEvents() {
+        return sampledOutEvents;
+    }
+
+    public synchronized void resetCounters() {
+        blockedCount = 0;
+        blockedNanos = 0;
+        spilledBuffers = 0;
+        spilledBytes = 0;
+        droppedEvents = 0;
+        sampledOutEvents = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "memory budget of "+maxBytes+" bytes with policy "+policy+": "+droppedEvents+" events dropped, "+
+                sampledOutEvents+" events sampled out, "+spilledBuffers+" buffers ("+spilledBytes+" bytes) spilled, "+
+                "producer blocked "+blockedCount+" times for "+blockedNanos / 1000000+" ms";
+    }
+
+    private boolean fits(long bytes) {
+        return pendingBytes == 0 || pendingBytes + bytes <= maxBytes;
+    }
+}
@@ -0,0 +1,135 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ProtoEventBufferEncoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import com.google.protobuf.CodedOutputStream;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
+import org.matsim.contrib.pythonmatsim.protobuf.TypedEventSchema;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Default encoder, producing serialized EventBuffer messages as defined in EventBuffer.proto
+ *
+ * Events are written directly in the wire format, through a {@link CodedOutputStream} over a byte array that is kept
+ * from one buffer to the next and grown when needed. Apart from the final copy of each buffer, encoding the built-in
+ * event types does not allocate.
+ *
+ * Buffers containing typed generic events also carry the schemas of their classes.
+ */
+public class ProtoEventBufferEncoder implements EventBufferEncoder {
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    // position in the array where the current stream starts
+    private int streamStart = 0;
+    private CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+    private int eventCount = 0;
+    private final Set<TypedEventSchema> schemas = new LinkedHashSet<>();
+
+    @Override
+    public void addEvent(Event event) {
+        final int eventStart = getPosition();
+        try {
+            Event2ProtoEvent.writeEvent(EventBufferOuterClass.EventBuffer.EVENT_FIELD_NUMBER, event, out);
+        }
+        catch (CodedOutputStream.OutOfSpaceException e) {
+            // drop the partially written event, and write it again in a larger array
+            grow(eventStart);
+            addEvent(event);
+            return;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        eventCount++;
+
+        final TypedEventSchema schema = Event2ProtoEvent.getSchema(event.getClass());
+        if (schema != null) schemas.add(schema);
+    }
+
+    @Override
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public long getSizeEstimate() {
+        return getPosition();
+    }
+
+    @Override
+    public byte[] flush(double windowStart, double windowEnd) {
+        final int eventsEnd = getPosition();
+        try {
+            // in field number order, as protobuf itself serializes messages
+            if (windowStart != 0) out.writeDouble(EventBufferOuterClass.EventBuffer.WINDOWSTART_FIELD_NUMBER, windowStart);
+            if (windowEnd != 0) out.writeDouble(EventBufferOuterClass.EventBuffer.WINDOWEND_FIELD_NUMBER, windowEnd);
+            writeSchemas(out, schemas);
+        }
+        catch (CodedOutputStream.OutOfSpaceException e) {
+            grow(eventsEnd);
+            return flush(windowStart, windowEnd);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final byte[] message = Arrays.copyOf(bytes, getPosition());
+        eventCount = 0;
+        schemas.clear();
+        streamStart = 0;
+        out = CodedOutputStream.newInstance(bytes);
+        return message;
+    }
+
+    static void writeSchemas(CodedOutputStream out, Set<TypedEventSchema> schemas) throws IOException {
+        for (TypedEventSchema schema : schemas) {
+            out.writeMessage(EventBufferOuterClass.EventBuffer.SCHEMA_FIELD_NUMBER, schema.getMessage());
+        }
+    }
+
+    static int computeSchemasSize(Set<TypedEventSchema> schemas) {
+        int size = 0;
+        for (TypedEventSchema schema : schemas) {
+            size += CodedOutputStream.computeMessageSize(EventBufferOuterClass.EventBuffer.SCHEMA_FIELD_NUMBER, schema.getMessage());
+        }
+        return size;
+    }
+
+    private int getPosition() {
+        return streamStart + out.getTotalBytesWritten();
+    }
+
+    /**
+     * Doubles the capacity of the array, keeping the bytes before the given position, and continues writing there.
+     */
+    private void grow(int position) {
+        bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        streamStart = position;
+        out = CodedOutputStream.newInstance(bytes, position, bytes.length - position);
+    }
+}
@@ -0,0 +1,190 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * SharedMemoryRingBuffer.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.ShutdownListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Publishes buffers into a memory-mapped file, used as a ring buffer with one producer and any number of consumers.
+ * This allows analyses to run in separate processes, without sharing the interpreter lock with the simulation and
+ * without copying data through sockets. The Python reader lives in pythonmatsim.ring_buffer.
+ *
+ * The producer never waits for consumers: consumers that fall more than the capacity behind miss records, and detect
+ * it through the sequence numbers.
+ *
+ * Layout, in little endian:
+ * <pre>
+ * header (64 bytes):
+ *   0  int  magic ("MRNG")
+ *   4  int  version
+ *   8  long capacity of the data section
+ *   16 long claimed position: end of the record being written
+ *   24 long published position: end of the last complete record
+ *   32 int  closed flag, set once no more records will come
+ *   40 long position of the start of the last complete record
+ * data section, starting at byte 64. Each record, aligned on 16 bytes:
+ *   0  int  payload length, or -1 for padding up to the end of the data section
+ *   4  int  iteration
+ *   8  long sequence number, starting at 0
+ *   16 payload
+ * </pre>
+ * Positions are absolute byte counts since creation; the offset in the data section is the position modulo the
+ * capacity. A record never wraps around: if it does not fit before the end, a padding record fills the rest.
+ * Consumers read the published position, copy the records up to it, and re-read the claimed position to check
+ * that the producer did not overwrite them meanwhile. Consumers that were overtaken restart from the last record.
+ *
+ * As consumers can attach late or miss records, records must be readable on their own. This excludes the
+ * dictionary-encoded formats ({@link CompactEventBufferEncoder}, {@link ColumnarEventBufferEncoder}), whose entries
+ * are only sent in the first buffer that uses them: feed the ring buffer with the default
+ * {@link ProtoEventBufferEncoder}, possibly compressed.
+ */
+public class SharedMemoryRingBuffer implements BufferedProtocolBufferSender.Listener, ShutdownListener, Closeable {
+    static final int MAGIC = 0x474E524D;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int CAPACITY_OFFSET = 8;
+    static final int CLAIMED_OFFSET = 16;
+    static final int PUBLISHED_OFFSET = 24;
+    static final int CLOSED_OFFSET = 32;
+    static final int LAST_RECORD_OFFSET = 40;
+
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int ALIGNMENT = 16;
+    static final int PADDING = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private long position = 0;
+    private long sequence = 0;
+    private int iteration = 0;
+
+    // only used for its memory barrier semantics
+    private volatile int fence = 0;
+
+    /**
+     * @param path the file to create or overwrite. Putting it on a memory-backed file system (/dev/shm on Linux) avoids
+     *            any disk I/O.
+     * @param capacity the size of the data section in bytes, rounded up to a multiple of 16. It limits the size of
+     *                 single buffers, and how far behind consumers can be.
+     */
+    public SharedMemoryRingBuffer(String path, int capacity) throws IOException {
+        if (capacity < 2 * RECORD_HEADER_SIZE) throw new IllegalArgumentException("capacity too small: "+capacity);
+        this.capacity = align(capacity);
+        this.file = new RandomAccessFile(path, "rw");
+        this.file.setLength(0);
+        this.file.setLength(HEADER_SIZE + this.capacity);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + this.capacity);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(4, VERSION);
+        buffer.putLong(CAPACITY_OFFSET, this.capacity);
+        buffer.putLong(CLAIMED_OFFSET, 0);
+        buffer.putLong(PUBLISHED_OFFSET, 0);
+        buffer.putInt(CLOSED_OFFSET, 0);
+        buffer.putLong(LAST_RECORD_OFFSET, 0);
+        fence();
+        // written last, so that readers attaching to the file only see an initialized header
+        buffer.putInt(0, MAGIC);
+    }
+
+    @Override
+    public void handleEventBuffer(byte[] message) {
+        final int recordSize = align(RECORD_HEADER_SIZE + message.length);
+        if (recordSize > capacity) {
+            throw new IllegalArgumentException("buffer of "+message.length+" bytes does not fit in ring buffer of "+capacity+" bytes");
+        }
+
+        final int paddingOffset = (int) (position % capacity);
+        final boolean wraps = paddingOffset + recordSize > capacity;
+        final long start = wraps ? position + capacity - paddingOffset : position;
+        final long end = start + recordSize;
+
+        // announce the region about to be overwritten before touching it
+        buffer.putLong(CLAIMED_OFFSET, end);
+        fence();
+
+        if (wraps) buffer.putInt(HEADER_SIZE + paddingOffset, PADDING);
+
+        final int offset = HEADER_SIZE + (int) (start % capacity);
+        buffer.putInt(offset, message.length);
+        buffer.putInt(offset + 4, iteration);
+        buffer.putLong(offset + 8, sequence);
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.put(message);
+
+        fence();
+        buffer.putLong(LAST_RECORD_OFFSET, start);
+        buffer.putLong(PUBLISHED_OFFSET, end);
+
+        position = end;
+        sequence++;
+    }
+
+    @Override
+    public void reset(int iteration) {
+        this.iteration = iteration;
+    }
+
+    @Override
+    public void notifyShutdown(ShutdownEvent event) {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Marks the ring buffer as closed, so that readers stop after the last record.
+     */
+    @Override
+    public void close() throws IOException {
+        fence();
+        buffer.putInt(CLOSED_OFFSET, 1);
+        buffer.force();
+        file.close();
+    }
+
+    public long getPublishedCount() {
+        return sequence;
+    }
+
+    private void fence() {
+        // HotSpot implements volatile accesses with full fences, which keeps the stores to the mapped memory ordered
+        // as seen from other processes.
+        fence = fence + 1;
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
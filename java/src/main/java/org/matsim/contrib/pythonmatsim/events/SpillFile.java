@@ -0,0 +1,101 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * SpillFile.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+
+/**
+ * First-in first-out queue of buffers in a temporary file, for {@link MemoryBudget.Policy#SPILL}.
+ * Records are (long dispatch time in nanoseconds, int length, buffer). The file is truncated whenever it is emptied.
+ * Not thread safe.
+ */
+class SpillFile {
+    private final File directory;
+    private File file = null;
+    private RandomAccessFile data = null;
+    private long readPosition = 0;
+    private long writePosition = 0;
+
+    // dispatch time of the buffer returned by the last call to read()
+    private long lastDispatchNanos = 0;
+
+    SpillFile(File directory) {
+        this.directory = directory;
+    }
+
+    boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    void append(byte[] buffer, long dispatchNanos) {
+        try {
+            if (data == null) {
+                file = File.createTempFile("python-matsim-spill", ".bin", directory);
+                file.deleteOnExit();
+                data = new RandomAccessFile(file, "rw");
+            }
+            data.seek(writePosition);
+            data.writeLong(dispatchNanos);
+            data.writeInt(buffer.length);
+            data.write(buffer);
+            writePosition = data.getFilePointer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    byte[] read() {
+        try {
+            data.seek(readPosition);
+            lastDispatchNanos = data.readLong();
+            final byte[] buffer = new byte[data.readInt()];
+            data.readFully(buffer);
+            readPosition = data.getFilePointer();
+
+            if (isEmpty()) {
+                data.setLength(0);
+                readPosition = 0;
+                writePosition = 0;
+            }
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long getLastDispatchNanos() {
+        return lastDispatchNanos;
+    }
+
+    void close() {
+        if (data == null) return;
+        try {
+            data.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!file.delete()) file.deleteOnExit();
+        data = null;
+    }
+}
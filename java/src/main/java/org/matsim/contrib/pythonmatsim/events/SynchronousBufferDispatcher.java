@@ -0,0 +1,79 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * SynchronousBufferDispatcher.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+/**
+ * Delivers buffers to the listeners one after the other, on the thread dispatching them.
+ */
+public class SynchronousBufferDispatcher implements BufferDispatcher {
+    private final BufferedProtocolBufferSender.Listener[] listeners;
+    // time spent per listener, or null without metrics
+    private Histogram[] latencies = null;
+
+    public SynchronousBufferDispatcher(BufferedProtocolBufferSender.Listener... listeners) {
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void dispatch(byte[] buffer) {
+        if (latencies == null) {
+            for (BufferedProtocolBufferSender.Listener listener : listeners) {
+                listener.handleEventBuffer(buffer);
+            }
+            return;
+        }
+
+        for (int i = 0; i < listeners.length; i++) {
+            final long start = System.nanoTime();
+            listeners[i].handleEventBuffer(buffer);
+            latencies[i].record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void drain() {
+        // nothing is ever pending
+    }
+
+    @Override
+    public void reset(int iteration) {
+        for (BufferedProtocolBufferSender.Listener listener : listeners) {
+            listener.reset(iteration);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void setMetrics(BridgeMetrics metrics) {
+        latencies = getListenerLatencies(metrics, listeners);
+    }
+
+    static Histogram[] getListenerLatencies(BridgeMetrics metrics, BufferedProtocolBufferSender.Listener[] listeners) {
+        if (metrics == null) return null;
+        final Histogram[] latencies = new Histogram[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            latencies[i] = metrics.getListenerLatency(listeners[i]);
+        }
+        return latencies;
+    }
+}
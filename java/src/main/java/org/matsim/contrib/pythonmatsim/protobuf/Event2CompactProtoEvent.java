@@ -0,0 +1,164 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * Event2CompactProtoEvent.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import org.matsim.api.core.v01.events.*;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents.DictionaryEntry.Dictionary;
+
+/**
+ * Converts events to the dictionary-encoded messages of compact_events.proto.
+ *
+ * Contrary to {@link Event2ProtoEvent}, this class has state: it holds the {@link EventDictionary} remembering which
+ * entries were already sent. The same instance must thus be used for all buffers sent to a given listener.
+ *
+ * As in {@link Event2ProtoEvent}, conversion is dispatched through a registry of {@link CompactEncoder}s keyed by
+ * event class. Classes without registered encoder are sent as generic events.
+ */
+public class Event2CompactProtoEvent {
+	/**
+	 * Fills the compact event with the content of a MATSim event, indexing ids and strings in the dictionary.
+	 * New dictionary entries are added to the buffer.
+	 */
+	public interface CompactEncoder<E extends Event> {
+		void encode(E event, EventDictionary dictionary, CompactEvents.CompactEventBuffer.Builder buffer, CompactEvents.CompactEvent.Builder eb);
+	}
+
+	private static final CompactEncoder<Event> GENERIC =
+			(event, dictionary, buffer, eb) -> eb.setGenericEvent(Event2ProtoEvent.getGenericEvent(event));
+
+	private static final EventClassRegistry<CompactEncoder<?>> ENCODERS = new EventClassRegistry<>(type -> GENERIC);
+
+	static {
+		register(LinkLeaveEvent.class, (e, dictionary, buffer, eb) -> eb.setLinkLeave(CompactEvents.CompactLinkLeaveEvent.newBuilder()
+				.setTime(e.getTime())
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))));
+
+		register(LinkEnterEvent.class, (e, dictionary, buffer, eb) -> eb.setLinkEnter(CompactEvents.CompactLinkEnterEvent.newBuilder()
+				.setTime(e.getTime())
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))));
+
+		register(ActivityEndEvent.class, (e, dictionary, buffer, eb) -> {
+			CompactEvents.CompactActivityEndEvent.Builder ae = CompactEvents.CompactActivityEndEvent.newBuilder()
+					.setTime(e.getTime())
+					.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+					.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+					.setActType(dictionary.index(e.getActType(), buffer));
+			if (e.getFacilityId() != null) {
+				ae.setHasFacilityId(true).setFacilityId(dictionary.index(e.getFacilityId(), Dictionary.FACILITY, buffer));
+			}
+			eb.setActEnd(ae);
+		});
+
+		register(ActivityStartEvent.class, (e, dictionary, buffer, eb) -> {
+			CompactEvents.CompactActivityStartEvent.Builder as = CompactEvents.CompactActivityStartEvent.newBuilder()
+					.setTime(e.getTime())
+					.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+					.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+					.setActType(dictionary.index(e.getActType(), buffer));
+			if (e.getFacilityId() != null) {
+				as.setHasFacilityId(true).setFacilityId(dictionary.index(e.getFacilityId(), Dictionary.FACILITY, buffer));
+			}
+			eb.setActStart(as);
+		});
+
+		register(PersonArrivalEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonArrival(CompactEvents.CompactPersonArrivalEvent.newBuilder()
+				.setTime(e.getTime())
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setLegMode(dictionary.index(e.getLegMode(), buffer))
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))));
+
+		register(PersonDepartureEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonDeparture(CompactEvents.CompactPersonDepartureEvent.newBuilder()
+				.setTime(e.getTime())
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setLegMode(dictionary.index(e.getLegMode(), buffer))
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))));
+
+		register(PersonEntersVehicleEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonEntersVehicle(CompactEvents.CompactPersonEntersVehicleEvent.newBuilder()
+				.setTime(e.getTime())
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))));
+
+		register(PersonLeavesVehicleEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonLeavesVehicle(CompactEvents.CompactPersonLeavesVehicleEvent.newBuilder()
+				.setTime(e.getTime())
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))));
+
+		register(PersonMoneyEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonMoney(CompactEvents.CompactPersonMoneyEvent.newBuilder()
+				.setTime(e.getTime())
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setAmount(e.getAmount())));
+
+		register(PersonStuckEvent.class, (e, dictionary, buffer, eb) -> eb.setPersonStuck(CompactEvents.CompactPersonStuckEvent.newBuilder()
+				.setTime(e.getTime())
+				.setPersId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setLegMode(dictionary.index(e.getLegMode(), buffer))));
+
+		register(TransitDriverStartsEvent.class, (e, dictionary, buffer, eb) -> eb.setTransitDriverStarts(CompactEvents.CompactTransitDriverStartsEvent.newBuilder()
+				.setTime(e.getTime())
+				.setDriverId(dictionary.index(e.getDriverId(), Dictionary.PERSON, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))
+				.setTransitRouteId(dictionary.index(e.getTransitRouteId(), Dictionary.TRANSIT_ROUTE, buffer))
+				.setTransitLineId(dictionary.index(e.getTransitLineId(), Dictionary.TRANSIT_LINE, buffer))
+				.setDepartureId(dictionary.index(e.getDepartureId(), Dictionary.DEPARTURE, buffer))));
+
+		register(VehicleAbortsEvent.class, (e, dictionary, buffer, eb) -> eb.setVehicleAborts(CompactEvents.CompactVehicleAbortsEvent.newBuilder()
+				.setTime(e.getTime())
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))));
+
+		register(VehicleEntersTrafficEvent.class, (e, dictionary, buffer, eb) -> eb.setVehicleEntersTraffic(CompactEvents.CompactVehicleEntersTrafficEvent.newBuilder()
+				.setTime(e.getTime())
+				.setDriverId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))
+				.setNetworkMode(dictionary.index(e.getNetworkMode(), buffer))
+				.setRelPosOnLink(e.getRelativePositionOnLink())));
+
+		register(VehicleLeavesTrafficEvent.class, (e, dictionary, buffer, eb) -> eb.setVehicleLeavesTraffic(CompactEvents.CompactVehicleLeavesTrafficEvent.newBuilder()
+				.setTime(e.getTime())
+				.setDriverId(dictionary.index(e.getPersonId(), Dictionary.PERSON, buffer))
+				.setLinkId(dictionary.index(e.getLinkId(), Dictionary.LINK, buffer))
+				.setVehId(dictionary.index(e.getVehicleId(), Dictionary.VEHICLE, buffer))
+				.setNetworkMode(dictionary.index(e.getNetworkMode(), buffer))
+				.setRelPosOnLink(e.getRelativePositionOnLink())));
+	}
+
+	private final EventDictionary dictionary = new EventDictionary();
+
+	/**
+	 * Registers the compact encoder to use for events of the given class and its subclasses, unless they have their own.
+	 */
+	public static <E extends Event> void register(Class<E> eventClass, CompactEncoder<? super E> encoder) {
+		ENCODERS.register(eventClass, encoder);
+	}
+
+	/**
+	 * Adds the compact version of the event to the buffer, together with the dictionary entries it needs that were
+	 * not sent yet.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addCompactEvent(Event event, CompactEvents.CompactEventBuffer.Builder buffer) {
+		final CompactEvents.CompactEvent.Builder eb = CompactEvents.CompactEvent.newBuilder();
+		((CompactEncoder<Event>) ENCODERS.get(event.getClass())).encode(event, dictionary, buffer, eb);
+		buffer.addEvent(eb);
+	}
+}
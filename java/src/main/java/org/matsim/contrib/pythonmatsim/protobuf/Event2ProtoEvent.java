@@ -19,180 +19,326 @@ package org.matsim.contrib.pythonmatsim.protobuf;
  *                                                                         *
  * *********************************************************************** */
 
+import com.google.protobuf.CodedOutputStream;
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.events.*;
 import org.matsim.core.gbl.Gbl;
 
-import java.util.Map;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * Created by laemmel on 16/02/16.
+ *
+ * Conversion is dispatched through a registry of {@link Encoder}s keyed by event class. The encoder of a class is
+ * resolved once, by walking up its superclasses until a registered one is found, and cached (see
+ * {@link EventClassRegistry}), so that dispatch takes constant time whatever the number of registered types.
+ * Classes without registered encoder fall back to the generic event. If the attributes of the class are backed by
+ * public getters, the generic event carries their typed values, described by a {@link TypedEventSchema}. Otherwise it
+ * is built from the attribute map.
+ *
+ * Encoders can come with a {@link WireEncoder}, which {@link #writeEvent(int, Event, CodedOutputStream)} uses to write
+ * the event straight in the wire format, without allocating message objects. All built-in types have one.
  */
 public abstract class Event2ProtoEvent {
 
 	private static final Logger log = Logger.getLogger(Event2ProtoEvent.class);
 	private static boolean REPORT_GENERIC_EVENT = true;
 
-	public static ProtobufEvents.Event getProtoEvent(Event event) {
-		ProtobufEvents.Event.Builder eb = ProtobufEvents.Event.newBuilder();
+	private static final Map<String, Integer> ONEOF_FIELD_NUMBERS = createOneofFieldNumbers();
+	public static final Collection<String> PROTO_EVENT_TYPES = Collections.unmodifiableSet(ONEOF_FIELD_NUMBERS.keySet());
+
+	/**
+	 * Fills the protocol buffer event with the content of a MATSim event.
+	 */
+	public interface Encoder<E extends Event> {
+		void encode(E event, ProtobufEvents.Event.Builder eb);
+	}
+
+	/**
+	 * Writes the content of a MATSim event in the wire format of the message of its "event_type" field.
+	 * The output must be byte-identical to the serialization of the message filled by the corresponding {@link Encoder}.
+	 *
+	 * @see ProtoWire#message()
+	 */
+	public interface WireEncoder<E extends Event> {
+		/**
+		 * @return the size of the message, without tag and length prefix
+		 */
+		int computeSize(E event);
 
-		if (event instanceof LinkLeaveEvent) {
-			ProtobufEvents.LinkLeaveEvent.Builder ll = ProtobufEvents.LinkLeaveEvent.newBuilder()
+		void write(E event, CodedOutputStream out) throws IOException;
+	}
+
+	private static final Registration GENERIC =
+			new Registration("genericEvent", null, (Event event, ProtobufEvents.Event.Builder eb) -> eb.setGenericEvent(getGenericEvent(event)));
+
+	private static final EventClassRegistry<Registration> REGISTRATIONS = new EventClassRegistry<>(Event2ProtoEvent::createFallback);
+
+	static {
+		register(LinkLeaveEvent.class, "linkLeave",
+				ProtoWire.<LinkLeaveEvent>message().doubleField(Event::getTime).idField(LinkLeaveEvent::getLinkId).idField(LinkLeaveEvent::getVehicleId),
+				(event, eb) -> eb.setLinkLeave(ProtobufEvents.LinkLeaveEvent.newBuilder()
+				.setTime(event.getTime())
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))));
+
+		register(LinkEnterEvent.class, "linkEnter",
+				ProtoWire.<LinkEnterEvent>message().doubleField(Event::getTime).idField(LinkEnterEvent::getLinkId).idField(LinkEnterEvent::getVehicleId),
+				(event, eb) -> eb.setLinkEnter(ProtobufEvents.LinkEnterEvent.newBuilder()
+				.setTime(event.getTime())
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))));
+
+		register(ActivityEndEvent.class, "actEnd",
+				ProtoWire.<ActivityEndEvent>message().doubleField(Event::getTime).idField(ActivityEndEvent::getLinkId).idField(ActivityEndEvent::getFacilityId)
+				.idField(ActivityEndEvent::getPersonId).stringField(ActivityEndEvent::getActType),
+				(event, eb) -> {
+			ProtobufEvents.ActivityEndEvent.Builder ae = ProtobufEvents.ActivityEndEvent.newBuilder()
 					.setTime(event.getTime())
-					.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((LinkLeaveEvent) event).getLinkId().toString()))
-					.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((LinkLeaveEvent) event).getVehicleId().toString()));
-			eb.setLinkLeave(ll);
-		}
-		else {
-			if (event instanceof LinkEnterEvent) {
-				ProtobufEvents.LinkEnterEvent.Builder ll = ProtobufEvents.LinkEnterEvent.newBuilder()
-						.setTime(event.getTime())
-						.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((LinkEnterEvent) event).getLinkId().toString()))
-						.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((LinkEnterEvent) event).getVehicleId().toString()));
-				eb.setLinkEnter(ll);
+					.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+					.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+					.setActType(event.getActType());
+			if (event.getFacilityId() != null) {
+				ae.setFacilityId(ProtobufEvents.ActivityFacilityId.newBuilder().setId(event.getFacilityId().toString()));
 			}
-			else {
-				if (event instanceof ActivityEndEvent) {
-					ProtobufEvents.ActivityEndEvent.Builder ae = ProtobufEvents.ActivityEndEvent.newBuilder()
-							.setTime(event.getTime())
-							.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((ActivityEndEvent) event).getLinkId().toString()))
-							.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((ActivityEndEvent) event).getPersonId().toString()))
-							.setActType(((ActivityEndEvent) event).getActType());
-					if (((ActivityEndEvent) event).getFacilityId() != null)  ae.setFacilityId(ProtobufEvents.ActivityFacilityId.newBuilder().setId(((ActivityEndEvent) event).getFacilityId().toString()));
-					eb.setActEnd(ae);
-
-				}
-				else {
-					if (event instanceof ActivityStartEvent) {
-						ProtobufEvents.ActivityStartEvent.Builder as = ProtobufEvents.ActivityStartEvent.newBuilder()
-								.setTime(event.getTime())
-								.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((ActivityStartEvent) event).getLinkId().toString()))
-								.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((ActivityStartEvent) event).getPersonId().toString()))
-								.setActType(((ActivityStartEvent) event).getActType());
-						if (((ActivityStartEvent) event).getFacilityId() != null ) {
-							as.setFacilityId(ProtobufEvents.ActivityFacilityId.newBuilder().setId(((ActivityStartEvent) event).getFacilityId().toString()));
-						}
-						eb.setActStart(as);
-					}
-					else {
-						if (event instanceof PersonArrivalEvent) {
-							ProtobufEvents.PersonArrivalEvent.Builder pa = ProtobufEvents.PersonArrivalEvent.newBuilder()
-									.setTime(event.getTime())
-									.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((PersonArrivalEvent) event).getLinkId().toString()))
-									.setLegMode(((PersonArrivalEvent) event).getLegMode())
-									.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonArrivalEvent) event).getPersonId().toString()));
-							eb.setPersonArrival(pa);
-						}
-						else {
-							if (event instanceof PersonDepartureEvent) {
-								ProtobufEvents.PersonDepartureEvent.Builder pd = ProtobufEvents.PersonDepartureEvent.newBuilder()
-										.setTime(event.getTime())
-										.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((PersonDepartureEvent) event).getLinkId().toString()))
-										.setLegMode(((PersonDepartureEvent) event).getLegMode())
-										.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonDepartureEvent) event).getPersonId().toString()));
-								eb.setPersonDeparture(pd);
-							}
-							else {
-								if (event instanceof PersonEntersVehicleEvent) {
-									ProtobufEvents.PersonEntersVehicleEvent.Builder pe = ProtobufEvents.PersonEntersVehicleEvent.newBuilder()
-											.setTime(event.getTime())
-											.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonEntersVehicleEvent) event).getPersonId().toString()))
-											.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((PersonEntersVehicleEvent) event).getVehicleId().toString()));
-									eb.setPersonEntersVehicle(pe);
-								}
-								else {
-									if (event instanceof PersonLeavesVehicleEvent) {
-										ProtobufEvents.PersonLeavesVehicleEvent.Builder pl = ProtobufEvents.PersonLeavesVehicleEvent.newBuilder()
-												.setTime(event.getTime())
-												.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonLeavesVehicleEvent) event).getPersonId().toString()))
-												.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((PersonLeavesVehicleEvent) event).getVehicleId().toString()));
-										eb.setPersonLeavesVehicle(pl);
-									}
-									else {
-										if (event instanceof PersonMoneyEvent) {
-											ProtobufEvents.PersonMoneyEvent.Builder pm = ProtobufEvents.PersonMoneyEvent.newBuilder()
-													.setTime(event.getTime())
-													.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonMoneyEvent) event).getPersonId().toString()))
-													.setAmount(((PersonMoneyEvent) event).getAmount());
-											eb.setPersonMoney(pm);
-										}
-										else {
-											if (event instanceof PersonStuckEvent) {
-												ProtobufEvents.PersonStuckEvent.Builder ps = ProtobufEvents.PersonStuckEvent.newBuilder()
-														.setTime(event.getTime())
-														.setPersId(ProtobufEvents.PersonId.newBuilder().setId(((PersonStuckEvent) event).getPersonId().toString()))
-														.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((PersonStuckEvent) event).getLinkId().toString()))
-														.setLegMode(((PersonStuckEvent) event).getLegMode());
-												eb.setPersonStuck(ps);
-											}
-											else {
-												if (event instanceof TransitDriverStartsEvent) {
-													ProtobufEvents.TransitDriverStartsEvent.Builder td = ProtobufEvents.TransitDriverStartsEvent.newBuilder()
-															.setTime(event.getTime())
-															.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(((TransitDriverStartsEvent) event).getDriverId().toString()))
-															.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((TransitDriverStartsEvent) event).getVehicleId().toString()))
-															.setTransitRouteId(ProtobufEvents.TransitRouteId.newBuilder().setId(((TransitDriverStartsEvent) event).getTransitRouteId().toString()))
-															.setTransitLineId(ProtobufEvents.TransitLineId.newBuilder().setId(((TransitDriverStartsEvent) event).getTransitLineId().toString()))
-															.setDepartureId(ProtobufEvents.DepartureId.newBuilder().setId(((TransitDriverStartsEvent) event).getDepartureId().toString()));
-													eb.setTransitDriverStarts(td);
-												}
-												else {
-													if (event instanceof VehicleAbortsEvent) {
-														ProtobufEvents.VehicleAbortsEvent.Builder va = ProtobufEvents.VehicleAbortsEvent.newBuilder()
-																.setTime(event.getTime())
-																.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((VehicleAbortsEvent) event).getVehicleId().toString()))
-																.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((VehicleAbortsEvent) event).getLinkId().toString()));
-														eb.setVehicleAborts(va);
-													}
-													else {
-														if (event instanceof VehicleEntersTrafficEvent) {
-															ProtobufEvents.VehicleEntersTrafficEvent.Builder ve = ProtobufEvents.VehicleEntersTrafficEvent.newBuilder()
-																	.setTime(event.getTime())
-																	.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(((VehicleEntersTrafficEvent) event).getPersonId().toString()))
-																	.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((VehicleEntersTrafficEvent) event).getLinkId().toString()))
-																	.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((VehicleEntersTrafficEvent) event).getVehicleId().toString()))
-																	.setNetworkMode(((VehicleEntersTrafficEvent) event).getNetworkMode())
-																	.setRelPosOnLink(((VehicleEntersTrafficEvent) event).getRelativePositionOnLink());
-															eb.setVehicleEntersTraffic(ve);
-														}
-														else {
-															if (event instanceof VehicleLeavesTrafficEvent) {
-																ProtobufEvents.VehicleLeavesTrafficEvent.Builder vl = ProtobufEvents.VehicleLeavesTrafficEvent.newBuilder()
-																		.setTime(event.getTime())
-																		.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(((VehicleLeavesTrafficEvent) event).getPersonId().toString()))
-																		.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(((VehicleLeavesTrafficEvent) event).getLinkId().toString()))
-																		.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(((VehicleLeavesTrafficEvent) event).getVehicleId().toString()))
-																		.setNetworkMode(((VehicleLeavesTrafficEvent) event).getNetworkMode())
-																		.setRelPosOnLink(((VehicleLeavesTrafficEvent) event).getRelativePositionOnLink());
-																eb.setVehicleLeavesTraffic(vl);
-															}
-															else {
-																if (Event2ProtoEvent.REPORT_GENERIC_EVENT) {
-																	Event2ProtoEvent.REPORT_GENERIC_EVENT = false;
-																	log.warn("Unknown event type: " + event.getEventType() + " creating generic protobuf event");
-																	log.warn(Gbl.ONLYONCE);
-//																throw new RuntimeException("Unsopported event type:" + event.getEventType());
-																}
-																ProtobufEvents.GenericEvent.Builder ge = ProtobufEvents.GenericEvent.newBuilder();
-																for (Map.Entry<String,String> e : event.getAttributes().entrySet()) {
-																	ge.addAttrVal(ProtobufEvents.AttrVal.newBuilder().setValue(e.getValue()).setAttribut(e.getKey()));
-																}
-																eb.setGenericEvent(ge);
-															}
-														}
-													}
-												}
-											}
-										}
-									}
-								}
-							}
-						}
-					}
-				}
+			eb.setActEnd(ae);
+		});
+
+		register(ActivityStartEvent.class, "actStart",
+				ProtoWire.<ActivityStartEvent>message().doubleField(Event::getTime).idField(ActivityStartEvent::getLinkId).idField(ActivityStartEvent::getFacilityId)
+				.idField(ActivityStartEvent::getPersonId).stringField(ActivityStartEvent::getActType),
+				(event, eb) -> {
+			ProtobufEvents.ActivityStartEvent.Builder as = ProtobufEvents.ActivityStartEvent.newBuilder()
+					.setTime(event.getTime())
+					.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+					.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+					.setActType(event.getActType());
+			if (event.getFacilityId() != null) {
+				as.setFacilityId(ProtobufEvents.ActivityFacilityId.newBuilder().setId(event.getFacilityId().toString()));
 			}
+			eb.setActStart(as);
+		});
+
+		register(PersonArrivalEvent.class, "personArrival",
+				ProtoWire.<PersonArrivalEvent>message().doubleField(Event::getTime).idField(PersonArrivalEvent::getLinkId).stringField(PersonArrivalEvent::getLegMode)
+				.idField(PersonArrivalEvent::getPersonId),
+				(event, eb) -> eb.setPersonArrival(ProtobufEvents.PersonArrivalEvent.newBuilder()
+				.setTime(event.getTime())
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setLegMode(event.getLegMode())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))));
+
+		register(PersonDepartureEvent.class, "personDeparture",
+				ProtoWire.<PersonDepartureEvent>message().doubleField(Event::getTime).idField(PersonDepartureEvent::getLinkId).stringField(PersonDepartureEvent::getLegMode)
+				.idField(PersonDepartureEvent::getPersonId),
+				(event, eb) -> eb.setPersonDeparture(ProtobufEvents.PersonDepartureEvent.newBuilder()
+				.setTime(event.getTime())
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setLegMode(event.getLegMode())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))));
+
+		register(PersonEntersVehicleEvent.class, "personEntersVehicle",
+				ProtoWire.<PersonEntersVehicleEvent>message().doubleField(Event::getTime).idField(PersonEntersVehicleEvent::getPersonId).idField(PersonEntersVehicleEvent::getVehicleId),
+				(event, eb) -> eb.setPersonEntersVehicle(ProtobufEvents.PersonEntersVehicleEvent.newBuilder()
+				.setTime(event.getTime())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))));
+
+		register(PersonLeavesVehicleEvent.class, "personLeavesVehicle",
+				ProtoWire.<PersonLeavesVehicleEvent>message().doubleField(Event::getTime).idField(PersonLeavesVehicleEvent::getPersonId).idField(PersonLeavesVehicleEvent::getVehicleId),
+				(event, eb) -> eb.setPersonLeavesVehicle(ProtobufEvents.PersonLeavesVehicleEvent.newBuilder()
+				.setTime(event.getTime())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))));
+
+		register(PersonMoneyEvent.class, "personMoney",
+				ProtoWire.<PersonMoneyEvent>message().doubleField(Event::getTime).idField(PersonMoneyEvent::getPersonId).doubleField(PersonMoneyEvent::getAmount),
+				(event, eb) -> eb.setPersonMoney(ProtobufEvents.PersonMoneyEvent.newBuilder()
+				.setTime(event.getTime())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setAmount(event.getAmount())));
+
+		register(PersonStuckEvent.class, "personStuck",
+				ProtoWire.<PersonStuckEvent>message().doubleField(Event::getTime).idField(PersonStuckEvent::getPersonId).idField(PersonStuckEvent::getLinkId)
+				.stringField(PersonStuckEvent::getLegMode),
+				(event, eb) -> eb.setPersonStuck(ProtobufEvents.PersonStuckEvent.newBuilder()
+				.setTime(event.getTime())
+				.setPersId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setLegMode(event.getLegMode())));
+
+		register(TransitDriverStartsEvent.class, "transitDriverStarts",
+				ProtoWire.<TransitDriverStartsEvent>message().doubleField(Event::getTime).idField(TransitDriverStartsEvent::getDriverId).idField(TransitDriverStartsEvent::getVehicleId)
+				.idField(TransitDriverStartsEvent::getTransitRouteId).idField(TransitDriverStartsEvent::getTransitLineId)
+				.idField(TransitDriverStartsEvent::getDepartureId),
+				(event, eb) -> eb.setTransitDriverStarts(ProtobufEvents.TransitDriverStartsEvent.newBuilder()
+				.setTime(event.getTime())
+				.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(event.getDriverId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))
+				.setTransitRouteId(ProtobufEvents.TransitRouteId.newBuilder().setId(event.getTransitRouteId().toString()))
+				.setTransitLineId(ProtobufEvents.TransitLineId.newBuilder().setId(event.getTransitLineId().toString()))
+				.setDepartureId(ProtobufEvents.DepartureId.newBuilder().setId(event.getDepartureId().toString()))));
+
+		register(VehicleAbortsEvent.class, "vehicleAborts",
+				ProtoWire.<VehicleAbortsEvent>message().doubleField(Event::getTime).idField(VehicleAbortsEvent::getVehicleId).idField(VehicleAbortsEvent::getLinkId),
+				(event, eb) -> eb.setVehicleAborts(ProtobufEvents.VehicleAbortsEvent.newBuilder()
+				.setTime(event.getTime())
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))));
+
+		register(VehicleEntersTrafficEvent.class, "vehicleEntersTraffic",
+				ProtoWire.<VehicleEntersTrafficEvent>message().doubleField(Event::getTime).idField(VehicleEntersTrafficEvent::getPersonId).idField(VehicleEntersTrafficEvent::getLinkId)
+				.idField(VehicleEntersTrafficEvent::getVehicleId).stringField(VehicleEntersTrafficEvent::getNetworkMode)
+				.doubleField(VehicleEntersTrafficEvent::getRelativePositionOnLink),
+				(event, eb) -> eb.setVehicleEntersTraffic(ProtobufEvents.VehicleEntersTrafficEvent.newBuilder()
+				.setTime(event.getTime())
+				.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))
+				.setNetworkMode(event.getNetworkMode())
+				.setRelPosOnLink(event.getRelativePositionOnLink())));
+
+		register(VehicleLeavesTrafficEvent.class, "vehicleLeavesTraffic",
+				ProtoWire.<VehicleLeavesTrafficEvent>message().doubleField(Event::getTime).idField(VehicleLeavesTrafficEvent::getPersonId).idField(VehicleLeavesTrafficEvent::getLinkId)
+				.idField(VehicleLeavesTrafficEvent::getVehicleId).stringField(VehicleLeavesTrafficEvent::getNetworkMode)
+				.doubleField(VehicleLeavesTrafficEvent::getRelativePositionOnLink),
+				(event, eb) -> eb.setVehicleLeavesTraffic(ProtobufEvents.VehicleLeavesTrafficEvent.newBuilder()
+				.setTime(event.getTime())
+				.setDriverId(ProtobufEvents.PersonId.newBuilder().setId(event.getPersonId().toString()))
+				.setLinkId(ProtobufEvents.LinkId.newBuilder().setId(event.getLinkId().toString()))
+				.setVehId(ProtobufEvents.VehicleId.newBuilder().setId(event.getVehicleId().toString()))
+				.setNetworkMode(event.getNetworkMode())
+				.setRelPosOnLink(event.getRelativePositionOnLink())));
+	}
+
+	/**
+	 * Registers the encoder to use for events of the given class and its subclasses, unless they have their own.
+	 * This allows contribs to provide typed encoders for their events, for instance filling the generic event
+	 * directly from typed getters instead of going through {@link Event#getAttributes()}.
+	 *
+	 * @param protoEventType the field of the "event_type" oneof the encoder fills, used for filtering
+	 */
+	public static <E extends Event> void register(Class<E> eventClass, String protoEventType, Encoder<? super E> encoder) {
+		register(eventClass, protoEventType, null, encoder);
+	}
+
+	/**
+	 * Same as {@link #register(Class, String, Encoder)}, with a {@link WireEncoder} producing the same bytes as the
+	 * encoder without building the message.
+	 */
+	public static <E extends Event> void register(Class<E> eventClass, String protoEventType, WireEncoder<? super E> wireEncoder, Encoder<? super E> encoder) {
+		if (!PROTO_EVENT_TYPES.contains(protoEventType)) {
+			throw new IllegalArgumentException("unknown event type "+protoEventType+". Known types are "+PROTO_EVENT_TYPES);
 		}
+		REGISTRATIONS.register(eventClass, new Registration(protoEventType, wireEncoder, encoder));
+	}
+
+	/**
+	 * Name of the "event_type" field of the protocol buffer Event message that instances of the given class are
+	 * converted to, as seen from Python. Classes that do not have a dedicated encoder map to "genericEvent".
+	 */
+	public static String getProtoEventType(Class<? extends Event> eventClass) {
+		return REGISTRATIONS.get(eventClass).protoEventType;
+	}
+
+	/**
+	 * @return the schema of the typed values of the generic events of the class, or null if the class has a dedicated
+	 * encoder or is sent as attributes. Buffers containing such events need to carry the schema. As schemas are learnt
+	 * from the first events of their class, this has to be called after converting the event.
+	 */
+	public static TypedEventSchema getSchema(Class<? extends Event> eventClass) {
+		return REGISTRATIONS.get(eventClass).typed ? TypedEventSchema.forClass(eventClass) : null;
+	}
 
+	@SuppressWarnings("unchecked")
+	public static ProtobufEvents.Event getProtoEvent(Event event) {
+		ProtobufEvents.Event.Builder eb = ProtobufEvents.Event.newBuilder();
+		((Encoder<Event>) REGISTRATIONS.get(event.getClass()).encoder).encode(event, eb);
 		return eb.build();
 	}
+
+	/**
+	 * Writes the event as an Event message in the given field of the enclosing message. The bytes are the same as
+	 * the ones of {@code out.writeMessage(fieldNumber, getProtoEvent(event))}, but no message object is built if the
+	 * type has a {@link WireEncoder}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void writeEvent(int fieldNumber, Event event, CodedOutputStream out) throws IOException {
+		final Registration registration = REGISTRATIONS.get(event.getClass());
+		if (registration.wireEncoder == null) {
+			out.writeMessage(fieldNumber, getProtoEvent(event));
+			return;
+		}
+		final WireEncoder<Event> wireEncoder = (WireEncoder<Event>) registration.wireEncoder;
+		final int contentSize = wireEncoder.computeSize(event);
+		ProtoWire.writeMessageHeader(out, fieldNumber, ProtoWire.messageSize(registration.fieldNumber, contentSize));
+		ProtoWire.writeMessageHeader(out, registration.fieldNumber, contentSize);
+		wireEncoder.write(event, out);
+	}
+
+	public static ProtobufEvents.GenericEvent.Builder getGenericEvent(Event event) {
+		if (Event2ProtoEvent.REPORT_GENERIC_EVENT) {
+			Event2ProtoEvent.REPORT_GENERIC_EVENT = false;
+			log.warn("Unknown event type: " + event.getEventType() + " creating generic protobuf event");
+			log.warn(Gbl.ONLYONCE);
+//			throw new RuntimeException("Unsopported event type:" + event.getEventType());
+		}
+		ProtobufEvents.GenericEvent.Builder ge = ProtobufEvents.GenericEvent.newBuilder()
+				.setType(event.getEventType())
+				.setTime(event.getTime());
+		for (Map.Entry<String,String> e : event.getAttributes().entrySet()) {
+			ge.addAttrVal(ProtobufEvents.AttrVal.newBuilder().setValue(e.getValue()).setAttribut(e.getKey()));
+		}
+		return ge;
+	}
+
+	private static Map<String, Integer> createOneofFieldNumbers() {
+		final Map<String, Integer> numbers = new HashMap<>();
+		numbers.put("actEnd", ProtobufEvents.Event.ACTEND_FIELD_NUMBER);
+		numbers.put("actStart", ProtobufEvents.Event.ACTSTART_FIELD_NUMBER);
+		numbers.put("linkEnter", ProtobufEvents.Event.LINKENTER_FIELD_NUMBER);
+		numbers.put("linkLeave", ProtobufEvents.Event.LINKLEAVE_FIELD_NUMBER);
+		numbers.put("personArrival", ProtobufEvents.Event.PERSONARRIVAL_FIELD_NUMBER);
+		numbers.put("personDeparture", ProtobufEvents.Event.PERSONDEPARTURE_FIELD_NUMBER);
+		numbers.put("personEntersVehicle", ProtobufEvents.Event.PERSONENTERSVEHICLE_FIELD_NUMBER);
+		numbers.put("personLeavesVehicle", ProtobufEvents.Event.PERSONLEAVESVEHICLE_FIELD_NUMBER);
+		numbers.put("personMoney", ProtobufEvents.Event.PERSONMONEY_FIELD_NUMBER);
+		numbers.put("personStuck", ProtobufEvents.Event.PERSONSTUCK_FIELD_NUMBER);
+		numbers.put("transitDriverStarts", ProtobufEvents.Event.TRANSITDRIVERSTARTS_FIELD_NUMBER);
+		numbers.put("vehicleAborts", ProtobufEvents.Event.VEHICLEABORTS_FIELD_NUMBER);
+		numbers.put("vehicleEntersTraffic", ProtobufEvents.Event.VEHICLEENTERSTRAFFIC_FIELD_NUMBER);
+		numbers.put("vehicleLeavesTraffic", ProtobufEvents.Event.VEHICLELEAVESTRAFFIC_FIELD_NUMBER);
+		numbers.put("genericEvent", ProtobufEvents.Event.GENERICEVENT_FIELD_NUMBER);
+		return numbers;
+	}
+
+	private static Registration createFallback(Class<? extends Event> type) {
+		if (!TypedEventSchema.mightHaveSchema(type)) return GENERIC;
+		return new Registration("genericEvent", null, (Event event, ProtobufEvents.Event.Builder eb) -> {
+			final ProtobufEvents.GenericEvent.Builder ge = TypedEventSchema.encodeTyped(event);
+			eb.setGenericEvent(ge != null ? ge : getGenericEvent(event));
+		}, true);
+	}
+
+	private static class Registration {
+		private final String protoEventType;
+		private final int fieldNumber;
+		private final WireEncoder<?> wireEncoder;
+		private final Encoder<?> encoder;
+		// generic events of classes that might be sent as typed values
+		private final boolean typed;
+
+		private Registration(String protoEventType, WireEncoder<?> wireEncoder, Encoder<?> encoder) {
+			this(protoEventType, wireEncoder, encoder, false);
+		}
+
+		private Registration(String protoEventType, WireEncoder<?> wireEncoder, Encoder<?> encoder, boolean typed) {
+			this.protoEventType = protoEventType;
+			this.fieldNumber = ONEOF_FIELD_NUMBERS.get(protoEventType);
+			this.wireEncoder = wireEncoder;
+			this.encoder = encoder;
+			this.typed = typed;
+		}
+	}
 }
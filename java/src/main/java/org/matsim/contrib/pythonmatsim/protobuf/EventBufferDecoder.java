@@ -0,0 +1,103 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventBufferDecoder.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Decodes whole serialized EventBuffer messages at once, for instance to inject events generated in Python into
+ * MATSim handlers with one call per buffer instead of one per event.
+ *
+ * Ids are resolved through an {@link IdResolver} cache per batch, instead of the global id maps for every field.
+ * Large buffers can be decoded in parallel chunks, each with its own cache. Events are always processed in the order
+ * of the buffer. Typed generic events are resolved with the schemas sent in the buffer.
+ */
+public class EventBufferDecoder {
+	private final int parallelChunkSize;
+
+	/**
+	 * Decoder working on the calling thread only.
+	 */
+	public EventBufferDecoder() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param parallelChunkSize buffers with more events than this are decoded in chunks of that size in parallel,
+	 *                          on the common fork-join pool.
+	 */
+	public EventBufferDecoder(int parallelChunkSize) {
+		if (parallelChunkSize < 1) throw new IllegalArgumentException("chunk size must be positive, got "+parallelChunkSize);
+		this.parallelChunkSize = parallelChunkSize;
+	}
+
+	public Event[] decode(byte[] buffer) throws InvalidProtocolBufferException {
+		final EventBufferOuterClass.EventBuffer message = EventBufferOuterClass.EventBuffer.parseFrom(buffer);
+		final List<ProtobufEvents.Event> protoEvents = message.getEventList();
+		final Event[] events = new Event[protoEvents.size()];
+		final Map<Integer, ProtobufEvents.EventSchema> schemas = new HashMap<>();
+		for (ProtobufEvents.EventSchema schema : message.getSchemaList()) {
+			schemas.put(schema.getId(), schema);
+		}
+
+		final int chunkCount = (events.length + parallelChunkSize - 1) / parallelChunkSize;
+		if (chunkCount <= 1) {
+			decodeChunk(protoEvents, schemas, events, 0, events.length);
+		}
+		else {
+			IntStream.range(0, chunkCount).parallel().forEach(chunk ->
+					decodeChunk(protoEvents, schemas, events, chunk * parallelChunkSize,
+							Math.min(events.length, (chunk + 1) * parallelChunkSize)));
+		}
+		return events;
+	}
+
+	/**
+	 * Decodes the buffer and passes its events, in order, to the events manager.
+	 *
+	 * @return the number of events processed
+	 */
+	public int process(byte[] buffer, EventsManager eventsManager) throws InvalidProtocolBufferException {
+		final Event[] events = decode(buffer);
+		for (Event event : events) {
+			eventsManager.processEvent(event);
+		}
+		return events.length;
+	}
+
+	private static void decodeChunk(List<ProtobufEvents.Event> protoEvents, Map<Integer, ProtobufEvents.EventSchema> schemas,
+									Event[] events, int from, int to) {
+		final IdResolver ids = IdResolver.createCache();
+		for (int i = from; i < to; i++) {
+			ProtobufEvents.Event pe = protoEvents.get(i);
+			if (pe.hasGenericEvent() && pe.getGenericEvent().getSchemaId() != 0) {
+				final ProtobufEvents.EventSchema schema = schemas.get(pe.getGenericEvent().getSchemaId());
+				if (schema != null) pe = ProtoEvent2Event.withAttributes(pe, schema);
+			}
+			events[i] = ProtoEvent2Event.getEvent(pe, ids);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventClassRegistry.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import org.matsim.api.core.v01.events.Event;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Values registered per event class, used to dispatch conversions without instanceof cascades.
+ * The value of a class is resolved once, by walking up its superclasses until a registered one is found, and cached in
+ * a {@link ClassValue}, so that lookup takes constant time whatever the number of registered types.
+ * Classes without registered value, nor registered superclass, get the value computed by the fallback function.
+ */
+public class EventClassRegistry<T> {
+	private final Map<Class<?>, T> registrations = new ConcurrentHashMap<>();
+	private final Function<Class<? extends Event>, T> fallback;
+	// replaced at each registration, as resolutions cached for subclasses might change
+	private volatile ClassValue<T> perClass = createCache();
+
+	public EventClassRegistry(Function<Class<? extends Event>, T> fallback) {
+		this.fallback = fallback;
+	}
+
+	public void register(Class<? extends Event> eventClass, T value) {
+		registrations.put(eventClass, value);
+		perClass = createCache();
+	}
+
+	public T get(Class<? extends Event> eventClass) {
+		return perClass.get(eventClass);
+	}
+
+	private ClassValue<T> createCache() {
+		return new ClassValue<T>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			protected T computeValue(Class<?> type) {
+				for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+					final T value = registrations.get(c);
+					if (value != null) return value;
+				}
+				return fallback.apply((Class<? extends Event>) type);
+			}
+		};
+	}
+}
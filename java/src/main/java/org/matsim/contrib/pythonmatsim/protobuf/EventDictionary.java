@@ -0,0 +1,73 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventDictionary.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.pythonmatsim.protobuf.CompactEvents.DictionaryEntry.Dictionary;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps ids and strings to the indices used in the compact wire formats.
+ * Ids use their MATSim {@link Id#index()}, strings (activity types, modes) are indexed in order of first appearance.
+ *
+ * The dictionary remembers which entries were already sent, so that the string value of an entry is only added
+ * to the first buffer that uses it.
+ */
+public class EventDictionary {
+	private final BitSet[] sentIds = new BitSet[Dictionary.values().length];
+	private final Map<String, Integer> stringIndices = new HashMap<>();
+
+	public EventDictionary() {
+		for (int i = 0; i < sentIds.length; i++) {
+			sentIds[i] = new BitSet();
+		}
+	}
+
+	public int index(Id<?> id, Dictionary dictionary, CompactEvents.CompactEventBuffer.Builder buffer) {
+		final int index = id.index();
+		final BitSet sent = sentIds[dictionary.getNumber()];
+
+		if (!sent.get(index)) {
+			sent.set(index);
+			addEntry(dictionary, index, id.toString(), buffer);
+		}
+
+		return index;
+	}
+
+	public int index(String value, CompactEvents.CompactEventBuffer.Builder buffer) {
+		final Integer index = stringIndices.get(value);
+		if (index != null) return index;
+
+		final int newIndex = stringIndices.size();
+		stringIndices.put(value, newIndex);
+		addEntry(Dictionary.STRING, newIndex, value, buffer);
+		return newIndex;
+	}
+
+	private static void addEntry(Dictionary dictionary, int index, String value, CompactEvents.CompactEventBuffer.Builder buffer) {
+		buffer.addNewEntries(CompactEvents.DictionaryEntry.newBuilder()
+				.setDictionary(dictionary)
+				.setIndex(index)
+				.setValue(value));
+	}
+}
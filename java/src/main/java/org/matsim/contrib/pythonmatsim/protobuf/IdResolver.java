@@ -0,0 +1,90 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * IdResolver.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the ids of decoded events. {@link #GLOBAL} directly uses {@link Id#create(String, Class)}, which looks up
+ * the global, synchronized, id maps each time. Instances created with {@link #createCache()} keep the ids they
+ * resolved in plain maps, which makes repeated ids cheaper and avoids contention between threads decoding in
+ * parallel. Caches are not thread safe, and are meant to live for one batch of events.
+ */
+public abstract class IdResolver {
+	public static final IdResolver GLOBAL = new IdResolver() {
+		@Override
+		public <T> Id<T> get(String key, Class<T> type) {
+			return Id.create(key, type);
+		}
+	};
+
+	public abstract <T> Id<T> get(String key, Class<T> type);
+
+	public Id<Link> linkId(String key) {
+		return get(key, Link.class);
+	}
+
+	public Id<Person> personId(String key) {
+		return get(key, Person.class);
+	}
+
+	public Id<Vehicle> vehicleId(String key) {
+		return get(key, Vehicle.class);
+	}
+
+	public static IdResolver createCache() {
+		return new Cache();
+	}
+
+	private static class Cache extends IdResolver {
+		// the most frequent types get their own map, to avoid looking up the map of the type
+		private final Map<String, Id<Link>> links = new HashMap<>();
+		private final Map<String, Id<Person>> persons = new HashMap<>();
+		private final Map<String, Id<Vehicle>> vehicles = new HashMap<>();
+		private final Map<Class<?>, Map<String, Id<?>>> others = new HashMap<>();
+
+		@Override
+		public Id<Link> linkId(String key) {
+			return links.computeIfAbsent(key, Id::createLinkId);
+		}
+
+		@Override
+		public Id<Person> personId(String key) {
+			return persons.computeIfAbsent(key, Id::createPersonId);
+		}
+
+		@Override
+		public Id<Vehicle> vehicleId(String key) {
+			return vehicles.computeIfAbsent(key, Id::createVehicleId);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> Id<T> get(String key, Class<T> type) {
+			final Map<String, Id<?>> ids = others.computeIfAbsent(type, t -> new HashMap<>());
+			return (Id<T>) ids.computeIfAbsent(key, k -> Id.create(k, type));
+		}
+	}
+}
@@ -19,79 +19,156 @@ package org.matsim.contrib.pythonmatsim.protobuf;
  *                                                                         *
  * *********************************************************************** */
 
-import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.events.*;
 import org.matsim.facilities.ActivityFacility;
 import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by laemmel on 17/02/16.
+ *
+ * Decoding is dispatched through a registry of {@link Decoder}s keyed by the type of the protocol buffer event.
+ * Generic events can additionally be decoded per MATSim event type, for contrib events that are sent as generic events.
+ * Typed generic events are presented to generic decoders with their values as attributes, named after their schema.
  */
 public abstract class ProtoEvent2Event {
-	public static Event getEvent(ProtobufEvents.Event pe) {
-		switch (pe.getEventTypeCase()) {
-			case ACTEND:
-				return new ActivityEndEvent(pe.getActEnd().getTime(), Id.createPersonId(pe.getActEnd().getPersId().getId()),
-						Id.createLinkId(pe.getActEnd().getLinkId().getId()), Id.create(pe.getActEnd().getFacilityId().getId(),
-						ActivityFacility.class), pe.getActEnd().getActType());
-			case ACTSTART:
-				return new ActivityStartEvent(pe.getActStart().getTime(), Id.createPersonId(pe.getActStart().getPersId().getId()),
-						Id.createLinkId(pe.getActStart().getLinkId().getId()), Id.create(pe.getActStart().getFacilityId().getId(),
-						ActivityFacility.class), pe.getActStart().getActType());
-			case LINKENTER:
-				return new LinkEnterEvent(pe.getLinkEnter().getTime(), Id.createVehicleId(pe.getLinkEnter().getVehId().getId()),
-						Id.createLinkId(pe.getLinkEnter().getLinkId().getId()));
-			case LINKLEAVE:
-				return new LinkLeaveEvent(pe.getLinkLeave().getTime(), Id.createVehicleId(pe.getLinkLeave().getVehId().getId()),
-						Id.createLinkId(pe.getLinkLeave().getLinkId().getId()));
-			case PERSONARRIVAL:
-				return new PersonArrivalEvent(pe.getPersonArrival().getTime(), Id.createPersonId(pe.getPersonArrival().getPersId().getId()),
-						Id.createLinkId(pe.getPersonArrival().getLinkId().getId()), pe.getPersonArrival().getLegMode());
-			case PERSONDEPARTURE:
-				return new PersonDepartureEvent(pe.getPersonDeparture().getTime(), Id.createPersonId(pe.getPersonDeparture().getPersId().getId()),
-						Id.createLinkId(pe.getPersonDeparture().getLinkId().getId()), pe.getPersonDeparture().getLegMode());
-			case PERSONENTERSVEHICLE:
-				return new PersonEntersVehicleEvent(pe.getPersonEntersVehicle().getTime(), Id.createPersonId(pe.getPersonEntersVehicle().getPersId().getId()),
-						Id.createVehicleId(pe.getPersonEntersVehicle().getVehId().getId()));
-			case PERSONLEAVESVEHICLE:
-				return new PersonLeavesVehicleEvent(pe.getPersonLeavesVehicle().getTime(), Id.createPersonId(pe.getPersonLeavesVehicle().getPersId().getId()),
-						Id.createVehicleId(pe.getPersonLeavesVehicle().getVehId().getId()));
-			case PERSONMONEY:
-				return new PersonMoneyEvent(pe.getPersonMoney().getTime(), Id.createPersonId(pe.getPersonMoney().getPersId().getId()),
-						pe.getPersonMoney().getAmount());
-			case PERSONSTUCK:
-				return new PersonStuckEvent(pe.getPersonStuck().getTime(), Id.createPersonId(pe.getPersonStuck().getPersId().getId()),
-						Id.createLinkId(pe.getPersonStuck().getLinkId().getId()), pe.getPersonStuck().getLegMode());
-			case TRANSITDRIVERSTARTS:
-				return new TransitDriverStartsEvent(pe.getTransitDriverStarts().getTime(), Id.createPersonId(pe.getTransitDriverStarts().getDriverId().getId()),
-						Id.createVehicleId(pe.getTransitDriverStarts().getVehId().getId()), Id.create(pe.getTransitDriverStarts().getTransitLineId().getId(),
-						TransitLine.class), Id.create(pe.getTransitDriverStarts().getTransitRouteId().getId(), TransitRoute.class),
-						Id.create(pe.getTransitDriverStarts().getDepartureId().getId(), Departure.class));
-			case VEHICLEABORTS:
-				return new VehicleAbortsEvent(pe.getVehicleAborts().getTime(), Id.createVehicleId(pe.getVehicleAborts().getVehId().getId()),
-						Id.createLinkId(pe.getVehicleAborts().getLinkId().getId()));
-			case VEHICLEENTERSTRAFFIC:
-				return new VehicleEntersTrafficEvent(pe.getVehicleEntersTraffic().getTime(), Id.createPersonId(pe.getVehicleEntersTraffic().getDriverId().getId()),
-						Id.createLinkId(pe.getVehicleEntersTraffic().getLinkId().getId()), Id.createVehicleId(pe.getVehicleEntersTraffic().getVehId().getId()),
-						pe.getVehicleEntersTraffic().getNetworkMode(), pe.getVehicleEntersTraffic().getRelPosOnLink());
-			case VEHICLELEAVESTRAFFIC:
-				return new VehicleLeavesTrafficEvent(pe.getVehicleLeavesTraffic().getTime(), Id.createPersonId(pe.getVehicleLeavesTraffic().getDriverId().getId()),
-						Id.createLinkId(pe.getVehicleLeavesTraffic().getLinkId().getId()), Id.createVehicleId(pe.getVehicleLeavesTraffic().getVehId().getId()),
-						pe.getVehicleLeavesTraffic().getNetworkMode(), pe.getVehicleLeavesTraffic().getRelPosOnLink());
-			case GENERICEVENT:
-				GenericEvent ge = new GenericEvent(pe.getGenericEvent().getType(),pe.getGenericEvent().getTime());
-				Map<String, String> map = ge.getAttributes();
-				for (ProtobufEvents.AttrVal av : pe.getGenericEvent().getAttrValList()) {
-					map.put(av.getAttribut(),av.getValue());
-				}
-				return ge;
+	/**
+	 * Creates a MATSim event from a protocol buffer event.
+	 */
+	public interface Decoder {
+		/**
+		 * @param ids to resolve the ids of the event, which may cache them for the duration of a batch
+		 */
+		Event decode(ProtobufEvents.Event pe, IdResolver ids);
+	}
+
+	/**
+	 * Creates a MATSim event from a protocol buffer generic event.
+	 */
+	public interface GenericDecoder {
+		Event decode(ProtobufEvents.GenericEvent ge);
+	}
+
+	// EnumMap is array based, so lookups are constant time
+	private static final Map<ProtobufEvents.Event.EventTypeCase, Decoder> DECODERS =
+			new EnumMap<>(ProtobufEvents.Event.EventTypeCase.class);
+	private static final Map<String, GenericDecoder> GENERIC_DECODERS = new ConcurrentHashMap<>();
+
+	static {
+		register(ProtobufEvents.Event.EventTypeCase.ACTEND, (pe, ids) ->
+				new ActivityEndEvent(pe.getActEnd().getTime(), ids.personId(pe.getActEnd().getPersId().getId()),
+						ids.linkId(pe.getActEnd().getLinkId().getId()), ids.get(pe.getActEnd().getFacilityId().getId(),
+						ActivityFacility.class), pe.getActEnd().getActType()));
+		register(ProtobufEvents.Event.EventTypeCase.ACTSTART, (pe, ids) ->
+				new ActivityStartEvent(pe.getActStart().getTime(), ids.personId(pe.getActStart().getPersId().getId()),
+						ids.linkId(pe.getActStart().getLinkId().getId()), ids.get(pe.getActStart().getFacilityId().getId(),
+						ActivityFacility.class), pe.getActStart().getActType()));
+		register(ProtobufEvents.Event.EventTypeCase.LINKENTER, (pe, ids) ->
+				new LinkEnterEvent(pe.getLinkEnter().getTime(), ids.vehicleId(pe.getLinkEnter().getVehId().getId()),
+						ids.linkId(pe.getLinkEnter().getLinkId().getId())));
+		register(ProtobufEvents.Event.EventTypeCase.LINKLEAVE, (pe, ids) ->
+				new LinkLeaveEvent(pe.getLinkLeave().getTime(), ids.vehicleId(pe.getLinkLeave().getVehId().getId()),
+						ids.linkId(pe.getLinkLeave().getLinkId().getId())));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONARRIVAL, (pe, ids) ->
+				new PersonArrivalEvent(pe.getPersonArrival().getTime(), ids.personId(pe.getPersonArrival().getPersId().getId()),
+						ids.linkId(pe.getPersonArrival().getLinkId().getId()), pe.getPersonArrival().getLegMode()));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONDEPARTURE, (pe, ids) ->
+				new PersonDepartureEvent(pe.getPersonDeparture().getTime(), ids.personId(pe.getPersonDeparture().getPersId().getId()),
+						ids.linkId(pe.getPersonDeparture().getLinkId().getId()), pe.getPersonDeparture().getLegMode()));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONENTERSVEHICLE, (pe, ids) ->
+				new PersonEntersVehicleEvent(pe.getPersonEntersVehicle().getTime(), ids.personId(pe.getPersonEntersVehicle().getPersId().getId()),
+						ids.vehicleId(pe.getPersonEntersVehicle().getVehId().getId())));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONLEAVESVEHICLE, (pe, ids) ->
+				new PersonLeavesVehicleEvent(pe.getPersonLeavesVehicle().getTime(), ids.personId(pe.getPersonLeavesVehicle().getPersId().getId()),
+						ids.vehicleId(pe.getPersonLeavesVehicle().getVehId().getId())));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONMONEY, (pe, ids) ->
+				new PersonMoneyEvent(pe.getPersonMoney().getTime(), ids.personId(pe.getPersonMoney().getPersId().getId()),
+						pe.getPersonMoney().getAmount()));
+		register(ProtobufEvents.Event.EventTypeCase.PERSONSTUCK, (pe, ids) ->
+				new PersonStuckEvent(pe.getPersonStuck().getTime(), ids.personId(pe.getPersonStuck().getPersId().getId()),
+						ids.linkId(pe.getPersonStuck().getLinkId().getId()), pe.getPersonStuck().getLegMode()));
+		register(ProtobufEvents.Event.EventTypeCase.TRANSITDRIVERSTARTS, (pe, ids) ->
+				new TransitDriverStartsEvent(pe.getTransitDriverStarts().getTime(), ids.personId(pe.getTransitDriverStarts().getDriverId().getId()),
+						ids.vehicleId(pe.getTransitDriverStarts().getVehId().getId()), ids.get(pe.getTransitDriverStarts().getTransitLineId().getId(),
+						TransitLine.class), ids.get(pe.getTransitDriverStarts().getTransitRouteId().getId(), TransitRoute.class),
+						ids.get(pe.getTransitDriverStarts().getDepartureId().getId(), Departure.class)));
+		register(ProtobufEvents.Event.EventTypeCase.VEHICLEABORTS, (pe, ids) ->
+				new VehicleAbortsEvent(pe.getVehicleAborts().getTime(), ids.vehicleId(pe.getVehicleAborts().getVehId().getId()),
+						ids.linkId(pe.getVehicleAborts().getLinkId().getId())));
+		register(ProtobufEvents.Event.EventTypeCase.VEHICLEENTERSTRAFFIC, (pe, ids) ->
+				new VehicleEntersTrafficEvent(pe.getVehicleEntersTraffic().getTime(), ids.personId(pe.getVehicleEntersTraffic().getDriverId().getId()),
+						ids.linkId(pe.getVehicleEntersTraffic().getLinkId().getId()), ids.vehicleId(pe.getVehicleEntersTraffic().getVehId().getId()),
+						pe.getVehicleEntersTraffic().getNetworkMode(), pe.getVehicleEntersTraffic().getRelPosOnLink()));
+		register(ProtobufEvents.Event.EventTypeCase.VEHICLELEAVESTRAFFIC, (pe, ids) ->
+				new VehicleLeavesTrafficEvent(pe.getVehicleLeavesTraffic().getTime(), ids.personId(pe.getVehicleLeavesTraffic().getDriverId().getId()),
+						ids.linkId(pe.getVehicleLeavesTraffic().getLinkId().getId()), ids.vehicleId(pe.getVehicleLeavesTraffic().getVehId().getId()),
+						pe.getVehicleLeavesTraffic().getNetworkMode(), pe.getVehicleLeavesTraffic().getRelPosOnLink()));
+		register(ProtobufEvents.Event.EventTypeCase.GENERICEVENT, (pe, ids) -> {
+			final int schemaId = pe.getGenericEvent().getSchemaId();
+			if (schemaId != 0) {
+				// schemas of buffers are resolved by EventBufferDecoder, so this is one created in this JVM
+				final TypedEventSchema schema = TypedEventSchema.forId(schemaId);
+				if (schema == null) throw new RuntimeException("unknown schema "+schemaId+" for event "+pe);
+				pe = withAttributes(pe, schema.getMessage());
+			}
+
+			final GenericDecoder decoder = GENERIC_DECODERS.get(pe.getGenericEvent().getType());
+			if (decoder != null) return decoder.decode(pe.getGenericEvent());
+
+			GenericEvent ge = new GenericEvent(pe.getGenericEvent().getType(),pe.getGenericEvent().getTime());
+			Map<String, String> map = ge.getAttributes();
+			for (ProtobufEvents.AttrVal av : pe.getGenericEvent().getAttrValList()) {
+				map.put(av.getAttribut(),av.getValue());
+			}
+			return ge;
+		});
+	}
+
+	/**
+	 * Replaces the decoder for a type of protocol buffer event. Not thread safe: registration should happen before
+	 * decoding starts.
+	 */
+	public static void register(ProtobufEvents.Event.EventTypeCase type, Decoder decoder) {
+		DECODERS.put(type, decoder);
+	}
+
+	/**
+	 * Registers a decoder for generic events of the given MATSim event type, typically to re-create typed contrib events.
+	 */
+	public static void registerGenericDecoder(String eventType, GenericDecoder decoder) {
+		GENERIC_DECODERS.put(eventType, decoder);
+	}
+
+	/**
+	 * @return the event with the typed values of its generic event replaced by attributes, following the schema
+	 */
+	public static ProtobufEvents.Event withAttributes(ProtobufEvents.Event pe, ProtobufEvents.EventSchema schema) {
+		final ProtobufEvents.GenericEvent.Builder ge = pe.getGenericEvent().toBuilder()
+				.clearSchemaId()
+				.clearNumberValue()
+				.clearStringValue();
+		for (Map.Entry<String, String> e : TypedEventSchema.getAttributes(schema, pe.getGenericEvent()).entrySet()) {
+			ge.addAttrVal(ProtobufEvents.AttrVal.newBuilder().setAttribut(e.getKey()).setValue(e.getValue()));
 		}
+		return pe.toBuilder().setGenericEvent(ge).build();
+	}
+
+	public static Event getEvent(ProtobufEvents.Event pe) {
+		return getEvent(pe, IdResolver.GLOBAL);
+	}
 
-		throw new RuntimeException("Unsupported event type: " + pe.getEventTypeCase());
+	/**
+	 * @param ids typically a cache shared by the events of a batch, see {@link EventBufferDecoder}
+	 */
+	public static Event getEvent(ProtobufEvents.Event pe, IdResolver ids) {
+		final Decoder decoder = DECODERS.get(pe.getEventTypeCase());
+		if (decoder == null) throw new RuntimeException("Unsupported event type: " + pe.getEventTypeCase());
+		return decoder.decode(pe, ids);
 	}
 
 }
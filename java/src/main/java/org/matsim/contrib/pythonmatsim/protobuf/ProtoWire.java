@@ -0,0 +1,164 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * ProtoWire.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Helpers to write protocol buffer messages field by field, without building message objects.
+ * They follow the conventions of the generated proto3 code, so that the output is byte-identical to serializing
+ * the corresponding message: fields are written in field number order, and scalar fields with default value are skipped.
+ */
+public final class ProtoWire {
+	private ProtoWire() {}
+
+	/**
+	 * Starts the description of a message, whose fields get numbers 1, 2, 3... in the order they are added.
+	 */
+	public static <E extends Event> MessageWriter<E> message() {
+		return new MessageWriter<>();
+	}
+
+	public static int doubleSize(int field, double value) {
+		return value == 0 ? 0 : CodedOutputStream.computeDoubleSize(field, value);
+	}
+
+	public static int stringSize(int field, String value) {
+		return value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, value);
+	}
+
+	/**
+	 * Size of an id field, that is, a message with the id as only string field (LinkId, PersonId...)
+	 */
+	public static int idSize(int field, Id<?> id) {
+		return messageSize(field, stringSize(1, id.toString()));
+	}
+
+	public static int messageSize(int field, int contentSize) {
+		return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(contentSize) + contentSize;
+	}
+
+	public static void writeDouble(CodedOutputStream out, int field, double value) throws IOException {
+		if (value != 0) out.writeDouble(field, value);
+	}
+
+	public static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+		if (!value.isEmpty()) out.writeString(field, value);
+	}
+
+	public static void writeId(CodedOutputStream out, int field, Id<?> id) throws IOException {
+		final String value = id.toString();
+		writeMessageHeader(out, field, stringSize(1, value));
+		writeString(out, 1, value);
+	}
+
+	public static void writeMessageHeader(CodedOutputStream out, int field, int contentSize) throws IOException {
+		out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		out.writeUInt32NoTag(contentSize);
+	}
+
+	/**
+	 * {@link Event2ProtoEvent.WireEncoder} reading the fields of a flat event message through getters.
+	 * Null strings and ids are treated as absent fields.
+	 */
+	public static final class MessageWriter<E extends Event> implements Event2ProtoEvent.WireEncoder<E> {
+		private final List<FieldWriter<E>> fields = new ArrayList<>();
+
+		private MessageWriter() {}
+
+		public MessageWriter<E> doubleField(ToDoubleFunction<? super E> getter) {
+			fields.add(new FieldWriter<E>() {
+				@Override
+				public int size(int field, E event) {
+					return doubleSize(field, getter.applyAsDouble(event));
+				}
+
+				@Override
+				public void write(int field, E event, CodedOutputStream out) throws IOException {
+					writeDouble(out, field, getter.applyAsDouble(event));
+				}
+			});
+			return this;
+		}
+
+		public MessageWriter<E> stringField(Function<? super E, String> getter) {
+			fields.add(new FieldWriter<E>() {
+				@Override
+				public int size(int field, E event) {
+					final String value = getter.apply(event);
+					return value == null ? 0 : stringSize(field, value);
+				}
+
+				@Override
+				public void write(int field, E event, CodedOutputStream out) throws IOException {
+					final String value = getter.apply(event);
+					if (value != null) writeString(out, field, value);
+				}
+			});
+			return this;
+		}
+
+		public MessageWriter<E> idField(Function<? super E, ? extends Id<?>> getter) {
+			fields.add(new FieldWriter<E>() {
+				@Override
+				public int size(int field, E event) {
+					final Id<?> id = getter.apply(event);
+					return id == null ? 0 : idSize(field, id);
+				}
+
+				@Override
+				public void write(int field, E event, CodedOutputStream out) throws IOException {
+					final Id<?> id = getter.apply(event);
+					if (id != null) writeId(out, field, id);
+				}
+			});
+			return this;
+		}
+
+		@Override
+		public int computeSize(E event) {
+			int size = 0;
+			for (int i = 0; i < fields.size(); i++) {
+				size += fields.get(i).size(i + 1, event);
+			}
+			return size;
+		}
+
+		@Override
+		public void write(E event, CodedOutputStream out) throws IOException {
+			for (int i = 0; i < fields.size(); i++) {
+				fields.get(i).write(i + 1, event, out);
+			}
+		}
+	}
+
+	private interface FieldWriter<E> {
+		int size(int field, E event);
+		void write(int field, E event, CodedOutputStream out) throws IOException;
+	}
+}
@@ -0,0 +1,392 @@
+package org.matsim.contrib.pythonmatsim.protobuf;
+/* *********************************************************************** *
+ * project: python-matsim
+ * TypedEventSchema.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed values of an event class that has no dedicated protocol buffer message, read through its public getters.
+ *
+ * The values are the attributes of {@link Event#getAttributes()}, under the same keys, but read through the getters
+ * backing them, called through {@link MethodHandle}s. This avoids building a map of strings for every event.
+ * Which getter backs which attribute is learnt from the first events of the class, which are sent as attributes:
+ * a getter backs an attribute if its value, formatted as below, is the value of the attribute in all those events,
+ * with the name of the getter telling apart getters giving the same values.
+ * Getters of doubles are sent as doubles, all other getters (ids, strings, enums, integers...) as strings, formatted
+ * with {@link String#valueOf(Object)}, so that the attributes can be restored exactly.
+ * The keys of the values are described once per buffer by an EventSchema message, identified by {@link #getId()}.
+ *
+ * Classes that are not public, whose attributes cannot all be matched to a getter, or whose getters fail, keep being
+ * sent as attributes. So are single events for which a getter returns null.
+ */
+public final class TypedEventSchema {
+	private static final Logger log = Logger.getLogger(TypedEventSchema.class);
+
+	private static final MethodType NUMBER_GETTER = MethodType.methodType(double.class, Event.class);
+	private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Event.class);
+	// getters that are either already part of the message, or would defeat the purpose
+	private static final Set<String> IGNORED_GETTERS =
+			new HashSet<>(Arrays.asList("getTime", "getEventType", "getAttributes", "getClass"));
+	// events sampled before trusting a match of getters and attributes, which could be a coincidence on single events
+	private static final int MIN_SAMPLES = 8;
+	// events sampled at most to tell apart getters that back the same attribute values
+	private static final int MAX_SAMPLES = 64;
+
+	private static final Map<Integer, TypedEventSchema> SCHEMAS_PER_ID = new ConcurrentHashMap<>();
+	private static final ClassValue<Optional<Sampler>> SAMPLERS = new ClassValue<Optional<Sampler>>() {
+		@Override
+		protected Optional<Sampler> computeValue(Class<?> type) {
+			return Optional.ofNullable(Sampler.create(type));
+		}
+	};
+	private static int nextId = 1;
+
+	private final int id;
+	private final Class<?> eventClass;
+	private final String[] numberFields;
+	private final MethodHandle[] numberGetters;
+	private final String[] stringFields;
+	private final MethodHandle[] stringGetters;
+	private final ProtobufEvents.EventSchema message;
+	// set when a getter failed, after which events of the class are sent as attributes
+	private volatile boolean failed = false;
+
+	private TypedEventSchema(int id, Class<?> eventClass, SortedMap<String, Getter> getters) {
+		final List<String> numberFields = new ArrayList<>();
+		final List<MethodHandle> numberGetters = new ArrayList<>();
+		final List<String> stringFields = new ArrayList<>();
+		final List<MethodHandle> stringGetters = new ArrayList<>();
+		for (Map.Entry<String, Getter> e : getters.entrySet()) {
+			if (e.getValue().isNumber()) {
+				numberFields.add(e.getKey());
+				numberGetters.add(e.getValue().handle);
+			}
+			else {
+				stringFields.add(e.getKey());
+				stringGetters.add(e.getValue().handle);
+			}
+		}
+		this.id = id;
+		this.eventClass = eventClass;
+		this.numberFields = numberFields.toArray(new String[0]);
+		this.numberGetters = numberGetters.toArray(new MethodHandle[0]);
+		this.stringFields = stringFields.toArray(new String[0]);
+		this.stringGetters = stringGetters.toArray(new MethodHandle[0]);
+		this.message = ProtobufEvents.EventSchema.newBuilder()
+				.setId(id)
+				.setEventClass(eventClass.getName())
+				.addAllNumberField(numberFields)
+				.addAllStringField(stringFields)
+				.build();
+	}
+
+	/**
+	 * @return the schema of the class, or null if its events are sent as attributes, at least for now. Once a class
+	 * has a schema, it keeps it.
+	 */
+	public static TypedEventSchema forClass(Class<? extends Event> eventClass) {
+		final Sampler sampler = SAMPLERS.get(eventClass).orElse(null);
+		return sampler == null ? null : sampler.schema;
+	}
+
+	/**
+	 * @return the schema with the given id, created in this JVM, or null
+	 */
+	public static TypedEventSchema forId(int id) {
+		return SCHEMAS_PER_ID.get(id);
+	}
+
+	/**
+	 * @return false if events of the class are always sent as attributes, without even trying to find a schema
+	 */
+	public static boolean mightHaveSchema(Class<? extends Event> eventClass) {
+		return SAMPLERS.get(eventClass).isPresent();
+	}
+
+	/**
+	 * Fills a generic event with the type, time and typed values of the event, if the schema of its class is known.
+	 * The schema has to be sent along, {@link #forClass(Class)} gives it once this method returned a message.
+	 *
+	 * @return the generic event, or null if the event has to be sent as attributes
+	 */
+	public static ProtobufEvents.GenericEvent.Builder encodeTyped(Event event) {
+		final Sampler sampler = SAMPLERS.get(event.getClass()).orElse(null);
+		if (sampler == null) return null;
+
+		final TypedEventSchema schema = sampler.schema;
+		if (schema == null) {
+			sampler.sample(event);
+			return null;
+		}
+		return schema.encode(event);
+	}
+
+	/**
+	 * @return the generic event, or null if the event has to be sent as attributes
+	 */
+	private ProtobufEvents.GenericEvent.Builder encode(Event event) {
+		if (failed) return null;
+
+		final ProtobufEvents.GenericEvent.Builder ge = ProtobufEvents.GenericEvent.newBuilder()
+				.setType(event.getEventType())
+				.setTime(event.getTime())
+				.setSchemaId(id);
+		try {
+			for (MethodHandle getter : numberGetters) {
+				ge.addNumberValue((double) getter.invokeExact(event));
+			}
+			for (MethodHandle getter : stringGetters) {
+				final Object value = getter.invokeExact(event);
+				// attributes of null values are typically left out, which the schema cannot express
+				if (value == null) return null;
+				ge.addStringValue(value.toString());
+			}
+		} catch (Throwable t) {
+			failed = true;
+			log.warn("could not read values of "+event+", sending events of "+eventClass.getName()+" as attributes from now on", t);
+			return null;
+		}
+		return ge;
+	}
+
+	/**
+	 * @return the values of the typed generic event as attributes, as {@link Event#getAttributes()} would give them
+	 * (except for types and time)
+	 */
+	public Map<String, String> getAttributes(ProtobufEvents.GenericEvent ge) {
+		return getAttributes(message, ge);
+	}
+
+	/**
+	 * Same as {@link #getAttributes(ProtobufEvents.GenericEvent)}, with a schema received in a buffer.
+	 */
+	public static Map<String, String> getAttributes(ProtobufEvents.EventSchema schema, ProtobufEvents.GenericEvent ge) {
+		final Map<String, String> attributes = new LinkedHashMap<>();
+		for (int i = 0; i < schema.getNumberFieldCount() && i < ge.getNumberValueCount(); i++) {
+			attributes.put(schema.getNumberField(i), Double.toString(ge.getNumberValue(i)));
+		}
+		for (int i = 0; i < schema.getStringFieldCount() && i < ge.getStringValueCount(); i++) {
+			attributes.put(schema.getStringField(i), ge.getStringValue(i));
+		}
+		return attributes;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Class<?> getEventClass() {
+		return eventClass;
+	}
+
+	/**
+	 * @return the EventSchema message describing the values
+	 */
+	public ProtobufEvents.EventSchema getMessage() {
+		return message;
+	}
+
+	private static final class Getter {
+		private final String name;
+		private final Method method;
+		// of type NUMBER_GETTER for doubles, OBJECT_GETTER otherwise
+		private final MethodHandle handle;
+
+		private Getter(String name, Method method, MethodHandle handle) {
+			this.name = name;
+			this.method = method;
+			this.handle = handle;
+		}
+
+		private boolean isNumber() {
+			return method.getReturnType() == double.class;
+		}
+
+		/**
+		 * @return the value, formatted as it is restored from the message
+		 */
+		private String format(Event event) throws Throwable {
+			if (isNumber()) return Double.toString((double) handle.invokeExact(event));
+			final Object value = handle.invokeExact(event);
+			return value == null ? null : value.toString();
+		}
+
+		/**
+		 * Tells, among getters backing the same values, the one named after the attribute, such as getPersonId() for
+		 * "person".
+		 */
+		private boolean isNamedAfter(String key) {
+			return name.equals(key) || name.equals(key + "Id") || key.equals(name + "Id");
+		}
+
+		@Override
+		public String toString() {
+			return method.getName()+"()";
+		}
+	}
+
+	/**
+	 * Learns the getters backing the attributes of one class from its first events.
+	 */
+	private static final class Sampler {
+		private final Class<?> eventClass;
+		private final List<Getter> getters;
+		private volatile TypedEventSchema schema = null;
+
+		// guarded by this
+		private boolean gaveUp = false;
+		private int samples = 0;
+		private Map<String, List<Getter>> candidates = null;
+
+		private Sampler(Class<?> eventClass, List<Getter> getters) {
+			this.eventClass = eventClass;
+			this.getters = getters;
+		}
+
+		private static Sampler create(Class<?> type) {
+			if (!Event.class.isAssignableFrom(type) || !Modifier.isPublic(type.getModifiers())) return null;
+
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			final List<Getter> getters = new ArrayList<>();
+			for (Method method : type.getMethods()) {
+				final String name = getFieldName(method);
+				if (name == null) continue;
+
+				final Class<?> returnType = method.getReturnType();
+				if (returnType.isArray() || Collection.class.isAssignableFrom(returnType) || Map.class.isAssignableFrom(returnType)) {
+					continue;
+				}
+				try {
+					final MethodHandle handle = lookup.unreflect(method);
+					getters.add(new Getter(name, method,
+							handle.asType(returnType == double.class ? NUMBER_GETTER : OBJECT_GETTER)));
+				} catch (IllegalAccessException e) {
+					// declared in a class that is not public
+					log.debug("cannot access "+method+", skipping it", e);
+				}
+			}
+			return getters.isEmpty() ? null : new Sampler(type, getters);
+		}
+
+		private static String getFieldName(Method method) {
+			if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.getParameterCount() != 0 ||
+					method.getReturnType() == void.class || IGNORED_GETTERS.contains(method.getName())) {
+				return null;
+			}
+			final String name = method.getName();
+			if (name.startsWith("get") && name.length() > 3) return decapitalize(name.substring(3));
+			if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) return decapitalize(name.substring(2));
+			return null;
+		}
+
+		private static String decapitalize(String name) {
+			return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+		}
+
+		private synchronized void sample(Event event) {
+			if (schema != null || gaveUp) return;
+
+			final Map<String, String> attributes = new LinkedHashMap<>(event.getAttributes());
+			attributes.remove(Event.ATTRIBUTE_TIME);
+			attributes.remove(Event.ATTRIBUTE_TYPE);
+			if (attributes.isEmpty()) {
+				giveUp("it has no attributes besides type and time");
+				return;
+			}
+			if (candidates != null && !candidates.keySet().equals(attributes.keySet())) {
+				giveUp("its attributes differ between events");
+				return;
+			}
+
+			// getters that fail are left out, rather than failing the simulation
+			final Map<Getter, String> values = new HashMap<>();
+			for (Getter getter : getters) {
+				try {
+					values.put(getter, getter.format(event));
+				} catch (Throwable t) {
+					log.debug("getter "+getter.method+" failed on "+event+", skipping it", t);
+				}
+			}
+
+			if (candidates == null) {
+				candidates = new LinkedHashMap<>();
+				for (String key : attributes.keySet()) candidates.put(key, new ArrayList<>(getters));
+			}
+			for (Map.Entry<String, List<Getter>> e : candidates.entrySet()) {
+				final String value = attributes.get(e.getKey());
+				e.getValue().removeIf(getter -> value == null || !value.equals(values.get(getter)));
+				if (e.getValue().isEmpty()) {
+					giveUp("no getter gives the values of attribute "+e.getKey());
+					return;
+				}
+			}
+			if (++samples < MIN_SAMPLES) return;
+
+			final SortedMap<String, Getter> resolved = resolve();
+			if (resolved != null) {
+				synchronized (SCHEMAS_PER_ID) {
+					final TypedEventSchema schema = new TypedEventSchema(nextId++, eventClass, resolved);
+					SCHEMAS_PER_ID.put(schema.id, schema);
+					log.info("sending events of "+eventClass.getName()+" as typed values "+Arrays.toString(schema.numberFields)+
+							" and "+Arrays.toString(schema.stringFields));
+					this.schema = schema;
+				}
+				candidates = null;
+			}
+			else if (samples >= MAX_SAMPLES) {
+				giveUp("several getters give the values of attributes "+candidates);
+			}
+		}
+
+		/**
+		 * @return the getter of each attribute, or null if some attributes still have several candidates
+		 */
+		private SortedMap<String, Getter> resolve() {
+			final SortedMap<String, Getter> resolved = new TreeMap<>();
+			for (Map.Entry<String, List<Getter>> e : candidates.entrySet()) {
+				List<Getter> getters = e.getValue();
+				if (getters.size() > 1) {
+					final List<Getter> named = new ArrayList<>();
+					for (Getter getter : getters) {
+						if (getter.isNamedAfter(e.getKey())) named.add(getter);
+					}
+					getters = named;
+				}
+				if (getters.size() != 1) return null;
+				resolved.put(e.getKey(), getters.get(0));
+			}
+			return resolved;
+		}
+
+		private void giveUp(String reason) {
+			gaveUp = true;
+			candidates = null;
+			log.info("sending events of "+eventClass.getName()+" as attributes, as "+reason);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassDataSharingTraining.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.startup;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Training run for the class data sharing archive used by <tt>pythonmatsim.jvm.start_jvm</tt>: runs one iteration of
+ * a tiny scenario with an event handler forwarding buffers as Python listeners do, so that the classes loaded by a
+ * typical simulation started from Python are listed, using <tt>-XX:DumpLoadedClassList</tt>.
+ */
+public class ClassDataSharingTraining {
+    private static final Logger log = Logger.getLogger(ClassDataSharingTraining.class);
+
+    public static void main(String[] args) throws IOException {
+        final Path outputDirectory = Files.createTempDirectory("python-matsim-training");
+        try {
+            run(outputDirectory);
+        }
+        finally {
+            try (Stream<Path> paths = Files.walk(outputDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void run(Path outputDirectory) {
+        final Config config = ConfigUtils.createConfig();
+        config.controler().setOutputDirectory(outputDirectory.toString());
+        config.controler().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists);
+        config.controler().setLastIteration(0);
+        config.controler().setDumpDataAtEnd(false);
+        config.controler().setCreateGraphs(false);
+
+        for (String type : new String[]{"h", "w"}) {
+            final PlanCalcScoreConfigGroup.ActivityParams params = new PlanCalcScoreConfigGroup.ActivityParams(type);
+            params.setTypicalDuration(8 * 3600);
+            config.planCalcScore().addActivityParams(params);
+        }
+
+        final Scenario scenario = ScenarioUtils.createScenario(config);
+        final Network network = scenario.getNetwork();
+        final NetworkFactory networkFactory = network.getFactory();
+        final Node a = networkFactory.createNode(Id.createNodeId("a"), new Coord(0, 0));
+        final Node b = networkFactory.createNode(Id.createNodeId("b"), new Coord(1000, 0));
+        network.addNode(a);
+        network.addNode(b);
+        final Link ab = createLink(networkFactory, "ab", a, b);
+        final Link ba = createLink(networkFactory, "ba", b, a);
+        network.addLink(ab);
+        network.addLink(ba);
+
+        final PopulationFactory populationFactory = scenario.getPopulation().getFactory();
+        final Person person = populationFactory.createPerson(Id.createPersonId("p"));
+        final Plan plan = populationFactory.createPlan();
+        final Activity home = populationFactory.createActivityFromLinkId("h", ab.getId());
+        home.setEndTime(8 * 3600);
+        plan.addActivity(home);
+        plan.addLeg(populationFactory.createLeg(TransportMode.car));
+        plan.addActivity(populationFactory.createActivityFromLinkId("w", ba.getId()));
+        person.addPlan(plan);
+        scenario.getPopulation().addPerson(person);
+
+        final Controler controler = new Controler(scenario);
+        final CountingListener listener = new CountingListener();
+        final BufferedProtocolBufferSender sender = new BufferedProtocolBufferSender(1000, listener);
+        controler.getEvents().addHandler(sender);
+        controler.addControlerListener(sender);
+        controler.run();
+
+        log.info("training run forwarded "+listener.bytes+" bytes of events");
+    }
+
+    private static Link createLink(NetworkFactory factory, String id, Node from, Node to) {
+        final Link link = factory.createLink(Id.createLinkId(id), from, to);
+        link.setLength(1000);
+        link.setFreespeed(10);
+        link.setCapacity(1000);
+        link.setNumberOfLanes(1);
+        return link;
+    }
+
+    private static class CountingListener implements BufferedProtocolBufferSender.Listener {
+        private long bytes = 0;
+
+        @Override
+        public void handleEventBuffer(byte[] buffer) {
+            bytes += buffer.length;
+        }
+
+        @Override
+        public void reset(int iteration) {
+        }
+    }
+}
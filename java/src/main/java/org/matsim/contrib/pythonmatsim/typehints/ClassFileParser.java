@@ -0,0 +1,349 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassFileParser.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the parts of a class file needed to generate wrappers, following chapter 4 of the JVM specification.
+ * Everything else, in particular the bytecode, is skipped.
+ */
+class ClassFileParser {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    private static final int ACC_ENUM = 0x4000;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final ClassIndex index;
+    private final DataInputStream in;
+    // UTF8 constants, or the UTF8 name for class constants. Other constants are not needed.
+    private String[] strings;
+
+    private ClassFileParser(ClassIndex index, byte[] classFile) {
+        this.index = index;
+        this.in = new DataInputStream(new ByteArrayInputStream(classFile));
+    }
+
+    static ClassModel parse(ClassIndex index, byte[] classFile) throws IOException {
+        return new ClassFileParser(index, classFile).parse();
+    }
+
+    private ClassModel parse() throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("not a class file");
+        // minor and major versions: all versions share the parts read here
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        readConstantPool();
+
+        int access = in.readUnsignedShort();
+        final String name = binaryName(readString());
+        final String superName = binaryName(readString());
+
+        final int nInterfaces = in.readUnsignedShort();
+        final List<String> interfaceNames = new ArrayList<>(nInterfaces);
+        for (int i = 0; i < nInterfaces; i++) {
+            interfaceNames.add(binaryName(readString()));
+        }
+
+        final List<String> enumConstants = readFields();
+
+        final List<MethodModel> constructors = new ArrayList<>();
+        final List<MethodModel> methods = new ArrayList<>();
+        final List<String> bridgeSignatures = new ArrayList<>();
+        readMethods(name, constructors, methods, bridgeSignatures);
+
+        boolean nested = false;
+        String declaringClassName = null;
+        String simpleName = null;
+        final List<String> memberClassNames = new ArrayList<>();
+
+        final int nAttributes = in.readUnsignedShort();
+        for (int a = 0; a < nAttributes; a++) {
+            final String attributeName = readString();
+            final int length = in.readInt();
+            if (!attributeName.equals("InnerClasses")) {
+                skip(length);
+                continue;
+            }
+
+            final int nClasses = in.readUnsignedShort();
+            for (int i = 0; i < nClasses; i++) {
+                final String innerName = binaryName(readString());
+                final String outerName = binaryName(readString());
+                final String innerSimpleName = readString();
+                final int innerAccess = in.readUnsignedShort();
+
+                if (innerName.equals(name)) {
+                    nested = true;
+                    declaringClassName = outerName;
+                    simpleName = innerSimpleName;
+                    // the access flags of the class file do not tell whether a nested class is private, protected or static
+                    access = innerAccess;
+                }
+                else if (name.equals(outerName) && innerSimpleName != null) {
+                    memberClassNames.add(innerName);
+                }
+            }
+        }
+
+        return new ClassModel(index, name, access, superName, interfaceNames,
+                nested, declaringClassName, simpleName,
+                memberClassNames, enumConstants, constructors, methods, bridgeSignatures);
+    }
+
+    private void readConstantPool() throws IOException {
+        final int count = in.readUnsignedShort();
+        strings = new String[count];
+        final int[] classNameIndices = new int[count];
+
+        for (int i = 1; i < count; i++) {
+            final int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    strings[i] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndices[i] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(8);
+                    // takes two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag "+tag+" at index "+i);
+            }
+        }
+
+        // class constants may reference UTF8 constants defined later in the pool
+        for (int i = 1; i < count; i++) {
+            if (classNameIndices[i] != 0) strings[i] = strings[classNameIndices[i]];
+        }
+    }
+
+    /**
+     * @return the names of the enum constants
+     */
+    private List<String> readFields() throws IOException {
+        final int nFields = in.readUnsignedShort();
+        List<String> enumConstants = Collections.emptyList();
+
+        for (int f = 0; f < nFields; f++) {
+            final int access = in.readUnsignedShort();
+            final String name = readString();
+            // descriptor
+            in.readUnsignedShort();
+            skipAttributes();
+
+            if ((access & ACC_ENUM) != 0) {
+                if (enumConstants.isEmpty()) enumConstants = new ArrayList<>();
+                enumConstants.add(name);
+            }
+        }
+
+        return enumConstants;
+    }
+
+    private void readMethods(String className, List<MethodModel> constructors, List<MethodModel> methods,
+                             List<String> bridgeSignatures) throws IOException {
+        final int nMethods = in.readUnsignedShort();
+
+        for (int m = 0; m < nMethods; m++) {
+            final int access = in.readUnsignedShort();
+            final String name = readString();
+            final String descriptor = readString();
+
+            if ((access & ACC_BRIDGE) != 0) {
+                // only duplicates a method with more specific types, but still overrides methods of supertypes
+                bridgeSignatures.add(MethodModel.getSignature(name, descriptor));
+            }
+
+            final boolean relevant = (access & ACC_PUBLIC) != 0 &&
+                    (access & (ACC_SYNTHETIC | ACC_BRIDGE)) == 0 &&
+                    !name.equals("<clinit>");
+            if (!relevant) {
+                skipAttributes();
+                continue;
+            }
+
+            final List<JavaType> parameterTypes = JavaType.parseParameterTypes(descriptor);
+            final String[] parameterNames = readParameterNames(access, parameterTypes);
+            final List<String> names = new ArrayList<>(parameterNames.length);
+            for (int i = 0; i < parameterNames.length; i++) {
+                names.add(parameterNames[i] != null ? parameterNames[i] : "arg"+i);
+            }
+
+            final MethodModel method = new MethodModel(className, name, access, descriptor, names);
+            if (name.equals("<init>")) constructors.add(method);
+            else methods.add(method);
+        }
+    }
+
+    /**
+     * Reads the attributes of a method, looking for parameter names in the MethodParameters attribute, present if
+     * compiled with <tt>-parameters</tt>, or in the local variable table, present if compiled with debug information.
+     */
+    private String[] readParameterNames(int access, List<JavaType> parameterTypes) throws IOException {
+        final String[] fromParameters = new String[parameterTypes.size()];
+        final String[] fromLocalVariables = new String[parameterTypes.size()];
+        boolean hasParameters = false;
+
+        // local variable slot of each parameter
+        final int[] slots = new int[parameterTypes.size()];
+        int slot = (access & ACC_STATIC) != 0 ? 0 : 1;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slot;
+            slot += parameterTypes.get(i).getSize();
+        }
+
+        final int nAttributes = in.readUnsignedShort();
+        for (int a = 0; a < nAttributes; a++) {
+            final String attributeName = readString();
+            final int length = in.readInt();
+
+            if (attributeName.equals("MethodParameters")) {
+                final int count = in.readUnsignedByte();
+                // the count may differ from the descriptor for implicit parameters, in which case names are unusable
+                hasParameters = count == fromParameters.length;
+                for (int i = 0; i < count; i++) {
+                    final String name = readString();
+                    in.readUnsignedShort();
+                    if (hasParameters) fromParameters[i] = name;
+                }
+            }
+            else if (attributeName.equals("Code")) {
+                readLocalVariableNames(slots, fromLocalVariables);
+            }
+            else {
+                skip(length);
+            }
+        }
+
+        return hasParameters ? fromParameters : fromLocalVariables;
+    }
+
+    private void readLocalVariableNames(int[] slots, String[] names) throws IOException {
+        // max stack and max locals
+        skip(4);
+        skip(in.readInt());
+        // exception table
+        skip(8 * in.readUnsignedShort());
+
+        final int nAttributes = in.readUnsignedShort();
+        for (int a = 0; a < nAttributes; a++) {
+            final String attributeName = readString();
+            final int length = in.readInt();
+            if (!attributeName.equals("LocalVariableTable")) {
+                skip(length);
+                continue;
+            }
+
+            final int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                final int startPc = in.readUnsignedShort();
+                // length
+                in.readUnsignedShort();
+                final String name = readString();
+                // descriptor
+                in.readUnsignedShort();
+                final int variableSlot = in.readUnsignedShort();
+
+                // parameters are the variables in their slots from the start of the method
+                if (startPc != 0) continue;
+                for (int p = 0; p < slots.length; p++) {
+                    if (slots[p] == variableSlot) names[p] = name;
+                }
+            }
+        }
+    }
+
+    private void skipAttributes() throws IOException {
+        final int nAttributes = in.readUnsignedShort();
+        for (int a = 0; a < nAttributes; a++) {
+            in.readUnsignedShort();
+            skip(in.readInt());
+        }
+    }
+
+    /**
+     * @return the UTF8 constant or class name at the index read, or null for index 0
+     */
+    private String readString() throws IOException {
+        final int i = in.readUnsignedShort();
+        if (i >= strings.length) throw new IOException("constant pool index "+i+" out of bounds");
+        return strings[i];
+    }
+
+    private void skip(int n) throws IOException {
+        if (in.skipBytes(n) != n) throw new IOException("truncated class file");
+    }
+
+    private static String binaryName(String internalName) {
+        return internalName == null ? null : internalName.replace('/', '.');
+    }
+}
@@ -0,0 +1,100 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassIndex.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class models by binary name. Classes that were not read in bulk by the {@link ClassPathScanner}, such as supertypes
+ * from packages that did not need to be generated again, are read on first lookup, which requires the scanner to
+ * still be open.
+ * <p>
+ * Models are only softly referenced: classes of packages already generated can be collected, and are read again if
+ * they are looked up later, so that memory is held by the packages being generated rather than by the whole class path.
+ */
+class ClassIndex {
+    private static final Logger log = Logger.getLogger(ClassIndex.class);
+
+    private final ClassPathScanner.Listing listing;
+    private final Map<String, Reference<ClassModel>> classes = new ConcurrentHashMap<>();
+    // not to read them again, nor to log the failure again
+    private final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+    private volatile GenerationScope scope = GenerationScope.all();
+
+    ClassIndex(ClassPathScanner.Listing listing) {
+        this.listing = listing;
+    }
+
+    /**
+     * @return the classes for which wrappers are generated, which hints can refer to
+     */
+    GenerationScope getScope() {
+        return scope;
+    }
+
+    void setScope(GenerationScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return the class with this binary name, or null if it is not on the class path or could not be read
+     */
+    ClassModel find(String name) {
+        final ClassModel known = get(name);
+        if (known != null) return known;
+        if (unreadable.contains(name) || !listing.contains(name)) return null;
+        // in the rare case of concurrent lookups, the class is read twice, with equivalent models
+        return read(name).orElse(null);
+    }
+
+    /**
+     * Reads a class and keeps its model.
+     */
+    Optional<ClassModel> read(String name) {
+        final ClassModel model;
+        try {
+            model = ClassFileParser.parse(this, listing.readClassFile(name));
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("could not read class "+name, e);
+            unreadable.add(name);
+            return Optional.empty();
+        }
+
+        final ClassModel previous = get(name);
+        if (previous != null) return Optional.of(previous);
+        classes.put(name, new SoftReference<>(model));
+        return Optional.of(model);
+    }
+
+    private ClassModel get(String name) {
+        final Reference<ClassModel> reference = classes.get(name);
+        return reference == null ? null : reference.get();
+    }
+}
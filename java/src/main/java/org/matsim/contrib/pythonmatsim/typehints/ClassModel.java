@@ -0,0 +1,252 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassModel.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import java.util.*;
+
+/**
+ * What the generation of wrappers needs to know of a class, as read from its class file, without loading it.
+ * Other classes, such as supertypes or declaring classes, are looked up by name in the {@link ClassIndex}.
+ */
+class ClassModel {
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ENUM = 0x4000;
+
+    private final ClassIndex index;
+    private final String name;
+    private final int access;
+    private final String superName;
+    private final List<String> interfaceNames;
+
+    // from the entry of this class in its InnerClasses attribute, if it is nested
+    private final boolean nested;
+    private final String declaringClassName;
+    private final String simpleName;
+
+    private final List<String> memberClassNames;
+    private final List<String> enumConstants;
+    private final List<MethodModel> constructors;
+    private final List<MethodModel> methods;
+    // signatures of the bridge methods generated by the compiler, which override methods of supertypes
+    private final List<String> bridgeSignatures;
+    // computed on first use, as the same classes are the supertypes of many others
+    private volatile Collection<MethodModel> allMethods = null;
+
+    ClassModel(ClassIndex index, String name, int access, String superName, List<String> interfaceNames,
+               boolean nested, String declaringClassName, String simpleName,
+               List<String> memberClassNames, List<String> enumConstants,
+               List<MethodModel> constructors, List<MethodModel> methods, List<String> bridgeSignatures) {
+        this.index = index;
+        this.name = name;
+        this.access = access;
+        this.superName = superName;
+        this.interfaceNames = interfaceNames;
+        this.nested = nested;
+        this.declaringClassName = declaringClassName;
+        this.simpleName = simpleName;
+        this.memberClassNames = memberClassNames;
+        this.enumConstants = enumConstants;
+        this.constructors = constructors;
+        this.methods = methods;
+        this.bridgeSignatures = bridgeSignatures;
+    }
+
+    ClassIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the binary name, as returned by {@link Class#getName()}
+     */
+    String getName() {
+        return name;
+    }
+
+    String getPackageName() {
+        return TypeHintsUtils.pythonPackage(name);
+    }
+
+    /**
+     * @return the canonical name, as returned by {@link Class#getCanonicalName()}, or null for local and anonymous
+     * classes
+     */
+    String getCanonicalName() {
+        if (!nested) return name;
+        if (declaringClassName == null) return null;
+
+        final ClassModel declaringClass = getDeclaringClass();
+        final String declaringName = declaringClass != null ?
+                declaringClass.getCanonicalName() :
+                // not read, so assume it is not local
+                declaringClassName.replace('$', '.');
+        return declaringName == null ? null : declaringName+"."+simpleName;
+    }
+
+    /**
+     * @return the access flags of the class, or of its declaration in its declaring class if it is nested
+     */
+    int getModifiers() {
+        return access;
+    }
+
+    boolean isPublic() {
+        return (access & ACC_PUBLIC) != 0;
+    }
+
+    boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    boolean isEnum() {
+        return (access & ACC_ENUM) != 0;
+    }
+
+    boolean isMemberClass() {
+        return nested && declaringClassName != null;
+    }
+
+    boolean isLocalClass() {
+        return nested && declaringClassName == null && simpleName != null;
+    }
+
+    boolean isAnonymousClass() {
+        return nested && simpleName == null;
+    }
+
+    /**
+     * @return the class declaring this member class, or null if it is not a member class or was not read
+     */
+    ClassModel getDeclaringClass() {
+        return declaringClassName == null ? null : index.find(declaringClassName);
+    }
+
+    /**
+     * @return the names of the direct superclass and interfaces
+     */
+    List<String> getSupertypeNames() {
+        final List<String> names = new ArrayList<>(interfaceNames.size() + 1);
+        if (superName != null) names.add(superName);
+        names.addAll(interfaceNames);
+        return names;
+    }
+
+    /**
+     * @return the member classes, whatever their access, as {@link Class#getDeclaredClasses()}
+     */
+    List<ClassModel> getDeclaredClasses() {
+        final List<ClassModel> classes = new ArrayList<>(memberClassNames.size());
+        for (String memberName : memberClassNames) {
+            final ClassModel member = index.find(memberName);
+            if (member != null) classes.add(member);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the names of the enum constants, in declaration order
+     */
+    List<String> getEnumConstants() {
+        return enumConstants;
+    }
+
+    /**
+     * @return the public constructors
+     */
+    List<MethodModel> getConstructors() {
+        return constructors;
+    }
+
+    /**
+     * @return the public methods declared by this class
+     */
+    List<MethodModel> getDeclaredMethods() {
+        return methods;
+    }
+
+    /**
+     * Mimics {@link Class#getMethods()}: the public methods of the class and of its supertypes that are not overridden.
+     * Static methods of interfaces are not inherited. Supertypes that were not read are ignored. Unlike reflection,
+     * bridge methods are left out, as they only repeat methods with less specific types.
+     */
+    Collection<MethodModel> getMethods() {
+        Collection<MethodModel> methods = allMethods;
+        if (methods == null) {
+            // concurrent first calls compute the same result
+            methods = Collections.unmodifiableList(computeMethods());
+            allMethods = methods;
+        }
+        return methods;
+    }
+
+    private List<MethodModel> computeMethods() {
+        // null for signatures of bridge methods, which hide the methods they override without being part of the result
+        final Map<String, MethodModel> bySignature = new LinkedHashMap<>();
+        final Set<String> visited = new HashSet<>();
+
+        addMethods(this, bySignature, visited);
+        // interfaces only contribute methods not defined in any superclass
+        for (ClassModel c = this; c != null; c = c.superName == null ? null : index.find(c.superName)) {
+            for (String interfaceName : c.interfaceNames) {
+                addInterfaceMethods(index.find(interfaceName), bySignature, visited);
+            }
+        }
+
+        final List<MethodModel> methods = new ArrayList<>(bySignature.size());
+        for (MethodModel method : bySignature.values()) {
+            if (method != null) methods.add(method);
+        }
+        return methods;
+    }
+
+    private static void add(Map<String, MethodModel> methods, ClassModel classe, boolean withStatic) {
+        for (MethodModel method : classe.methods) {
+            if ((withStatic || !method.isStatic()) && !methods.containsKey(method.getSignature())) {
+                methods.put(method.getSignature(), method);
+            }
+        }
+        for (String signature : classe.bridgeSignatures) {
+            if (!methods.containsKey(signature)) methods.put(signature, null);
+        }
+    }
+
+    private static void addMethods(ClassModel classe, Map<String, MethodModel> methods, Set<String> visited) {
+        for (ClassModel c = classe; c != null; c = c.superName == null ? null : c.index.find(c.superName)) {
+            if (!visited.add(c.name)) return;
+            add(methods, c, true);
+            // interfaces do not inherit the methods of Object, although it is their superclass in class files
+            if (c.isInterface()) return;
+        }
+    }
+
+    private static void addInterfaceMethods(ClassModel classe, Map<String, MethodModel> methods, Set<String> visited) {
+        if (classe == null || !visited.add(classe.name)) return;
+        add(methods, classe, false);
+        for (String interfaceName : classe.interfaceNames) {
+            addInterfaceMethods(classe.index.find(interfaceName), methods, visited);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,656 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassPathScanner.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Finds and reads the class files of all classes visible from a class loader, plus the bootstrap classes, on a
+ * fork-join pool. Listing is partitioned by class path entry (jar or directory) and module of the runtime image,
+ * directories being walked in parallel. Reading is partitioned in chunks of class names of each entry.
+ *
+ * Classes are never loaded: class files are parsed into {@link ClassModel}s, so that no static initializer runs and
+ * classes with missing dependencies can still be described.
+ *
+ * Results are sorted by class name, so that the generated code does not depend on the scheduling of the tasks.
+ *
+ * Listing also computes a fingerprint of the class files of each package, from the checksums stored in jars, so that
+ * only classes of packages that changed since a previous generation need to be read.
+ */
+class ClassPathScanner implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(ClassPathScanner.class);
+
+    // modules of the runtime image to scan, from Java 9 on. Only java.base was ever looked at.
+    private static final List<String> BOOTSTRAP_MODULES = Collections.singletonList("java.base");
+    // number of class files read by one task
+    private static final int READ_CHUNK_SIZE = 256;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    // to close their files
+    private final List<Listing> listings = new ArrayList<>();
+
+    ClassPathScanner(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1, got "+parallelism);
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @return the classes visible from the loader and its parents, and the bootstrap classes, sorted by name
+     */
+    List<ClassModel> scan(ClassLoader loader) {
+        return read(list(loader), p -> true);
+    }
+
+    /**
+     * @return the class files visible from the loader and its parents, and the bootstrap class files
+     */
+    Listing list(ClassLoader loader) {
+        long start = System.nanoTime();
+        final List<Source> sources = getSources(loader);
+        log.info("found "+sources.size()+" class path entries and modules in "+millisSince(start)+" ms");
+
+        start = System.nanoTime();
+        final Listing listing = new Listing(sources, pool.invoke(new ListTask(sources)));
+        listings.add(listing);
+        log.info("listed "+listing.getClassCount()+" class files in "+listing.fingerprints.size()+" packages in "+
+                millisSince(start)+" ms on "+parallelism+" threads");
+        return listing;
+    }
+
+    /**
+     * Reads the class files of some packages into the index of the listing.
+     *
+     * @param packageFilter the names of the packages to read classes from
+     * @return the classes read, sorted by name
+     */
+    List<ClassModel> read(Listing listing, Predicate<String> packageFilter) {
+        final long start = System.nanoTime();
+        final ReadResult result = pool.invoke(new ReadAllTask(listing, packageFilter));
+        log.info("read "+result.classes.size()+" class files in "+millisSince(start)+" ms on "+parallelism+" threads, "+
+                result.failures.get()+" class files could not be read");
+        return result.classes;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        for (Listing listing : listings) {
+            for (Source source : listing.sources) {
+                source.close();
+            }
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static List<Source> getSources(ClassLoader loader) {
+        // keyed by path, so that entries visible from several loaders are only listed once
+        final Map<String, Source> sources = new LinkedHashMap<>();
+
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            for (File file : getClassPath(l)) {
+                addClassPathEntry(sources, file);
+            }
+        }
+
+        addBootstrapSources(sources);
+
+        return new ArrayList<>(sources.values());
+    }
+
+    private static Collection<File> getClassPath(ClassLoader loader) {
+        final Collection<File> files = new ArrayList<>();
+
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                if (!url.getProtocol().equals("file")) {
+                    log.warn("ignoring class path entry "+url+" of class loader "+loader);
+                    continue;
+                }
+                try {
+                    files.add(new File(url.toURI()));
+                } catch (URISyntaxException e) {
+                    log.warn("ignoring class path entry "+url+" of class loader "+loader);
+                }
+            }
+        }
+        else if (loader == ClassLoader.getSystemClassLoader()) {
+            // from Java 9 on, the application class loader is not a URLClassLoader anymore
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                if (!entry.isEmpty()) files.add(new File(entry));
+            }
+        }
+
+        return files;
+    }
+
+    private static void addClassPathEntry(Map<String, Source> sources, File file) {
+        final String key = file.getAbsolutePath();
+        if (sources.containsKey(key) || !file.exists()) return;
+
+        if (file.isDirectory()) {
+            sources.put(key, new DirectorySource(file.toPath(), file.toString(), null));
+            return;
+        }
+
+        sources.put(key, new JarSource(file));
+
+        // jars can reference other jars in their manifest, which are then also on the class path
+        try (JarFile jar = new JarFile(file)) {
+            final Manifest manifest = jar.getManifest();
+            if (manifest == null) return;
+            final String classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (classPath == null) return;
+
+            for (String entry : classPath.trim().split("\\s+")) {
+                if (entry.isEmpty()) continue;
+                final URL url = new URL(file.toURI().toURL(), entry);
+                if (url.getProtocol().equals("file")) addClassPathEntry(sources, new File(url.toURI()));
+            }
+        }
+        catch (IOException | URISyntaxException e) {
+            log.warn("could not read manifest of "+file, e);
+        }
+    }
+
+    private static void addBootstrapSources(Map<String, Source> sources) {
+        // XXX See https://openjdk.java.net/jeps/220 for after Java 8
+        // java.* classes are not on the class path and need to be handled ad-hoc
+        final URL classUrl = ClassLoader.getSystemResource("java/lang/Class.class");
+
+        try {
+            if (classUrl.getProtocol().equals("jar")) {
+                // up to Java 8, all of them are in rt.jar
+                final File rtJar = new File(((JarURLConnection) classUrl.openConnection()).getJarFileURL().toURI());
+                sources.put(rtJar.getAbsolutePath(), new JarSource(rtJar));
+                return;
+            }
+        }
+        catch (IOException | URISyntaxException e) {
+            throw new RuntimeException("could not locate bootstrap classes from "+classUrl, e);
+        }
+
+        // with jrt, there is no class path, so iterate over the modules directly
+        final FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+        // class files of the runtime image only change with the runtime
+        final String runtimeVersion = System.getProperty("java.vendor")+" "+System.getProperty("java.runtime.version");
+        for (String module : BOOTSTRAP_MODULES) {
+            sources.put("jrt:/"+module, new DirectorySource(fs.getPath("/modules", module), "jrt:/"+module, runtimeVersion));
+        }
+    }
+
+    private static abstract class Source {
+        private final String description;
+
+        private Source(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Called from within the pool, so implementations can fork subtasks.
+         */
+        abstract List<ClassFile> listClasses() throws IOException;
+
+        /**
+         * May be called concurrently.
+         */
+        abstract byte[] read(String className) throws IOException;
+
+        void close() {
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    private static class JarSource extends Source {
+        private final File file;
+        // opened on first read, shared by all threads
+        private JarFile jar = null;
+
+        private JarSource(File file) {
+            super(file.toString());
+            this.file = file;
+        }
+
+        @Override
+        List<ClassFile> listClasses() throws IOException {
+            final List<ClassFile> files = new ArrayList<>();
+            try (JarFile jar = new JarFile(file)) {
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    final JarEntry entry = entries.nextElement();
+                    if (!isClassFile(entry.getName())) continue;
+                    // the CRC is read from the central directory, without inflating the entry
+                    final long checksum = entry.getCrc() != -1 ? entry.getCrc() : entry.getSize() * 31 + entry.getTime();
+                    files.add(new ClassFile(className(entry.getName()), Long.toHexString(checksum)));
+                }
+            }
+            return files;
+        }
+
+        @Override
+        byte[] read(String className) throws IOException {
+            final JarFile jar = getJar();
+            final JarEntry entry = jar.getJarEntry(classFileName(className));
+            if (entry == null) throw new IOException("no class file for "+className+" in "+file);
+            try (InputStream in = jar.getInputStream(entry)) {
+                return readFully(in, (int) entry.getSize());
+            }
+        }
+
+        private synchronized JarFile getJar() throws IOException {
+            if (jar == null) jar = new JarFile(file);
+            return jar;
+        }
+
+        @Override
+        synchronized void close() {
+            if (jar == null) return;
+            try {
+                jar.close();
+            } catch (IOException e) {
+                log.warn("could not close "+file, e);
+            }
+            jar = null;
+        }
+    }
+
+    private static class DirectorySource extends Source {
+        private final Path root;
+        // version of the runtime image, or null for a class path directory
+        private final String runtimeVersion;
+
+        private DirectorySource(Path root, String description, String runtimeVersion) {
+            super(description);
+            this.root = root;
+            this.runtimeVersion = runtimeVersion;
+        }
+
+        @Override
+        List<ClassFile> listClasses() {
+            return new DirectoryTask(this, root, "").invoke();
+        }
+
+        @Override
+        byte[] read(String className) throws IOException {
+            return Files.readAllBytes(root.resolve(classFileName(className)));
+        }
+    }
+
+    /**
+     * Lists the classes of a directory, forking one task per subdirectory.
+     */
+    @SuppressWarnings("serial")
+    private static class DirectoryTask extends RecursiveTask<List<ClassFile>> {
+        private final DirectorySource source;
+        private final Path directory;
+        private final String prefix;
+
+        private DirectoryTask(DirectorySource source, Path directory, String prefix) {
+            this.source = source;
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<ClassFile> compute() {
+            final List<ClassFile> files = new ArrayList<>();
+            final List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    // jrt paths end with a slash for directories
+                    final String fileName = path.getFileName().toString().replace("/", "");
+                    if (Files.isDirectory(path)) {
+                        subtasks.add(new DirectoryTask(source, path, prefix + fileName + "/"));
+                    }
+                    else if (isClassFile(prefix + fileName)) {
+                        // files of the runtime image only change with the runtime
+                        final String checksum = source.runtimeVersion != null ? source.runtimeVersion :
+                                Long.toHexString(Files.size(path) * 31 + Files.getLastModifiedTime(path).toMillis());
+                        files.add(new ClassFile(className(prefix + fileName), checksum));
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            ForkJoinTask.invokeAll(subtasks);
+            for (DirectoryTask subtask : subtasks) {
+                files.addAll(subtask.join());
+            }
+            return files;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ListTask extends RecursiveTask<List<List<ClassFile>>> {
+        private final List<Source> sources;
+
+        private ListTask(List<Source> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        protected List<List<ClassFile>> compute() {
+            final List<ForkJoinTask<List<ClassFile>>> tasks = new ArrayList<>();
+            for (Source source : sources) {
+                tasks.add(ForkJoinTask.adapt(source::listClasses));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            final List<List<ClassFile>> files = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                final List<ClassFile> sourceFiles = tasks.get(i).join();
+                log.debug("listed "+sourceFiles.size()+" class files in "+sources.get(i));
+                files.add(sourceFiles);
+            }
+            return files;
+        }
+    }
+
+    private static class ReadResult {
+        private final List<ClassModel> classes;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private ReadResult(List<ClassModel> classes) {
+            this.classes = classes;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ReadAllTask extends RecursiveTask<ReadResult> {
+        private final Listing listing;
+        private final Predicate<String> packageFilter;
+
+        private ReadAllTask(Listing listing, Predicate<String> packageFilter) {
+            this.listing = listing;
+            this.packageFilter = packageFilter;
+        }
+
+        @Override
+        protected ReadResult compute() {
+            final ReadResult result = new ReadResult(new ArrayList<>());
+
+            final List<ReadTask> tasks = new ArrayList<>();
+            for (int i = 0; i < listing.sources.size(); i++) {
+                final Source source = listing.sources.get(i);
+                final List<String> names = new ArrayList<>();
+                for (ClassFile file : listing.files.get(i)) {
+                    // classes also defined in a previous entry are hidden by it
+                    if (packageFilter.test(file.getPackageName()) && listing.locations.get(file.name) == source) {
+                        names.add(file.name);
+                    }
+                }
+                tasks.add(new ReadTask(result, listing.index, names, 0, names.size()));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            for (ReadTask task : tasks) {
+                result.classes.addAll(task.join());
+            }
+            result.classes.sort(Comparator.comparing(ClassModel::getName));
+            return result;
+        }
+    }
+
+    /**
+     * Reads a range of class names, splitting it in halves down to {@link #READ_CHUNK_SIZE} names.
+     */
+    @SuppressWarnings("serial")
+    private static class ReadTask extends RecursiveTask<List<ClassModel>> {
+        private final ReadResult result;
+        private final ClassIndex index;
+        private final List<String> names;
+        private final int from;
+        private final int to;
+
+        private ReadTask(ReadResult result, ClassIndex index, List<String> names, int from, int to) {
+            this.result = result;
+            this.index = index;
+            this.names = names;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ClassModel> compute() {
+            if (to - from > READ_CHUNK_SIZE) {
+                final int middle = (from + to) >>> 1;
+                final ReadTask left = new ReadTask(result, index, names, from, middle);
+                left.fork();
+                final List<ClassModel> classes = new ReadTask(result, index, names, middle, to).compute();
+                final List<ClassModel> leftClasses = left.join();
+                leftClasses.addAll(classes);
+                return leftClasses;
+            }
+
+            final List<ClassModel> classes = new ArrayList<>();
+            for (String name : names.subList(from, to)) {
+                final Optional<ClassModel> model = index.read(name);
+                if (model.isPresent()) classes.add(model.get());
+                else result.failures.incrementAndGet();
+            }
+            return classes;
+        }
+    }
+
+    /**
+     * The class files found in the class path entries and modules, in the order of the entries.
+     */
+    static class Listing {
+        private final List<Source> sources;
+        private final List<List<ClassFile>> files;
+        // entry defining each class: the first one, as for class loading
+        private final Map<String, Source> locations = new HashMap<>();
+        // sorted by package name
+        private final Map<String, String> fingerprints;
+        private final ClassIndex index = new ClassIndex(this);
+
+        private Listing(List<Source> sources, List<List<ClassFile>> files) {
+            this.sources = sources;
+            this.files = files;
+            for (int i = 0; i < sources.size(); i++) {
+                for (ClassFile file : files.get(i)) {
+                    locations.putIfAbsent(file.name, sources.get(i));
+                }
+            }
+            this.fingerprints = computeFingerprints(files);
+        }
+
+        /**
+         * @return the index in which classes of this listing are read
+         */
+        ClassIndex getIndex() {
+            return index;
+        }
+
+        boolean contains(String className) {
+            return locations.containsKey(className);
+        }
+
+        byte[] readClassFile(String className) throws IOException {
+            final Source source = locations.get(className);
+            if (source == null) throw new IOException("no class file for "+className);
+            return source.read(className);
+        }
+
+        int getClassCount() {
+            return files.stream().mapToInt(List::size).sum();
+        }
+
+        /**
+         * @param packageFilter the names of the packages to list classes of
+         * @return the names of the classes defined by the first entry containing them, sorted, by package name
+         */
+        SortedMap<String, List<String>> getClassNamesByPackage(Predicate<String> packageFilter) {
+            final SortedMap<String, List<String>> names = new TreeMap<>();
+            for (int i = 0; i < sources.size(); i++) {
+                for (ClassFile file : files.get(i)) {
+                    if (packageFilter.test(file.getPackageName()) && locations.get(file.name) == sources.get(i)) {
+                        names.computeIfAbsent(file.getPackageName(), k -> new ArrayList<>()).add(file.name);
+                    }
+                }
+            }
+            names.values().forEach(Collections::sort);
+            return names;
+        }
+
+        /**
+         * @return a hash of the names and checksums of the class files of each package, keyed by package name
+         */
+        Map<String, String> getPackageFingerprints() {
+            return fingerprints;
+        }
+
+        /**
+         * @return the fingerprints of each package, also covering the roots of the scope and which classes of the
+         * package are part of it, as what is generated for a package depends on them
+         */
+        Map<String, String> getPackageFingerprints(GenerationScope scope) {
+            if (scope.isComplete()) return fingerprints;
+
+            final SortedMap<String, List<String>> names = getClassNamesByPackage(p -> true);
+            final Map<String, String> scoped = new LinkedHashMap<>();
+            for (Map.Entry<String, String> pack : fingerprints.entrySet()) {
+                final MessageDigest digest = newDigest();
+                digest.update((pack.getValue()+'\n'+scope+'\n').getBytes(StandardCharsets.UTF_8));
+                for (String name : names.get(pack.getKey())) {
+                    if (scope.contains(name)) digest.update((name+'\n').getBytes(StandardCharsets.UTF_8));
+                }
+                scoped.put(pack.getKey(), toHex(digest.digest()));
+            }
+            return Collections.unmodifiableMap(scoped);
+        }
+
+        private static Map<String, String> computeFingerprints(List<List<ClassFile>> files) {
+            // as for loading, the first entry defining a class hides the others
+            final Map<String, SortedMap<String, String>> checksums = new TreeMap<>();
+            for (List<ClassFile> sourceFiles : files) {
+                for (ClassFile file : sourceFiles) {
+                    checksums.computeIfAbsent(file.getPackageName(), k -> new TreeMap<>())
+                            .putIfAbsent(file.name, file.checksum);
+                }
+            }
+
+            final Map<String, String> fingerprints = new LinkedHashMap<>();
+            for (Map.Entry<String, SortedMap<String, String>> pack : checksums.entrySet()) {
+                final MessageDigest digest = newDigest();
+                for (Map.Entry<String, String> file : pack.getValue().entrySet()) {
+                    digest.update((file.getKey()+' '+file.getValue()+'\n').getBytes(StandardCharsets.UTF_8));
+                }
+                fingerprints.put(pack.getKey(), toHex(digest.digest()));
+            }
+            return Collections.unmodifiableMap(fingerprints);
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to support SHA-256
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static String toHex(byte[] bytes) {
+            final StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+    }
+
+    private static class ClassFile {
+        private final String name;
+        // identifies the content of the class file, without needing to read it
+        private final String checksum;
+
+        private ClassFile(String name, String checksum) {
+            this.name = name;
+            this.checksum = checksum;
+        }
+
+        private String getPackageName() {
+            return TypeHintsUtils.pythonPackage(name);
+        }
+    }
+
+    private static boolean isClassFile(String fileName) {
+        return fileName.endsWith(".class") &&
+                // versioned class files of multi-release jars
+                !fileName.startsWith("META-INF/") &&
+                !fileName.endsWith("module-info.class") &&
+                !fileName.endsWith("package-info.class");
+    }
+
+    private static String classFileName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 4096);
+        final byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String className(String fileName) {
+        // Remove .class and pass from / to .
+        return fileName.substring(0, fileName.length() - 6).replace('/', '.');
+    }
+}
@@ -0,0 +1,138 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * GenerationManifest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Remembers, between two generations of wrappers, the fingerprint of the class files of each generated package, and
+ * the packages whose classes it inherits methods from or refers to in its signatures. A package needs to be generated
+ * again if its fingerprint, or the fingerprint of one of those packages, changed. With a partial scope, fingerprints
+ * also cover which classes of the package are in the scope, which decides whether other packages import them.
+ */
+class GenerationManifest {
+    private static final Logger log = Logger.getLogger(GenerationManifest.class);
+
+    static final String FILE_NAME = ".codegen-manifest";
+    // to increment whenever the generated code changes for the same classes, to invalidate all previous manifests
+    private static final String FORMAT = "python-matsim wrappers 4";
+
+    // sorted, for the file to be stable
+    private final Map<String, Entry> packages = new TreeMap<>();
+
+    /**
+     * @return the manifest of the previous generation in the directory, or an empty manifest if there is none or if it
+     * was written by an incompatible version of the generator
+     */
+    static GenerationManifest read(File rootDir) throws IOException {
+        final GenerationManifest manifest = new GenerationManifest();
+        final File file = new File(rootDir, FILE_NAME);
+        if (!file.exists()) return manifest;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!FORMAT.equals(reader.readLine())) {
+                log.info("ignoring manifest "+file+" of another version of the generator");
+                return manifest;
+            }
+
+            // one line per package: name, fingerprint and dependencies separated by spaces
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] fields = line.split(" ");
+                manifest.put(fields[0], fields[1], Arrays.asList(fields).subList(2, fields.length));
+            }
+        }
+        return manifest;
+    }
+
+    void write(File rootDir) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(rootDir, FILE_NAME).toPath(), StandardCharsets.UTF_8)) {
+            writer.write(FORMAT);
+            writer.newLine();
+            for (Map.Entry<String, Entry> pack : packages.entrySet()) {
+                writer.write(pack.getKey()+" "+pack.getValue().fingerprint);
+                for (String dependency : pack.getValue().dependencies) {
+                    writer.write(" "+dependency);
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    void put(String packageName, String fingerprint, Collection<String> dependencies) {
+        packages.put(packageName, new Entry(fingerprint, new TreeSet<>(dependencies)));
+    }
+
+    /**
+     * Copies the entry of a package from another manifest, when it did not need to be generated again.
+     */
+    void copy(GenerationManifest other, String packageName) {
+        packages.put(packageName, other.packages.get(packageName));
+    }
+
+    /**
+     * @param fingerprints the current fingerprints of the class files of each package
+     * @return the packages that need to be generated again
+     */
+    Set<String> getStalePackages(Map<String, String> fingerprints) {
+        final Set<String> stale = new TreeSet<>();
+        for (Map.Entry<String, String> pack : fingerprints.entrySet()) {
+            final Entry entry = packages.get(pack.getKey());
+            if (entry == null || !entry.fingerprint.equals(pack.getValue()) ||
+                    entry.dependencies.stream().anyMatch(d -> isStale(d, fingerprints))) {
+                stale.add(pack.getKey());
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * @return the packages generated previously that do not exist anymore
+     */
+    Set<String> getRemovedPackages(Map<String, String> fingerprints) {
+        final Set<String> removed = new TreeSet<>(packages.keySet());
+        removed.removeAll(fingerprints.keySet());
+        return removed;
+    }
+
+    private boolean isStale(String packageName, Map<String, String> fingerprints) {
+        final Entry entry = packages.get(packageName);
+        return entry == null || !entry.fingerprint.equals(fingerprints.get(packageName));
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        // packages defining supertypes of the classes of the package, whose methods appear in its hints
+        private final Set<String> dependencies;
+
+        private Entry(String fingerprint, Set<String> dependencies) {
+            this.fingerprint = fingerprint;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * GenerationScope.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The classes for which wrappers are generated. By default, all classes of the class path. When root packages are
+ * included, only the public classes of those packages and the classes reachable from them through public signatures
+ * are: supertypes, member classes, and parameter and return types of public methods and constructors, transitively.
+ * Classes of excluded packages are never part of the scope, nor followed. Hints refer to classes outside of the scope
+ * as <tt>Any</tt>.
+ *
+ * Packages are given by name, and include their subpackages.
+ */
+class GenerationScope {
+    private static final Logger log = Logger.getLogger(GenerationScope.class);
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    // null if all classes that are not excluded are part of the scope
+    private final Set<String> classes;
+
+    private GenerationScope(List<String> includes, List<String> excludes, Set<String> classes) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.classes = classes;
+    }
+
+    static GenerationScope all() {
+        return new GenerationScope(Collections.emptyList(), Collections.emptyList(), null);
+    }
+
+    /**
+     * @param includes the root packages, or none to generate wrappers for all packages that are not excluded
+     * @param excludes packages to leave out, even if reachable from the roots
+     */
+    static GenerationScope compute(ClassPathScanner scanner, ClassPathScanner.Listing listing,
+                                   Collection<String> includes, Collection<String> excludes) {
+        final List<String> sortedIncludes = new ArrayList<>(new TreeSet<>(includes));
+        final List<String> sortedExcludes = new ArrayList<>(new TreeSet<>(excludes));
+        if (sortedIncludes.isEmpty()) return new GenerationScope(sortedIncludes, sortedExcludes, null);
+
+        final long start = System.nanoTime();
+        final GenerationScope scope = new GenerationScope(sortedIncludes, sortedExcludes, new HashSet<>());
+
+        // the classes of the roots are read in parallel, the classes reached from them one by one
+        final List<ClassModel> roots = scanner.read(listing, p -> isIn(p, sortedIncludes) && !isIn(p, sortedExcludes));
+        final Queue<String> queue = new ArrayDeque<>();
+        for (ClassModel root : roots) {
+            if (root.isPublic() && !root.isMemberClass() && !root.isLocalClass() && !root.isAnonymousClass()) {
+                queue.add(root.getName());
+            }
+        }
+
+        final ClassIndex index = listing.getIndex();
+        while (!queue.isEmpty()) {
+            final String name = queue.remove();
+            if (scope.classes.contains(name) || isIn(TypeHintsUtils.pythonPackage(name), sortedExcludes)) continue;
+            final ClassModel classe = index.find(name);
+            // classes that are not on the class path cannot be generated
+            if (classe == null) continue;
+
+            // wrappers are generated for top level classes, with all their member classes
+            ClassModel topLevel = classe;
+            while (topLevel.isMemberClass() && topLevel.getDeclaringClass() != null) {
+                topLevel = topLevel.getDeclaringClass();
+            }
+            if (topLevel != classe) {
+                queue.add(topLevel.getName());
+                continue;
+            }
+            // no wrapper is generated for them anyway
+            if (!classe.isPublic()) continue;
+            scope.addWithMembers(classe, queue);
+        }
+
+        log.info(scope.classes.size()+" classes reachable from "+sortedIncludes+" without "+sortedExcludes+", found in "+
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+" ms");
+        return scope;
+    }
+
+    private void addWithMembers(ClassModel classe, Queue<String> queue) {
+        if (!classes.add(classe.getName())) return;
+
+        queue.addAll(classe.getSupertypeNames());
+        for (MethodModel method : classe.getConstructors()) {
+            addTypes(method, queue);
+        }
+        for (MethodModel method : classe.getMethods()) {
+            addTypes(method, queue);
+        }
+        for (ClassModel member : classe.getDeclaredClasses()) {
+            addWithMembers(member, queue);
+        }
+    }
+
+    private static void addTypes(MethodModel method, Queue<String> queue) {
+        addType(method.getReturnType(), queue);
+        for (JavaType type : method.getParameterTypes()) {
+            addType(type, queue);
+        }
+    }
+
+    private static void addType(JavaType type, Queue<String> queue) {
+        for (JavaType imported : TypeHintsUtils.getImportedTypes(type)) {
+            if (!TypeHintsUtils.PRIMITIVE_TYPES.contains(imported)) queue.add(imported.getClassName());
+        }
+    }
+
+    private static boolean isIn(String packageName, List<String> packages) {
+        for (String root : packages) {
+            if (packageName.equals(root) || packageName.startsWith(root+".")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param className a binary class name
+     */
+    boolean contains(String className) {
+        if (isIn(TypeHintsUtils.pythonPackage(className), excludes)) return false;
+        return classes == null || classes.contains(className);
+    }
+
+    /**
+     * @return true if all classes are part of the scope
+     */
+    boolean isComplete() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    /**
+     * @return a description of the roots, that identifies the scope for the same class files
+     */
+    @Override
+    public String toString() {
+        return "includes="+includes+" excludes="+excludes;
+    }
+}
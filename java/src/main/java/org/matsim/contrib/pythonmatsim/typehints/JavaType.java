@@ -0,0 +1,140 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * JavaType.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A type appearing in a method signature, as read from a class file descriptor. Object types are only referenced by
+ * name, so that signatures can refer to classes that were not read, or are not on the class path at all.
+ */
+final class JavaType {
+    static final JavaType BOOLEAN = new JavaType("Z");
+    static final JavaType BYTE = new JavaType("B");
+    static final JavaType CHAR = new JavaType("C");
+    static final JavaType SHORT = new JavaType("S");
+    static final JavaType INT = new JavaType("I");
+    static final JavaType LONG = new JavaType("J");
+    static final JavaType FLOAT = new JavaType("F");
+    static final JavaType DOUBLE = new JavaType("D");
+    static final JavaType VOID = new JavaType("V");
+
+    private final String descriptor;
+
+    private JavaType(String descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    static JavaType forDescriptor(String descriptor) {
+        switch (descriptor) {
+            case "Z": return BOOLEAN;
+            case "B": return BYTE;
+            case "C": return CHAR;
+            case "S": return SHORT;
+            case "I": return INT;
+            case "J": return LONG;
+            case "F": return FLOAT;
+            case "D": return DOUBLE;
+            case "V": return VOID;
+        }
+        if (descriptor.startsWith("[") || (descriptor.startsWith("L") && descriptor.endsWith(";"))) {
+            return new JavaType(descriptor);
+        }
+        throw new IllegalArgumentException("invalid type descriptor "+descriptor);
+    }
+
+    /**
+     * @param methodDescriptor a method descriptor, such as <tt>(ILjava/lang/String;)V</tt>
+     */
+    static List<JavaType> parseParameterTypes(String methodDescriptor) {
+        final List<JavaType> types = new ArrayList<>();
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            final int end = endOfType(methodDescriptor, i);
+            types.add(forDescriptor(methodDescriptor.substring(i, end)));
+            i = end;
+        }
+        return types.isEmpty() ? Collections.emptyList() : types;
+    }
+
+    static JavaType parseReturnType(String methodDescriptor) {
+        return forDescriptor(methodDescriptor.substring(methodDescriptor.indexOf(')') + 1));
+    }
+
+    private static int endOfType(String descriptor, int start) {
+        int i = start;
+        while (descriptor.charAt(i) == '[') i++;
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    boolean isPrimitive() {
+        return descriptor.length() == 1;
+    }
+
+    boolean isArray() {
+        return descriptor.charAt(0) == '[';
+    }
+
+    /**
+     * @return the number of local variable slots taken by a parameter of this type
+     */
+    int getSize() {
+        return this == LONG || this == DOUBLE ? 2 : 1;
+    }
+
+    JavaType getComponentType() {
+        if (!isArray()) throw new IllegalStateException(this+" is not an array type");
+        return forDescriptor(descriptor.substring(1));
+    }
+
+    /**
+     * @return the binary name of an object type, as returned by {@link Class#getName()}
+     */
+    String getClassName() {
+        if (isPrimitive() || isArray()) throw new IllegalStateException(this+" is not an object type");
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    String getPackageName() {
+        return TypeHintsUtils.pythonPackage(getClassName());
+    }
+
+    String getDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JavaType && ((JavaType) o).descriptor.equals(descriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return descriptor.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return descriptor;
+    }
+}
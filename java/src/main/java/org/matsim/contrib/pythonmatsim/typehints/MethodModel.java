@@ -0,0 +1,103 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * MethodModel.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import java.util.List;
+
+/**
+ * A public method or constructor, as read from a class file.
+ */
+class MethodModel {
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_VARARGS = 0x0080;
+
+    private final String declaringClassName;
+    private final String name;
+    private final int access;
+    private final String descriptor;
+    private final List<JavaType> parameterTypes;
+    private final List<String> parameterNames;
+    private final JavaType returnType;
+
+    MethodModel(String declaringClassName, String name, int access, String descriptor, List<String> parameterNames) {
+        this.declaringClassName = declaringClassName;
+        this.name = name;
+        this.access = access;
+        this.descriptor = descriptor;
+        this.parameterTypes = JavaType.parseParameterTypes(descriptor);
+        this.returnType = JavaType.parseReturnType(descriptor);
+        this.parameterNames = parameterNames;
+        if (parameterNames.size() != parameterTypes.size()) {
+            throw new IllegalArgumentException(parameterNames.size()+" parameter names for descriptor "+descriptor);
+        }
+    }
+
+    String getDeclaringClassName() {
+        return declaringClassName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isStatic() {
+        return (access & ACC_STATIC) != 0;
+    }
+
+    /**
+     * @return true if the last parameter is a variable number of arguments
+     */
+    boolean isVarArgs() {
+        return (access & ACC_VARARGS) != 0;
+    }
+
+    List<JavaType> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    /**
+     * @return the names from the class file if it was compiled with parameter names or debug information,
+     * <tt>argN</tt> otherwise, as with reflection
+     */
+    List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    JavaType getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * @return the name and parameter types, which identify a method overridden in subclasses
+     */
+    String getSignature() {
+        return getSignature(name, descriptor);
+    }
+
+    static String getSignature(String name, String descriptor) {
+        return name + descriptor.substring(0, descriptor.indexOf(')') + 1);
+    }
+
+    @Override
+    public String toString() {
+        return declaringClassName+"."+name+descriptor;
+    }
+}
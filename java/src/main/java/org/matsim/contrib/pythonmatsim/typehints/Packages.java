@@ -22,9 +22,6 @@
 
 import org.apache.log4j.Logger;
 
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -34,28 +31,19 @@ import java.util.stream.Stream;
  */
 class Packages {
     private static final Logger log = Logger.getLogger(Packages.class);
-    private final Map<String, PackageInfo> packages = new HashMap<>();
-
-    public void addClass(Class<?> classe) {
-        if (TypeHintsUtils.PRIMITIVE_TYPES.contains(classe)) {
-            return;
-        }
+    // sorted, for the generated files not to depend on hashing
+    private final Map<String, PackageInfo> packages = new TreeMap<>();
 
+    public void addClass(ClassModel classe) {
         log.debug(classe);
-        if (classe.isArray()) {
-            Class<?> component = classe.getComponentType();
-            createPackage(component).addClass(classe);
-        }
-        else {
-            // generics?
-           createPackage(classe).addClass(classe);
-        }
+        // generics?
+        createPackage(classe).addClass(classe);
     }
 
-    private PackageInfo createPackage(Class<?> classe) {
+    private PackageInfo createPackage(ClassModel classe) {
         if (classe == null) throw new IllegalArgumentException();
         return packages.computeIfAbsent(
-                classe.getPackage().getName(),
+                classe.getPackageName(),
                 PackageInfo::new);
     }
 
@@ -65,25 +53,22 @@ class Packages {
 
     public class PackageInfo {
         private final String packageName;
-        private final Map<Class<?>, ClassInfo> rootClasses = new LinkedHashMap<>();
+        private final Map<String, ClassInfo> rootClasses = new LinkedHashMap<>();
+        // index in which the classes of the package were read
+        private ClassIndex index = null;
 
         public PackageInfo(String packageName) {
             this.packageName = packageName;
         }
 
-        private void addClass(Class<?> classe) {
-            try {
-                if (classe.isMemberClass() || classe.isLocalClass() || classe.isAnonymousClass() ||
-                        // only consider public classes
-                        !Modifier.isPublic(classe.getModifiers())) {
-                    return;
-                }
-                rootClasses.put(classe, new ClassInfo(classe));
-            }
-            catch (NoClassDefFoundError e) {
-                // happens for classes that are not on classpath but in a signature
-                // Safe to ignore.
+        private void addClass(ClassModel classe) {
+            index = classe.getIndex();
+            if (classe.isMemberClass() || classe.isLocalClass() || classe.isAnonymousClass() ||
+                    // only consider public classes
+                    !classe.isPublic()) {
+                return;
             }
+            rootClasses.put(classe.getName(), new ClassInfo(classe));
         }
 
         public String getPackageName() {
@@ -95,39 +80,91 @@ class Packages {
         }
 
         public Iterable<String> getImportedPackages() {
+            return getReferencedTypes()
+                    // referred to as Any
+                    .filter(this::isInScope)
+                    .map(JavaType::getPackageName)
+                    //.map(Packages::pythonPackage)
+                    .collect(Collectors.toCollection(TreeSet::new));
+        }
+
+        /**
+         * @return the packages of all classes in the signatures of this package, in the scope or not. Whether they are
+         * decides between importing them and referring to them as Any, so the hints depend on those packages.
+         */
+        public Set<String> getReferencedPackages() {
+            return getReferencedTypes()
+                    .map(JavaType::getPackageName)
+                    .collect(Collectors.toCollection(TreeSet::new));
+        }
+
+        private Stream<JavaType> getReferencedTypes() {
             return rootClasses.values().stream()
-                    .flatMap(c -> TypeHintsUtils.getMethods(c).values().stream())
+                    .flatMap(c -> c.getMethods().values().stream())
                     .flatMap(Collection::stream)
                     .flatMap(this::getTypes)
                     .flatMap(t -> TypeHintsUtils.getImportedTypes(t).stream())
-                    .filter(t -> !TypeHintsUtils.PRIMITIVE_TYPES.contains(t))
-                    .map(Class::getPackage)
-                    .map(Package::getName)
-                    //.map(Packages::pythonPackage)
-                    .collect(Collectors.toSet());
+                    .filter(t -> !TypeHintsUtils.PRIMITIVE_TYPES.contains(t));
         }
 
-        private Stream<Class<?>> getTypes(Method method) {
-            Collection<Class<?>> list = new ArrayList<>();
+        /**
+         * @return the packages of all superclasses and interfaces of the classes of this package, whose public methods
+         * are part of the hints of this package
+         */
+        public Set<String> getSupertypePackages() {
+            final Set<String> packageNames = new TreeSet<>();
+            final Queue<ClassModel> stack = Collections.asLifoQueue(new ArrayDeque<>());
+            final Set<String> visited = new HashSet<>();
+            for (ClassInfo info : rootClasses.values()) {
+                stack.add(info.getRootClass());
+            }
+
+            while (!stack.isEmpty()) {
+                final ClassModel classe = stack.remove();
+                if (!visited.add(classe.getName())) continue;
+                packageNames.add(classe.getPackageName());
+
+                for (String supertypeName : classe.getSupertypeNames()) {
+                    final ClassModel supertype = classe.getIndex().find(supertypeName);
+                    // the hints do not include anything from classes that are not on the classpath
+                    if (supertype != null) stack.add(supertype);
+                }
+                stack.addAll(classe.getDeclaredClasses());
+            }
+
+            packageNames.remove(packageName);
+            return packageNames;
+        }
+
+        private boolean isInScope(JavaType type) {
+            return index.getScope().contains(type.getClassName());
+        }
+
+        private Stream<JavaType> getTypes(MethodModel method) {
+            Collection<JavaType> list = new ArrayList<>();
             list.add(method.getReturnType());
-            list.addAll(Arrays.asList(method.getParameterTypes()));
+            list.addAll(method.getParameterTypes());
             return list.stream();
         }
     }
 
     public static class ClassInfo {
-        private final Class<?> classe;
-        private final Map<Class<?>, ClassInfo> innerClasses = new LinkedHashMap<>();
+        private final ClassModel classe;
+        private final Map<String, ClassInfo> innerClasses = new LinkedHashMap<>();
+        // needed both for the imports of the package and for the hints of the class
+        private Map<String, Collection<MethodModel>> methods = null;
 
-        public ClassInfo(Class<?> classe) {
+        public ClassInfo(ClassModel classe) {
             this.classe = classe;
 
-            for (Class<?> inner : classe.getDeclaredClasses()) {
-                innerClasses.put(inner, new ClassInfo(inner));
+            final List<ClassModel> declaredClasses = classe.getDeclaredClasses();
+            declaredClasses.sort(Comparator.comparing(ClassModel::getName));
+            for (ClassModel inner : declaredClasses) {
+                innerClasses.put(inner.getName(), new ClassInfo(inner));
             }
         }
 
-        public Class<?> getRootClass() {
+        public ClassModel getRootClass() {
             return classe;
         }
 
@@ -135,6 +172,14 @@ class Packages {
             return innerClasses.values();
         }
 
+        /**
+         * @return the methods of the class and of its inner classes by name, as {@link TypeHintsUtils#getMethods}
+         */
+        public Map<String, Collection<MethodModel>> getMethods() {
+            if (methods == null) methods = TypeHintsUtils.getMethods(this);
+            return methods;
+        }
+
         @Override
         public String toString() {
             return "ClassInfo{" +
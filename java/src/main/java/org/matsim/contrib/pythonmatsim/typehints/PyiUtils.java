@@ -20,222 +20,352 @@
 
  package org.matsim.contrib.pythonmatsim.typehints;
 
-import com.google.common.reflect.ClassPath;
 import org.apache.log4j.Logger;
-import org.matsim.core.utils.io.IOUtils;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
 import java.io.UncheckedIOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
-import java.net.*;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PyiUtils {
     private static final Logger log = Logger.getLogger(PyiUtils.class);
 
     public static Iterable<Packages.PackageInfo> scan() {
-        final Collection<Class<?>> classes = new HashSet<>();
-        try {
-            for (ClassLoader loader = Thread.currentThread().getContextClassLoader();
-                    loader != null;
-                    loader = loader.getParent()) {
-                addClasses(loader, classes);
-            }
-            addBootstrapClasses(classes);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+        return scan(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of threads listing and reading class files
+     */
+    public static Iterable<Packages.PackageInfo> scan(int parallelism) {
+        try (ClassPathScanner scanner = new ClassPathScanner(parallelism)) {
+            return groupInPackages(scanner.scan(Thread.currentThread().getContextClassLoader()));
         }
+    }
 
+    private static Iterable<Packages.PackageInfo> groupInPackages(Collection<ClassModel> classes) {
+        final long start = System.nanoTime();
         Packages packages = new Packages();
         classes.forEach(packages::addClass);
+        log.info("grouped classes in packages in "+TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+" ms");
         return packages.getPackages();
     }
 
-    private static void addClasses(ClassLoader loader, Collection<Class<?>> classes) throws IOException {
-        final Collection<ClassPath.ClassInfo> loadableClasses = ClassPath.from(loader).getAllClasses();
+    public static void generatePythonWrappers(final String rootPath, String rootPackage) {
+        generatePythonWrappers(rootPath, rootPackage, true);
+    }
 
-        log.info("adding "+loadableClasses.size()+" classes from class loader "+loader);
+    /**
+     * Packages are generated as a pipeline: each one is read and written as soon as its classes are known, by a pool of
+     * one thread per core, so that only the packages being generated, with the supertypes they need, have to fit in
+     * memory.
+     *
+     * @param incremental if true, only generate the packages whose classes changed since the last generation in the
+     *                    same directory, as recorded in its manifest. Files are only written if their content changed.
+     */
+    public static void generatePythonWrappers(final String rootPath, String rootPackage, boolean incremental) {
+        generatePythonWrappers(rootPath, rootPackage, incremental, new String[0], new String[0]);
+    }
 
-        for (ClassPath.ClassInfo c : loadableClasses) {
-            try {
-                Class<?> loaded = c.load();
-                classes.add(loaded);
+    /**
+     * @param includePackages packages to generate wrappers for, with their subpackages and the classes reachable from
+     *                        them through public signatures. If empty, wrappers are generated for all packages.
+     * @param excludePackages packages not to generate wrappers for, even if reachable from the included packages
+     * @see GenerationScope
+     */
+    public static void generatePythonWrappers(final String rootPath, String rootPackage, boolean incremental,
+                                              String[] includePackages, String[] excludePackages) {
+        final File rootDir = new File(rootPath +"/"+ rootPackage);
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+
+        try (ClassPathScanner scanner = new ClassPathScanner(parallelism)) {
+            rootDir.mkdirs();
+            final GenerationManifest previous = incremental ? GenerationManifest.read(rootDir) : new GenerationManifest();
+
+            final ClassPathScanner.Listing listing = scanner.list(Thread.currentThread().getContextClassLoader());
+            final GenerationScope scope = GenerationScope.compute(
+                    scanner, listing, Arrays.asList(includePackages), Arrays.asList(excludePackages));
+            listing.getIndex().setScope(scope);
+            // packages without classes in the scope are generated empty, which deletes their files
+            final Map<String, String> fingerprints = listing.getPackageFingerprints(scope);
+            final Set<String> stale = previous.getStalePackages(fingerprints);
+            log.info(stale.size()+" of "+fingerprints.size()+" packages changed since the last generation");
+
+            // packages each generated package depends on, through supertypes or signatures, sorted
+            final Map<String, Set<String>> generated = generatePackageFiles(
+                    parallelism, rootDir, rootPackage, listing.getIndex(), listing.getClassNamesByPackage(stale::contains));
+
+            deletePackageFiles(rootDir, previous.getRemovedPackages(fingerprints));
+            // packages without any class that could be read or in the scope are not generated anymore
+            final Set<String> empty = new TreeSet<>(stale);
+            empty.removeAll(generated.keySet());
+            deletePackageFiles(rootDir, empty);
+            generateInitFiles(rootDir);
+
+            new File(rootDir, "py.typed").createNewFile();
+
+            final GenerationManifest manifest = new GenerationManifest();
+            for (String packageName : fingerprints.keySet()) {
+                if (!stale.contains(packageName)) manifest.copy(previous, packageName);
+            }
+            for (String packageName : stale) {
+                manifest.put(packageName, fingerprints.get(packageName), Collections.emptySet());
             }
-            catch (LinkageError e) {
-                log.warn("could not load class "+c.getName());
+            for (Map.Entry<String, Set<String>> pack : generated.entrySet()) {
+                final Set<String> dependencies = pack.getValue();
+                // packages that are not scanned never change, so do not need to be checked
+                dependencies.retainAll(fingerprints.keySet());
+                manifest.put(pack.getKey(), fingerprints.get(pack.getKey()), dependencies);
             }
+            manifest.write(rootDir);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    private static void addBootstrapClasses(Collection<Class<?>> classes) throws IOException, ClassNotFoundException {
-        // XXX See https://openjdk.java.net/jeps/220 for after Java 8
-        // get URL of rt.jar, where all java.* classes are (they are not on the classpath and need to be handled ad-hoc)
+    /**
+     * @param parallelism number of packages generated at the same time
+     * @param classNames the classes to read, by package
+     * @return the packages for which files were generated, with the packages they depend on
+     */
+    private static Map<String, Set<String>> generatePackageFiles(int parallelism, final File rootDir, final String rootPackage,
+                                                                 ClassIndex index, SortedMap<String, List<String>> classNames) throws IOException {
+        log.debug("generating python files in "+rootDir.getPath());
+        final long start = System.nanoTime();
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final Map<String, Set<String>> generated = new TreeMap<>();
+
+        final ExecutorService writers = Executors.newFixedThreadPool(parallelism);
         try {
-            URL fileURL = ((JarURLConnection) ClassLoader.getSystemResource("java/lang/Class.class").openConnection())
-                    .getJarFileURL();
-
-
-            JarFile file = ((JarURLConnection) ClassLoader.getSystemResource("java/lang/Class.class").openConnection())
-                    .getJarFile();
-
-            ClassLoader cl = URLClassLoader.newInstance(new URL[]{new URL("jar:" + fileURL.toString() + "!/")});
-
-            final Collection<JarEntry> entries = Collections.list(file.entries());
-
-            log.info("loading "+entries.size()+" bootstrap classes from JAR "+fileURL);
-            for (JarEntry entry : entries) {
-                if (!entry.getName().endsWith(".class")) continue;
-                // Remove .class and pass from / to .
-                String className = entry.getName()
-                        .substring(0, entry.getName().length() - 6)
-                        .replace("/", ".");
-
-                Class classe = cl.loadClass(className);
-                classes.add(classe);
+            // the tasks only hold class names until they run
+            final Map<String, Future<Set<String>>> tasks = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> pack : classNames.entrySet()) {
+                tasks.put(pack.getKey(), writers.submit(
+                        () -> generatePackageFiles(rootDir, rootPackage, index, pack.getValue(), written, failures)));
             }
 
+            for (Map.Entry<String, Future<Set<String>>> task : tasks.entrySet()) {
+                final Set<String> dependencies = get(task.getValue());
+                if (dependencies != null) generated.put(task.getKey(), dependencies);
+            }
+        }
+        finally {
+            writers.shutdownNow();
         }
-        catch (ClassCastException e) {
-            log.info("loading bootstrap classes from JRT");
-            FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
-
-            // with jrt, there is not classpath, so the Guava "getAllClasses" of class loader method does not work.
-            // Need to iterate directly
-            final String basePath = "/modules/java.base/";
-            final int prefixLength = ("jrt:"+basePath).length();
-            final ClassLoader cl = Thread.currentThread().getContextClassLoader();
-
-            Files.walkFileTree(
-                    fs.getPath(basePath),
-                    new SimpleFileVisitor<Path>() {
-                        @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            String fileName = file.toUri().toString();
-
-                            if (fileName.endsWith(".class") && !fileName.contains("$")) {
-                                log.debug("found class "+fileName);
 
-                                String className = fileName.substring(prefixLength, fileName.length() - 6).replace("/", ".");
+        log.info("generated "+generated.size()+" packages in "+TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+
+                " ms on "+parallelism+" threads, "+written+" files changed, "+failures+" class files could not be read");
+        return generated;
+    }
 
-                                log.debug("try to load class "+className);
+    /**
+     * Reads the classes of one package and writes its .pyi and .py files. Nothing refers to the classes afterwards.
+     *
+     * @return the packages of the supertypes of the classes and of the classes in their signatures, or null if no class
+     * could be read
+     */
+    private static Set<String> generatePackageFiles(final File rootDir, final String rootPackage, ClassIndex index,
+                                                    List<String> classNames, AtomicInteger written, AtomicInteger failures) throws IOException {
+        final Packages packages = new Packages();
+        for (String className : classNames) {
+            if (!index.getScope().contains(className)) continue;
+            final Optional<ClassModel> classe = index.read(className);
+            if (classe.isPresent()) packages.addClass(classe.get());
+            else failures.incrementAndGet();
+        }
 
-                                try {
-                                    classes.add(cl.loadClass(className));
-                                } catch (LinkageError | ClassNotFoundException ex) {
-                                    log.warn("could not load class "+className);
-                                }
-                            }
+        final Iterator<Packages.PackageInfo> infos = packages.getPackages().iterator();
+        if (!infos.hasNext()) return null;
+        final Packages.PackageInfo info = infos.next();
 
-                            return FileVisitResult.CONTINUE;
-                        }
-                    }
-            );
-        }
+        if (writePyiFile(rootDir, rootPackage, info)) written.incrementAndGet();
+        if (writePythonFile(rootDir, info)) written.incrementAndGet();
+        final Set<String> dependencies = info.getSupertypePackages();
+        dependencies.addAll(info.getReferencedPackages());
+        dependencies.remove(info.getPackageName());
+        return dependencies;
     }
 
-    public static void generatePythonWrappers(final String rootPath, String rootPackage) {
+    private static <T> T get(Future<T> future) throws IOException {
         try {
-            generatePyiFiles(rootPath, rootPackage);
-            generatePythonFiles(rootPath, rootPackage);
-            generateInitFiles(new File(rootPath));
-
-            new File(rootPath +"/"+ rootPackage +"/py.typed").createNewFile();
+            return future.get();
         }
-        catch (IOException e) {
-            throw new UncheckedIOException(e);
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while generating python files");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
         }
     }
 
-    private static void generatePyiFiles(final String rootPath, final String rootPackage) throws IOException {
-        final String packagePath = rootPath +"/"+ rootPackage;
-        log.debug("generating python .pyi files in "+packagePath);
-        final File rootDir = new File(packagePath);
-
-        for (Packages.PackageInfo info : scan()) {
-            File file = getPackageFile(rootDir, info, ".pyi");
+    private static boolean writePyiFile(final File rootDir, final String rootPackage, Packages.PackageInfo info) throws IOException {
+        File file = getPackageFile(rootDir, info, ".pyi");
 
-            log.debug("generate "+file.getCanonicalPath());
+        log.debug("generate "+file.getCanonicalPath());
 
-            try (BufferedWriter writer = IOUtils.getBufferedWriter(file.getCanonicalPath())) {
-                writeHeader(writer);
+        final StringWriter content = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(content)) {
+            writeHeader(writer);
 
-                writeImports(writer, rootPackage, info.getImportedPackages());
+            writeImports(writer, rootPackage, info.getImportedPackages());
 
-                writer.write("from typing import overload");
-                writer.newLine();
-                writer.newLine();
+            writer.write("from typing import overload");
+            writer.newLine();
+            writer.newLine();
 
-                for (Packages.ClassInfo classTypeInfo : info.getClasses()) {
-                    log.debug("generate class "+classTypeInfo);
-                    writeClassHints("", writer, rootPackage, classTypeInfo);
-                }
+            for (Packages.ClassInfo classTypeInfo : info.getClasses()) {
+                log.debug("generate class "+classTypeInfo);
+                writeClassHints("", writer, rootPackage, classTypeInfo);
             }
         }
+        return writeIfChanged(file, content.toString());
     }
 
-    private static void generatePythonFiles(final String rootPath, String rootPackage) throws IOException {
-        final String packagePath = rootPath +"/"+ rootPackage;
-        log.debug("generating python .py files in "+packagePath);
-        final File rootDir = new File(packagePath);
-
-        for (Packages.PackageInfo info : scan()) {
-            File file = getPackageFile(rootDir, info, ".py");
+    private static boolean writePythonFile(final File rootDir, Packages.PackageInfo info) throws IOException {
+        File file = getPackageFile(rootDir, info, ".py");
 
-            log.debug("generate "+file.getCanonicalPath());
+        log.debug("generate "+file.getCanonicalPath());
 
-            try (BufferedWriter writer = IOUtils.getBufferedWriter(file.getCanonicalPath())) {
-                writeHeader(writer);
+        final StringWriter content = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(content)) {
+            writeHeader(writer);
 
-                writer.write("import jpype");
-                writer.newLine();
-                writer.newLine();
+            // classes are only looked up through JPype when first accessed, see pythonmatsim.wrappers
+            writer.write("from pythonmatsim.wrappers import class_module as _class_module");
+            writer.newLine();
+            writer.newLine();
+            writer.write("__getattr__, __dir__ = _class_module(__name__, {");
 
-                for (Packages.ClassInfo classTypeInfo : info.getClasses()) {
-                    log.debug("generate class "+classTypeInfo);
+            for (Packages.ClassInfo classTypeInfo : info.getClasses()) {
+                log.debug("generate class "+classTypeInfo);
 
-                    writePythonJpypeClass(writer, classTypeInfo);
-                }
+                writePythonJpypeClass(writer, classTypeInfo);
             }
+
+            writer.newLine();
+            writer.write("})");
+            writer.newLine();
+        }
+        return writeIfChanged(file, content.toString());
+    }
+
+    private static void deletePackageFiles(File rootDir, Collection<String> packageNames) throws IOException {
+        for (String packageName : packageNames) {
+            log.debug("delete files of removed package "+packageName);
+            Files.deleteIfExists(getPackageFile(rootDir, packageName, ".py").toPath());
+            Files.deleteIfExists(getPackageFile(rootDir, packageName, ".pyi").toPath());
         }
     }
 
+    /**
+     * Leaves the file untouched if it already has this content, so that its modification time only changes with
+     * the content.
+     *
+     * @return true if the file was written
+     */
+    private static boolean writeIfChanged(File file, String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        // comparing sizes first avoids reading files whose content obviously changed
+        if (file.exists() && Files.size(file.toPath()) == bytes.length &&
+                Arrays.equals(Files.readAllBytes(file.toPath()), bytes)) return false;
+        Files.createDirectories(file.toPath().getParent());
+        Files.write(file.toPath(), bytes);
+        return true;
+    }
+
     private static void generateInitFiles(final File rootDir) throws IOException {
         log.debug("generating python __init__.py files in "+rootDir.getPath());
+        generateInitFiles(rootDir, rootDir);
+    }
 
-        writeInitFile(rootDir);
+    /**
+     * Directories of packages without any module below them, such as packages outside of the scope, are deleted.
+     *
+     * @return true if the directory contains modules
+     */
+    private static boolean generateInitFiles(final File directory, final File rootDir) throws IOException {
+        boolean hasModules = getModuleFiles(directory).length > 0;
+        // not __pycache__
+        for (File subdirectory : directory.listFiles(f -> f.isDirectory() && !f.getName().startsWith("__"))) {
+            hasModules |= generateInitFiles(subdirectory, rootDir);
+        }
 
-        for (File directory : rootDir.listFiles(File::isDirectory)) {
-           generateInitFiles(directory);
+        if (hasModules || directory.equals(rootDir)) {
+            writeInitFile(directory);
+            return true;
         }
+
+        log.debug("delete package without modules "+directory);
+        Files.deleteIfExists(new File(directory, "__init__.py").toPath());
+        Files.deleteIfExists(new File(directory, "__init__.pyi").toPath());
+        // only if empty
+        directory.delete();
+        return false;
+    }
+
+    private static File[] getModuleFiles(File directory) {
+        return directory.listFiles(f -> f.getName().matches("_.*\\.py") && !f.getName().equals("__init__.py"));
     }
 
     private static void writeInitFile(File directory) throws IOException {
-        // This writes the __init__.py files, importing all defined modules.
+        // This writes the __init__.py files, exposing the classes of all defined modules.
         // This seems to be the only way to emulate java-like package structure in python
-        // This has the downside that when importing parent1.parent2...child,
-        // all classes from parent packages are imported as well.
-        try (BufferedWriter writer = IOUtils.getBufferedWriter(directory.getCanonicalPath()+"/__init__.py")) {
+        // The classes are resolved lazily, so that importing parent1.parent2...child
+        // does not load all classes from parent packages as well.
+        final File[] pythonFiles = getModuleFiles(directory);
+        // the order of listing depends on the file system
+        Arrays.sort(pythonFiles);
+
+        final List<String> modules = new ArrayList<>();
+        for (File pythonFile : pythonFiles) {
+            modules.add(pythonFile.getName().substring(0, pythonFile.getName().length() - 3));
+        }
+
+        final StringWriter content = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(content)) {
             writeHeader(writer);
 
-            for (File pythonFile : directory.listFiles(f -> f.getName().matches("_.*\\.py") && !f.getName().equals("__init__.py"))) {
-                final String pack = pythonFile.getName().substring(0, pythonFile.getName().length() - 3);
+            writer.write("from pythonmatsim.wrappers import package_module as _package_module");
+            writer.newLine();
+            writer.newLine();
+            writer.write("__getattr__, __dir__ = _package_module(__name__, [");
+            for (String module : modules) {
                 writer.newLine();
-                writer.write("from ."+pack+" import *");
+                writer.write("    \'"+module+"\',");
             }
+            writer.newLine();
+            writer.write("])");
+            writer.newLine();
         }
+        writeIfChanged(new File(directory, "__init__.py"), content.toString());
+
+        // type checkers do not follow the lazy lookup, they get the hints through the stubs of the modules
+        final StringWriter stubContent = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(stubContent)) {
+            writeHeader(writer);
+
+            for (String module : modules) {
+                writer.newLine();
+                writer.write("from ."+module+" import *");
+            }
+        }
+        writeIfChanged(new File(directory, "__init__.pyi"), stubContent.toString());
     }
 
     private static void writePythonJpypeClass(BufferedWriter writer, Packages.ClassInfo classTypeInfo) throws IOException {
@@ -254,16 +384,16 @@ public class PyiUtils {
         }
 
         writer.newLine();
-        writer.newLine();
+        writer.write("    \'");
         writer.write(pythonClassName);
-        writer.write(" = jpype.JClass(\'");
+        writer.write("\': \'");
         writer.write(classTypeInfo.getRootClass().getName());
-        writer.write("\')");
+        writer.write("\',");
     }
 
     private static void writeClassHints(String prefix, BufferedWriter writer, String rootPackage, Packages.ClassInfo classTypeInfo) throws IOException {
         // TODO see if it makes sense to translate javadocs to python docstrings
-        final Class<?> rootClass = classTypeInfo.getRootClass();
+        final ClassModel rootClass = classTypeInfo.getRootClass();
         String pythonName = TypeHintsUtils.pythonClassName(rootClass);
 
         // This indicates a non-public type (anonymous, local...)
@@ -289,8 +419,8 @@ public class PyiUtils {
             writeClassHints(prefix+'\t', writer, rootPackage, member);
         }
 
-        for (Map.Entry<String, Collection<Method>> method : TypeHintsUtils.getMethods(classTypeInfo).entrySet()) {
-            writeMethodHints(prefix + '\t', writer, rootPackage, method.getKey(), method.getValue());
+        for (Map.Entry<String, Collection<MethodModel>> method : classTypeInfo.getMethods().entrySet()) {
+            writeMethodHints(prefix + '\t', writer, rootPackage, rootClass.getIndex(), method.getKey(), method.getValue());
         }
 
         writer.newLine();
@@ -298,29 +428,24 @@ public class PyiUtils {
     }
 
     private static void writeEnumHints(String prefix, BufferedWriter writer, String rootPackage, Packages.ClassInfo classTypeInfo) throws IOException {
-        for (Object constant : classTypeInfo.getRootClass().getEnumConstants()) {
+        for (String constant : classTypeInfo.getRootClass().getEnumConstants()) {
             // not sure whether this is correct
             writer.write(prefix);
-            writer.write(((Enum) constant).name()+": ");
+            writer.write(constant+": ");
             writer.write(TypeHintsUtils.pythonClassName(classTypeInfo.getRootClass()));
             writer.write(" = ...");
             writer.newLine();
         }
     }
 
-    private static void writeConstructorsHints(String prefix, BufferedWriter writer, String rootPackage, Class<?> classe) throws IOException {
-        Constructor<?>[] constructors = null;
+    private static void writeConstructorsHints(String prefix, BufferedWriter writer, String rootPackage, ClassModel classe) throws IOException {
+        final List<MethodModel> constructors = new ArrayList<>(classe.getConstructors());
+        // sorted, for the order not to depend on the order of methods in class files
+        constructors.sort(Comparator.comparing(MethodModel::toString));
 
-        try {
-            constructors = classe.getConstructors();
-        }
-        catch (NoClassDefFoundError e){
-            return;
-        }
-
-        boolean overload = constructors.length > 1;
+        boolean overload = constructors.size() > 1;
 
-        for (Constructor<?> constructor : constructors) {
+        for (MethodModel constructor : constructors) {
             if (overload) {
                 writer.write(prefix);
                 writer.write("@overload");
@@ -328,48 +453,34 @@ public class PyiUtils {
             }
 
             writer.write(prefix + "def __init__(self, ");
-
-            for (Parameter parameter : constructor.getParameters()) {
-                // TODO find how to get name reliably. Seems not to be possible if dependencies were not compiled with -parameters
-                // option, although IDEs do manage to get parameter names...
-                final String parameterName = parameter.isVarArgs() ? "*"+parameter.getName() : parameter.getName();
-                // varargs need to be handled explicitly, as the functionality exists in both languages but in a different way
-                final Class<?> parameterType = parameter.isVarArgs() ? parameter.getType().getComponentType() : parameter.getType();
-                final String pythonQualifiedClassName = TypeHintsUtils.pythonQualifiedClassName(rootPackage, parameterType);
-
-                writer.write(
-                        parameterName+": "+
-                                pythonQualifiedClassName+
-                                // python allows trailing comas, so no need to handle last parameter specially
-                                ", ");
-            }
-
+            writeParameters(writer, rootPackage, classe.getIndex(), constructor);
             writer.write("): ...");
             writer.newLine();
         }
     }
 
-    private static void writeMethodHints(String prefix, BufferedWriter writer, String rootPackage, String name, Collection<Method> methods) throws IOException {
+    private static void writeMethodHints(String prefix, BufferedWriter writer, String rootPackage, ClassIndex index, String name, Collection<MethodModel> methods) throws IOException {
         String methodName = TypeHintsUtils.getJPypeName(name);
 
         boolean overload = methods.size() > 1;
 
-        for (Method method : methods) {
+        for (MethodModel method : methods) {
             if (overload) {
                 writer.write(prefix);
                 writer.write("@overload");
                 writer.newLine();
             }
-            writeMethodHints(prefix, writer, rootPackage, methodName, method);
+            writeMethodHints(prefix, writer, rootPackage, index, methodName, method);
         }
     }
 
     private static void writeMethodHints(String prefix,
                                          BufferedWriter writer,
                                          String rootPackage,
+                                         ClassIndex index,
                                          String name,
-                                         Method method) throws IOException {
-        final boolean isStatic = Modifier.isStatic(method.getModifiers());
+                                         MethodModel method) throws IOException {
+        final boolean isStatic = method.isStatic();
 
         if (isStatic) {
             writer.write(prefix+"@staticmethod");
@@ -381,34 +492,42 @@ public class PyiUtils {
             writer.write("self, ");
         }
 
-        for (Parameter parameter : method.getParameters()) {
-            // TODO find how to get name reliably. Seems not to be possible if dependencies were not compiled with -parameters
-            // option, although IDEs do manage to get parameter names...
-            final String parameterName = parameter.isVarArgs() ? "*"+parameter.getName() : parameter.getName();
-            // varargs need to be handled explicitly, as the functionality exists in both languages but in a different way
-            final Class<?> parameterType = parameter.isVarArgs() ? parameter.getType().getComponentType() : parameter.getType();
-            final String pythonQualifiedClassName = TypeHintsUtils.pythonQualifiedClassName(rootPackage, parameterType);
-
-
-            writer.write(
-                    parameterName+": "+
-                            pythonQualifiedClassName+
-                            // python allows trailing comas, so no need to handle last parameter specially
-                            ", ");
-        }
+        writeParameters(writer, rootPackage, index, method);
 
         writer.write(")");
 
         if (method.getReturnType() != null) {
             // no return type might be void or primitive types.
             // both cases are not of fantastic value in python, so ignore it for the moment.
-            writer.write(" -> " + TypeHintsUtils.pythonQualifiedClassName(rootPackage, method.getReturnType()));
+            writer.write(" -> " + TypeHintsUtils.pythonQualifiedClassName(rootPackage, method.getReturnType(), index));
         }
 
         writer.write(": ...");
         writer.newLine();
     }
 
+    private static void writeParameters(BufferedWriter writer, String rootPackage, ClassIndex index, MethodModel method) throws IOException {
+        final List<JavaType> types = method.getParameterTypes();
+        final List<String> names = method.getParameterNames();
+
+        for (int i = 0; i < types.size(); i++) {
+            // names are read from the class files if they were compiled with -parameters or debug information,
+            // which is the case for most libraries
+            final String name = TypeHintsUtils.getPythonParameterName(names.get(i));
+            final boolean isVarArgs = method.isVarArgs() && i == types.size() - 1;
+            final String parameterName = isVarArgs ? "*"+name : name;
+            // varargs need to be handled explicitly, as the functionality exists in both languages but in a different way
+            final JavaType parameterType = isVarArgs ? types.get(i).getComponentType() : types.get(i);
+            final String pythonQualifiedClassName = TypeHintsUtils.pythonQualifiedClassName(rootPackage, parameterType, index);
+
+            writer.write(
+                    parameterName+": "+
+                            pythonQualifiedClassName+
+                            // python allows trailing comas, so no need to handle last parameter specially
+                            ", ");
+        }
+    }
+
     private static void writeImports(BufferedWriter writer, String rootPackage, Iterable<String> importedPackages) throws IOException {
         for (String packageName : importedPackages) {
             writer.write("import "+rootPackage+"."+packageName);
@@ -419,16 +538,19 @@ public class PyiUtils {
         writer.write("from jpype.types import *");
 
         writer.newLine();
-        writer.write("from typing import Union");
+        writer.write("from typing import Any, Union");
         writer.newLine();
 
         writer.newLine();
     }
 
     private static File getPackageFile(File rootDir, Packages.PackageInfo packageInfo, String extension) {
+        return getPackageFile(rootDir, packageInfo.getPackageName(), extension);
+    }
+
+    private static File getPackageFile(File rootDir, String moduleName, String extension) {
         try {
             final String rootPath = rootDir.getCanonicalPath();
-            final String moduleName = packageInfo.getPackageName();
 
             final int lastPoint = moduleName.lastIndexOf('.');
             final String packageDir = moduleName.replace('.', '/') +"/";
@@ -436,26 +558,13 @@ public class PyiUtils {
 
             final String path = rootPath + '/' + packageDir + moduleFileName;
 
-            final File file = new File(path);
-            createParentPackageDirs(file, rootDir);
-            return file;
+            return new File(path);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static void createParentPackageDirs(File file, File rootDir) throws IOException {
-        final File parent = file.getParentFile();
-
-        if (!file.equals(rootDir)) {
-            createParentPackageDirs(parent, rootDir);
-        }
-
-        parent.mkdirs();
-        //new File(parent, "__init__.py").createNewFile();
-    }
-
     private static void writeHeader(BufferedWriter writer) throws IOException {
         writer.write("################################################################################");
         writer.newLine();
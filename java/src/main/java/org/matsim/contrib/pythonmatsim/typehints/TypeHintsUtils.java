@@ -20,26 +20,25 @@
 
  package org.matsim.contrib.pythonmatsim.typehints;
 
-import java.lang.reflect.Method;
 import java.util.*;
 
 class TypeHintsUtils {
 
 
-    private static final Map<Class<?>, String> PRIMITIVE_TYPE_NAMES = new HashMap<>();
+    private static final Map<JavaType, String> PRIMITIVE_TYPE_NAMES = new HashMap<>();
     static {
-        PRIMITIVE_TYPE_NAMES.put(int.class, "Union[int, JInt]");
-        PRIMITIVE_TYPE_NAMES.put(short.class, "Union[int, JShort]");
-        PRIMITIVE_TYPE_NAMES.put(boolean.class, "Union[int, JBoolean]");
-        PRIMITIVE_TYPE_NAMES.put(char.class, "Union[string, JString]");
-        PRIMITIVE_TYPE_NAMES.put(byte.class, "JByte");
-        PRIMITIVE_TYPE_NAMES.put(long.class, "Union[long, JLong]");
-        PRIMITIVE_TYPE_NAMES.put(float.class, "Union[float, JFloat]");
-        PRIMITIVE_TYPE_NAMES.put(double.class, "Union[float, JDouble]");
-        PRIMITIVE_TYPE_NAMES.put(void.class, "None");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.INT, "Union[int, JInt]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.SHORT, "Union[int, JShort]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.BOOLEAN, "Union[int, JBoolean]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.CHAR, "Union[string, JString]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.BYTE, "JByte");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.LONG, "Union[long, JLong]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.FLOAT, "Union[float, JFloat]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.DOUBLE, "Union[float, JDouble]");
+        PRIMITIVE_TYPE_NAMES.put(JavaType.VOID, "None");
     }
 
-    static final Collection<Class<?>> PRIMITIVE_TYPES = Collections.unmodifiableSet(PRIMITIVE_TYPE_NAMES.keySet());
+    static final Collection<JavaType> PRIMITIVE_TYPES = Collections.unmodifiableSet(PRIMITIVE_TYPE_NAMES.keySet());
 
     // This is the list defined in JPype for renaming methods to avoid clashes.
     // It should only be modified if bumping to another version of JPype that uses another list
@@ -53,16 +52,23 @@ class TypeHintsUtils {
                     "def", "finally", "in", "print", "as", "None"
             ));
 
+    // names that cannot be used for parameters in Python 3, in addition to the ones above
+    private static final Set<String> PY_RESERVED_PARAMETER_NAMES =
+            new HashSet<>( Arrays.asList(
+                    "False", "True", "nonlocal", "with", "async", "await", "self"
+            ));
+
 
-    public static Collection<Class<?>> getImportedTypes(Class<?> classe) {
+    public static Collection<JavaType> getImportedTypes(JavaType type) {
         // TODO: look at generics as well
         // TODO: handle java.xxx packages specially (apparently not found by Reflections, but provided by JPype)
-        if (!classe.isArray()) return Collections.singleton(classe);
-        return getImportedTypes(classe.getComponentType());
+        if (!type.isArray()) return Collections.singleton(type);
+        return getImportedTypes(type.getComponentType());
     }
 
-    public static Map<String, Collection<Method>> getMethods(Packages.ClassInfo classe) {
-        final Map<String, Collection<Method>> methods = new HashMap<>();
+    public static Map<String, Collection<MethodModel>> getMethods(Packages.ClassInfo classe) {
+        // sorted, for the order not to depend on the order of methods in class files
+        final Map<String, Collection<MethodModel>> methods = new TreeMap<>();
 
         final Queue<Packages.ClassInfo> stack = Collections.asLifoQueue(new ArrayDeque<>());
         stack.add(classe);
@@ -71,10 +77,10 @@ class TypeHintsUtils {
             final Packages.ClassInfo info = stack.remove();
             stack.addAll(info.getInnerClasses());
 
-            for (Method method : getMethods(info.getRootClass())) {
+            for (MethodModel method : info.getRootClass().getMethods()) {
                 methods.computeIfAbsent(
                         method.getName(),
-                        k -> new HashSet<>()
+                        k -> new TreeSet<>(Comparator.comparing(MethodModel::toString))
                 ).add(method);
             }
         }
@@ -82,15 +88,6 @@ class TypeHintsUtils {
         return methods;
     }
 
-    public static Collection<Method> getMethods(Class<?> classe) {
-        try {
-            return Arrays.asList(classe.getMethods());
-        }
-        catch (NoClassDefFoundError e) {
-            return Collections.emptyList();
-        }
-    }
-
     public static String pythonPackage(String module) {
         final int lastPoint = module.lastIndexOf('.');
         if (lastPoint < 0) return "";
@@ -103,54 +100,63 @@ class TypeHintsUtils {
         return fullName.substring(lastPoint + 1);
     }
 
-    static String pythonQualifiedClassName(String rootPackage, Class<?> classe) {
-        if (PRIMITIVE_TYPES.contains(classe)) return primitivePythonClassName(classe);
-        try {
-            String canonicalName = classe.getCanonicalName();
-            // local or anonymous classes do not have a canonical name, but we do not care about them.
-            if (canonicalName == null) return "Any";
-
-            if (classe.isArray()) {
-                final Class<?> componentType = classe.getComponentType();
-                // multi-dimensional arrays are a mess... Ignore them, as they are not that common?
-                return "JArray("+pythonQualifiedClassName(rootPackage, componentType)+", 1)";
-            }
-
-            // TODO handle generics
+    static String pythonQualifiedClassName(String rootPackage, JavaType type, ClassIndex index) {
+        if (PRIMITIVE_TYPES.contains(type)) return primitivePythonClassName(type);
 
-            if (rootPackage == null || rootPackage.length() == 0) return canonicalName;
-            return rootPackage+"."+canonicalName;
-        }
-        catch (NoClassDefFoundError e) {
-            return "Any";
+        if (type.isArray()) {
+            // multi-dimensional arrays are a mess... Ignore them, as they are not that common?
+            return "JArray("+pythonQualifiedClassName(rootPackage, type.getComponentType(), index)+", 1)";
         }
+
+        if (!index.getScope().contains(type.getClassName())) return "Any";
+
+        final ClassModel classe = index.find(type.getClassName());
+        // classes that are not on the class path are assumed not to be local, anonymous or nested in such classes
+        final String canonicalName = classe != null ? classe.getCanonicalName() : type.getClassName().replace('$', '.');
+        return pythonQualifiedClassName(rootPackage, canonicalName);
     }
 
-    static String pythonClassName(Class<?> classe) {
+    static String pythonQualifiedClassName(String rootPackage, ClassModel classe) {
+        return pythonQualifiedClassName(rootPackage, classe.getCanonicalName());
+    }
+
+    private static String pythonQualifiedClassName(String rootPackage, String canonicalName) {
+        // local or anonymous classes do not have a canonical name, but we do not care about them.
+        if (canonicalName == null) return "Any";
+
+        // TODO handle generics
+
+        if (rootPackage == null || rootPackage.length() == 0) return canonicalName;
+        return rootPackage+"."+canonicalName;
+    }
+
+    static String pythonClassName(ClassModel classe) {
         // TODO handle case of a java class that would have a Python reserved keyword.
         // rather unlikely
+        String pythonQualifiedName = pythonQualifiedClassName(null, classe);
 
-        // TODO handle case of java arrays. Use a Union type allowing whatever JPype accepts for it
-        try {
-            String pythonQualifiedName = pythonQualifiedClassName(null, classe);
+        String packageName = classe.getPackageName();
 
-            String packageName = classe.getPackage().getName();
-
-            return pythonQualifiedName.startsWith(packageName) ?
-                    pythonQualifiedName.substring(packageName.length() + 1) :
-                    // For case where "Any" or a JPype wrapper type
-                    pythonQualifiedName;
-        }
-        catch (NoClassDefFoundError e) {
-            return "Any";
-        }
+        return pythonQualifiedName.startsWith(packageName) ?
+                pythonQualifiedName.substring(packageName.length() + 1) :
+                // For case where "Any"
+                pythonQualifiedName;
     }
 
-    private static String primitivePythonClassName(Class<?> classe) {
-        return PRIMITIVE_TYPE_NAMES.get(classe);
+    private static String primitivePythonClassName(JavaType type) {
+        return PRIMITIVE_TYPE_NAMES.get(type);
     }
 
     static String getJPypeName(String rawName) {
         return PY_KEYWORDS.contains(rawName) ? rawName+"_" : rawName;
     }
+
+    /**
+     * Parameter names are read from class files, so can be anything valid in Java, including names generated by the
+     * compiler such as <tt>this$0</tt>
+     */
+    static String getPythonParameterName(String rawName) {
+        final String name = rawName.replace('$', '_');
+        return PY_KEYWORDS.contains(name) || PY_RESERVED_PARAMETER_NAMES.contains(name) ? name+"_" : name;
+    }
 }
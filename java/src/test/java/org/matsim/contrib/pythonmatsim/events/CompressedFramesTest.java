@@ -0,0 +1,138 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * CompressedFramesTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Round trips of the codecs through compressed frames, on inputs exercising the corner cases of the block formats:
+ * empty and tiny buffers, incompressible data, long runs producing overlapping matches, and buffers larger than the
+ * 64 KiB window of LZ4.
+ */
+public class CompressedFramesTest {
+    @Test
+    public void testLz4RoundTrip() {
+        testRoundTrip(new Lz4BlockCodec());
+    }
+
+    @Test
+    public void testDeflateRoundTrip() {
+        testRoundTrip(new DeflateCodec());
+    }
+
+    @Test
+    public void testLz4RoundTripWithOffset() {
+        final Lz4BlockCodec codec = new Lz4BlockCodec();
+        for (byte[] input : createInputs()) {
+            final byte[] padded = new byte[input.length + 100];
+            System.arraycopy(input, 0, padded, 50, input.length);
+            final byte[] compressed = codec.compress(padded, 50, input.length);
+            Assert.assertArrayEquals(input, codec.decompress(compressed, 0, compressed.length, input.length));
+        }
+    }
+
+    @Test
+    public void testUncompressedBuffersPassThrough() {
+        final byte[] buffer = "not a frame".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(CompressedFrames.isCompressed(buffer));
+        Assert.assertSame(buffer, CompressedFrames.decompress(buffer));
+
+        final byte[] empty = new byte[0];
+        Assert.assertSame(empty, CompressedFrames.decompress(empty));
+    }
+
+    @Test
+    public void testCompressibleDataShrinks() {
+        final byte[] input = createText(100_000);
+        Assert.assertTrue(CompressedFrames.compress(new Lz4BlockCodec(), input).length < input.length / 2);
+        Assert.assertTrue(CompressedFrames.compress(new DeflateCodec(), input).length < input.length / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedLz4FrameIsRejected() {
+        final byte[] frame = CompressedFrames.compress(new Lz4BlockCodec(), createText(10_000));
+        CompressedFrames.decompress(Arrays.copyOf(frame, frame.length - 10));
+    }
+
+    private static void testRoundTrip(CompressionCodec codec) {
+        // the same instance is used for all inputs, to also check that no state leaks from one buffer to the next
+        for (byte[] input : createInputs()) {
+            final byte[] frame = CompressedFrames.compress(codec, input);
+            Assert.assertTrue(CompressedFrames.isCompressed(frame));
+            Assert.assertArrayEquals("input of "+input.length+" bytes", input, CompressedFrames.decompress(frame));
+        }
+    }
+
+    private static List<byte[]> createInputs() {
+        final Random random = new Random(42);
+        final List<byte[]> inputs = new ArrayList<>();
+
+        inputs.add(new byte[0]);
+        for (int length = 1; length <= 20; length++) {
+            inputs.add(Arrays.copyOf(createText(length), length));
+        }
+
+        // random bytes do not compress
+        for (int length : new int[] {100, 1000, 100_000}) {
+            final byte[] noise = new byte[length];
+            random.nextBytes(noise);
+            inputs.add(noise);
+        }
+
+        // random data from a small alphabet, with short matches everywhere
+        final byte[] words = new byte[50_000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = (byte) ('a' + random.nextInt(4));
+        }
+        inputs.add(words);
+
+        // runs of a single byte, producing matches overlapping their output
+        final byte[] run = new byte[70_000];
+        Arrays.fill(run, (byte) 'x');
+        inputs.add(run);
+
+        // larger than the 64 KiB window of LZ4, with repetitions at distances beyond it
+        final byte[] text = createText(200_000);
+        final byte[] noise = new byte[70_000];
+        random.nextBytes(noise);
+        final byte[] large = new byte[2 * text.length + noise.length];
+        System.arraycopy(text, 0, large, 0, text.length);
+        System.arraycopy(noise, 0, large, text.length, noise.length);
+        System.arraycopy(text, 0, large, text.length + noise.length, text.length);
+        inputs.add(large);
+
+        return inputs;
+    }
+
+    private static byte[] createText(int length) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length; i++) {
+            text.append("vehicle ").append(i % 97).append(" entered link ").append(i % 1013).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
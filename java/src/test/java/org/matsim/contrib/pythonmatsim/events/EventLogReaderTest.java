@@ -0,0 +1,170 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * EventLogReaderTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferDecoder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that replays starting at a given time reach all events from that time on, including the ones of buffers
+ * sharing their timestamp with the start of the next buffer.
+ */
+public class EventLogReaderTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSeekStartsBeforeTimestampSharedWithPreviousBuffer() throws IOException {
+        // count triggered buffers start at the time of their first event, which the previous buffer can also have
+        final File log = writeLog(new double[] {0, 3, 5, 5, 8}, new boolean[] {true, true, true, false, true});
+
+        try (EventLogReader reader = new EventLogReader(log.getPath())) {
+            Assert.assertEquals(0, reader.seek(Double.NEGATIVE_INFINITY));
+            Assert.assertEquals(0, reader.seek(0));
+            Assert.assertEquals(0, reader.seek(3));
+            Assert.assertEquals(offset(1), reader.seek(4));
+            Assert.assertEquals(offset(1), reader.seek(5));
+            Assert.assertEquals(offset(2), reader.seek(6));
+            Assert.assertEquals(offset(2), reader.seek(8));
+            Assert.assertEquals(offset(4), reader.seek(100));
+
+            Assert.assertArrayEquals(new int[] {1, 2, 3, 4}, replay(reader, 5));
+        }
+    }
+
+    @Test
+    public void testSeekStartsAtFirstBufferOfWindow() throws IOException {
+        // buffers of a simulation time window all have its start, and every one of them is indexed with an interval of 0
+        final File log = writeLog(new double[] {0, 10, 10, 10, 20}, new boolean[] {true, true, true, true, true});
+
+        try (EventLogReader reader = new EventLogReader(log.getPath())) {
+            Assert.assertEquals(offset(1), reader.seek(15));
+            Assert.assertEquals(offset(1), reader.seek(20));
+            Assert.assertEquals(offset(4), reader.seek(25));
+
+            Assert.assertArrayEquals(new int[] {1, 2, 3, 4}, replay(reader, 15));
+        }
+    }
+
+    @Test
+    public void testWithoutIndexReplaysEverything() throws IOException {
+        final File log = writeLog(new double[] {0, 3, 5}, new boolean[] {false, false, false});
+        new File(log.getPath()+EventLogWriter.INDEX_SUFFIX).delete();
+
+        try (EventLogReader reader = new EventLogReader(log.getPath())) {
+            Assert.assertEquals(0, reader.seek(5));
+            Assert.assertArrayEquals(new int[] {0, 1, 2}, replay(reader, 5));
+        }
+    }
+
+    @Test
+    public void testReplayFromTimestampSplitAcrossBuffers() throws IOException {
+        final File directory = temporaryFolder.newFolder();
+        final EventLogWriter writer = new EventLogWriter(directory.getPath(), 0);
+        final BufferedProtocolBufferSender sender = new BufferedProtocolBufferSender(2, writer);
+        sender.reset(0);
+        // buffers of two events: [3, 5], [5, 8] and [9, 10], the second one being indexed at 5
+        final double[] times = {3, 5, 5, 8, 9, 10};
+        for (int i = 0; i < times.length; i++) {
+            sender.handleEvent(new LinkEnterEvent(times[i], Id.createVehicleId(String.valueOf(i)), Id.createLinkId("link")));
+        }
+        sender.flush();
+        writer.close();
+
+        final List<Event> replayed = new ArrayList<>();
+        try (EventLogReader reader = new EventLogReader(EventLogWriter.getLogFile(directory.getPath(), 0).getPath())) {
+            reader.replay(5, new BufferedProtocolBufferSender.Listener() {
+                @Override
+                public void handleEventBuffer(byte[] buffer) {
+                    try {
+                        for (Event event : new EventBufferDecoder().decode(CompressedFrames.decompress(buffer))) {
+                            if (event.getTime() >= 5) replayed.add(event);
+                        }
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void reset(int iteration) {
+                }
+            });
+        }
+
+        Assert.assertEquals(5, replayed.size());
+        Assert.assertEquals("1", ((LinkEnterEvent) replayed.get(0)).getVehicleId().toString());
+    }
+
+    /**
+     * Writes a log in the format of {@link EventLogWriter}, of which buffer i is the single byte i.
+     */
+    private File writeLog(double[] windowStarts, boolean[] indexed) throws IOException {
+        final File log = temporaryFolder.newFile();
+        final ByteBuffer index = ByteBuffer.allocate(windowStarts.length * EventLogWriter.INDEX_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try (FileOutputStream out = new FileOutputStream(log)) {
+            for (int i = 0; i < windowStarts.length; i++) {
+                if (indexed[i]) index.putDouble(windowStarts[i]).putLong(offset(i));
+                out.write(new byte[] {1, (byte) i});
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(log.getPath()+EventLogWriter.INDEX_SUFFIX)) {
+            out.write(index.array(), 0, index.position());
+        }
+        return log;
+    }
+
+    private static long offset(int buffer) {
+        // length prefix and content of one byte each
+        return 2L * buffer;
+    }
+
+    private static int[] replay(EventLogReader reader, double fromTime) {
+        final List<Integer> buffers = new ArrayList<>();
+        reader.replay(fromTime, new BufferedProtocolBufferSender.Listener() {
+            @Override
+            public void handleEventBuffer(byte[] buffer) {
+                Assert.assertEquals(1, buffer.length);
+                buffers.add((int) buffer[0]);
+            }
+
+            @Override
+            public void reset(int iteration) {
+            }
+        });
+        return buffers.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
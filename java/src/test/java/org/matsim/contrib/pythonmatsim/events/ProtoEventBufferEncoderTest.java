@@ -0,0 +1,123 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * ProtoEventBufferEncoderTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.pythonmatsim.protobuf.Event2ProtoEvent;
+import org.matsim.contrib.pythonmatsim.protobuf.EventBufferOuterClass;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that the events written directly in the wire format are byte-identical to the serialization of the messages
+ * built by {@link Event2ProtoEvent#getProtoEvent(Event)}.
+ */
+public class ProtoEventBufferEncoderTest {
+    @Test
+    public void testEventsCoverAllBuiltInTypes() {
+        final Set<String> types = new HashSet<>();
+        for (Event event : createEvents()) {
+            types.add(Event2ProtoEvent.getProtoEventType(event.getClass()));
+        }
+        final Set<String> expected = new HashSet<>(Event2ProtoEvent.PROTO_EVENT_TYPES);
+        expected.remove("genericEvent");
+        Assert.assertEquals(expected, types);
+    }
+
+    @Test
+    public void testEachEventMatchesMessage() {
+        final ProtoEventBufferEncoder encoder = new ProtoEventBufferEncoder();
+        for (Event event : createEvents()) {
+            encoder.addEvent(event);
+            final byte[] expected = EventBufferOuterClass.EventBuffer.newBuilder()
+                    .addEvent(Event2ProtoEvent.getProtoEvent(event))
+                    .build().toByteArray();
+            Assert.assertArrayEquals(event.getEventType(), expected, encoder.flush(0, 0));
+        }
+    }
+
+    @Test
+    public void testBufferMatchesMessage() {
+        final ProtoEventBufferEncoder encoder = new ProtoEventBufferEncoder();
+        final EventBufferOuterClass.EventBuffer.Builder expected = EventBufferOuterClass.EventBuffer.newBuilder();
+
+        // enough events to grow the array of the encoder several times
+        for (int i = 0; i < 200; i++) {
+            for (Event event : createEvents()) {
+                event.setTime(event.getTime() + i);
+                encoder.addEvent(event);
+                expected.addEvent(Event2ProtoEvent.getProtoEvent(event));
+            }
+        }
+        expected.setWindowStart(10).setWindowEnd(1000);
+
+        Assert.assertEquals(200 * createEvents().size(), encoder.getEventCount());
+        final byte[] bytes = encoder.flush(10, 1000);
+        Assert.assertArrayEquals(expected.build().toByteArray(), bytes);
+        Assert.assertEquals(0, encoder.getEventCount());
+
+        // the encoder starts again from scratch after a flush
+        final Event event = createEvents().get(0);
+        encoder.addEvent(event);
+        Assert.assertArrayEquals(
+                EventBufferOuterClass.EventBuffer.newBuilder().addEvent(Event2ProtoEvent.getProtoEvent(event)).build().toByteArray(),
+                encoder.flush(0, 0));
+    }
+
+    static List<Event> createEvents() {
+        final Id<Person> person = Id.create("person", Person.class);
+        final Id<Link> link = Id.create("link", Link.class);
+        final Id<Vehicle> vehicle = Id.create("vehicle", Vehicle.class);
+        final Id<ActivityFacility> facility = Id.create("facility", ActivityFacility.class);
+
+        final List<Event> events = new ArrayList<>();
+        events.add(new LinkLeaveEvent(1.5, vehicle, link));
+        events.add(new LinkEnterEvent(2, vehicle, link));
+        events.add(new ActivityEndEvent(3, person, link, facility, "home"));
+        events.add(new ActivityEndEvent(3, person, link, null, "home"));
+        events.add(new ActivityStartEvent(4, person, link, facility, "work"));
+        events.add(new ActivityStartEvent(4, person, link, null, "w\u00f6rk"));
+        events.add(new PersonArrivalEvent(5, person, link, "car"));
+        events.add(new PersonDepartureEvent(6, person, link, "car"));
+        events.add(new PersonEntersVehicleEvent(7, person, vehicle));
+        events.add(new PersonLeavesVehicleEvent(8, person, vehicle));
+        events.add(new PersonMoneyEvent(9, person, -12.25));
+        events.add(new PersonStuckEvent(10, person, link, "pt"));
+        events.add(new TransitDriverStartsEvent(11, person, vehicle,
+                Id.create("line", TransitLine.class), Id.create("route", TransitRoute.class), Id.create("departure", Departure.class)));
+        events.add(new VehicleAbortsEvent(12, vehicle, link));
+        events.add(new VehicleEntersTrafficEvent(13, person, link, vehicle, "car", 1.0));
+        events.add(new VehicleLeavesTrafficEvent(14, person, link, vehicle, "car", 0.5));
+        return events;
+    }
+}
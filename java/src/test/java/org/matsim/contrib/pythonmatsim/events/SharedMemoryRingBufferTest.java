@@ -0,0 +1,135 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * SharedMemoryRingBufferTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.events;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks the layout of the ring buffer file, as read by pythonmatsim.ring_buffer, while records wrap around and
+ * overwrite older ones.
+ */
+public class SharedMemoryRingBufferTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsWrapAround() throws IOException {
+        final File file = temporaryFolder.newFile();
+        final SharedMemoryRingBuffer ringBuffer = new SharedMemoryRingBuffer(file.getPath(), 128);
+
+        ByteBuffer content = read(file);
+        Assert.assertEquals(SharedMemoryRingBuffer.MAGIC, content.getInt(0));
+        Assert.assertEquals(SharedMemoryRingBuffer.VERSION, content.getInt(4));
+        Assert.assertEquals(128, content.getLong(SharedMemoryRingBuffer.CAPACITY_OFFSET));
+        assertPositions(content, 0, 0);
+
+        // 40 bytes of payload take 64 bytes with the record header and alignment
+        ringBuffer.handleEventBuffer(payload(40, 0));
+        assertPositions(read(file), 0, 64);
+        ringBuffer.handleEventBuffer(payload(40, 1));
+        assertPositions(read(file), 64, 128);
+
+        // overwrites the first record, at the start of the data section
+        ringBuffer.reset(1);
+        ringBuffer.handleEventBuffer(payload(40, 2));
+        content = read(file);
+        assertPositions(content, 128, 192);
+        assertRecord(content, 0, 2, 1, payload(40, 2));
+        assertRecord(content, 64, 1, 0, payload(40, 1));
+
+        ringBuffer.handleEventBuffer(payload(20, 3));
+        assertPositions(read(file), 192, 240);
+
+        // does not fit in the 16 bytes left before the end: padding, and the record starts over at offset 0
+        ringBuffer.handleEventBuffer(payload(40, 4));
+        content = read(file);
+        assertPositions(content, 256, 320);
+        Assert.assertEquals(SharedMemoryRingBuffer.PADDING, content.getInt(SharedMemoryRingBuffer.HEADER_SIZE + 112));
+        assertRecord(content, 0, 4, 1, payload(40, 4));
+        assertRecord(content, 64, 3, 1, payload(20, 3));
+        Assert.assertEquals(5, ringBuffer.getPublishedCount());
+
+        Assert.assertEquals(0, content.getInt(SharedMemoryRingBuffer.CLOSED_OFFSET));
+        ringBuffer.close();
+        Assert.assertEquals(1, read(file).getInt(SharedMemoryRingBuffer.CLOSED_OFFSET));
+    }
+
+    @Test
+    public void testRecordFillingTheWholeCapacity() throws IOException {
+        final File file = temporaryFolder.newFile();
+        try (SharedMemoryRingBuffer ringBuffer = new SharedMemoryRingBuffer(file.getPath(), 128)) {
+            ringBuffer.handleEventBuffer(payload(20, 0));
+            // 112 bytes of payload take the whole capacity. The record overwrites its own padding, but as it claims
+            // up to 256, readers still at 48 know they were lapped.
+            ringBuffer.handleEventBuffer(payload(112, 1));
+            final ByteBuffer content = read(file);
+            assertPositions(content, 128, 256);
+            Assert.assertTrue(content.getLong(SharedMemoryRingBuffer.CLAIMED_OFFSET) - 48 > 128);
+            assertRecord(content, 0, 1, 0, payload(112, 1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLargeBufferIsRejected() throws IOException {
+        try (SharedMemoryRingBuffer ringBuffer = new SharedMemoryRingBuffer(temporaryFolder.newFile().getPath(), 128)) {
+            ringBuffer.handleEventBuffer(new byte[113]);
+        }
+    }
+
+    /**
+     * Checks the position of the last record, and that the record is published, with nothing claimed beyond it.
+     */
+    private static void assertPositions(ByteBuffer content, long lastRecordStart, long end) {
+        Assert.assertEquals(lastRecordStart, content.getLong(SharedMemoryRingBuffer.LAST_RECORD_OFFSET));
+        Assert.assertEquals(end, content.getLong(SharedMemoryRingBuffer.PUBLISHED_OFFSET));
+        Assert.assertEquals(end, content.getLong(SharedMemoryRingBuffer.CLAIMED_OFFSET));
+    }
+
+    private static void assertRecord(ByteBuffer content, int offset, long sequence, int iteration, byte[] payload) {
+        final int start = SharedMemoryRingBuffer.HEADER_SIZE + offset;
+        Assert.assertEquals(payload.length, content.getInt(start));
+        Assert.assertEquals(iteration, content.getInt(start + 4));
+        Assert.assertEquals(sequence, content.getLong(start + 8));
+        final int payloadStart = start + SharedMemoryRingBuffer.RECORD_HEADER_SIZE;
+        Assert.assertArrayEquals(payload, Arrays.copyOfRange(content.array(), payloadStart, payloadStart + payload.length));
+    }
+
+    private static byte[] payload(int length, int seed) {
+        final byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed * 31 + i);
+        }
+        return payload;
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,235 @@
+/* *********************************************************************** *
+ * project: python-matsim
+ * TypedEventSchemaTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+ package org.matsim.contrib.pythonmatsim.protobuf;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.population.Person;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks that typed generic events restore the attributes of the events they were created from.
+ */
+public class TypedEventSchemaTest {
+	@Test
+	public void testValuesKeepAttributeKeysAndFormats() {
+		final TypedEventSchema schema = learnSchema(TripEvent.class);
+
+		Assert.assertEquals(3, schema.getMessage().getStringFieldCount());
+		Assert.assertEquals(1, schema.getMessage().getNumberFieldCount());
+		Assert.assertEquals("distance", schema.getMessage().getNumberField(0));
+
+		final TripEvent event = new TripEvent(7200, 12, Long.MAX_VALUE, 1234.5);
+		final ProtobufEvents.Event pe = Event2ProtoEvent.getProtoEvent(event);
+		Assert.assertEquals(schema.getId(), pe.getGenericEvent().getSchemaId());
+		Assert.assertEquals(getValues(event), schema.getAttributes(pe.getGenericEvent()));
+	}
+
+	@Test
+	public void testEventsAreSentAsAttributesWhileLearning() {
+		final ProtobufEvents.Event pe = Event2ProtoEvent.getProtoEvent(new LearntEvent(0));
+		Assert.assertEquals(0, pe.getGenericEvent().getSchemaId());
+		Assert.assertEquals("0", getAttribute(pe, "value"));
+	}
+
+	@Test
+	public void testFailingGetterFallsBackToAttributes() {
+		final TypedEventSchema schema = learnSchema(FailingEvent.class);
+		Assert.assertEquals(1, schema.getMessage().getStringFieldCount());
+
+		final ProtobufEvents.Event pe = Event2ProtoEvent.getProtoEvent(new FailingEvent(-1));
+		Assert.assertEquals(0, pe.getGenericEvent().getSchemaId());
+		Assert.assertEquals("-1", getAttribute(pe, "value"));
+
+		// stays with attributes once a getter failed
+		final ProtobufEvents.Event next = Event2ProtoEvent.getProtoEvent(new FailingEvent(1));
+		Assert.assertEquals(0, next.getGenericEvent().getSchemaId());
+	}
+
+	@Test
+	public void testClassWithUnmatchedAttributeHasNoSchema() {
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(0, Event2ProtoEvent.getProtoEvent(new UnmatchedEvent(i)).getGenericEvent().getSchemaId());
+		}
+		Assert.assertNull(TypedEventSchema.forClass(UnmatchedEvent.class));
+	}
+
+	private static TypedEventSchema learnSchema(Class<? extends Event> type) {
+		for (int i = 0; i < 100 && TypedEventSchema.forClass(type) == null; i++) {
+			final Event event = type == TripEvent.class ? new TripEvent(i, i % 5, i * 1000L, i / 3.0) : new FailingEvent(i);
+			Event2ProtoEvent.getProtoEvent(event);
+		}
+		final TypedEventSchema schema = TypedEventSchema.forClass(type);
+		Assert.assertNotNull("no schema learnt for "+type, schema);
+		return schema;
+	}
+
+	private static String getAttribute(ProtobufEvents.Event pe, String key) {
+		for (ProtobufEvents.AttrVal av : pe.getGenericEvent().getAttrValList()) {
+			if (av.getAttribut().equals(key)) return av.getValue();
+		}
+		return null;
+	}
+
+	private static Map<String, String> getValues(Event event) {
+		final Map<String, String> values = new LinkedHashMap<>(event.getAttributes());
+		values.remove(Event.ATTRIBUTE_TIME);
+		values.remove(Event.ATTRIBUTE_TYPE);
+		return values;
+	}
+
+	/**
+	 * Keys differ from getter names, as in DRT events, and two getters always give the same value.
+	 */
+	public static class TripEvent extends Event {
+		private final Id<Person> personId;
+		private final int passengers;
+		private final long duration;
+		private final double distance;
+
+		public TripEvent(double time, int passengers, long duration, double distance) {
+			super(time);
+			this.personId = Id.createPersonId("p" + passengers);
+			this.passengers = passengers;
+			this.duration = duration;
+			this.distance = distance;
+		}
+
+		@Override
+		public String getEventType() {
+			return "trip";
+		}
+
+		public Id<Person> getPersonId() {
+			return personId;
+		}
+
+		public Id<Person> getDriverId() {
+			return personId;
+		}
+
+		public int getPassengers() {
+			return passengers;
+		}
+
+		public long getDuration() {
+			return duration;
+		}
+
+		public double getDistance() {
+			return distance;
+		}
+
+		// not backing any attribute, so never called once the schema is known
+		public String getSummary() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			final Map<String, String> attributes = super.getAttributes();
+			attributes.put("person", personId.toString());
+			attributes.put("passengers", Integer.toString(passengers));
+			attributes.put("duration", Long.toString(duration));
+			attributes.put("distance", Double.toString(distance));
+			return attributes;
+		}
+	}
+
+	public static class LearntEvent extends Event {
+		private final int value;
+
+		public LearntEvent(int value) {
+			super(0);
+			this.value = value;
+		}
+
+		@Override
+		public String getEventType() {
+			return "learnt";
+		}
+
+		public int getValue() {
+			return value;
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			final Map<String, String> attributes = super.getAttributes();
+			attributes.put("value", Integer.toString(value));
+			return attributes;
+		}
+	}
+
+	public static class FailingEvent extends Event {
+		private final int value;
+
+		public FailingEvent(int value) {
+			super(0);
+			this.value = value;
+		}
+
+		@Override
+		public String getEventType() {
+			return "failing";
+		}
+
+		public int getValue() {
+			if (value < 0) throw new IllegalStateException("negative value");
+			return value;
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			final Map<String, String> attributes = super.getAttributes();
+			attributes.put("value", Integer.toString(value));
+			return attributes;
+		}
+	}
+
+	public static class UnmatchedEvent extends Event {
+		private final int value;
+
+		public UnmatchedEvent(int value) {
+			super(0);
+			this.value = value;
+		}
+
+		@Override
+		public String getEventType() {
+			return "unmatched";
+		}
+
+		public int getValue() {
+			return value;
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			final Map<String, String> attributes = super.getAttributes();
+			attributes.put("value", Integer.toString(value + 1));
+			return attributes;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+
+/* *********************************************************************** *
+ * project: python-matsim
+ * ClassFileParserTest.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2019 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+ package org.matsim.contrib.pythonmatsim.typehints;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses JDK classes and a sample class compiled with different options, and compares the models with what is known
+ * of these classes.
+ */
+public class ClassFileParserTest {
+    private static final String SAMPLE =
+            "package sample;\n" +
+            "public class Sample implements Comparable<Sample> {\n" +
+            "    public static final long LONG_CONSTANT = 1234567890123L;\n" +
+            "    public static final double DOUBLE_CONSTANT = 0.5;\n" +
+            "    public Sample(int size) {}\n" +
+            "    Sample() {}\n" +
+            "    public int compareTo(Sample other) { return 0; }\n" +
+            "    public static String join(String separator, String... parts) { return null; }\n" +
+            "    public void mixedSlots(long first, double second, String third) { int local = 0; }\n" +
+            "    void notPublic(int ignored) {}\n" +
+            "    public class Inner {}\n" +
+            "    public static class Nested {}\n" +
+            "    public enum Color { RED, GREEN, BLUE }\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ClassPathScanner scanner;
+
+    @Before
+    public void createScanner() {
+        scanner = new ClassPathScanner(1);
+    }
+
+    @After
+    public void closeScanner() {
+        scanner.close();
+    }
+
+    @Test
+    public void testConstantPoolWithWideConstants() {
+        // Math has double constants and Long long ones, which take two entries of the constant pool
+        final ClassIndex index = scanner.list(ClassLoader.getSystemClassLoader()).getIndex();
+
+        final ClassModel math = index.find("java.lang.Math");
+        Assert.assertNotNull(math);
+        Assert.assertEquals("java.lang.Math", math.getName());
+        Assert.assertEquals(Collections.singletonList("java.lang.Object"), math.getSupertypeNames());
+        final MethodModel sqrt = findMethod(math.getDeclaredMethods(), "sqrt");
+        Assert.assertTrue(sqrt.isStatic());
+        Assert.assertEquals(Collections.singletonList(JavaType.DOUBLE), sqrt.getParameterTypes());
+        Assert.assertEquals(JavaType.DOUBLE, sqrt.getReturnType());
+
+        final ClassModel longClass = index.find("java.lang.Long");
+        Assert.assertNotNull(longClass);
+        Assert.assertEquals(Arrays.asList("java.lang.Number", "java.lang.Comparable"),
+                longClass.getSupertypeNames().subList(0, 2));
+    }
+
+    @Test
+    public void testJdkInnerClasses() {
+        final ClassIndex index = scanner.list(ClassLoader.getSystemClassLoader()).getIndex();
+
+        final ClassModel entry = index.find("java.util.Map$Entry");
+        Assert.assertTrue(entry.isMemberClass());
+        Assert.assertTrue(entry.isInterface());
+        Assert.assertEquals("java.util.Map.Entry", entry.getCanonicalName());
+        Assert.assertEquals("java.util.Map", entry.getDeclaringClass().getName());
+        Assert.assertTrue(names(index.find("java.util.Map").getDeclaredClasses()).contains("java.util.Map$Entry"));
+
+        final ClassModel state = index.find("java.lang.Thread$State");
+        Assert.assertTrue(state.isEnum());
+        Assert.assertEquals(Arrays.asList("NEW", "RUNNABLE", "BLOCKED", "WAITING", "TIMED_WAITING", "TERMINATED"),
+                state.getEnumConstants());
+    }
+
+    @Test
+    public void testSampleClassModel() throws IOException {
+        final ClassIndex index = compileSample("-g");
+
+        final ClassModel sample = index.find("sample.Sample");
+        Assert.assertFalse(sample.isMemberClass());
+        Assert.assertEquals(Arrays.asList("java.lang.Object", "java.lang.Comparable"), sample.getSupertypeNames());
+        Assert.assertEquals(1, sample.getConstructors().size());
+        Assert.assertNull(findMethodOrNull(sample.getDeclaredMethods(), "notPublic"));
+
+        final List<String> members = names(sample.getDeclaredClasses());
+        Collections.sort(members);
+        Assert.assertEquals(Arrays.asList("sample.Sample$Color", "sample.Sample$Inner", "sample.Sample$Nested"), members);
+
+        final ClassModel inner = index.find("sample.Sample$Inner");
+        Assert.assertTrue(inner.isMemberClass());
+        Assert.assertEquals("sample.Sample.Inner", inner.getCanonicalName());
+        Assert.assertEquals("sample.Sample", inner.getDeclaringClass().getName());
+        Assert.assertEquals(Arrays.asList("RED", "GREEN", "BLUE"), index.find("sample.Sample$Color").getEnumConstants());
+    }
+
+    @Test
+    public void testBridgeMethodsAreLeftOut() throws IOException {
+        final ClassModel sample = compileSample("-g").find("sample.Sample");
+
+        // the bridge compareTo(Object) is neither a declared method, nor lets Comparable.compareTo(Object) through
+        int count = 0;
+        for (MethodModel method : sample.getDeclaredMethods()) {
+            if (method.getName().equals("compareTo")) count++;
+        }
+        Assert.assertEquals(1, count);
+        final List<MethodModel> compareTo = new ArrayList<>();
+        for (MethodModel method : sample.getMethods()) {
+            if (method.getName().equals("compareTo")) compareTo.add(method);
+        }
+        Assert.assertEquals(1, compareTo.size());
+        Assert.assertEquals("sample.Sample", compareTo.get(0).getDeclaringClassName());
+        Assert.assertEquals("sample.Sample", compareTo.get(0).getParameterTypes().get(0).getClassName());
+
+        // methods of Object are inherited
+        Assert.assertNotNull(findMethodOrNull(new ArrayList<>(sample.getMethods()), "hashCode"));
+    }
+
+    @Test
+    public void testVarArgs() throws IOException {
+        final ClassModel sample = compileSample("-g").find("sample.Sample");
+        Assert.assertTrue(findMethod(sample.getDeclaredMethods(), "join").isVarArgs());
+        Assert.assertFalse(findMethod(sample.getDeclaredMethods(), "mixedSlots").isVarArgs());
+    }
+
+    @Test
+    public void testParameterNamesFromMethodParameters() throws IOException {
+        final ClassModel sample = compileSample("-parameters", "-g:none").find("sample.Sample");
+        Assert.assertEquals(Arrays.asList("separator", "parts"), findMethod(sample.getDeclaredMethods(), "join").getParameterNames());
+        Assert.assertEquals(Arrays.asList("first", "second", "third"),
+                findMethod(sample.getDeclaredMethods(), "mixedSlots").getParameterNames());
+        Assert.assertEquals(Collections.singletonList("size"), sample.getConstructors().get(0).getParameterNames());
+    }
+
+    @Test
+    public void testParameterNamesFromLocalVariables() throws IOException {
+        // long and double parameters take two slots, which shifts the slots of the following parameters
+        final ClassModel sample = compileSample("-g").find("sample.Sample");
+        Assert.assertEquals(Arrays.asList("separator", "parts"), findMethod(sample.getDeclaredMethods(), "join").getParameterNames());
+        Assert.assertEquals(Arrays.asList("first", "second", "third"),
+                findMethod(sample.getDeclaredMethods(), "mixedSlots").getParameterNames());
+        Assert.assertEquals(Collections.singletonList("size"), sample.getConstructors().get(0).getParameterNames());
+    }
+
+    @Test
+    public void testParameterNamesWithoutDebugInformation() throws IOException {
+        final ClassModel sample = compileSample("-g:none").find("sample.Sample");
+        Assert.assertEquals(Arrays.asList("arg0", "arg1", "arg2"),
+                findMethod(sample.getDeclaredMethods(), "mixedSlots").getParameterNames());
+    }
+
+    /**
+     * Compiles the sample class with the given options, and lists it together with the bootstrap classes.
+     */
+    private ClassIndex compileSample(String... options) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        final File sourceDirectory = temporaryFolder.newFolder();
+        final File outputDirectory = temporaryFolder.newFolder();
+        final File source = new File(sourceDirectory, "Sample.java");
+        Files.write(source.toPath(), SAMPLE.getBytes(StandardCharsets.UTF_8));
+
+        final List<String> arguments = new ArrayList<>(Arrays.asList(options));
+        arguments.addAll(Arrays.asList("-d", outputDirectory.getAbsolutePath(), source.getAbsolutePath()));
+        Assert.assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+
+        // without parent, so that only the sample and the bootstrap classes are listed
+        final ClassLoader loader = new URLClassLoader(new URL[] {outputDirectory.toURI().toURL()}, null);
+        return scanner.list(loader).getIndex();
+    }
+
+    private static MethodModel findMethod(List<MethodModel> methods, String name) {
+        final MethodModel method = findMethodOrNull(methods, name);
+        Assert.assertNotNull("no method "+name, method);
+        return method;
+    }
+
+    private static MethodModel findMethodOrNull(List<MethodModel> methods, String name) {
+        for (MethodModel method : methods) {
+            if (method.getName().equals(name)) return method;
+        }
+        return null;
+    }
+
+    private static List<String> names(List<ClassModel> classes) {
+        final List<String> names = new ArrayList<>();
+        for (ClassModel classe : classes) {
+            names.add(classe.getName());
+        }
+        return names;
+    }
+}
@@ -19,12 +19,21 @@
 # ####################################################################### #/
 
 import logging
+import struct
 import jpype as jp
+import numpy as np
 
 from collections import defaultdict
+from decimal import Decimal
 import inspect
+import math
+import time
 
 from pythonmatsim.EventBuffer_pb2 import EventBuffer
+from pythonmatsim.compact_events_pb2 import CompactEventBuffer, DictionaryEntry
+from pythonmatsim.compact_events_pb2 import CompactEvent as _CompactEventMessage
+from pythonmatsim.aggregates_pb2 import AggregateBuffer
+from pythonmatsim.compression import decompress
 # for the side effect of re-exporting
 import pythonmatsim.events_pb2 as event_type
 
@@ -34,6 +43,30 @@ _org = jp.JPackage('org')
 
 
 BufferedProtocolBufferSender = _org.matsim.contrib.pythonmatsim.events.BufferedProtocolBufferSender
+EventTypeFilter = _org.matsim.contrib.pythonmatsim.events.EventTypeFilter
+ProtoEventBufferEncoder = _org.matsim.contrib.pythonmatsim.events.ProtoEventBufferEncoder
+CompactEventBufferEncoder = _org.matsim.contrib.pythonmatsim.events.CompactEventBufferEncoder
+ColumnarEventBufferEncoder = _org.matsim.contrib.pythonmatsim.events.ColumnarEventBufferEncoder
+SynchronousBufferDispatcher = _org.matsim.contrib.pythonmatsim.events.SynchronousBufferDispatcher
+AsyncBufferDispatcher = _org.matsim.contrib.pythonmatsim.events.AsyncBufferDispatcher
+FanOutBufferDispatcher = _org.matsim.contrib.pythonmatsim.events.FanOutBufferDispatcher
+FlushPolicy = _org.matsim.contrib.pythonmatsim.events.FlushPolicy
+MemoryBudget = _org.matsim.contrib.pythonmatsim.events.MemoryBudget
+BridgeMetrics = _org.matsim.contrib.pythonmatsim.events.BridgeMetrics
+ConcurrentBufferedProtocolBufferSender = _org.matsim.contrib.pythonmatsim.events.ConcurrentBufferedProtocolBufferSender
+
+LinkVolumeAggregator = _org.matsim.contrib.pythonmatsim.aggregation.LinkVolumeAggregator
+LinkTravelTimeAggregator = _org.matsim.contrib.pythonmatsim.aggregation.LinkTravelTimeAggregator
+ModeCountAggregator = _org.matsim.contrib.pythonmatsim.aggregation.ModeCountAggregator
+StuckAgentAggregator = _org.matsim.contrib.pythonmatsim.aggregation.StuckAgentAggregator
+SharedMemoryRingBuffer = _org.matsim.contrib.pythonmatsim.events.SharedMemoryRingBuffer
+EventLogWriter = _org.matsim.contrib.pythonmatsim.events.EventLogWriter
+EventLogReader = _org.matsim.contrib.pythonmatsim.events.EventLogReader
+EventBufferDecoder = _org.matsim.contrib.pythonmatsim.protobuf.EventBufferDecoder
+CompressingEventBufferEncoder = _org.matsim.contrib.pythonmatsim.events.CompressingEventBufferEncoder
+DeflateCodec = _org.matsim.contrib.pythonmatsim.events.DeflateCodec
+Lz4BlockCodec = _org.matsim.contrib.pythonmatsim.events.Lz4BlockCodec
+CompressedFrames = _org.matsim.contrib.pythonmatsim.events.CompressedFrames
 
 logger = logging.getLogger(__name__)
 
@@ -59,6 +92,12 @@ _EVENT_CLASS_TO_TYPE = {
 
 @jp.JImplements(BufferedProtocolBufferSender.Listener)
 class EventListener:
+    # simulation time window of the buffer being handled. Listening methods can use it to process events per time step.
+    window_start = None
+    window_end = None
+    # compression of the buffers sent to this listener: None, 'lz4' (fast), 'deflate', or ('deflate', level)
+    compression = None
+
     @jp.JOverride
     def reset(self, iteration):
         pass
@@ -71,11 +110,24 @@ class EventListener:
             return
 
         buffer = EventBuffer()
-        buffer.ParseFromString(message[:])
+        buffer.ParseFromString(decompress(bytes(message[:])))
+        self._set_window(buffer)
+        schemas = {schema.id: schema for schema in buffer.schema}
 
         for event in buffer.event:
             event_type = event.WhichOneof("event_type")
-            self._handle_typed_event(event_type, getattr(event, event_type))
+            typed_event = getattr(event, event_type)
+            if schemas and event_type == 'genericEvent' and typed_event.schemaId:
+                typed_event = TypedGenericEvent(typed_event, schemas[typed_event.schemaId])
+            self._handle_typed_event(event_type, typed_event)
+
+    def _create_encoder(self):
+        # The Java encoder producing the messages this listener is able to parse
+        return ProtoEventBufferEncoder()
+
+    def _set_window(self, buffer):
+        self.window_start = buffer.windowStart
+        self.window_end = buffer.windowEnd
 
     def _method_for_type(self, event_type):
         if not hasattr(self, '_method_per_type'):
@@ -91,11 +143,276 @@ class EventListener:
                     self._method_per_type[type].add(val)
                 logger.info('Method {} listens to the following event types: {}'.format(name, val.listened_events))
 
+    def listened_event_types(self):
+        """
+        :return: the names of the event types at least one method of this listener listens to.
+        Events of other types do not even need to be sent from Java.
+        """
+        if not hasattr(self, '_method_per_type'):
+            self._create_method_per_type()
+        return {t for t, methods in self._method_per_type.items() if len(methods) > 0}
+
     def _handle_typed_event(self, event_type, event):
         for method in self._method_for_type(event_type):
             method(event)
 
 
+class TypedGenericEvent:
+    """
+    Generic event of a Java class without dedicated message, sent with the typed values of the getters backing its
+    attributes instead of the attributes themselves. Values are accessed as attributes named after the keys of the
+    Java attributes (for instance `person` for a DRT event). Values of double getters are floats, other values strings,
+    formatted as in the Java attributes.
+
+    `attrVal` gives the values as AttrVal messages, exactly as they would be sent as attributes, for code written for
+    generic events sent as attributes.
+    """
+    __slots__ = ('type', 'time', 'eventClass', 'values', '_number_fields')
+
+    def __init__(self, message, schema):
+        self.type = message.type
+        self.time = message.time
+        self.eventClass = schema.eventClass
+        self._number_fields = schema.numberField
+        self.values = dict(zip(schema.numberField, message.numberValue))
+        self.values.update(zip(schema.stringField, message.stringValue))
+
+    def __getattr__(self, name):
+        # only called for names that are not slots. Guard against "values" not being set yet, for instance when copying
+        if name == 'values':
+            raise AttributeError(name)
+        try:
+            return self.values[name]
+        except KeyError:
+            raise AttributeError(name)
+
+    @property
+    def attrVal(self):
+        return [event_type.AttrVal(attribut=name, value=_java_double_str(value) if name in self._number_fields else value)
+                for name, value in self.values.items()]
+
+
+def _java_double_str(value):
+    """
+    Formats a float as Java's Double.toString does, so that attributes match the ones of Java events
+    """
+    if math.isnan(value):
+        return 'NaN'
+    if math.isinf(value):
+        return 'Infinity' if value > 0 else '-Infinity'
+    if value == 0:
+        return '-0.0' if math.copysign(1, value) < 0 else '0.0'
+    if 1e-3 <= abs(value) < 1e7:
+        # repr only switches to scientific notation outside of this range
+        return repr(value)
+
+    # computerized scientific notation, with the shortest digits that identify the value, as repr gives them
+    sign, digits, exponent = Decimal(repr(value)).as_tuple()
+    exponent += len(digits) - 1
+    digits = ''.join(str(d) for d in digits).rstrip('0')
+    return '{}{}.{}E{}'.format('-' if sign else '', digits[0], digits[1:] or '0', exponent)
+
+
+# fields of the compact event messages that refer to a dictionary entry, with the dictionary they refer to
+_DICTIONARY_FIELDS = {
+    'linkId': DictionaryEntry.LINK,
+    'persId': DictionaryEntry.PERSON,
+    'driverId': DictionaryEntry.PERSON,
+    'vehId': DictionaryEntry.VEHICLE,
+    'facilityId': DictionaryEntry.FACILITY,
+    'transitLineId': DictionaryEntry.TRANSIT_LINE,
+    'transitRouteId': DictionaryEntry.TRANSIT_ROUTE,
+    'departureId': DictionaryEntry.DEPARTURE,
+    'actType': DictionaryEntry.STRING,
+    'legMode': DictionaryEntry.STRING,
+    'networkMode': DictionaryEntry.STRING,
+}
+
+
+class CompactEvent:
+    """
+    View on a dictionary-encoded event, as received by CompactEventListener.
+
+    Fields referring to ids, activity types or modes are resolved to their string value when accessed,
+    other fields are returned as is. The raw indices are available through the `message` attribute.
+    """
+    __slots__ = ('message', '_tables')
+
+    def __init__(self, message, tables):
+        self.message = message
+        self._tables = tables
+
+    def __getattr__(self, name):
+        value = getattr(self.message, name)
+        dictionary = _DICTIONARY_FIELDS.get(name)
+
+        if dictionary is None:
+            return value
+
+        if name == 'facilityId' and not self.message.hasFacilityId:
+            return None
+
+        return self._tables[dictionary][value]
+
+
+class CompactEventListener(EventListener):
+    """
+    EventListener receiving events in the dictionary-encoded format of compact_events.proto.
+    Messages are several times smaller than the default format, and ids are only converted to strings when read.
+
+    Listening methods are declared with listen_to as for EventListener, but receive CompactEvent instances.
+    """
+    def _create_encoder(self):
+        return CompactEventBufferEncoder()
+
+    @jp.JOverride
+    def handleEventBuffer(self, message):
+        if (len(message) == 0):
+            return
+
+        buffer = CompactEventBuffer()
+        buffer.ParseFromString(decompress(bytes(message[:])))
+        self._set_window(buffer)
+
+        tables = self._dictionary_tables()
+        for entry in buffer.newEntries:
+            tables[entry.dictionary][entry.index] = entry.value
+
+        for event in buffer.event:
+            event_type = event.WhichOneof("event_type")
+            self._handle_typed_event(event_type, CompactEvent(getattr(event, event_type), tables))
+
+    def _dictionary_tables(self):
+        # The Java side only sends each entry once over the lifetime of the sender, so the tables must be kept
+        # across iterations.
+        if not hasattr(self, '_tables'):
+            self._tables = defaultdict(dict)
+        return self._tables
+
+
+# Layout constants of the messages produced by ColumnarEventBufferEncoder
+_COLUMNAR_MAGIC = 0x4C4F434D
+_COLUMNAR_VERSION = 1
+_COLUMN_DTYPES = {
+    0: np.dtype('<f8'),
+    1: np.dtype('<i4'),
+}
+
+
+class ColumnarEventListener(CompactEventListener):
+    """
+    EventListener receiving events as columns, one numpy array per field, without any per-event loop in Python.
+
+    Listening methods are declared with listen_to as for EventListener, but are called once per buffer and event type,
+    with a dict from field name (as in compact_events.proto) to numpy array. The arrays are views on the received
+    message, so copy them if they need to outlive the call.
+    Ids and strings are dictionary indices, that can be converted to strings with `decode`.
+    Generic events have no fixed columns, and are passed one by one as CompactEvent instances.
+    """
+    def _create_encoder(self):
+        return ColumnarEventBufferEncoder()
+
+    @jp.JOverride
+    def handleEventBuffer(self, message):
+        if (len(message) == 0):
+            return
+
+        data = decompress(bytes(message[:]))
+        magic, version, proto_offset, proto_length, n_tables = struct.unpack_from('<5i', data, 0)
+
+        if magic != _COLUMNAR_MAGIC or version != _COLUMNAR_VERSION:
+            raise ValueError('unexpected columnar buffer header {} version {}'.format(hex(magic), version))
+
+        proto_section = CompactEventBuffer()
+        proto_section.ParseFromString(data[proto_offset:proto_offset + proto_length])
+        self._set_window(proto_section)
+
+        tables = self._dictionary_tables()
+        for entry in proto_section.newEntries:
+            tables[entry.dictionary][entry.index] = entry.value
+
+        for event in proto_section.event:
+            event_type = event.WhichOneof("event_type")
+            self._handle_typed_event(event_type, CompactEvent(getattr(event, event_type), tables))
+
+        position = 5 * 4
+        for _ in range(n_tables):
+            type_number, n_rows, n_columns = struct.unpack_from('<3i', data, position)
+            position += 3 * 4
+
+            type_field = _CompactEventMessage.DESCRIPTOR.fields_by_number[type_number]
+            columns = {}
+            for _ in range(n_columns):
+                field_number, dtype, offset = struct.unpack_from('<3i', data, position)
+                position += 3 * 4
+
+                name = type_field.message_type.fields_by_number[field_number].name
+                columns[name] = np.frombuffer(data, dtype=_COLUMN_DTYPES[dtype], count=n_rows, offset=offset)
+
+            self._handle_typed_event(type_field.name, columns)
+
+    def decode(self, field_name, indices):
+        """
+        Converts an array of dictionary indices, as found in the column with the given name, to an array of strings.
+        """
+        dictionary = _DICTIONARY_FIELDS[field_name]
+        return self._lookup_array(dictionary)[indices]
+
+    def _lookup_array(self, dictionary):
+        if not hasattr(self, '_lookup_arrays'):
+            self._lookup_arrays = {}
+
+        table = self._dictionary_tables()[dictionary]
+        lookup = self._lookup_arrays.get(dictionary)
+
+        # entries are only ever added, so the number of entries tells whether the array is up to date
+        if lookup is None or lookup[1] != len(table):
+            array = np.empty(max(table.keys(), default=-1) + 1, dtype=object)
+            for index, value in table.items():
+                array[index] = value
+            lookup = (array, len(table))
+            self._lookup_arrays[dictionary] = lookup
+
+        return lookup[0]
+
+
+@jp.JImplements(BufferedProtocolBufferSender.Listener)
+class AggregateListener:
+    """
+    Receives the results of Java aggregation operators, such as LinkVolumeAggregator, instead of raw events.
+
+    Example usage:
+    listener = AggregateListener()
+    add_aggregator(controler, LinkVolumeAggregator(3600.0, listener))
+
+    Subclasses can override handle_aggregate. By default, results are stored in the `results` attribute, which maps
+    aggregator names to a list of (first_bin, values) tuples for the current iteration.
+    """
+    def __init__(self):
+        self.results = defaultdict(list)
+
+    @jp.JOverride
+    def reset(self, iteration):
+        self.results.clear()
+
+    @jp.JOverride
+    def handleEventBuffer(self, message):
+        if (len(message) == 0):
+            return
+
+        buffer = AggregateBuffer()
+        buffer.ParseFromString(message[:])
+        values = {series.key: np.array(series.value, dtype=np.float64) for series in buffer.series}
+        self.handle_aggregate(buffer.name, buffer.iteration, buffer.firstBin, buffer.binSize, values)
+
+    def handle_aggregate(self, name, iteration, first_bin, bin_size, values):
+        """
+        :param values: dict from key (link id, mode...) to a numpy array with one value per time bin, starting at
+         time bin first_bin, which covers [first_bin * bin_size, (first_bin + 1) * bin_size)
+        """
+        self.results[name].append((first_bin, values))
+
+
 def listen_to(*act_types):
     """
     decorator for listening methods of EventListener subclasses.
@@ -120,16 +437,352 @@ def listen_to(*act_types):
 @jp.JImplementationFor("org.matsim.core.controler.Controler")
 class _ControlerEventListenerCustomizer:
     # TODO: find a way to have this land in the stubs files...
-    def addEventHandler(self, handler, buffer_size=1):
+    def addEventHandler(self, handler, buffer_size=1, **kwargs):
         # Somehow does not seem to work...
         #if isinstance(handler, BufferedProtocolBufferSender.Listener):
         if isinstance(handler, EventListener):
-            add_event_handler(self, handler, buffer_size)
+            add_event_handler(self, handler, buffer_size, **kwargs)
         else:
             self.getEvents().addHandler(handler)
 
 
-def add_event_handler(controler, handler, buffer_size=1):
-    wrapped = BufferedProtocolBufferSender(buffer_size, handler)
+def add_event_handler(controler, handler, buffer_size=1, async_queue_depth=None,
+                      sim_time_window=None, max_wall_clock_millis=None, max_bytes=None, memory_budget=None,
+                      metrics=None, concurrency=None):
+    """
+    :param buffer_size: maximum number of events sent at once to the handler
+    :param async_queue_depth: if set, the handler is called on a separate Java thread, and the simulation only waits
+     for it when that many buffers are already waiting to be handled. Buffers are all handled before the end of the
+     mobsim.
+    :param sim_time_window: if set, buffers are also sent at the end of each simulation time window of that many
+     seconds. The window of the buffer being handled is available to the handler as window_start and window_end.
+    :param max_wall_clock_millis: if set, buffers are also sent once they were filled for that long (real time)
+    :param max_bytes: if set, buffers are also sent once they reach that size
+    :param memory_budget: if set, bounds the bytes of buffers waiting for the handler. Either a Java MemoryBudget,
+     which determines what happens when the handler falls behind (block, drop low priority events, sample or spill to
+     disk), or a number of bytes, in which case the simulation waits. Requires async_queue_depth.
+    :param metrics: a Java BridgeMetrics recording the runtime metrics of the handler, to read with poll_metrics.
+     A new one is created if None. False records no metrics at all.
+    :param concurrency: set when MATSim handles events on several threads. With 'ordered', each thread encodes its
+     events separately, and buffers are merged in time order. This requires the default message format without
+     compression. With 'unordered', each thread sends its own buffers, so buffers of different threads interleave.
+     This requires the default message format, possibly compressed. The handler is still called from one thread at a
+     time.
+    """
+    event_filter = _create_event_type_filter([handler])
+    memory_budget = _create_memory_budget(memory_budget)
+    if concurrency is not None and memory_budget is not None:
+        raise ValueError('a memory budget cannot be used with concurrency')
+
+    if async_queue_depth is None:
+        if memory_budget is not None:
+            raise ValueError('a memory budget requires async_queue_depth')
+        dispatcher = SynchronousBufferDispatcher(handler)
+    else:
+        dispatcher = AsyncBufferDispatcher(async_queue_depth, 'python-matsim event delivery', memory_budget, handler)
+
+    flush_policy = _create_flush_policy(buffer_size, sim_time_window, max_wall_clock_millis, max_bytes)
+
+    if concurrency == 'ordered':
+        if not isinstance(_create_encoder(handler), ProtoEventBufferEncoder) or _compression(handler) is not None:
+            raise ValueError('ordered concurrency requires the default message format without compression')
+        wrapped = ConcurrentBufferedProtocolBufferSender(flush_policy, event_filter, dispatcher,
+                                                         _create_metrics(metrics))
+    elif concurrency == 'unordered':
+        # each thread has its own encoder: dictionaries of compact formats would number strings independently
+        if not isinstance(_create_encoder(handler), ProtoEventBufferEncoder):
+            raise ValueError('unordered concurrency requires the default message format')
+        wrapped = ConcurrentBufferedProtocolBufferSender(flush_policy, event_filter,
+                                                         _EncoderSupplier(handler), dispatcher,
+                                                         _create_metrics(metrics))
+    elif concurrency is None:
+        encoder = _compress(_create_encoder(handler), _compression(handler))
+        wrapped = BufferedProtocolBufferSender(flush_policy, event_filter, encoder, dispatcher,
+                                               memory_budget, _create_metrics(metrics))
+    else:
+        raise ValueError('unknown concurrency ' + str(concurrency))
+    controler.getEvents().addHandler(wrapped)
+    controler.addControlerListener(wrapped)
+
+
+def add_event_handlers(controler, handlers, buffer_size=1, queue_depth=1,
+                       sim_time_window=None, max_wall_clock_millis=None, max_bytes=None, memory_budget=None,
+                       metrics=None):
+    """
+    Adds several handlers sharing the same buffers, each handled on its own Java thread with its own queue, so that
+    slow handlers do not hold back fast ones. The producer only waits when the queue of some handler is full.
+    The handlers must all use the same message format (for instance, all be plain EventListeners).
+
+    :param queue_depth: number of buffers that can wait for each handler
+    :param memory_budget: bound on the bytes of buffers waiting for the handlers, as in add_event_handler
+    :param metrics: a Java BridgeMetrics recording the runtime metrics of the handlers, as in add_event_handler
+    :return: the Java FanOutBufferDispatcher, giving access to lag and backlog metrics per handler
+    """
+    encoders = [_create_encoder(handler) for handler in handlers]
+    if len({str(encoder.getClass().getName()) for encoder in encoders}) > 1:
+        raise ValueError('handlers expect different message formats and cannot share buffers')
+    if len({repr(_compression(handler)) for handler in handlers}) > 1:
+        raise ValueError('handlers expect different compressions and cannot share buffers')
+
+    memory_budget = _create_memory_budget(memory_budget)
+    dispatcher = FanOutBufferDispatcher(queue_depth, memory_budget, *handlers)
+    flush_policy = _create_flush_policy(buffer_size, sim_time_window, max_wall_clock_millis, max_bytes)
+
+    wrapped = BufferedProtocolBufferSender(flush_policy, _create_event_type_filter(handlers),
+                                           _compress(encoders[0], _compression(handlers[0])), dispatcher, memory_budget,
+                                           _create_metrics(metrics))
+    controler.getEvents().addHandler(wrapped)
+    controler.addControlerListener(wrapped)
+    return dispatcher
+
+
+def add_aggregator(controler, aggregator):
+    """
+    Adds a Java aggregation operator (LinkVolumeAggregator, LinkTravelTimeAggregator, ModeCountAggregator,
+    StuckAgentAggregator...) to the simulation. Its results are sent to the listeners it was constructed with,
+    typically AggregateListeners.
+    """
+    controler.getEvents().addHandler(aggregator)
+    controler.addControlerListener(aggregator)
+    return aggregator
+
+
+def publish_to_shared_memory(controler, path, capacity=64 * 1024 * 1024, event_types=None, buffer_size=1000,
+                             compression=None, sim_time_window=None, max_wall_clock_millis=None, max_bytes=None):
+    """
+    Publishes event buffers into a memory-mapped ring buffer file, which any number of other processes can read with
+    pythonmatsim.ring_buffer.RingBufferReader, without a JVM. Buffers are EventBuffer messages, as handled by
+    EventListener. The compact and columnar formats are not available here, as their dictionaries would be incomplete
+    for readers attaching late or missing buffers.
+
+    :param path: file to create. On Linux, a path in /dev/shm avoids any disk I/O.
+    :param capacity: size of the ring buffer in bytes. Single buffers must fit in it, and readers falling further
+     behind miss buffers.
+    :param event_types: names of the event types to publish, as in listened_event_types(). All types if None.
+    :param compression: as the compression attribute of EventListener. Readers decompress transparently.
+    :return: the Java SharedMemoryRingBuffer
+    """
+    ring_buffer = SharedMemoryRingBuffer(path, capacity)
+    event_filter = EventTypeFilter.acceptAll() if event_types is None else EventTypeFilter(jp.JArray(jp.JString)(sorted(event_types)))
+    flush_policy = _create_flush_policy(buffer_size, sim_time_window, max_wall_clock_millis, max_bytes)
+
+    wrapped = BufferedProtocolBufferSender(flush_policy, event_filter, _compress(ProtoEventBufferEncoder(), compression),
+                                           SynchronousBufferDispatcher(ring_buffer))
+    controler.getEvents().addHandler(wrapped)
+    controler.addControlerListener(wrapped)
+    controler.addControlerListener(ring_buffer)
+    return ring_buffer
+
+
+def record_events(controler, directory, index_interval=900.0, event_types=None, buffer_size=1000, compression=None,
+                  sim_time_window=None, max_wall_clock_millis=None, max_bytes=None):
+    """
+    Records the events of each iteration to directory/events.[iteration].pblog, to replay them later with
+    replay_events, for instance to develop listeners without running the simulation again.
+
+    :param index_interval: simulation time between entries of the time index used to start replays at a given time
+    :param event_types: names of the event types to record, as in listened_event_types(). All types if None.
+    :param compression: as the compression attribute of EventListener, to compress the log
+    :return: the Java EventLogWriter
+    """
+    writer = EventLogWriter(directory, index_interval, _create_codec(compression))
+    event_filter = EventTypeFilter.acceptAll() if event_types is None else EventTypeFilter(jp.JArray(jp.JString)(sorted(event_types)))
+    flush_policy = _create_flush_policy(buffer_size, sim_time_window, max_wall_clock_millis, max_bytes)
+
+    wrapped = BufferedProtocolBufferSender(flush_policy, event_filter, ProtoEventBufferEncoder(),
+                                           SynchronousBufferDispatcher(writer))
     controler.getEvents().addHandler(wrapped)
     controler.addControlerListener(wrapped)
+    controler.addControlerListener(writer)
+    return writer
+
+
+def replay_events(path, handler, from_time=None):
+    """
+    Feeds the buffers of a log written by record_events to a handler, as if they came from the simulation.
+    Handlers need to be EventListeners, as recorded buffers use the default format.
+
+    :param from_time: if set, start with a buffer from before that simulation time, so that all events from that time on
+     are replayed
+    """
+    reader = EventLogReader(path)
+    try:
+        if from_time is None:
+            reader.replay(handler)
+        else:
+            reader.replay(float(from_time), handler)
+    finally:
+        reader.close()
+
+
+def inject_events(events_manager, buffer, decoder=None):
+    """
+    Processes events created in Python with MATSim event handlers, decoding a whole buffer in Java at once instead of
+    creating events one JPype call at a time.
+
+    Example usage:
+    buffer = EventBuffer()
+    event = buffer.event.add()
+    event.linkEnter.time = 10
+    event.linkEnter.linkId.id = '1'
+    event.linkEnter.vehId.id = 'car'
+    inject_events(controler.getEvents(), buffer)
+
+    :param buffer: an EventBuffer message, or its serialized bytes
+    :param decoder: a Java EventBufferDecoder, to decode large buffers in parallel. Sequential if None.
+    :return: the number of processed events
+    """
+    if isinstance(buffer, EventBuffer):
+        buffer = buffer.SerializeToString()
+    if decoder is None:
+        decoder = EventBufferDecoder()
+    return decoder.process(jp.JArray(jp.JByte)(buffer), events_manager)
+
+
+@jp.JImplements(BufferedProtocolBufferSender.Listener)
+class _CompressionMeasure:
+    def __init__(self, compressions):
+        self.codecs = {compression: _create_codec(compression) for compression in compressions}
+        self.uncompressed_bytes = 0
+        self.compressed_bytes = defaultdict(int)
+        self.compression_seconds = defaultdict(float)
+        self.decompression_seconds = defaultdict(float)
+
+    @jp.JOverride
+    def reset(self, iteration):
+        pass
+
+    @jp.JOverride
+    def handleEventBuffer(self, message):
+        message = CompressedFrames.decompress(message)
+        self.uncompressed_bytes += len(message)
+        for compression, codec in self.codecs.items():
+            start = time.perf_counter()
+            frame = CompressedFrames.compress(codec, message)
+            self.compression_seconds[compression] += time.perf_counter() - start
+
+            start = time.perf_counter()
+            CompressedFrames.decompress(frame)
+            self.decompression_seconds[compression] += time.perf_counter() - start
+            self.compressed_bytes[compression] += len(frame)
+
+
+def measure_compression(log_path, compressions=('lz4', 'deflate', ('deflate', 6), ('deflate', 9))):
+    """
+    Measures the compression ratio and Java throughput of codecs on the buffers of a log written by record_events,
+    to choose the compression for a given deployment.
+
+    :return: dict from compression to (ratio of compressed to uncompressed size, compression MB/s, decompression MB/s)
+    """
+    measure = _CompressionMeasure(compressions)
+    replay_events(log_path, measure)
+
+    megabytes = measure.uncompressed_bytes / 1e6
+    return {compression: (measure.compressed_bytes[compression] / max(measure.uncompressed_bytes, 1),
+                          megabytes / max(measure.compression_seconds[compression], 1e-9),
+                          megabytes / max(measure.decompression_seconds[compression], 1e-9))
+            for compression in compressions}
+
+
+def _create_codec(compression):
+    if compression is None:
+        return None
+    if compression == 'lz4':
+        return Lz4BlockCodec()
+    if compression == 'deflate':
+        return DeflateCodec()
+    if isinstance(compression, tuple) and compression[0] == 'deflate':
+        return DeflateCodec(compression[1])
+    raise ValueError('unknown compression {}'.format(compression))
+
+
+def _compress(encoder, compression):
+    codec = _create_codec(compression)
+    return encoder if codec is None else CompressingEventBufferEncoder(encoder, codec)
+
+
+def poll_metrics(metrics):
+    """
+    Reads the runtime metrics of the event bridge, typically once per iteration from an IterationEndsListener.
+    Metrics are reset at the start of each iteration, so this gives the values of the last mobsim.
+
+    :param metrics: the Java BridgeMetrics given to add_event_handler or add_event_handlers
+    :return: a dict with the number of events per type, the serialization time, statistics of the buffer sizes,
+     of the queue depth and of the time spent by each listener per buffer (in seconds)
+    """
+    snapshot = metrics.snapshot()
+    return {
+        'event_counts': {str(t): int(c) for t, c in snapshot.getEventCounts().items()},
+        'serialization_seconds': snapshot.getSerializationNanos() * 1e-9,
+        'flush_count': snapshot.getBufferBytes().getCount(),
+        'buffer_bytes': _histogram_stats(snapshot.getBufferBytes()),
+        'queue_depth': _histogram_stats(snapshot.getQueueDepth()),
+        'listener_seconds': {str(l): _histogram_stats(h, 1e-9) for l, h in snapshot.getListenerLatencies().items()},
+    }
+
+
+def _histogram_stats(histogram, scale=1):
+    return {
+        'count': histogram.getCount(),
+        'total': histogram.getSum() * scale,
+        'mean': histogram.getMean() * scale,
+        'p50': histogram.getPercentile(0.5) * scale,
+        'p99': histogram.getPercentile(0.99) * scale,
+        'max': histogram.getMax() * scale,
+    }
+
+
+@jp.JImplements('java.util.function.Supplier')
+class _EncoderSupplier:
+    def __init__(self, handler):
+        self._handler = handler
+
+    @jp.JOverride
+    def get(self):
+        return _compress(_create_encoder(self._handler), _compression(self._handler))
+
+
+def _create_event_type_filter(handlers):
+    """
+    Accepts the event types the handlers listen to. Handlers that are not EventListeners, or that do not declare any
+    type with listen_to, for instance because they override handleEventBuffer, get all events.
+    """
+    event_types = set()
+    for handler in handlers:
+        handler_types = handler.listened_event_types() if isinstance(handler, EventListener) else set()
+        if len(handler_types) == 0:
+            return EventTypeFilter.acceptAll()
+        event_types |= handler_types
+    return EventTypeFilter(jp.JArray(jp.JString)(sorted(event_types)))
+
+
+def _create_encoder(handler):
+    # plain Java listeners get the default format
+    return handler._create_encoder() if isinstance(handler, EventListener) else ProtoEventBufferEncoder()
+
+
+def _compression(handler):
+    return getattr(handler, 'compression', None)
+
+
+def _create_metrics(metrics):
+    if metrics is False:
+        return None
+    return BridgeMetrics() if metrics is None else metrics
+
+
+def _create_flush_policy(buffer_size, sim_time_window, max_wall_clock_millis, max_bytes):
+    flush_policy = FlushPolicy(buffer_size)
+    if sim_time_window is not None:
+        flush_policy.setSimTimeWindow(sim_time_window)
+    if max_wall_clock_millis is not None:
+        flush_policy.setMaxWallClockMillis(max_wall_clock_millis)
+    if max_bytes is not None:
+        flush_policy.setMaxBytes(max_bytes)
+    return flush_policy
+
+
+def _create_memory_budget(memory_budget):
+    if memory_budget is None or isinstance(memory_budget, MemoryBudget):
+        return memory_budget
+    return MemoryBudget(int(memory_budget), MemoryBudget.Policy.BLOCK)
@@ -0,0 +1,110 @@
+
+# ####################################################################### #
+# project: python-matsim
+# compression.py
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+# copyright       : (C) 2019 by the members listed in the COPYING,        #
+#                   LICENSE and WARRANTY file.                            #
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+#   This program is free software; you can redistribute it and/or modify  #
+#   it under the terms of the GNU General Public License as published by  #
+#   the Free Software Foundation; either version 2 of the License, or     #
+#   (at your option) any later version.                                   #
+#   See also COPYING, LICENSE and WARRANTY file                           #
+#                                                                         #
+
+"""
+Decompression of the compressed frames produced by the Java CompressingEventBufferEncoder. See CompressedFrames.java
+for the frame layout. This module does not need a JVM.
+"""
+
+import struct
+import zlib
+
+try:
+    import lz4.block as _lz4_block
+except ImportError:
+    _lz4_block = None
+
+_MAGIC = 0x504D434D
+_HEADER = struct.Struct('<iB3xi')
+
+DEFLATE = 1
+LZ4 = 2
+
+
+def is_compressed(data):
+    return len(data) >= _HEADER.size and struct.unpack_from('<i', data, 0)[0] == _MAGIC
+
+
+def decompress(data):
+    """
+    :param data: a buffer as received from Java, as bytes
+    :return: the decompressed buffer, or the data itself if it is not compressed
+    """
+    if not is_compressed(data):
+        return data
+
+    _, codec, length = _HEADER.unpack_from(data, 0)
+    payload = memoryview(data)[_HEADER.size:]
+    if codec == DEFLATE:
+        result = zlib.decompress(payload)
+    elif codec == LZ4:
+        if _lz4_block is not None:
+            result = _lz4_block.decompress(bytes(payload), uncompressed_size=length)
+        else:
+            result = _decompress_lz4_block(payload, length)
+    else:
+        raise ValueError('unknown compression codec {}'.format(codec))
+
+    if len(result) != length:
+        raise ValueError('corrupted frame: got {} bytes instead of {}'.format(len(result), length))
+    return result
+
+
+def _decompress_lz4_block(data, length):
+    # slow fallback for when the lz4 package is not installed
+    output = bytearray()
+    position = 0
+    end = len(data)
+    while position < end:
+        token = data[position]
+        position += 1
+
+        literal_length = token >> 4
+        if literal_length == 15:
+            while True:
+                b = data[position]
+                position += 1
+                literal_length += b
+                if b != 255:
+                    break
+        output += data[position:position + literal_length]
+        position += literal_length
+        if position >= end:
+            break
+
+        offset = data[position] | data[position + 1] << 8
+        position += 2
+        match_length = token & 0x0F
+        if match_length == 15:
+            while True:
+                b = data[position]
+                position += 1
+                match_length += b
+                if b != 255:
+                    break
+        match_length += 4
+
+        start = len(output) - offset
+        if offset >= match_length:
+            output += output[start:start + match_length]
+        else:
+            # overlapping match, repeating the last bytes
+            for i in range(match_length):
+                output.append(output[start + i])
+    return bytes(output)
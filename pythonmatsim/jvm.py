@@ -21,13 +21,31 @@
 import jpype
 import pkg_resources
 import logging
+import hashlib
+import os
+import re
+import statistics
+import subprocess
+import sys
+from typing import Dict, List, Optional
 
 _logger = logging.getLogger(__name__)
 
+_JAR = 'python-matsim-instance-1.0-SNAPSHOT-jar-with-dependencies.jar'
+# classes loaded by a training run, listed when building with Java 11 or later
+_CLASS_LIST = 'python-matsim.classlist'
+
 
 def start_jvm(jvm_path=jpype.get_default_jvm_path(),
-              *additional_classpath):
-    if not pkg_resources.resource_exists('javaresources', 'python-matsim-instance-1.0-SNAPSHOT-jar-with-dependencies.jar'):
+              *additional_classpath,
+              class_data_sharing=True):
+    """
+    :param class_data_sharing: if possible, start the JVM with a class data sharing archive of the classes MATSim
+     typically uses, which saves loading and verifying them. The archive is created on first use for a given JVM and
+     class path, in the python-matsim directory of the user cache. This requires Java 11 or later, and is silently
+     skipped otherwise.
+    """
+    if not pkg_resources.resource_exists('javaresources', _JAR):
         raise RuntimeError('could not find jar file')
 
     if jpype.isJVMStarted():
@@ -35,7 +53,7 @@ def start_jvm(jvm_path=jpype.get_default_jvm_path(),
         _logger.info("JVM is already live, do nothing.")
         return
 
-    python_matsim_jar = pkg_resources.resource_filename('javaresources', 'python-matsim-instance-1.0-SNAPSHOT-jar-with-dependencies.jar')
+    python_matsim_jar = pkg_resources.resource_filename('javaresources', _JAR)
 
     jpype.addClassPath(python_matsim_jar)
 
@@ -44,7 +62,109 @@ def start_jvm(jvm_path=jpype.get_default_jvm_path(),
 
     _logger.info('start jvm with classpath {}'.format(jpype.getClassPath()))
 
-    jpype.startJVM(jvm_path, "-Djava.class.path=%s" % jpype.getClassPath(), convertStrings=False)
+    options = _class_data_sharing_options(jvm_path, jpype.getClassPath()) if class_data_sharing else []
+    jpype.startJVM(jvm_path, "-Djava.class.path=%s" % jpype.getClassPath(), *options, convertStrings=False)
+
+
+def measure_startup(*additional_classpath, runs=5) -> Dict[bool, float]:
+    """
+    Measures the time to start the JVM and load the MATSim controler, with and without class data sharing. Each run
+    starts a separate Python process, as a JVM can only be started once per process. The archive is created before
+    measuring, if possible.
+
+    :return: dict from whether class data sharing was requested to the median time in seconds
+    """
+    script = (
+        'import time, sys\n'
+        'start = time.perf_counter()\n'
+        'import jpype\n'
+        'import pythonmatsim.jvm as jvm\n'
+        'jvm.start_jvm(jpype.get_default_jvm_path(), *sys.argv[2:], class_data_sharing=sys.argv[1] == "True")\n'
+        'jpype.JClass("org.matsim.core.controler.Controler")\n'
+        'print(time.perf_counter() - start)\n'
+    )
+
+    def run(class_data_sharing):
+        completion = subprocess.run([sys.executable, '-c', script, str(class_data_sharing)] + list(additional_classpath),
+                                    stdout=subprocess.PIPE, check=True)
+        return float(completion.stdout.decode().strip().splitlines()[-1])
+
+    # creates the archive if needed
+    run(True)
+    return {class_data_sharing: statistics.median(run(class_data_sharing) for _ in range(runs))
+            for class_data_sharing in (False, True)}
+
+
+def _class_data_sharing_options(jvm_path: str, classpath: str) -> List[str]:
+    if not pkg_resources.resource_exists('javaresources', _CLASS_LIST):
+        _logger.debug('no list of classes to share, class data sharing not used')
+        return []
+
+    java_home = _java_home(jvm_path)
+    version = _java_version(java_home) if java_home is not None else None
+    if version is None or version < 11:
+        _logger.debug('class data sharing not used with JVM {} of version {}'.format(jvm_path, version))
+        return []
+
+    class_list = pkg_resources.resource_filename('javaresources', _CLASS_LIST)
+    try:
+        archive = os.path.join(_cache_directory(),
+                               'python-matsim-{}.jsa'.format(_archive_key(java_home, class_list, classpath)))
+        if not os.path.exists(archive):
+            _create_archive(java_home, class_list, classpath, archive)
+    except (OSError, subprocess.CalledProcessError) as e:
+        _logger.warning('could not create class data sharing archive, starting without: {}'.format(e))
+        return []
+
+    _logger.info('start jvm with class data sharing archive {}'.format(archive))
+    # with -Xshare:auto, the JVM starts without sharing if the archive cannot be used after all
+    return ['-XX:SharedArchiveFile=' + archive, '-Xshare:auto']
+
+
+def _archive_key(java_home: str, class_list: str, classpath: str) -> str:
+    # archives are only valid for the JVM and the exact class path they were created with
+    key = hashlib.sha256(classpath.encode())
+    for path in [os.path.join(java_home, 'release'), class_list] + classpath.split(os.pathsep):
+        stat = os.stat(path)
+        key.update('{} {} {}\n'.format(os.path.realpath(path), stat.st_size, stat.st_mtime_ns).encode())
+    return key.hexdigest()[:16]
+
+
+def _create_archive(java_home: str, class_list: str, classpath: str, archive: str):
+    _logger.info('creating class data sharing archive {}, which only needs to be done once'.format(archive))
+    os.makedirs(os.path.dirname(archive), exist_ok=True)
+    # several processes might create it at the same time
+    tmp = '{}.{}.tmp'.format(archive, os.getpid())
+    try:
+        completion = subprocess.run([os.path.join(java_home, 'bin', 'java'),
+                                     '-Xshare:dump',
+                                     '-XX:SharedClassListFile=' + class_list,
+                                     '-XX:SharedArchiveFile=' + tmp,
+                                     '-classpath', classpath],
+                                    stdout=subprocess.PIPE, stderr=subprocess.STDOUT, check=True)
+        _logger.debug(completion.stdout.decode(errors='replace'))
+        os.replace(tmp, archive)
+    finally:
+        if os.path.exists(tmp):
+            os.remove(tmp)
+
+
+def _java_home(jvm_path: str) -> Optional[str]:
+    # the JVM library is in lib/server, jre/lib/<arch>/server or bin/server, depending on version and platform
+    directory = os.path.dirname(os.path.realpath(jvm_path))
+    for _ in range(4):
+        directory = os.path.dirname(directory)
+        if os.path.exists(os.path.join(directory, 'release')):
+            return directory
+    return None
+
 
+def _java_version(java_home: str) -> Optional[int]:
+    with open(os.path.join(java_home, 'release')) as release:
+        match = re.search(r'^JAVA_VERSION="(1\.)?(\d+)', release.read(), re.MULTILINE)
+    return int(match.group(2)) if match is not None else None
 
 
+def _cache_directory() -> str:
+    return os.path.join(os.environ.get('XDG_CACHE_HOME', os.path.join(os.path.expanduser('~'), '.cache')),
+                        'python-matsim')
@@ -0,0 +1,183 @@
+
+# ####################################################################### #
+# project: python-matsim
+# ring_buffer.py
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+# copyright       : (C) 2019 by the members listed in the COPYING,        #
+#                   LICENSE and WARRANTY file.                            #
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+#   This program is free software; you can redistribute it and/or modify  #
+#   it under the terms of the GNU General Public License as published by  #
+#   the Free Software Foundation; either version 2 of the License, or     #
+#   (at your option) any later version.                                   #
+#   See also COPYING, LICENSE and WARRANTY file                           #
+#                                                                         #
+
+"""
+Reader for the shared-memory ring buffer written by the Java class SharedMemoryRingBuffer.
+
+This module does not need a JVM, so that consumers can run in separate processes:
+
+    with RingBufferReader('/dev/shm/matsim-events') as reader:
+        for buffer in reader.event_buffers():
+            ...
+
+See SharedMemoryRingBuffer.java for the layout of the file.
+
+Readers can attach late and skip records, so each record must be decodable on its own: the dictionary-encoded
+compact and columnar formats, which send each dictionary entry only once, cannot go through a ring buffer.
+"""
+
+import collections
+import mmap
+import os
+import struct
+import time
+
+from pythonmatsim.compression import decompress
+
+_MAGIC = 0x474E524D
+_VERSION = 1
+
+_HEADER_SIZE = 64
+_CAPACITY_OFFSET = 8
+_CLAIMED_OFFSET = 16
+_PUBLISHED_OFFSET = 24
+_CLOSED_OFFSET = 32
+_LAST_RECORD_OFFSET = 40
+
+_RECORD_HEADER = struct.Struct('<iiq')
+_ALIGNMENT = 16
+_PADDING = -1
+
+Record = collections.namedtuple('Record', ['sequence', 'iteration', 'payload'])
+
+
+def _align(size):
+    return (size + _ALIGNMENT - 1) // _ALIGNMENT * _ALIGNMENT
+
+
+class RingBufferReader:
+    """
+    Consumer of a ring buffer. Any number of readers, in any number of processes, can attach to the same file.
+
+    The writer never waits for readers. A reader falling more than the capacity behind skips to the most recent record;
+    the number of records it missed this way is available as missed_count.
+    """
+
+    def __init__(self, path, from_beginning=False, attach_timeout=60, poll_interval=0.01):
+        """
+        :param from_beginning: start with the oldest record if nothing was overwritten yet, instead of only reading
+         records published after attaching
+        :param attach_timeout: how long to wait, in seconds, for the writer to create the file
+        :param poll_interval: how long to sleep, in seconds, when waiting for new records
+        """
+        self.poll_interval = poll_interval
+        self.missed_count = 0
+        self._next_sequence = None
+
+        deadline = time.time() + attach_timeout
+        while not self._try_attach(path):
+            if time.time() > deadline:
+                raise TimeoutError('no ring buffer was created at {}'.format(path))
+            time.sleep(poll_interval)
+
+        version = struct.unpack_from('<i', self._map, 4)[0]
+        if version != _VERSION:
+            self.close()
+            raise ValueError('unsupported ring buffer version {}'.format(version))
+
+        self.capacity = struct.unpack_from('<q', self._map, _CAPACITY_OFFSET)[0]
+        published = self._published()
+        self._position = 0 if from_beginning and published <= self.capacity else published
+
+    def _try_attach(self, path):
+        if not os.path.exists(path) or os.path.getsize(path) < _HEADER_SIZE:
+            return False
+        self._file = open(path, 'rb')
+        self._map = mmap.mmap(self._file.fileno(), 0, access=mmap.ACCESS_READ)
+        if struct.unpack_from('<i', self._map, 0)[0] == _MAGIC:
+            return True
+        self.close()
+        return False
+
+    def _published(self):
+        return struct.unpack_from('<q', self._map, _PUBLISHED_OFFSET)[0]
+
+    def _claimed(self):
+        return struct.unpack_from('<q', self._map, _CLAIMED_OFFSET)[0]
+
+    def is_closed(self):
+        return struct.unpack_from('<i', self._map, _CLOSED_OFFSET)[0] != 0
+
+    def poll(self):
+        """
+        :return: the next Record, or None if no new record was published yet
+        """
+        while True:
+            published = self._published()
+            if self._position >= published:
+                return None
+
+            offset = _HEADER_SIZE + self._position % self.capacity
+            length, iteration, sequence = _RECORD_HEADER.unpack_from(self._map, offset)
+            if length == _PADDING:
+                end = self._position + self.capacity - self._position % self.capacity
+                payload = None
+            else:
+                end = self._position + _align(_RECORD_HEADER.size + length)
+                start = offset + _RECORD_HEADER.size
+                payload = self._map[start:start + length]
+
+            if self._claimed() - self._position > self.capacity:
+                # the writer lapped us, and what was just read might be corrupted: skip to the most recent record
+                self._position = struct.unpack_from('<q', self._map, _LAST_RECORD_OFFSET)[0]
+                continue
+
+            self._position = end
+            if payload is None:
+                continue
+
+            if self._next_sequence is not None and sequence > self._next_sequence:
+                self.missed_count += sequence - self._next_sequence
+            self._next_sequence = sequence + 1
+            return Record(sequence, iteration, payload)
+
+    def records(self):
+        """
+        Generator over the records, waiting for new ones until the writer closes the ring buffer.
+        """
+        while True:
+            record = self.poll()
+            if record is not None:
+                yield record
+            elif self.is_closed() and self._position >= self._published():
+                return
+            else:
+                time.sleep(self.poll_interval)
+
+    def event_buffers(self):
+        """
+        Generator over the records parsed as EventBuffer messages, for ring buffers fed by the default encoder.
+        Compressed buffers are decompressed transparently.
+        """
+        from pythonmatsim.EventBuffer_pb2 import EventBuffer
+
+        for record in self.records():
+            buffer = EventBuffer()
+            buffer.ParseFromString(decompress(record.payload))
+            yield buffer
+
+    def close(self):
+        self._map.close()
+        self._file.close()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *args):
+        self.close()
@@ -0,0 +1,105 @@
+
+# ####################################################################### #
+# project: python-matsim
+# wrappers.py
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+# copyright       : (C) 2019 by the members listed in the COPYING,        #
+#                   LICENSE and WARRANTY file.                            #
+#                                                                         #
+# ####################################################################### #
+#                                                                         #
+#   This program is free software; you can redistribute it and/or modify  #
+#   it under the terms of the GNU General Public License as published by  #
+#   the Free Software Foundation; either version 2 of the License, or     #
+#   (at your option) any later version.                                   #
+#   See also COPYING, LICENSE and WARRANTY file                           #
+#                                                                         #
+
+"""
+Support for the generated modules wrapping Java classes (``javawrappers``).
+
+Classes are only resolved through JPype on first access, using module level ``__getattr__`` (PEP 562), so that
+importing a package of wrappers costs a dictionary, whatever the number of Java classes in it. Type checkers and IDEs
+see the classes through the generated ``.pyi`` stubs.
+
+Module level ``__getattr__`` requires Python 3.7: with older versions, all classes are resolved at import.
+"""
+
+import importlib
+import sys
+from typing import Callable, Dict, List, Tuple
+
+_lazy = sys.version_info >= (3, 7)
+
+
+def class_module(module_name: str, classes: Dict[str, str]) -> Tuple[Callable, Callable]:
+    """
+    Makes a generated module resolve its Java classes lazily.
+
+    :param module_name: the ``__name__`` of the module
+    :param classes: binary names of the Java classes, by Python name
+    :return: the ``__getattr__`` and ``__dir__`` functions of the module
+    """
+    module = sys.modules[module_name]
+    module.__all__ = list(classes)
+
+    def resolve(name):
+        import jpype
+        value = jpype.JClass(classes[name])
+        # later accesses do not go through __getattr__
+        setattr(module, name, value)
+        return value
+
+    def __getattr__(name):
+        if name not in classes:
+            raise AttributeError('module {!r} has no attribute {!r}'.format(module_name, name))
+        return resolve(name)
+
+    def __dir__():
+        return sorted(set(module.__dict__) | set(classes))
+
+    if not _lazy:
+        for class_name in classes:
+            resolve(class_name)
+
+    return __getattr__, __dir__
+
+
+def package_module(package_name: str, module_names: List[str]) -> Tuple[Callable, Callable]:
+    """
+    Makes the ``__init__`` module of a generated package expose the classes of its modules, resolved lazily.
+    The modules themselves are imported right away, which is cheap, as they only contain names.
+
+    :param package_name: the ``__name__`` of the package
+    :param module_names: names of the modules of the package defining classes, relative to the package
+    :return: the ``__getattr__`` and ``__dir__`` functions of the package
+    """
+    package = sys.modules[package_name]
+
+    modules_by_class = {}
+    for module_name in module_names:
+        module = importlib.import_module('.' + module_name, package_name)
+        for class_name in module.__all__:
+            modules_by_class.setdefault(class_name, module)
+    package.__all__ = list(modules_by_class)
+
+    def resolve(name):
+        value = getattr(modules_by_class[name], name)
+        setattr(package, name, value)
+        return value
+
+    def __getattr__(name):
+        if name not in modules_by_class:
+            raise AttributeError('module {!r} has no attribute {!r}'.format(package_name, name))
+        return resolve(name)
+
+    def __dir__():
+        return sorted(set(package.__dict__) | set(modules_by_class))
+
+    if not _lazy:
+        for class_name in modules_by_class:
+            resolve(class_name)
+
+    return __getattr__, __dir__
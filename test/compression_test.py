@@ -0,0 +1,47 @@
+import base64
+import unittest
+
+import pythonmatsim.compression as compression
+
+# frames produced on the Java side by CompressedFrames.compress(codec, payload), for the payload of _expected_payload().
+# The payload has matches, literal runs longer than 15 bytes and a run of a single byte, which produces overlapping
+# matches in LZ4.
+_LZ4_FRAME = base64.b64decode(
+    'TUNNUAIAAADEAwAA9Ap2ZWhpY2xlIDAgZW50ZXJlZCBsaW5rIDAKGQAaMRkAFTEZABoyGQAVMhkAC0sAFTMZAAtLAAZkAAtLAAZkAAtLAAZkAAtL'
+    'AAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtLAAZkAAtL'
+    'AAZkAAtLAAZkAAtLAP81MwoAAwYJDA8SFRgbHiEkJyotMDM2OTw/QkVIS05RVFdaXWBjZmlsb3J1eHt+gYSHio2Qk5aZnJ+ipairrrG0t7q9eHgC'
+    'AP8TUHh4eHh4')
+_DEFLATE_FRAME = base64.b64decode(
+    'TUNNUAEAAADEAwAAeAHt0FEHwnAYxeGIaCIiIrKIiFiNiIiIiIiIiFj/NM1iakZERERERERERERERN+tm+zoXPUBem8Pz4/XFn1dM4SsyMIcCUt0'
+    'ZUM3B7Ii2Z8h8z1k3CH7PWTdgSjVHYhCgyg0iEKDKDSIQoMoNIhCgyg0iEKDKDSIQoMoNIhCgyg0iEKDKDSIQoMoNIhCgyhV8nh9/kAwFI5EY/FE'
+    'MpVW1Fy+UCyVK9VavdFstTtaTzeG1tiZTGfzxXK13mx3+8PxdL5cb/fH8+X87+cPvAFX8W10')
+
+
+def _expected_payload():
+    lines = b''.join('vehicle {} entered link {}\n'.format(i % 3, i % 4).encode('ascii') for i in range(24))
+    return lines + bytes(bytearray(i * 3 for i in range(64))) + b'x' * 300
+
+
+class CompressionTest(unittest.TestCase):
+    def testLz4FrameFromJava(self):
+        self.assertTrue(compression.is_compressed(_LZ4_FRAME))
+        self.assertEqual(_expected_payload(), compression.decompress(_LZ4_FRAME))
+
+    def testLz4FallbackDecoder(self):
+        # decompress() prefers the lz4 package when installed, so test the pure Python decoder separately
+        payload = memoryview(_LZ4_FRAME)[12:]
+        self.assertEqual(_expected_payload(), compression._decompress_lz4_block(payload, len(_expected_payload())))
+
+    def testDeflateFrameFromJava(self):
+        self.assertTrue(compression.is_compressed(_DEFLATE_FRAME))
+        self.assertEqual(_expected_payload(), compression.decompress(_DEFLATE_FRAME))
+
+    def testUncompressedBufferPassesThrough(self):
+        self.assertFalse(compression.is_compressed(_expected_payload()))
+        self.assertEqual(_expected_payload(), compression.decompress(_expected_payload()))
+
+    def testUnknownCodecIsRejected(self):
+        frame = bytearray(_DEFLATE_FRAME)
+        frame[4] = 42
+        with self.assertRaises(ValueError):
+            compression.decompress(bytes(frame))
@@ -0,0 +1,128 @@
+import mmap
+import os
+import shutil
+import struct
+import tempfile
+import unittest
+
+import pythonmatsim.ring_buffer as ring_buffer
+
+
+class _Writer:
+    """
+    Writes the file as SharedMemoryRingBuffer.java does, with the claim and the publication of a record as separate
+    steps, to simulate a reader running while a record is being written.
+    """
+
+    def __init__(self, path, capacity):
+        self.capacity = capacity
+        self.position = 0
+        self.sequence = 0
+        self.iteration = 0
+        with open(path, 'wb') as f:
+            f.write(b'\0' * (ring_buffer._HEADER_SIZE + capacity))
+        self._file = open(path, 'r+b')
+        self._map = mmap.mmap(self._file.fileno(), 0)
+        struct.pack_into('<iiq', self._map, 0, ring_buffer._MAGIC, ring_buffer._VERSION, capacity)
+
+    def claim(self, payload):
+        record_size = ring_buffer._align(ring_buffer._RECORD_HEADER.size + len(payload))
+        padding_offset = self.position % self.capacity
+        wraps = padding_offset + record_size > self.capacity
+        start = self.position + self.capacity - padding_offset if wraps else self.position
+        end = start + record_size
+
+        struct.pack_into('<q', self._map, ring_buffer._CLAIMED_OFFSET, end)
+        if wraps:
+            struct.pack_into('<i', self._map, ring_buffer._HEADER_SIZE + padding_offset, ring_buffer._PADDING)
+        offset = ring_buffer._HEADER_SIZE + start % self.capacity
+        ring_buffer._RECORD_HEADER.pack_into(self._map, offset, len(payload), self.iteration, self.sequence)
+        self._map[offset + ring_buffer._RECORD_HEADER.size:offset + ring_buffer._RECORD_HEADER.size + len(payload)] = payload
+        return start, end
+
+    def publish(self, start, end):
+        struct.pack_into('<q', self._map, ring_buffer._LAST_RECORD_OFFSET, start)
+        struct.pack_into('<q', self._map, ring_buffer._PUBLISHED_OFFSET, end)
+        self.position = end
+        self.sequence += 1
+
+    def write(self, payload):
+        self.publish(*self.claim(payload))
+
+    def close(self):
+        struct.pack_into('<i', self._map, ring_buffer._CLOSED_OFFSET, 1)
+        self._map.close()
+        self._file.close()
+
+
+def _payload(length, seed):
+    return bytes(bytearray((seed * 31 + i) % 256 for i in range(length)))
+
+
+class RingBufferTest(unittest.TestCase):
+    def setUp(self):
+        self.directory = tempfile.mkdtemp()
+        self.path = os.path.join(self.directory, 'ring')
+
+    def tearDown(self):
+        shutil.rmtree(self.directory)
+
+    def testRecordsWrapAround(self):
+        writer = _Writer(self.path, 128)
+        with ring_buffer.RingBufferReader(self.path, from_beginning=True, attach_timeout=0) as reader:
+            # sizes chosen so that records wrap with padding, and that the reader never falls behind by the capacity
+            sizes = [40, 40, 20, 40, 80, 8, 60]
+            for seed, size in enumerate(sizes):
+                writer.iteration = seed // 3
+                writer.write(_payload(size, seed))
+                record = reader.poll()
+                self.assertEqual(seed, record.sequence)
+                self.assertEqual(seed // 3, record.iteration)
+                self.assertEqual(_payload(size, seed), record.payload)
+                self.assertIsNone(reader.poll())
+
+            writer.close()
+            self.assertEqual([], list(reader.records()))
+            self.assertEqual(0, reader.missed_count)
+
+    def testLappedReaderSkipsToLastRecord(self):
+        writer = _Writer(self.path, 256)
+        with ring_buffer.RingBufferReader(self.path, from_beginning=True, attach_timeout=0) as reader:
+            writer.write(_payload(48, 0))
+            self.assertEqual(0, reader.poll().sequence)
+
+            # 64 bytes per record: the writer goes around more than once before the reader polls again
+            for seed in range(1, 10):
+                writer.write(_payload(48, seed))
+            record = reader.poll()
+            self.assertEqual(9, record.sequence)
+            self.assertEqual(_payload(48, 9), record.payload)
+            self.assertEqual(8, reader.missed_count)
+        writer.close()
+
+    def testRecordOverwrittenWhileBeingReadIsSkipped(self):
+        writer = _Writer(self.path, 256)
+        with ring_buffer.RingBufferReader(self.path, from_beginning=True, attach_timeout=0) as reader:
+            for seed in range(4):
+                writer.write(_payload(48, seed))
+            self.assertEqual(0, reader.poll().sequence)
+
+            writer.write(_payload(48, 4))
+            # claimed but not published yet: record 5 is overwriting the published record 1, which the reader must not
+            # return. It skips to record 4, the last complete one.
+            writer.claim(_payload(48, 5))
+            record = reader.poll()
+            self.assertEqual(4, record.sequence)
+            self.assertEqual(_payload(48, 4), record.payload)
+            self.assertEqual(3, reader.missed_count)
+            self.assertIsNone(reader.poll())
+        writer.close()
+
+    def testReaderAttachingLateStartsAtEnd(self):
+        writer = _Writer(self.path, 256)
+        writer.write(_payload(48, 0))
+        with ring_buffer.RingBufferReader(self.path, attach_timeout=0) as reader:
+            self.assertIsNone(reader.poll())
+            writer.write(_payload(48, 1))
+            self.assertEqual(1, reader.poll().sequence)
+        writer.close()